@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.google.protobuf.DescriptorProtos;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+
+  @Param({"fast", "deflate", "dictionary"})
+  String codec;
+
+  @Param({"true", "false"})
+  boolean direct;
+
+  Compression compression;
+  ByteBuf payload;
+  ByteBuf compressed;
+
+  @Setup
+  public void setup() {
+    /*serialized descriptor.proto is representative protobuf payload*/
+    byte[] bytes = DescriptorProtos.getDescriptor().toProto().toByteArray();
+    switch (codec) {
+      case "fast":
+        compression = Compression.fast();
+        break;
+      case "deflate":
+        compression = Compression.deflate();
+        break;
+      case "dictionary":
+        /*small payload: single message type of descriptor.proto, others are samples*/
+        List<DescriptorProtos.DescriptorProto> messageTypes =
+            DescriptorProtos.getDescriptor().toProto().getMessageTypeList();
+        Rpc.ServiceDescriptor.Call call =
+            Rpc.ServiceDescriptor.Call.of(
+                "Service",
+                "call",
+                DescriptorProtos.DescriptorProto::newBuilder,
+                DescriptorProtos.DescriptorProto::parseFrom);
+        Compression.Dictionary.Trainer trainer =
+            Compression.Dictionary.newTrainer(
+                new Rpc.ServiceDescriptor(Collections.singletonList(call)));
+        for (int i = 1; i < messageTypes.size(); i++) {
+          trainer.sample(
+              "/Service/call", Unpooled.wrappedBuffer(messageTypes.get(i).toByteArray()));
+        }
+        compression = Compression.fast(64, trainer.train());
+        bytes = messageTypes.get(0).toByteArray();
+        break;
+      default:
+        throw new IllegalArgumentException(codec);
+    }
+    payload = buffer(bytes.length);
+    payload.writeBytes(bytes);
+    compressed = buffer(bytes.length);
+    if (!compression.compress(payload, compressed)) {
+      throw new IllegalStateException("payload is not compressible");
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    payload.release();
+    compressed.release();
+  }
+
+  @Benchmark
+  public int compress() {
+    ByteBuf buffer = buffer(payload.readableBytes());
+    compression.compress(payload, buffer);
+    return release(buffer);
+  }
+
+  @Benchmark
+  public int decompress() {
+    ByteBuf buffer = buffer(payload.readableBytes());
+    Compression.decompress(compressed, buffer, compression.dictionary(), Integer.MAX_VALUE);
+    return release(buffer);
+  }
+
+  ByteBuf buffer(int capacity) {
+    return direct
+        ? ByteBufAllocator.DEFAULT.directBuffer(capacity)
+        : ByteBufAllocator.DEFAULT.heapBuffer(capacity);
+  }
+
+  static int release(ByteBuf buffer) {
+    int size = buffer.readableBytes();
+    buffer.release();
+    return size;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.AsciiString;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeadersMetadataBenchmark {
+
+  @Param({"2", "16"})
+  int headersCount;
+
+  @Param({"all", "none", "single", "multiple"})
+  String projection;
+
+  ByteBuf metadata;
+  HeadersMetadata.Projection headersProjection;
+
+  @Setup
+  public void setup() {
+    List<String> nv = Samples.headers(headersCount, 12, 32);
+    metadata = HeadersMetadata.encode(ByteBufAllocator.DEFAULT, nv);
+    headersProjection = projection(projection, nv);
+  }
+
+  @TearDown
+  public void tearDown() {
+    metadata.release();
+  }
+
+  @Benchmark
+  public void decode(Blackhole bh) {
+    ByteBuf m = metadata;
+    m.readerIndex(0);
+    Iterator<String> headers = HeadersMetadata.decode(m, headersProjection);
+    while (headers.hasNext()) {
+      bh.consume(headers.next());
+    }
+  }
+
+  @Benchmark
+  public void decodeAscii(Blackhole bh) {
+    ByteBuf m = metadata;
+    m.readerIndex(0);
+    Iterator<AsciiString> headers = HeadersMetadata.decodeAscii(m, headersProjection);
+    while (headers.hasNext()) {
+      bh.consume(headers.next());
+    }
+  }
+
+  static HeadersMetadata.Projection projection(String projection, List<String> nameValues) {
+    switch (projection) {
+      case "all":
+        return HeadersMetadata.Projection.all();
+      case "none":
+        return HeadersMetadata.Projection.none();
+      case "single":
+        /*last header name*/
+        return HeadersMetadata.Projection.of(
+            Collections.singletonList(nameValues.get(nameValues.size() - 2)));
+      case "multiple":
+        /*first and last header names, plus absent name of same length*/
+        String first = nameValues.get(0);
+        String last = nameValues.get(nameValues.size() - 2);
+        return HeadersMetadata.Projection.of(
+            Arrays.asList(first, last, Samples.ascii('a', 0, first.length())));
+      default:
+        throw new IllegalArgumentException("unknown projection: " + projection);
+    }
+  }
+}
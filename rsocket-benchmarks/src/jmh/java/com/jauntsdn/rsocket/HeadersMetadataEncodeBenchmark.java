@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.AsciiString;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeadersMetadataEncodeBenchmark {
+
+  @Param({"2", "16"})
+  int headersCount;
+
+  List<String> nameValues;
+  HeadersMetadata.Encoder encoder;
+  HeadersMetadata.Decoder decoder;
+
+  @Setup
+  public void setup() {
+    nameValues = Samples.headers(headersCount, 12, 32);
+    encoder = HeadersMetadata.Encoder.create();
+    decoder = HeadersMetadata.Decoder.create();
+  }
+
+  @Benchmark
+  public int encode() {
+    ByteBuf encoded = HeadersMetadata.encode(ByteBufAllocator.DEFAULT, nameValues);
+    int size = encoded.readableBytes();
+    encoded.release();
+    return size;
+  }
+
+  @Benchmark
+  public int encodeDecode() {
+    ByteBuf encoded = HeadersMetadata.encode(ByteBufAllocator.DEFAULT, nameValues);
+    try {
+      int size = encoded.readableBytes();
+      Iterator<AsciiString> decoded = HeadersMetadata.decodeAscii(encoded);
+      while (decoded.hasNext()) {
+        size += decoded.next().length();
+      }
+      return size;
+    } finally {
+      /*iterator releases metadata only if iterated past last header, or on error*/
+      if (encoded.refCnt() > 0) {
+        encoded.release();
+      }
+    }
+  }
+
+  /*repeated headers are encoded as dynamic table indexes*/
+  @Benchmark
+  public int encodeDecodeCompressed() {
+    ByteBuf encoded = encoder.encode(ByteBufAllocator.DEFAULT, nameValues);
+    int size = encoded.readableBytes();
+    List<AsciiString> decoded = decoder.decode(encoded);
+    encoded.release();
+    for (int i = 0; i < decoded.size(); i++) {
+      size += decoded.get(i).length();
+    }
+    return size;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.google.protobuf.DescriptorProtos;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonTranscoderBenchmark {
+
+  JsonTranscoder.Call call;
+  ByteBuf protobuf;
+  ByteBuf json;
+
+  @Setup
+  public void setup() {
+    Rpc.ServiceDescriptor serviceDescriptor =
+        new Rpc.ServiceDescriptor(
+            Collections.singletonList(
+                Rpc.ServiceDescriptor.Call.of(
+                    "benchmark.Service",
+                    "call",
+                    DescriptorProtos.FileDescriptorProto::newBuilder,
+                    DescriptorProtos.FileDescriptorProto::parseFrom)));
+    call = JsonTranscoder.create(serviceDescriptor).call("/benchmark.Service/call");
+    /*descriptor.proto definition: nested messages, enums, strings, repeated fields*/
+    DescriptorProtos.FileDescriptorProto message =
+        DescriptorProtos.getDescriptor().getFile().toProto();
+    protobuf = Unpooled.wrappedBuffer(message.toByteArray());
+    json = Unpooled.buffer();
+    call.responseToJson(protobuf, json);
+  }
+
+  @Benchmark
+  public int toJson() {
+    ByteBuf out = ByteBufAllocator.DEFAULT.buffer(json.readableBytes());
+    call.responseToJson(protobuf, out);
+    return release(out);
+  }
+
+  @Benchmark
+  public int fromJson() {
+    ByteBuf out = ByteBufAllocator.DEFAULT.buffer(protobuf.readableBytes());
+    call.responseFromJson(json, out);
+    return release(out);
+  }
+
+  /*first step of transcoding to JSON through message*/
+  @Benchmark
+  public Object parse() {
+    return Rpc.ProtoMessage.decode(protobuf, DescriptorProtos.FileDescriptorProto.parser());
+  }
+
+  static int release(ByteBuf buffer) {
+    int size = buffer.readableBytes();
+    buffer.release();
+    return size;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LatencyStatsRecorderBenchmark {
+  LatencyStatsRecorder recorder;
+  ByteBuf metadata;
+
+  @Setup
+  public void setup() {
+    LatencyStatsRecorder.Builder builder = LatencyStatsRecorder.newBuilder();
+    for (int i = 0; i < 20; i++) {
+      builder.method("com.jauntsdn.rsocket.Service", "method" + i);
+    }
+    recorder = builder.build();
+    metadata = Samples.rpcMetadata("com.jauntsdn.rsocket.Service", "method7", 0, 0);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public String record() {
+    LatencyStatsRecorder r = recorder;
+    String request = r.onRequestStarted(Interaction.Type.REQUEST_RESPONSE, metadata);
+    long latencyMicros = ThreadLocalRandom.current().nextInt(1, 1 << 20);
+    r.onResponseStarted(
+        Interaction.Type.REQUEST_RESPONSE,
+        request,
+        Interaction.StreamSignal.Next.INSTANCE,
+        latencyMicros);
+    return request;
+  }
+}
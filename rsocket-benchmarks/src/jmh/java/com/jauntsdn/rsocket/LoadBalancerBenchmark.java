@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBalancerBenchmark {
+  LoadBalancer<Availability> loadBalancer;
+  ByteBuf metadata;
+
+  @Setup
+  public void setup() {
+    LoadBalancer.Builder builder = LoadBalancer.newBuilder();
+    for (int i = 0; i < 20; i++) {
+      builder.method("com.jauntsdn.rsocket.Service", "method" + i);
+    }
+    LoadBalancer<Availability> lb = builder.build();
+    for (int i = 0; i < 16; i++) {
+      double availability = 0.5 + i / 32.0;
+      lb.add(
+          new Availability() {
+            @Override
+            public double availability() {
+              return availability;
+            }
+
+            @Override
+            public double availability(int rank) {
+              return availability;
+            }
+          });
+    }
+    loadBalancer = lb;
+    metadata = Samples.rpcMetadata("com.jauntsdn.rsocket.Service", "method7", 0, 0);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public LoadBalancer.Member<Availability> selectRequestResponse() {
+    LoadBalancer<Availability> lb = loadBalancer;
+    LoadBalancer.Member<Availability> member = lb.select(lb.method(metadata));
+    long start = member.start();
+    member.record(start);
+    member.stop();
+    return member;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageMetadataBenchmark {
+
+  @Param({"0", "64"})
+  int metadataSize;
+
+  Consumer<ByteBuf> metadataWriter;
+  MessageMetadata.Template template;
+
+  @Setup
+  public void setup() {
+    int size = metadataSize;
+    metadataWriter = size == 0 ? null : metadata -> metadata.writeZero(size);
+    template = metadata(MessageMetadata.defaultAllocator()).template();
+  }
+
+  @Benchmark
+  public int build() {
+    return release(metadata(MessageMetadata.defaultAllocator()).build());
+  }
+
+  @Benchmark
+  public int buildDefaultService() {
+    return release(metadata(MessageMetadata.defaultAllocator()).defaultService(true).build());
+  }
+
+  @Benchmark
+  public int buildHeap() {
+    return release(metadata(MessageMetadata.heapAllocator()).build());
+  }
+
+  @Benchmark
+  public int buildTemplate() {
+    return release(template.build());
+  }
+
+  MessageMetadata metadata(MessageMetadata messageMetadata) {
+    int size = metadataSize;
+    if (size > 0) {
+      messageMetadata.metadataSize(size).metadata(metadataWriter);
+    }
+    return messageMetadata;
+  }
+
+  static int release(ByteBuf metadata) {
+    int size = metadata.readableBytes();
+    metadata.release();
+    return size;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtoMessageBenchmark {
+
+  @Param({"64", "8192"})
+  int messageSize;
+
+  @Param({"true", "false"})
+  boolean direct;
+
+  BytesValue message;
+  ByteBuf encoded;
+  Rpc.ProtoMessage.Projection projection = Rpc.ProtoMessage.Projection.of(1);
+
+  @Setup
+  public void setup() {
+    message = BytesValue.of(ByteString.copyFrom(new byte[messageSize]));
+    encoded = buffer(message.getSerializedSize());
+    Rpc.ProtoMessage.encode(message, encoded);
+  }
+
+  @TearDown
+  public void tearDown() {
+    encoded.release();
+  }
+
+  @Benchmark
+  public int encode() {
+    ByteBuf buffer = buffer(message.getSerializedSize());
+    Rpc.ProtoMessage.encode(message, buffer);
+    return release(buffer);
+  }
+
+  /*serialization into intermediate byte array*/
+  @Benchmark
+  public int encodeCopy() {
+    ByteBuf buffer = buffer(message.getSerializedSize());
+    buffer.writeBytes(message.toByteArray());
+    return release(buffer);
+  }
+
+  @Benchmark
+  public int decode() {
+    return Rpc.ProtoMessage.decode(encoded, BytesValue.parser()).getValue().size();
+  }
+
+  @Benchmark
+  public int decodeAliased() {
+    Rpc.ProtoMessage.Aliased<BytesValue> aliased =
+        Rpc.ProtoMessage.decodeAliased(encoded.retainedDuplicate(), BytesValue.parser());
+    int size = aliased.message().getValue().size();
+    aliased.release();
+    return size;
+  }
+
+  @Benchmark
+  public int project() {
+    return projection.decode(encoded).bytes(1).readableBytes();
+  }
+
+  ByteBuf buffer(int size) {
+    return direct
+        ? ByteBufAllocator.DEFAULT.directBuffer(size)
+        : ByteBufAllocator.DEFAULT.heapBuffer(size);
+  }
+
+  static int release(ByteBuf buffer) {
+    int size = buffer.readableBytes();
+    buffer.release();
+    return size;
+  }
+}
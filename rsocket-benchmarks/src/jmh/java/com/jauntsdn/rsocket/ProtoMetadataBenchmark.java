@@ -0,0 +1,129 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtoMetadataBenchmark {
+
+  @Param({"2", "8", "16"})
+  int headersCount;
+
+  /*values of 128 and more bytes have 2 bytes length varint*/
+  @Param({"16", "200"})
+  int valueLength;
+
+  String[] nameValues;
+  Headers headers;
+  ByteBuf encodedHeaders;
+  String lookupName;
+
+  @Setup
+  public void setup() {
+    List<String> nv = Samples.headers(headersCount, 16, valueLength);
+    nameValues = nv.toArray(new String[0]);
+    headers = Headers.create(nameValues);
+    encodedHeaders = Rpc.ProtoMetadata.encodeHeaders(Headers.create(nameValues));
+    lookupName = nv.get(nv.size() / 2 & ~1);
+  }
+
+  @TearDown
+  public void tearDown() {
+    encodedHeaders.release();
+  }
+
+  @Benchmark
+  public int encodeHeaders() {
+    ByteBuf encoded = Rpc.ProtoMetadata.encodeHeaders(Headers.create(nameValues));
+    int size = encoded.readableBytes();
+    encoded.release();
+    return size;
+  }
+
+  @Benchmark
+  public int encodeHeadersIntoBuffer() {
+    Headers h = Headers.create(nameValues);
+    ByteBuf encoded = ByteBufAllocator.DEFAULT.directBuffer(h.serializedSize());
+    Rpc.ProtoMetadata.encodeHeaders(h, encoded);
+    int size = encoded.readableBytes();
+    encoded.release();
+    return size;
+  }
+
+  @Benchmark
+  public int encodeHeadersCopy() {
+    Headers h = Headers.create(nameValues);
+    ByteBuf encoded = ByteBufAllocator.DEFAULT.directBuffer(h.serializedSize());
+    encoded.writeBytes(Rpc.ProtoMetadata.encodeHeaders(h));
+    int size = encoded.readableBytes();
+    encoded.release();
+    return size;
+  }
+
+  @Benchmark
+  public ByteBuf encodeCachedHeaders() {
+    return Rpc.ProtoMetadata.encodeHeaders(headers);
+  }
+
+  @Benchmark
+  public Headers decodeHeaders() {
+    ByteBuf encoded = encodedHeaders;
+    encoded.readerIndex(0);
+    return Rpc.ProtoMetadata.decodeHeaders(encoded);
+  }
+
+  @Benchmark
+  public String decodeHeadersLookup() {
+    ByteBuf encoded = encodedHeaders;
+    encoded.readerIndex(0);
+    return Rpc.ProtoMetadata.decodeHeaders(encoded).header(lookupName);
+  }
+
+  @Benchmark
+  public String decodeHeadersLazyLookup() {
+    ByteBuf encoded = encodedHeaders;
+    encoded.readerIndex(0);
+    return Rpc.ProtoMetadata.decodeHeadersLazy(encoded).header(lookupName);
+  }
+
+  /*repeated lookups of same headers instance, as by middleware chain*/
+  @Benchmark
+  public String headersLookup() {
+    return headers.header(lookupName);
+  }
+}
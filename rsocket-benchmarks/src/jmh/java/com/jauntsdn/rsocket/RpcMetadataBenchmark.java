@@ -0,0 +1,163 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RpcMetadataBenchmark {
+  static final String SERVICE = "com.jauntsdn.rsocket.benchmark.Service";
+
+  @Param({"true", "false"})
+  boolean defaultService;
+
+  @Param({"0", "16"})
+  int traceLength;
+
+  @Param({"4", "64"})
+  int methodsCount;
+
+  ByteBuf metadata;
+  List<String> serviceMethods;
+  Rpc.RpcMetadata.ServiceMethodIndex serviceMethodIndex;
+  Map<String, String> services;
+  Rpc.RpcMetadata.ServiceIndex<String> servicesIndex;
+  ByteBuf callIdMetadata;
+  Rpc.RpcMetadata.ServiceMethodIndex callIdServiceMethodIndex;
+
+  @Setup
+  public void setup() {
+    String service = defaultService ? "" : SERVICE;
+    /*worst case for service methods scan*/
+    String method = Samples.method(methodsCount - 1);
+    metadata = Samples.rpcMetadata(service, method, traceLength, 32);
+    serviceMethods = Samples.serviceMethods(service, methodsCount);
+    List<String> methods = new ArrayList<>(methodsCount);
+    for (int i = 0; i < methodsCount; i++) {
+      methods.add(Samples.method(i));
+    }
+    serviceMethodIndex =
+        Rpc.RpcMetadata.ServiceMethodIndex.create(
+            Collections.nCopies(methodsCount, service), methods);
+    Map<String, String> svcs = services = new HashMap<>();
+    for (int i = 0; i < 8; i++) {
+      String svc = SERVICE + i;
+      svcs.put(svc, svc);
+    }
+    svcs.put(SERVICE, SERVICE);
+    servicesIndex = Rpc.RpcMetadata.ServiceIndex.create(svcs);
+
+    Rpc.CallIds.Builder callIds = Rpc.CallIds.newBuilder();
+    for (int i = 0; i < methodsCount; i++) {
+      callIds.add(service, Samples.method(i));
+    }
+    callIdServiceMethodIndex = serviceMethodIndex.withCallIds(callIds.build());
+    callIdMetadata =
+        Rpc.RpcMetadata.encodeCallId(
+            ByteBufAllocator.DEFAULT.buffer(), methodsCount - 1, false, false, traceLength);
+    callIdMetadata.writeZero(traceLength + 32);
+  }
+
+  @TearDown
+  public void tearDown() {
+    metadata.release();
+    callIdMetadata.release();
+  }
+
+  @Benchmark
+  public String service() {
+    ByteBuf m = metadata;
+    long header = Rpc.RpcMetadata.header(m);
+    int flags = Rpc.RpcMetadata.flags(header);
+    return Rpc.RpcMetadata.service(m, header, flags);
+  }
+
+  @Benchmark
+  public String serviceLookup() {
+    ByteBuf m = metadata;
+    long header = Rpc.RpcMetadata.header(m);
+    int flags = Rpc.RpcMetadata.flags(header);
+    return services.get(Rpc.RpcMetadata.service(m, header, flags));
+  }
+
+  @Benchmark
+  public String serviceIndexLookup() {
+    ByteBuf m = metadata;
+    long header = Rpc.RpcMetadata.header(m);
+    int flags = Rpc.RpcMetadata.flags(header);
+    if (Rpc.RpcMetadata.isDefaultService(header, flags)) {
+      return SERVICE;
+    }
+    return servicesIndex.find(m, header, flags);
+  }
+
+  @Benchmark
+  public String method() {
+    ByteBuf m = metadata;
+    long header = Rpc.RpcMetadata.header(m);
+    int flags = Rpc.RpcMetadata.flags(header);
+    return Rpc.RpcMetadata.method(m, header, flags);
+  }
+
+  @Benchmark
+  public String serviceMethod() {
+    ByteBuf m = metadata;
+    long header = Rpc.RpcMetadata.header(m);
+    int flags = Rpc.RpcMetadata.flags(header);
+    return Rpc.RpcMetadata.serviceMethod(flags, header, m, serviceMethods);
+  }
+
+  @Benchmark
+  public String serviceMethodIndex() {
+    ByteBuf m = metadata;
+    long header = Rpc.RpcMetadata.header(m);
+    int flags = Rpc.RpcMetadata.flags(header);
+    return Rpc.RpcMetadata.serviceMethod(flags, header, m, serviceMethodIndex);
+  }
+
+  @Benchmark
+  public String callIdServiceMethodIndex() {
+    ByteBuf m = callIdMetadata;
+    long header = Rpc.RpcMetadata.header(m);
+    int flags = Rpc.RpcMetadata.flags(header);
+    return Rpc.RpcMetadata.serviceMethod(flags, header, m, callIdServiceMethodIndex);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Benchmark inputs: encoded metadata samples. */
+final class Samples {
+
+  private Samples() {}
+
+  /**
+   * @return RPC metadata in compact encoding: header, optional service, method, optional trace and
+   *     remaining (headers) metadata
+   */
+  static ByteBuf rpcMetadata(String service, String method, int traceLength, int metadataLength) {
+    boolean defaultService = service.isEmpty();
+    boolean hasTrace = traceLength > 0;
+    int flags = Rpc.RpcMetadata.FLAG_COMPACT;
+    if (defaultService) {
+      flags |= Rpc.RpcMetadata.FLAG_DEFAULT_SERVICE;
+    }
+    if (hasTrace) {
+      flags |= Rpc.RpcMetadata.FLAG_TRACE;
+    }
+    ByteBuf metadata = Unpooled.buffer();
+    metadata.writeByte(Rpc.RpcMetadata.VERSION);
+    metadata.writeByte(flags);
+    if (!defaultService) {
+      metadata.writeByte(service.length());
+    }
+    metadata.writeByte(method.length());
+    if (hasTrace) {
+      metadata.writeShort(traceLength);
+    }
+    metadata.writeCharSequence(service, StandardCharsets.US_ASCII);
+    metadata.writeCharSequence(method, StandardCharsets.US_ASCII);
+    metadata.writeZero(traceLength);
+    metadata.writeZero(metadataLength);
+    /*header is read as long*/
+    if (metadata.readableBytes() < Long.BYTES) {
+      metadata.writeZero(Long.BYTES - metadata.readableBytes());
+    }
+    return metadata;
+  }
+
+  /** @return service methods of given count in "service" + "method" form */
+  static List<String> serviceMethods(String service, int count) {
+    List<String> serviceMethods = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      serviceMethods.add(service + method(i));
+    }
+    return serviceMethods;
+  }
+
+  static String method(int index) {
+    return "serviceMethod" + index;
+  }
+
+  /** @return header name-values of given count */
+  static List<String> headers(int count, int nameLength, int valueLength) {
+    List<String> headers = new ArrayList<>(count * 2);
+    for (int i = 0; i < count; i++) {
+      headers.add(ascii('n', i, nameLength));
+      headers.add(ascii('v', i, valueLength));
+    }
+    return headers;
+  }
+
+  /** @return ascii string of given length: padding followed by index */
+  static String ascii(char padding, int index, int length) {
+    String suffix = String.valueOf(index);
+    StringBuilder sb = new StringBuilder(length);
+    for (int i = suffix.length(); i < length; i++) {
+      sb.append(padding);
+    }
+    return sb.append(suffix).toString();
+  }
+}
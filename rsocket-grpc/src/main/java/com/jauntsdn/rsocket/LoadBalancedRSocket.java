@@ -0,0 +1,305 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.RejectedException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * RSocket over pool of RSockets: each request is sent with member selected by {@link LoadBalancer}.
+ * Members are managed with {@link #loadBalancer()}.
+ */
+public final class LoadBalancedRSocket implements RSocket {
+  static final String NO_AVAILABLE_RSOCKET = "load balancer has no available RSocket";
+
+  private final LoadBalancer<RSocket> loadBalancer;
+
+  public LoadBalancedRSocket(LoadBalancer<RSocket> loadBalancer) {
+    this.loadBalancer = Objects.requireNonNull(loadBalancer, "loadBalancer");
+  }
+
+  public LoadBalancer<RSocket> loadBalancer() {
+    return loadBalancer;
+  }
+
+  @Override
+  public void fireAndForget(Message message, StreamObserver<Message> responseObserver) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      responseObserver.onError(t);
+      return;
+    }
+    if (member == null) {
+      message.release();
+      responseObserver.onError(new RejectedException(NO_AVAILABLE_RSOCKET));
+      return;
+    }
+    member.target().fireAndForget(message, responseObserver);
+  }
+
+  @Override
+  public void requestResponse(Message message, StreamObserver<Message> responseObserver) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      responseObserver.onError(t);
+      return;
+    }
+    if (member == null) {
+      message.release();
+      responseObserver.onError(new RejectedException(NO_AVAILABLE_RSOCKET));
+      return;
+    }
+    member.target().requestResponse(message, new MemberObserver(responseObserver, member, true));
+  }
+
+  @Override
+  public void requestStream(Message message, StreamObserver<Message> responseObserver) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      responseObserver.onError(t);
+      return;
+    }
+    if (member == null) {
+      message.release();
+      responseObserver.onError(new RejectedException(NO_AVAILABLE_RSOCKET));
+      return;
+    }
+    member.target().requestStream(message, new MemberObserver(responseObserver, member, false));
+  }
+
+  @Override
+  public StreamObserver<Message> requestChannel(StreamObserver<Message> responseObserver) {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    if (member == null) {
+      responseObserver.onError(new RejectedException(NO_AVAILABLE_RSOCKET));
+      return MessageStreams.noopClientObserver();
+    }
+    return member.target().requestChannel(new MemberObserver(responseObserver, member, false));
+  }
+
+  @Override
+  public void metadataPush(Message message, StreamObserver<Message> responseObserver) {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    if (member == null) {
+      message.release();
+      responseObserver.onError(new RejectedException(NO_AVAILABLE_RSOCKET));
+      return;
+    }
+    member.target().metadataPush(message, responseObserver);
+  }
+
+  @Override
+  public Optional<Message.Factory> messageFactory() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.messageFactory();
+  }
+
+  @Override
+  public Optional<ScheduledExecutorService> scheduler() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.scheduler();
+  }
+
+  @Override
+  public Optional<ScheduledExecutorService> coarseScheduler() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.coarseScheduler();
+  }
+
+  @Override
+  public Optional<ByteBufAllocator> allocator() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.allocator();
+  }
+
+  @Override
+  public double availability(int rank) {
+    return loadBalancer.availability(rank);
+  }
+
+  @Override
+  public void dispose() {
+    for (RSocket rSocket : loadBalancer.close()) {
+      rSocket.dispose();
+    }
+  }
+
+  @Override
+  public void dispose(String reason, boolean isGraceful) {
+    for (RSocket rSocket : loadBalancer.close()) {
+      rSocket.dispose(reason, isGraceful);
+    }
+  }
+
+  @Override
+  public boolean isDisposed() {
+    return loadBalancer.isClosed();
+  }
+
+  @Override
+  public CompletionStage<Void> onClose() {
+    return loadBalancer.onClose();
+  }
+
+  @Nullable
+  private LoadBalancer.Member<RSocket> select(Message message) {
+    LoadBalancer<RSocket> lb = loadBalancer;
+    return lb.select(lb.method(message.hasMetadata() ? message.metadata() : null));
+  }
+
+  @Nullable
+  private RSocket any() {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    return member == null ? null : member.target();
+  }
+
+  /*stops member request once response is terminated or cancelled by caller*/
+  static final class MemberObserver extends AtomicBoolean
+      implements ClientResponseObserver<Message, Message> {
+    final StreamObserver<Message> observer;
+    final LoadBalancer.Member<RSocket> member;
+    final boolean isRequestResponse;
+    final long start;
+
+    MemberObserver(
+        StreamObserver<Message> observer,
+        LoadBalancer.Member<RSocket> member,
+        boolean isRequestResponse) {
+      this.observer = observer;
+      this.member = member;
+      this.isRequestResponse = isRequestResponse;
+      this.start = member.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void beforeStart(ClientCallStreamObserver<Message> requestStream) {
+      StreamObserver<Message> o = observer;
+      if (o instanceof ClientResponseObserver) {
+        ((ClientResponseObserver<Message, Message>) o)
+            .beforeStart(new StoppingCallObserver(this, requestStream));
+      }
+    }
+
+    @Override
+    public void onNext(Message value) {
+      if (isRequestResponse) {
+        member.record(start);
+      }
+      observer.onNext(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      /*errors of requests cancelled by caller are not failures of member*/
+      if (compareAndSet(false, true)) {
+        if (isRequestResponse) {
+          member.recordFailure(start);
+        }
+        member.stop();
+      }
+      observer.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      stop();
+      observer.onCompleted();
+    }
+
+    void stop() {
+      if (compareAndSet(false, true)) {
+        member.stop();
+      }
+    }
+  }
+
+  static final class StoppingCallObserver extends ClientCallStreamObserver<Message> {
+    final MemberObserver observer;
+    final ClientCallStreamObserver<Message> requestStream;
+
+    StoppingCallObserver(MemberObserver observer, ClientCallStreamObserver<Message> requestStream) {
+      this.observer = observer;
+      this.requestStream = requestStream;
+    }
+
+    @Override
+    public void cancel(@Nullable String message, @Nullable Throwable cause) {
+      observer.stop();
+      requestStream.cancel(message, cause);
+    }
+
+    @Override
+    public boolean isReady() {
+      return requestStream.isReady();
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {
+      requestStream.setOnReadyHandler(onReadyHandler);
+    }
+
+    @Override
+    public void request(int count) {
+      requestStream.request(count);
+    }
+
+    @Override
+    public void setMessageCompression(boolean enable) {
+      requestStream.setMessageCompression(enable);
+    }
+
+    @Override
+    public void disableAutoInboundFlowControl() {
+      requestStream.disableAutoInboundFlowControl();
+    }
+
+    @Override
+    public void onNext(Message value) {
+      requestStream.onNext(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      requestStream.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      requestStream.onCompleted();
+    }
+  }
+}
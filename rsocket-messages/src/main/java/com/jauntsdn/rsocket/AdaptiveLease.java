@@ -0,0 +1,314 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request lease configurer with adaptive concurrency limit: each lease interval, limit of
+ * concurrent requests is updated with gradient of long-term to recent response latency - limit
+ * shrinks as latency grows due to queueing, and grows by square root of limit otherwise. Lease
+ * allows as many requests as limit admits over lease time to live (Little's law), and time to live
+ * covers interval and round-trip time.
+ *
+ * <p>Lease is published each {@link Lease.Controller#rttIntervalMillis()}, or configured interval
+ * if controller has none. Configurer is stateless, and may be shared by connections: each one has
+ * own limit.
+ */
+public final class AdaptiveLease implements Lease.Configurer {
+  public static final int DEFAULT_INITIAL_LIMIT = 20;
+  public static final int DEFAULT_MIN_LIMIT = 4;
+  public static final int DEFAULT_MAX_LIMIT = 1000;
+  public static final double DEFAULT_TOLERANCE = 1.5;
+  public static final double DEFAULT_SMOOTHING = 0.2;
+  public static final int DEFAULT_INTERVAL_MILLIS = 1000;
+
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+  private final double smoothing;
+  private final int intervalMillis;
+
+  private AdaptiveLease(
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      double tolerance,
+      double smoothing,
+      int intervalMillis) {
+    this.initialLimit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.tolerance = tolerance;
+    this.smoothing = smoothing;
+    this.intervalMillis = intervalMillis;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  @Override
+  public Optional<Lease.StatsRecorder<?>> configure(Lease.Controller leaseController) {
+    Objects.requireNonNull(leaseController, "leaseController");
+    int rttInterval = leaseController.rttIntervalMillis();
+    int interval = rttInterval > 0 ? rttInterval : intervalMillis;
+    Limit limit = new Limit(initialLimit, minLimit, maxLimit, tolerance, smoothing);
+    return Optional.of(new Limiter(leaseController, limit, interval));
+  }
+
+  /** Gradient concurrency limit, updated from lease controller executor */
+  static final class Limit {
+    /*long-term latency follows recent latency over ~20 intervals*/
+    static final double LONG_LATENCY_SMOOTHING = 0.05;
+
+    final int minLimit;
+    final int maxLimit;
+    final double tolerance;
+    final double smoothing;
+    double limit;
+    double longLatencyMicros;
+
+    Limit(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+      this.limit = initialLimit;
+      this.minLimit = minLimit;
+      this.maxLimit = maxLimit;
+      this.tolerance = tolerance;
+      this.smoothing = smoothing;
+    }
+
+    /**
+     * @param latencyMicros average response latency of interval
+     * @param maxInflight max concurrent requests of interval
+     * @return updated concurrency limit
+     */
+    double update(double latencyMicros, int maxInflight) {
+      double longLatency = longLatencyMicros;
+      if (longLatency == 0) {
+        longLatency = latencyMicros;
+      } else {
+        longLatency =
+            longLatency * (1 - LONG_LATENCY_SMOOTHING) + latencyMicros * LONG_LATENCY_SMOOTHING;
+        /*recover quickly once queue is drained*/
+        if (longLatency > 2 * latencyMicros) {
+          longLatency *= 0.9;
+        }
+      }
+      longLatencyMicros = longLatency;
+
+      double current = limit;
+      /*limit is not used in full: latency says nothing about capacity*/
+      if (maxInflight < current / 2) {
+        return current;
+      }
+      double gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatency / latencyMicros));
+      double next = current * gradient + Math.sqrt(current);
+      next = current * (1 - smoothing) + next * smoothing;
+      next = Math.max(minLimit, Math.min(maxLimit, next));
+      limit = next;
+      return next;
+    }
+
+    /**
+     * @param ttlMillis lease time to live
+     * @param latencyMicros expected response latency, or 0 if unknown
+     * @return requests limit admits during lease time to live
+     */
+    int allowedRequests(int ttlMillis, double latencyMicros) {
+      double l = limit;
+      if (latencyMicros <= 0) {
+        return (int) l;
+      }
+      double allowed = l * TimeUnit.MILLISECONDS.toMicros(ttlMillis) / latencyMicros;
+      return (int) Math.max(minLimit, Math.min(Integer.MAX_VALUE, allowed));
+    }
+  }
+
+  /*connection's stats recorder that publishes leases*/
+  static final class Limiter implements Lease.StatsRecorder<Interaction.Type>, Runnable {
+    final Lease.Controller controller;
+    final Limit limit;
+    final int intervalMillis;
+    final AtomicInteger inflight = new AtomicInteger();
+    final AtomicInteger maxInflight = new AtomicInteger();
+    final AtomicLong latencySum = new AtomicLong();
+    final AtomicLong latencyCount = new AtomicLong();
+    volatile long rttMicros;
+    volatile ScheduledFuture<?> leases;
+
+    Limiter(Lease.Controller controller, Limit limit, int intervalMillis) {
+      this.controller = controller;
+      this.limit = limit;
+      this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public Interaction.Type onRequestStarted(Interaction.Type requestType, ByteBuf metadata) {
+      int current = inflight.incrementAndGet();
+      AtomicInteger max = maxInflight;
+      int m;
+      while ((m = max.get()) < current) {
+        if (max.compareAndSet(m, current)) {
+          break;
+        }
+      }
+      return requestType;
+    }
+
+    @Override
+    public void onResponseStarted(
+        Interaction.Type requestType,
+        Interaction.Type request,
+        Interaction.StreamSignal firstSignal,
+        long latencyMicros) {
+      /*rejected due to missing lease*/
+      if (latencyMicros == 0 || firstSignal.type() == Interaction.StreamSignal.Type.CANCEL) {
+        return;
+      }
+      latencySum.addAndGet(latencyMicros);
+      latencyCount.incrementAndGet();
+    }
+
+    @Override
+    public void onResponseTerminated(
+        Interaction.Type requestType,
+        Interaction.Type request,
+        Interaction.StreamSignal lastSignal,
+        long responseDurationMicros) {
+      inflight.decrementAndGet();
+    }
+
+    @Override
+    public void onRtt(long rttMicros) {
+      this.rttMicros = rttMicros;
+    }
+
+    @Override
+    public void onError(Interaction.Type requestType, Throwable err) {}
+
+    @Override
+    public void onOpen() {
+      int interval = intervalMillis;
+      leases = controller.executor().scheduleAtFixedRate(this, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onClose(long graceTimeoutMillis) {
+      ScheduledFuture<?> l = leases;
+      if (l != null) {
+        l.cancel(false);
+      }
+    }
+
+    /*publishes lease*/
+    @Override
+    public void run() {
+      long count = latencyCount.getAndSet(0);
+      long sum = latencySum.getAndSet(0);
+      int peak = maxInflight.getAndSet(inflight.get());
+      Limit l = limit;
+      double latency;
+      if (count > 0) {
+        latency = Math.max(1, (double) sum / count);
+        l.update(latency, peak);
+      } else {
+        latency = l.longLatencyMicros;
+      }
+      int rttMillis = (int) TimeUnit.MICROSECONDS.toMillis(rttMicros);
+      int ttlMillis = intervalMillis + 2 * rttMillis;
+      controller.allow(ttlMillis, l.allowedRequests(ttlMillis, latency));
+    }
+  }
+
+  public static final class Builder {
+    private int initialLimit = DEFAULT_INITIAL_LIMIT;
+    private int minLimit = DEFAULT_MIN_LIMIT;
+    private int maxLimit = DEFAULT_MAX_LIMIT;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private double smoothing = DEFAULT_SMOOTHING;
+    private int intervalMillis = DEFAULT_INTERVAL_MILLIS;
+
+    private Builder() {}
+
+    /** @param initialLimit concurrency limit of first lease */
+    public Builder initialLimit(int initialLimit) {
+      this.initialLimit = requirePositive(initialLimit, "initialLimit");
+      return this;
+    }
+
+    /**
+     * @param minLimit lower bound of concurrency limit
+     * @param maxLimit upper bound of concurrency limit
+     */
+    public Builder limits(int minLimit, int maxLimit) {
+      requirePositive(minLimit, "minLimit");
+      requirePositive(maxLimit, "maxLimit");
+      if (minLimit > maxLimit) {
+        throw new IllegalArgumentException(
+            "minLimit must not exceed maxLimit, provided: " + minLimit + ", " + maxLimit);
+      }
+      this.minLimit = minLimit;
+      this.maxLimit = maxLimit;
+      return this;
+    }
+
+    /**
+     * @param tolerance ratio of recent to long-term latency limit is not decreased at, at least 1
+     */
+    public Builder tolerance(double tolerance) {
+      if (!(tolerance >= 1)) {
+        throw new IllegalArgumentException("tolerance must be at least 1, provided: " + tolerance);
+      }
+      this.tolerance = tolerance;
+      return this;
+    }
+
+    /** @param smoothing weight of limit update, in (0, 1] */
+    public Builder smoothing(double smoothing) {
+      if (!(smoothing > 0 && smoothing <= 1)) {
+        throw new IllegalArgumentException("smoothing must be in (0, 1], provided: " + smoothing);
+      }
+      this.smoothing = smoothing;
+      return this;
+    }
+
+    /** @param intervalMillis lease interval if controller has no rtt interval */
+    public Builder intervalMillis(int intervalMillis) {
+      this.intervalMillis = requirePositive(intervalMillis, "intervalMillis");
+      return this;
+    }
+
+    public AdaptiveLease build() {
+      int initial = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+      return new AdaptiveLease(initial, minLimit, maxLimit, tolerance, smoothing, intervalMillis);
+    }
+
+    static int requirePositive(int value, String name) {
+      if (value <= 0) {
+        throw new IllegalArgumentException(name + " must be positive, provided: " + value);
+      }
+      return value;
+    }
+  }
+}
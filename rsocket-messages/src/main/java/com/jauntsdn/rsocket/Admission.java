@@ -0,0 +1,380 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import javax.annotation.Nullable;
+
+/**
+ * Responder admission of RPC calls by rank ({@link Interaction#rank()}, 0 - 3): calls of rank are
+ * started while number of concurrent calls is below rank's share of concurrency limit - half of
+ * limit for rank 0, 3/4 for rank 1, 9/10 for rank 2, and whole limit for rank 3. Calls of ranks 1 -
+ * 3 over their share are queued, and are started highest rank first once running calls complete.
+ * Calls of rank 0 are rejected immediately, so background traffic is shed first and rank 3 calls
+ * keep their latency.
+ *
+ * <p>Rank of call is looked up by its service method from RPC metadata header, before request is
+ * decoded. Admission is thread-safe, and is typically shared by {@code RpcAdmission} message
+ * streams of server RPC handler. Queued call is started on executor it was enqueued with, or on
+ * thread that completed running call if there is none.
+ *
+ * <p>Metadata of rejected calls is never decoded, so clients of admitting server must not encode
+ * headers with stateful {@link HeadersMetadata.Encoder}.
+ */
+public final class Admission {
+  public static final int DEFAULT_LIMIT = 256;
+  public static final int DEFAULT_MAX_QUEUED = 1024;
+  public static final int DEFAULT_RANK = 1;
+  static final int RANKS = 4;
+  /*share of limit available to calls of rank*/
+  static final double[] RANK_SHARES = {0.5, 0.75, 0.9, 1.0};
+
+  private final Rpc.RpcMetadata.ServiceMethodIndex methods;
+  /*rank by service method constant*/
+  private final Map<String, Integer> ranks;
+  private final int defaultRank;
+  private final int[] rankLimits;
+  private final int maxQueued;
+  private final AtomicInteger inflight = new AtomicInteger();
+  /*guarded by this*/
+  private final ArrayDeque<Call>[] queues;
+  private volatile int queued;
+
+  @SuppressWarnings("unchecked")
+  private Admission(
+      Rpc.RpcMetadata.ServiceMethodIndex methods,
+      Map<String, Integer> ranks,
+      int defaultRank,
+      int limit,
+      int maxQueued) {
+    this.methods = methods;
+    this.ranks = ranks;
+    this.defaultRank = defaultRank;
+    int[] limits = new int[RANKS];
+    for (int rank = 0; rank < RANKS; rank++) {
+      limits[rank] = Math.max(1, (int) (limit * RANK_SHARES[rank]));
+    }
+    this.rankLimits = limits;
+    this.maxQueued = maxQueued;
+    ArrayDeque<Call>[] q = new ArrayDeque[RANKS];
+    for (int rank = 0; rank < RANKS; rank++) {
+      q[rank] = new ArrayDeque<>();
+    }
+    this.queues = q;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @param metadata RPC metadata of request, not modified
+   * @return rank of call: configured rank of its method, or default rank
+   */
+  public int rank(ByteBuf metadata) {
+    if (ranks.isEmpty()) {
+      return defaultRank;
+    }
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    if ((flags & Rpc.RpcMetadata.FLAG_COMPACT) == 0) {
+      return defaultRank;
+    }
+    String serviceMethod = methods.find(flags, header, metadata);
+    if (serviceMethod == null) {
+      return defaultRank;
+    }
+    return ranks.get(serviceMethod);
+  }
+
+  /**
+   * Starts call of given rank if there are no queued calls, and concurrent calls are below rank's
+   * share of limit. Started call is expected to be completed with {@link #release()}
+   *
+   * @return true if call is started
+   */
+  public boolean tryAcquire(int rank) {
+    if (queued > 0) {
+      return false;
+    }
+    return acquire(rank);
+  }
+
+  /** Completes started call: queued calls are started if limit allows */
+  public void release() {
+    inflight.decrementAndGet();
+    if (queued > 0) {
+      drain();
+    }
+  }
+
+  /** @return number of started calls */
+  public int inflight() {
+    return inflight.get();
+  }
+
+  /** @return number of queued calls */
+  public int queued() {
+    return queued;
+  }
+
+  boolean enqueue(Call call) {
+    int rank = call.rank;
+    if (rank == 0) {
+      return false;
+    }
+    synchronized (this) {
+      ArrayDeque<Call> queue = queues[rank];
+      if (queue.size() >= maxQueued) {
+        return false;
+      }
+      queue.offer(call);
+      queued++;
+    }
+    /*running calls may have completed before call is queued*/
+    drain();
+    return true;
+  }
+
+  void remove(Call call) {
+    synchronized (this) {
+      if (queues[call.rank].remove(call)) {
+        queued--;
+      }
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      Call next = null;
+      synchronized (this) {
+        if (queued == 0) {
+          return;
+        }
+        for (int rank = RANKS - 1; rank > 0; rank--) {
+          ArrayDeque<Call> queue = queues[rank];
+          if (!queue.isEmpty()) {
+            if (acquire(rank)) {
+              next = queue.poll();
+              queued--;
+            }
+            break;
+          }
+        }
+      }
+      if (next == null) {
+        return;
+      }
+      next.run();
+    }
+  }
+
+  private boolean acquire(int rank) {
+    AtomicInteger in = inflight;
+    int limit = rankLimits[rank];
+    while (true) {
+      int current = in.get();
+      if (current >= limit) {
+        return false;
+      }
+      if (in.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Call that could not be started immediately. Owns request message until call is started, and is
+   * expected to be released exactly once call is terminated for any reason: completed, rejected or
+   * cancelled.
+   */
+  public static final class Call extends AtomicInteger implements Runnable {
+    private static final int QUEUED = 0;
+    private static final int STARTED = 1;
+    private static final int RELEASED = 2;
+
+    private static final AtomicReferenceFieldUpdater<Call, Message> MESSAGE =
+        AtomicReferenceFieldUpdater.newUpdater(Call.class, Message.class, "message");
+
+    private final Admission admission;
+    private final int rank;
+    private volatile Message message;
+    private Runnable onStart;
+    private Executor executor;
+
+    public Call(Admission admission, int rank, Message message) {
+      this.admission = Objects.requireNonNull(admission, "admission");
+      this.rank = rank;
+      this.message = Objects.requireNonNull(message, "message");
+    }
+
+    /**
+     * @param onStart starts call, possibly before this method returns. Takes request message with
+     *     {@link #take()}
+     * @return true if call is queued, false if call is rejected
+     */
+    public boolean enqueue(Runnable onStart) {
+      return enqueue(onStart, null);
+    }
+
+    /**
+     * @param onStart starts call, possibly before this method returns. Takes request message with
+     *     {@link #take()}
+     * @param executor executor call is started on, instead of thread that released admission of
+     *     completed call. Call is started on releasing thread if executor rejects it
+     * @return true if call is queued, false if call is rejected
+     */
+    public boolean enqueue(Runnable onStart, @Nullable Executor executor) {
+      this.onStart = Objects.requireNonNull(onStart, "onStart");
+      this.executor = executor;
+      return admission.enqueue(this);
+    }
+
+    /** @return request message of started call, or null if call is already released */
+    @Nullable
+    public Message take() {
+      return MESSAGE.getAndSet(this, null);
+    }
+
+    /** Releases request message if it was not taken, and frees call's slot of started call */
+    public void release() {
+      int state = getAndSet(RELEASED);
+      if (state == QUEUED) {
+        admission.remove(this);
+      } else if (state == STARTED) {
+        admission.release();
+      }
+      Message m = take();
+      if (m != null) {
+        m.release();
+      }
+    }
+
+    @Override
+    public void run() {
+      if (compareAndSet(QUEUED, STARTED)) {
+        Runnable start = onStart;
+        Executor e = executor;
+        if (e == null) {
+          start.run();
+          return;
+        }
+        try {
+          e.execute(start);
+        } catch (RejectedExecutionException ex) {
+          start.run();
+        }
+      } else {
+        /*released while queued*/
+        admission.release();
+      }
+    }
+  }
+
+  public static final class Builder {
+    private final List<Object[]> serviceMethodRanks = new ArrayList<>();
+    private Rpc.CallIds callIds;
+    private int defaultRank = DEFAULT_RANK;
+    private int limit = DEFAULT_LIMIT;
+    private int maxQueued = DEFAULT_MAX_QUEUED;
+
+    private Builder() {}
+
+    /**
+     * @param service service name, or empty string for default service calls
+     * @param rank rank of method calls, typically rank option of method in service IDL
+     */
+    public Builder method(String service, String method, int rank) {
+      Objects.requireNonNull(service, "service");
+      Objects.requireNonNull(method, "method");
+      serviceMethodRanks.add(new Object[] {service, method, requireRank(rank)});
+      return this;
+    }
+
+    /**
+     * @param callIds call IDs of connections, so ranks of calls addressed with call ID are known
+     */
+    public Builder callIds(Rpc.CallIds callIds) {
+      this.callIds = Objects.requireNonNull(callIds, "callIds");
+      return this;
+    }
+
+    /** @param defaultRank rank of calls of methods with no configured rank */
+    public Builder defaultRank(int defaultRank) {
+      this.defaultRank = requireRank(defaultRank);
+      return this;
+    }
+
+    /** @param limit max number of concurrent calls */
+    public Builder limit(int limit) {
+      if (limit <= 0) {
+        throw new IllegalArgumentException("limit must be positive, provided: " + limit);
+      }
+      this.limit = limit;
+      return this;
+    }
+
+    /** @param maxQueued max number of queued calls of each rank */
+    public Builder maxQueued(int maxQueued) {
+      if (maxQueued < 0) {
+        throw new IllegalArgumentException(
+            "maxQueued must be non-negative, provided: " + maxQueued);
+      }
+      this.maxQueued = maxQueued;
+      return this;
+    }
+
+    public Admission build() {
+      List<String> services = new ArrayList<>(serviceMethodRanks.size());
+      List<String> methods = new ArrayList<>(serviceMethodRanks.size());
+      Map<String, Integer> ranks = new HashMap<>();
+      for (Object[] serviceMethodRank : serviceMethodRanks) {
+        String service = (String) serviceMethodRank[0];
+        String method = (String) serviceMethodRank[1];
+        String key = Rpc.RpcMetadata.ServiceMethodIndex.key(service, method);
+        if (ranks.put(key, (Integer) serviceMethodRank[2]) == null) {
+          services.add(service);
+          methods.add(method);
+        }
+      }
+      Rpc.RpcMetadata.ServiceMethodIndex index =
+          Rpc.RpcMetadata.ServiceMethodIndex.create(services, methods);
+      Rpc.CallIds ids = callIds;
+      if (ids != null) {
+        index = index.withCallIds(ids);
+      }
+      return new Admission(index, ranks, defaultRank, limit, maxQueued);
+    }
+
+    static int requireRank(int rank) {
+      if (rank < 0 || rank >= RANKS) {
+        throw new IllegalArgumentException("rank must be in range [0, 3], provided: " + rank);
+      }
+      return rank;
+    }
+  }
+}
@@ -0,0 +1,1280 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.SerializationException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.FastThreadLocal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.annotation.Nullable;
+
+/**
+ * Opt-in RPC payload compression, configured per call with {@link
+ * Rpc.ServiceDescriptor.Call#withCompression(Compression)}. Compressed payloads are signaled with
+ * {@link Rpc.RpcMetadata#flagCompressed(int)} metadata flag, and are self-describing: receiver
+ * decompresses payload of any supported codec with {@link #decompress(ByteBuf, ByteBuf)}.
+ *
+ * <p>Payloads smaller than threshold, or not reduced by compression, are sent uncompressed.
+ * Compressor state and scratch buffers are reused per thread (event loop).
+ *
+ * <p>Small payloads are compressed with fast codec against {@link Dictionary} trained from sampled
+ * payloads of service calls, and exchanged once per connection.
+ */
+public final class Compression {
+  public static final int DEFAULT_THRESHOLD = 1024;
+  /*[8] CODEC, [32] UNCOMPRESSED LENGTH, [32] DICTIONARY ID ? (FAST_DICTIONARY), COMPRESSED DATA*/
+  static final int HEADER_SIZE = Byte.BYTES + Integer.BYTES;
+  static final int DICTIONARY_HEADER_SIZE = HEADER_SIZE + Integer.BYTES;
+  static final int CODEC_DEFLATE = 1;
+  static final int CODEC_FAST = 2;
+  static final int CODEC_FAST_DICTIONARY = 3;
+  /*max decompressed to compressed length ratios: deflate expands each compressed byte into at
+  most 1032 bytes, fast codec length bytes encode at most 255 bytes each*/
+  static final int MAX_RATIO_DEFLATE = 1032;
+  static final int MAX_RATIO_FAST = 255;
+  static final int MAX_RATIO_SLACK = 64;
+
+  private final int codec;
+  private final int level;
+  private final int threshold;
+  @Nullable private final Dictionary dictionary;
+
+  private Compression(int codec, int level, int threshold, @Nullable Dictionary dictionary) {
+    this.codec = codec;
+    this.level = level;
+    this.threshold = threshold;
+    this.dictionary = dictionary;
+  }
+
+  /** @return JDK deflate compression with default level and threshold */
+  public static Compression deflate() {
+    return deflate(Deflater.DEFAULT_COMPRESSION, DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * @param level deflate level in range [0, 9], or {@link Deflater#DEFAULT_COMPRESSION}
+   * @param threshold payloads smaller than threshold are not compressed
+   * @return JDK deflate compression
+   */
+  public static Compression deflate(int level, int threshold) {
+    if (level != Deflater.DEFAULT_COMPRESSION
+        && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("level must be in range [0, 9], provided: " + level);
+    }
+    return new Compression(CODEC_DEFLATE, level, requireValidThreshold(threshold), null);
+  }
+
+  /** @return fast LZ77 compression with default threshold */
+  public static Compression fast() {
+    return fast(DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Pure-java LZ77 codec (LZ4 block format) trading compression ratio for speed
+   *
+   * @param threshold payloads smaller than threshold are not compressed
+   * @return fast compression
+   */
+  public static Compression fast(int threshold) {
+    return new Compression(CODEC_FAST, 0, requireValidThreshold(threshold), null);
+  }
+
+  /**
+   * Fast codec compressing payloads against dictionary known to both peers: matches may refer to
+   * dictionary content, so small payloads with few repetitions of their own are compressible.
+   * Dictionary is indexed once, so compression has no per-payload dictionary setup cost.
+   *
+   * @param threshold payloads smaller than threshold are not compressed
+   * @param dictionary dictionary of calls payloads
+   * @return fast dictionary compression
+   */
+  public static Compression fast(int threshold, Dictionary dictionary) {
+    Objects.requireNonNull(dictionary, "dictionary");
+    return new Compression(CODEC_FAST_DICTIONARY, 0, requireValidThreshold(threshold), dictionary);
+  }
+
+  public int threshold() {
+    return threshold;
+  }
+
+  /** @return dictionary payloads are compressed against, or null */
+  @Nullable
+  public Dictionary dictionary() {
+    return dictionary;
+  }
+
+  /**
+   * @param src buffer with payload as readable bytes, not modified
+   * @param dst buffer compressed payload is written into
+   * @return true if payload is written into dst compressed, false if payload is smaller than
+   *     threshold or is not compressible - dst is not modified, and payload should be sent as is
+   */
+  public boolean compress(ByteBuf src, ByteBuf dst) {
+    int length = src.readableBytes();
+    if (length < threshold) {
+      return false;
+    }
+    Dictionary dict = dictionary;
+    int headerSize = dict == null ? HEADER_SIZE : DICTIONARY_HEADER_SIZE;
+    /*compressed payload must be strictly smaller than uncompressed*/
+    int limit = length - headerSize - 1;
+    if (limit <= 0) {
+      return false;
+    }
+    Codecs codecs = Codecs.get();
+    byte[] in;
+    int inOffset;
+    if (src.hasArray()) {
+      in = src.array();
+      inOffset = src.arrayOffset() + src.readerIndex();
+    } else {
+      in = codecs.input(length);
+      inOffset = 0;
+      src.getBytes(src.readerIndex(), in, 0, length);
+    }
+    byte[] out = codecs.output(limit);
+    int compressedLength =
+        codec == CODEC_DEFLATE
+            ? codecs.deflate(level, in, inOffset, length, out, limit)
+            : Fast.compress(in, inOffset, length, out, limit, codecs.hashTable, dict);
+    if (compressedLength < 0) {
+      return false;
+    }
+    dst.ensureWritable(headerSize + compressedLength);
+    dst.writeByte(codec).writeInt(length);
+    if (dict != null) {
+      dst.writeInt(dict.id);
+    }
+    dst.writeBytes(out, 0, compressedLength);
+    return true;
+  }
+
+  /** @return buffer with compressed data, or null if data is not compressed */
+  @Nullable
+  ByteBuf compressData(ByteBuf data, ByteBufAllocator allocator) {
+    int length = data.readableBytes();
+    if (length < threshold) {
+      return null;
+    }
+    ByteBuf dst = allocator.buffer(length);
+    try {
+      if (compress(data, dst)) {
+        return dst;
+      }
+    } catch (Throwable t) {
+      dst.release();
+      throw t;
+    }
+    dst.release();
+    return null;
+  }
+
+  /**
+   * @param src buffer with compressed payload as readable bytes, not modified
+   * @return length of decompressed payload
+   */
+  public static int decompressedLength(ByteBuf src) {
+    if (src.readableBytes() < HEADER_SIZE) {
+      throw compressionError("truncated header");
+    }
+    int length = src.getInt(src.readerIndex() + Byte.BYTES);
+    if (length < 0) {
+      throw compressionError("invalid length: " + length);
+    }
+    return length;
+  }
+
+  /**
+   * @param src buffer with compressed payload as readable bytes, not modified
+   * @param dst buffer decompressed payload is written into
+   * @param maxLength max decompressed payload length, checked before dst is expanded
+   * @return provided dst buffer
+   */
+  public static ByteBuf decompress(ByteBuf src, ByteBuf dst, int maxLength) {
+    return decompress(src, dst, null, maxLength);
+  }
+
+  /**
+   * Decompressed length from payload header is not trusted: it is checked against max length, and
+   * against max compression ratio of codec before dst is expanded.
+   *
+   * @param src buffer with compressed payload as readable bytes, not modified
+   * @param dst buffer decompressed payload is written into
+   * @param dictionary dictionary payload was compressed against, or null
+   * @param maxLength max decompressed payload length, checked before dst is expanded
+   * @return provided dst buffer
+   */
+  public static ByteBuf decompress(
+      ByteBuf src, ByteBuf dst, @Nullable Dictionary dictionary, int maxLength) {
+    int length = decompressedLength(src);
+    if (length > maxLength || length > dst.maxWritableBytes()) {
+      throw compressionError("decompressed length exceeds limit: " + length);
+    }
+    int codec = src.getByte(src.readerIndex());
+    int headerSize;
+    int maxRatio;
+    switch (codec) {
+      case CODEC_DEFLATE:
+        headerSize = HEADER_SIZE;
+        maxRatio = MAX_RATIO_DEFLATE;
+        break;
+      case CODEC_FAST:
+        headerSize = HEADER_SIZE;
+        maxRatio = MAX_RATIO_FAST;
+        break;
+      case CODEC_FAST_DICTIONARY:
+        headerSize = DICTIONARY_HEADER_SIZE;
+        maxRatio = MAX_RATIO_FAST;
+        if (src.readableBytes() < headerSize) {
+          throw compressionError("truncated header");
+        }
+        int dictionaryId = src.getInt(src.readerIndex() + HEADER_SIZE);
+        if (dictionary == null || dictionary.id != dictionaryId) {
+          throw compressionError("unknown dictionary: " + dictionaryId);
+        }
+        break;
+      default:
+        throw compressionError("unsupported codec: " + codec);
+    }
+    int compressedLength = src.readableBytes() - headerSize;
+    if (length > (long) compressedLength * maxRatio + MAX_RATIO_SLACK) {
+      throw compressionError(
+          "decompressed length: " + length + " exceeds compressed length: " + compressedLength);
+    }
+    int compressedOffset = src.readerIndex() + headerSize;
+    Codecs codecs = Codecs.get();
+    byte[] in;
+    int inOffset;
+    if (src.hasArray()) {
+      in = src.array();
+      inOffset = src.arrayOffset() + compressedOffset;
+    } else {
+      in = codecs.input(compressedLength);
+      inOffset = 0;
+      src.getBytes(compressedOffset, in, 0, compressedLength);
+    }
+    dst.ensureWritable(length);
+    boolean inPlace = dst.hasArray();
+    byte[] out = inPlace ? dst.array() : codecs.output(length);
+    int outOffset = inPlace ? dst.arrayOffset() + dst.writerIndex() : 0;
+    if (codec == CODEC_DEFLATE) {
+      codecs.inflate(in, inOffset, compressedLength, out, outOffset, length);
+    } else {
+      byte[] dict = codec == CODEC_FAST_DICTIONARY ? dictionary.content : null;
+      Fast.decompress(in, inOffset, compressedLength, out, outOffset, length, dict);
+    }
+    if (inPlace) {
+      dst.writerIndex(dst.writerIndex() + length);
+    } else {
+      dst.writeBytes(out, 0, length);
+    }
+    return dst;
+  }
+
+  @Override
+  public String toString() {
+    return "Compression{"
+        + "codec="
+        + (codec == CODEC_DEFLATE ? "deflate" : "fast")
+        + ", level="
+        + level
+        + ", threshold="
+        + threshold
+        + ", dictionary="
+        + dictionary
+        + '}';
+  }
+
+  static int requireValidThreshold(int threshold) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("threshold must be non-negative, provided: " + threshold);
+    }
+    return threshold;
+  }
+
+  static SerializationException compressionError(String message) {
+    return new SerializationException(
+        "Payload decompression error", new IllegalArgumentException(message));
+  }
+
+  static SerializationException dictionaryError(String message) {
+    return new SerializationException(
+        "Dictionary decoding error", new IllegalArgumentException(message));
+  }
+
+  /** Per-thread codec state: event loop threads reuse deflaters and scratch buffers */
+  static final class Codecs {
+    /*scratch buffers above this size are not retained by thread*/
+    static final int MAX_RETAINED_SCRATCH_SIZE = 1024 * 1024;
+
+    private static final FastThreadLocal<Codecs> CODECS =
+        new FastThreadLocal<Codecs>() {
+          @Override
+          protected Codecs initialValue() {
+            return new Codecs();
+          }
+
+          @Override
+          protected void onRemoval(Codecs codecs) {
+            codecs.end();
+          }
+        };
+
+    final int[] hashTable = new int[Fast.HASH_TABLE_SIZE];
+    /*indexed by deflate level + 1*/
+    final Deflater[] deflaters = new Deflater[Deflater.BEST_COMPRESSION + 2];
+    Inflater inflater;
+    byte[] input = new byte[0];
+    byte[] output = new byte[0];
+
+    static Codecs get() {
+      return CODECS.get();
+    }
+
+    byte[] input(int length) {
+      byte[] in = input;
+      if (in.length >= length) {
+        return in;
+      }
+      in = new byte[length];
+      if (length <= MAX_RETAINED_SCRATCH_SIZE) {
+        input = in;
+      }
+      return in;
+    }
+
+    byte[] output(int length) {
+      byte[] out = output;
+      if (out.length >= length) {
+        return out;
+      }
+      out = new byte[length];
+      if (length <= MAX_RETAINED_SCRATCH_SIZE) {
+        output = out;
+      }
+      return out;
+    }
+
+    /** @return compressed length, or -1 if compressed data does not fit limit */
+    int deflate(int level, byte[] in, int inOffset, int length, byte[] out, int limit) {
+      Deflater[] ds = deflaters;
+      Deflater deflater = ds[level + 1];
+      if (deflater == null) {
+        deflater = ds[level + 1] = new Deflater(level);
+      }
+      try {
+        deflater.setInput(in, inOffset, length);
+        deflater.finish();
+        int compressed = 0;
+        while (!deflater.finished() && compressed < limit) {
+          compressed += deflater.deflate(out, compressed, limit - compressed);
+        }
+        return deflater.finished() ? compressed : -1;
+      } finally {
+        deflater.reset();
+      }
+    }
+
+    void inflate(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int length) {
+      Inflater i = inflater;
+      if (i == null) {
+        i = inflater = new Inflater();
+      }
+      try {
+        i.setInput(in, inOffset, inLength);
+        int inflated = 0;
+        while (inflated < length) {
+          int n = i.inflate(out, outOffset + inflated, length - inflated);
+          if (n == 0 && (i.finished() || i.needsInput() || i.needsDictionary())) {
+            break;
+          }
+          inflated += n;
+        }
+        if (inflated != length || !i.finished()) {
+          throw compressionError("decompressed length mismatch");
+        }
+      } catch (DataFormatException e) {
+        throw new SerializationException("Payload decompression error", e);
+      } finally {
+        i.reset();
+      }
+    }
+
+    void end() {
+      for (Deflater deflater : deflaters) {
+        if (deflater != null) {
+          deflater.end();
+        }
+      }
+      Inflater i = inflater;
+      if (i != null) {
+        i.end();
+      }
+    }
+  }
+
+  /**
+   * Content payloads are compressed against, trained from sampled payloads of service calls with
+   * {@link Trainer}. Dictionary is exchanged between peers once per connection with {@link
+   * Calls#encodeDictionaries(ByteBufAllocator)} and {@link Calls#withDictionaries(ByteBuf)}, as
+   * part of connection setup metadata or metadata-push. Dictionary is identified by its content
+   * checksum carried by every payload compressed against it. Dictionary is immutable.
+   */
+  public static final class Dictionary {
+    public static final int MAX_SIZE = 32 * 1024;
+
+    /*
+     * [32] ID
+     * [32] SIZE
+     * [SIZE] CONTENT
+     */
+
+    final byte[] content;
+    final int id;
+    /*dictionary position + 1 of 4-byte sequences, 0 is empty*/
+    final int[] hashTable;
+
+    private Dictionary(byte[] content, int id) {
+      this.content = content;
+      this.id = id;
+      this.hashTable = Fast.index(content);
+    }
+
+    /** @param content dictionary content, most valuable sequences last */
+    public static Dictionary of(byte[] content) {
+      Objects.requireNonNull(content, "content");
+      requireValidSize(content.length);
+      byte[] c = content.clone();
+      return new Dictionary(c, checksum(c));
+    }
+
+    /**
+     * @param serviceDescriptor service which calls payloads are sampled
+     * @return trainer of dictionary for payloads of given service calls
+     */
+    public static Trainer newTrainer(Rpc.ServiceDescriptor serviceDescriptor) {
+      return newTrainer(serviceDescriptor, Trainer.DEFAULT_MAX_SAMPLES_PER_CALL);
+    }
+
+    /**
+     * @param serviceDescriptor service which calls payloads are sampled
+     * @param maxSamplesPerCall samples retained per call, so frequent calls do not crowd out others
+     * @return trainer of dictionary for payloads of given service calls
+     */
+    public static Trainer newTrainer(
+        Rpc.ServiceDescriptor serviceDescriptor, int maxSamplesPerCall) {
+      Objects.requireNonNull(serviceDescriptor, "serviceDescriptor");
+      if (maxSamplesPerCall <= 0) {
+        throw new IllegalArgumentException(
+            "maxSamplesPerCall must be positive, provided: " + maxSamplesPerCall);
+      }
+      return new Trainer(serviceDescriptor, maxSamplesPerCall);
+    }
+
+    /** @return dictionary ID: checksum of dictionary content */
+    public int id() {
+      return id;
+    }
+
+    public int size() {
+      return content.length;
+    }
+
+    public ByteBuf encode(ByteBufAllocator allocator) {
+      Objects.requireNonNull(allocator, "allocator");
+      byte[] c = content;
+      return allocator
+          .buffer(Integer.BYTES + Integer.BYTES + c.length)
+          .writeInt(id)
+          .writeInt(c.length)
+          .writeBytes(c);
+    }
+
+    /** Decodes dictionary from readable bytes of provided buffer, reader index is advanced */
+    public static Dictionary decode(ByteBuf dictionary) {
+      Objects.requireNonNull(dictionary, "dictionary");
+      if (dictionary.readableBytes() < Integer.BYTES + Integer.BYTES) {
+        throw dictionaryError("unexpected dictionary structure");
+      }
+      int id = dictionary.readInt();
+      int size = dictionary.readInt();
+      if (size < Fast.MIN_MATCH || size > MAX_SIZE || dictionary.readableBytes() < size) {
+        throw dictionaryError("unexpected dictionary structure");
+      }
+      byte[] content = new byte[size];
+      dictionary.readBytes(content);
+      if (checksum(content) != id) {
+        throw dictionaryError("unexpected dictionary checksum");
+      }
+      return new Dictionary(content, id);
+    }
+
+    @Override
+    public String toString() {
+      return "Dictionary{" + "id=" + id + ", size=" + content.length + '}';
+    }
+
+    static int requireValidSize(int size) {
+      if (size < Fast.MIN_MATCH || size > MAX_SIZE) {
+        throw new IllegalArgumentException(
+            "dictionary size must be in range [" + Fast.MIN_MATCH + ", " + MAX_SIZE + "]");
+      }
+      return size;
+    }
+
+    static int checksum(byte[] content) {
+      CRC32 crc32 = new CRC32();
+      crc32.update(content, 0, content.length);
+      return (int) crc32.getValue();
+    }
+
+    /**
+     * Trains dictionary from payloads sampled per call of service descriptor: selects segments of
+     * samples covering most byte sequences shared by distinct samples, greedily by coverage of not
+     * yet selected sequences. Sampling is thread-safe.
+     */
+    public static final class Trainer {
+      public static final int DEFAULT_MAX_SAMPLES_PER_CALL = 128;
+      public static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+      static final int MAX_SAMPLE_SIZE = 16 * 1024;
+      static final int DMER_SIZE = Long.BYTES;
+      static final int SEGMENT_SIZE = 64;
+      static final int SEGMENT_STEP = 16;
+      /*sequences of single sample are not shared*/
+      static final int MIN_FREQUENCY = 2;
+
+      private final Map<String, List<byte[]>> callSamples = new LinkedHashMap<>();
+      private final int maxSamplesPerCall;
+
+      Trainer(Rpc.ServiceDescriptor serviceDescriptor, int maxSamplesPerCall) {
+        this.maxSamplesPerCall = maxSamplesPerCall;
+        for (Rpc.ServiceDescriptor.Call call : serviceDescriptor.serviceCalls()) {
+          callSamples.put(call.name, new ArrayList<>());
+        }
+      }
+
+      /**
+       * @param call name of service descriptor call
+       * @param payload buffer with sampled payload as readable bytes, not modified
+       * @return true if sample is retained, false if call has enough samples
+       */
+      public synchronized boolean sample(String call, ByteBuf payload) {
+        Objects.requireNonNull(call, "call");
+        Objects.requireNonNull(payload, "payload");
+        List<byte[]> samples = callSamples.get(call);
+        if (samples == null) {
+          throw new IllegalArgumentException("unknown call: " + call);
+        }
+        if (samples.size() >= maxSamplesPerCall) {
+          return false;
+        }
+        int length = Math.min(payload.readableBytes(), MAX_SAMPLE_SIZE);
+        samples.add(ByteBufUtil.getBytes(payload, payload.readerIndex(), length));
+        return true;
+      }
+
+      /** @return count of retained samples */
+      public synchronized int samples() {
+        int count = 0;
+        for (List<byte[]> samples : callSamples.values()) {
+          count += samples.size();
+        }
+        return count;
+      }
+
+      public Dictionary train() {
+        return train(DEFAULT_DICTIONARY_SIZE);
+      }
+
+      /**
+       * @param size max dictionary size, dictionary is smaller if samples share less content
+       * @return dictionary trained from retained samples
+       * @throws IllegalStateException if samples share no content
+       */
+      public synchronized Dictionary train(int size) {
+        requireValidSize(size);
+        List<byte[]> samples = new ArrayList<>();
+        for (List<byte[]> s : callSamples.values()) {
+          samples.addAll(s);
+        }
+        /*dmer -> {count of distinct samples containing dmer, last sample containing dmer}*/
+        Map<Long, int[]> frequencies = new HashMap<>();
+        for (int i = 0; i < samples.size(); i++) {
+          byte[] sample = samples.get(i);
+          for (int pos = 0; pos + DMER_SIZE <= sample.length; pos++) {
+            int[] frequency =
+                frequencies.computeIfAbsent(dmer(sample, pos), k -> new int[] {0, -1});
+            if (frequency[1] != i) {
+              frequency[1] = i;
+              frequency[0]++;
+            }
+          }
+        }
+
+        Set<Long> scored = new HashSet<>();
+        PriorityQueue<Segment> segments = new PriorityQueue<>();
+        for (byte[] sample : samples) {
+          for (int pos = 0; pos + DMER_SIZE <= sample.length; pos += SEGMENT_STEP) {
+            Segment segment = new Segment(sample, pos, Math.min(SEGMENT_SIZE, sample.length - pos));
+            segment.score = segment.score(frequencies, scored);
+            if (segment.score > 0) {
+              segments.add(segment);
+            }
+          }
+        }
+
+        /*lazy greedy: scores only decrease as dmers are covered*/
+        List<Segment> selected = new ArrayList<>();
+        int total = 0;
+        while (total < size && !segments.isEmpty()) {
+          Segment segment = segments.poll();
+          int score = segment.score(frequencies, scored);
+          if (score == 0) {
+            continue;
+          }
+          Segment next = segments.peek();
+          if (next != null && score < next.score) {
+            segment.score = score;
+            segments.add(segment);
+            continue;
+          }
+          segment.length = Math.min(segment.length, size - total);
+          segment.cover(frequencies);
+          selected.add(segment);
+          total += segment.length;
+        }
+        if (total < Fast.MIN_MATCH) {
+          throw new IllegalStateException("samples share no content");
+        }
+        /*most valuable segments last: closest to payload, smallest match offsets*/
+        byte[] content = new byte[total];
+        int offset = total;
+        for (Segment segment : selected) {
+          offset -= segment.length;
+          System.arraycopy(segment.sample, segment.offset, content, offset, segment.length);
+        }
+        return new Dictionary(content, checksum(content));
+      }
+
+      static long dmer(byte[] sample, int offset) {
+        long dmer = 0;
+        for (int i = DMER_SIZE - 1; i >= 0; i--) {
+          dmer = dmer << 8 | (sample[offset + i] & 0xFF);
+        }
+        return dmer;
+      }
+
+      static final class Segment implements Comparable<Segment> {
+        final byte[] sample;
+        final int offset;
+        int length;
+        int score;
+
+        Segment(byte[] sample, int offset, int length) {
+          this.sample = sample;
+          this.offset = offset;
+          this.length = length;
+        }
+
+        /** @return sum of frequencies of distinct shared dmers of segment */
+        int score(Map<Long, int[]> frequencies, Set<Long> scored) {
+          scored.clear();
+          int score = 0;
+          for (int pos = offset; pos + DMER_SIZE <= offset + length; pos++) {
+            long dmer = dmer(sample, pos);
+            if (scored.add(dmer)) {
+              int frequency = frequencies.get(dmer)[0];
+              if (frequency >= MIN_FREQUENCY) {
+                score += frequency;
+              }
+            }
+          }
+          return score;
+        }
+
+        void cover(Map<Long, int[]> frequencies) {
+          for (int pos = offset; pos + DMER_SIZE <= offset + length; pos++) {
+            frequencies.get(dmer(sample, pos))[0] = 0;
+          }
+        }
+
+        @Override
+        public int compareTo(Segment o) {
+          return Integer.compare(o.score, score);
+        }
+      }
+    }
+  }
+
+  /**
+   * Compression of RPC call messages, configured per call with {@link
+   * Rpc.ServiceDescriptor.Call#withCompression(Compression)}. Requester compresses requests of
+   * calls with compression and sets {@link Rpc.RpcMetadata#flagCompressed(int)} flag of their RPC
+   * metadata. Responder decompresses requests with compressed flag, and compresses responses of
+   * such requests: compressed response carries call ID metadata with compressed flag only, so
+   * responses with metadata are sent uncompressed. Calls are matched by service and method of
+   * RPC metadata. Messages are released once new message is returned, and are not released if
+   * compression fails with error.
+   *
+   * <p>Payloads compressed against dictionary are decompressed with dictionaries of calls, and
+   * dictionaries received from peer with {@link #withDictionaries(ByteBuf)}. Calls are immutable.
+   */
+  public static final class Calls {
+    /*
+     * dictionaries metadata
+     *
+     * [32] DICTIONARIES_MAGIC
+     * [16] COUNT
+     * COUNT times: encoded dictionary
+     */
+    static final int DICTIONARIES_MAGIC = 0x5250_4344;
+    static final int MAX_DICTIONARIES = 64;
+
+    private final Rpc.RpcMetadata.ServiceMethodIndex methods;
+    private final Map<String, Compression> compressions;
+    /*dictionaries by ID*/
+    private final Map<Integer, Dictionary> dictionaries;
+    private final int maxDecompressedLength;
+
+    private Calls(
+        Rpc.RpcMetadata.ServiceMethodIndex methods,
+        Map<String, Compression> compressions,
+        Map<Integer, Dictionary> dictionaries,
+        int maxDecompressedLength) {
+      this.methods = methods;
+      this.compressions = compressions;
+      this.dictionaries = dictionaries;
+      this.maxDecompressedLength = maxDecompressedLength;
+    }
+
+    /**
+     * @param serviceCalls calls of service descriptors, calls without compression are not
+     *     compressed
+     * @param maxDecompressedLength max length of decompressed message data
+     * @return compression of given calls messages
+     */
+    public static Calls create(
+        List<Rpc.ServiceDescriptor.Call> serviceCalls, int maxDecompressedLength) {
+      Objects.requireNonNull(serviceCalls, "serviceCalls");
+      if (maxDecompressedLength <= 0) {
+        throw new IllegalArgumentException(
+            "maxDecompressedLength must be positive, provided: " + maxDecompressedLength);
+      }
+      List<String> services = new ArrayList<>();
+      List<String> methods = new ArrayList<>();
+      Map<String, Compression> compressions = new HashMap<>();
+      Map<Integer, Dictionary> dictionaries = new HashMap<>();
+      for (Rpc.ServiceDescriptor.Call call : serviceCalls) {
+        Compression compression = call.compression();
+        if (compression == null) {
+          continue;
+        }
+        String name = call.name;
+        int methodStart = name.lastIndexOf('/') + 1;
+        if (!name.startsWith("/") || methodStart <= 1) {
+          throw new IllegalArgumentException("call name must be /service/method: " + name);
+        }
+        String service = name.substring(1, methodStart - 1);
+        String method = name.substring(methodStart);
+        services.add(service);
+        methods.add(method);
+        compressions.put(Rpc.RpcMetadata.ServiceMethodIndex.key(service, method), compression);
+        Dictionary dictionary = compression.dictionary;
+        if (dictionary != null) {
+          dictionaries.put(dictionary.id, dictionary);
+        }
+      }
+      return new Calls(
+          Rpc.RpcMetadata.ServiceMethodIndex.create(services, methods),
+          compressions,
+          dictionaries,
+          maxDecompressedLength);
+    }
+
+    /** @return compression of same calls, that also matches calls addressed with call ID */
+    public Calls withCallIds(Rpc.CallIds callIds) {
+      return new Calls(
+          methods.withCallIds(callIds), compressions, dictionaries, maxDecompressedLength);
+    }
+
+    /**
+     * @param dictionaries dictionaries metadata received from peer as part of connection setup
+     *     metadata or metadata-push, encoded with {@link #encodeDictionaries(ByteBufAllocator)}.
+     *     Readable bytes are not modified
+     * @return compression of same calls, that also decompresses payloads compressed by peer
+     *     against received dictionaries
+     */
+    public Calls withDictionaries(ByteBuf dictionaries) {
+      Objects.requireNonNull(dictionaries, "dictionaries");
+      if (!isDictionaries(dictionaries)) {
+        throw dictionaryError("unexpected dictionaries metadata");
+      }
+      ByteBuf encoded = dictionaries.duplicate();
+      encoded.skipBytes(Integer.BYTES);
+      if (encoded.readableBytes() < Short.BYTES) {
+        throw dictionaryError("unexpected dictionaries metadata");
+      }
+      int count = encoded.readUnsignedShort();
+      if (count > MAX_DICTIONARIES) {
+        throw dictionaryError("dictionaries count exceeds limit: " + count);
+      }
+      Map<Integer, Dictionary> dicts = new HashMap<>(this.dictionaries);
+      for (int i = 0; i < count; i++) {
+        Dictionary dictionary = Dictionary.decode(encoded);
+        dicts.put(dictionary.id, dictionary);
+      }
+      return new Calls(methods, compressions, dicts, maxDecompressedLength);
+    }
+
+    /**
+     * @return dictionaries metadata with dictionaries of calls, sent to peer once per connection
+     *     as part of connection setup metadata or metadata-push
+     */
+    public ByteBuf encodeDictionaries(ByteBufAllocator allocator) {
+      Objects.requireNonNull(allocator, "allocator");
+      Map<Integer, Dictionary> dicts = new LinkedHashMap<>();
+      for (Compression compression : compressions.values()) {
+        Dictionary dictionary = compression.dictionary;
+        if (dictionary != null) {
+          dicts.put(dictionary.id, dictionary);
+        }
+      }
+      int size = Integer.BYTES + Short.BYTES;
+      for (Dictionary dictionary : dicts.values()) {
+        size += Integer.BYTES + Integer.BYTES + dictionary.content.length;
+      }
+      ByteBuf encoded = allocator.buffer(size);
+      encoded.writeInt(DICTIONARIES_MAGIC).writeShort(dicts.size());
+      for (Dictionary dictionary : dicts.values()) {
+        encoded.writeInt(dictionary.id).writeInt(dictionary.content.length);
+        encoded.writeBytes(dictionary.content);
+      }
+      return encoded;
+    }
+
+    /** @return true if calls have dictionaries to be sent to peer */
+    public boolean hasDictionaries() {
+      for (Compression compression : compressions.values()) {
+        if (compression.dictionary != null) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** @return true if metadata is dictionaries metadata */
+    public static boolean isDictionaries(ByteBuf metadata) {
+      return metadata.readableBytes() >= Integer.BYTES
+          && metadata.getInt(metadata.readerIndex()) == DICTIONARIES_MAGIC;
+    }
+
+    /**
+     * @param metadata RPC metadata of request
+     * @return compression of call, or null if call messages are not compressed
+     */
+    @Nullable
+    public Compression find(ByteBuf metadata) {
+      if (compressions.isEmpty()) {
+        return null;
+      }
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
+      if (!isCompact(flags)) {
+        return null;
+      }
+      String method = methods.find(flags, header, metadata);
+      return method == null ? null : compressions.get(method);
+    }
+
+    /** @return true if request data is compressed as signaled by its RPC metadata */
+    public static boolean isCompressed(ByteBuf metadata) {
+      int flags = Rpc.RpcMetadata.flags(Rpc.RpcMetadata.header(metadata));
+      return isCompact(flags) && Rpc.RpcMetadata.flagCompressed(flags);
+    }
+
+    /**
+     * @param request request of call with compression, released if new message is returned
+     * @return request with compressed data and compressed flag of RPC metadata set, or provided
+     *     request if its data is smaller than threshold or is not compressible
+     */
+    public Message compressRequest(
+        Message request,
+        Compression compression,
+        ByteBufAllocator allocator,
+        Message.Factory messageFactory) {
+      ByteBuf data = compression.compressData(request.data(), allocator);
+      if (data == null) {
+        return request;
+      }
+      ByteBuf metadata = request.metadata();
+      Rpc.RpcMetadata.markCompressed(metadata, 0);
+      return message(request, messageFactory, data, metadata.retain());
+    }
+
+    /**
+     * @param request request of any call, released if new message is returned
+     * @return request with decompressed data and compressed flag of RPC metadata cleared, or
+     *     provided request if its data is not compressed
+     */
+    public Message decompressRequest(
+        Message request, ByteBufAllocator allocator, Message.Factory messageFactory) {
+      ByteBuf metadata = request.metadata();
+      if (!request.hasMetadata() || !isCompressed(metadata)) {
+        return request;
+      }
+      ByteBuf data = decompressData(request.data(), allocator);
+      Rpc.RpcMetadata.unmarkCompressed(metadata, 0);
+      return message(request, messageFactory, data, metadata.retain());
+    }
+
+    /**
+     * @param response response of call with compression, released if new message is returned
+     * @return response with compressed data and compressed flag metadata, or provided response if
+     *     it has metadata, or its data is smaller than threshold or is not compressible
+     */
+    public Message compressResponse(
+        Message response,
+        Compression compression,
+        ByteBufAllocator allocator,
+        Message.Factory messageFactory) {
+      if (response.hasMetadata()) {
+        return response;
+      }
+      ByteBuf data = compression.compressData(response.data(), allocator);
+      if (data == null) {
+        return response;
+      }
+      ByteBuf metadata =
+          Rpc.RpcMetadata.encodeCallId(
+              allocator.buffer(Integer.BYTES, Integer.BYTES), 0, false, false, true, 0);
+      return message(response, messageFactory, data, metadata);
+    }
+
+    /**
+     * @param response response of any call, released if new message is returned
+     * @return response with decompressed data and no metadata, or provided response if its data is
+     *     not compressed
+     */
+    public Message decompressResponse(
+        Message response, ByteBufAllocator allocator, Message.Factory messageFactory) {
+      if (!response.hasMetadata() || !isCompressedResponse(response.metadata())) {
+        return response;
+      }
+      ByteBuf data = decompressData(response.data(), allocator);
+      return message(response, messageFactory, data, null);
+    }
+
+    ByteBuf decompressData(ByteBuf data, ByteBufAllocator allocator) {
+      Dictionary dictionary = null;
+      if (data.readableBytes() >= DICTIONARY_HEADER_SIZE
+          && data.getByte(data.readerIndex()) == CODEC_FAST_DICTIONARY) {
+        dictionary = dictionaries.get(data.getInt(data.readerIndex() + HEADER_SIZE));
+      }
+      /*dst is expanded once decompressed length is validated*/
+      ByteBuf dst = allocator.buffer();
+      try {
+        return decompress(data, dst, dictionary, maxDecompressedLength);
+      } catch (Throwable t) {
+        dst.release();
+        throw t;
+      }
+    }
+
+    static boolean isCompressedResponse(ByteBuf metadata) {
+      if (metadata.readableBytes() != Integer.BYTES) {
+        return false;
+      }
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
+      return Rpc.RpcMetadata.isCallId(header)
+          && Rpc.RpcMetadata.callId(header) == 0
+          && isCompact(flags)
+          && Rpc.RpcMetadata.flagCompressed(flags);
+    }
+
+    static boolean isCompact(int flags) {
+      return (flags & Rpc.RpcMetadata.FLAG_COMPACT) == Rpc.RpcMetadata.FLAG_COMPACT;
+    }
+
+    static Message message(
+        Message source,
+        Message.Factory messageFactory,
+        ByteBuf data,
+        @Nullable ByteBuf metadata) {
+      Message message;
+      try {
+        message = messageFactory.create(data, metadata);
+      } catch (Throwable t) {
+        data.release();
+        if (metadata != null) {
+          metadata.release();
+        }
+        throw t;
+      }
+      source.release();
+      return message;
+    }
+  }
+
+  /** LZ77 codec with LZ4 block format: greedy single-probe matching over 4-byte hash table */
+  static final class Fast {
+    static final int HASH_LOG = 12;
+    static final int HASH_TABLE_SIZE = 1 << HASH_LOG;
+    static final int DICTIONARY_HASH_LOG = 15;
+    static final int MIN_MATCH = 4;
+    /*last 5 bytes are always literals, last match starts at least 12 bytes before end*/
+    static final int LAST_LITERALS = 5;
+    static final int MF_LIMIT = 12;
+    static final int MAX_DISTANCE = 0xFFFF;
+    static final int SKIP_TRIGGER = 6;
+    static final int RUN_MASK = 0xF;
+
+    private Fast() {}
+
+    /**
+     * @param hashTable scratch table, contents are overwritten
+     * @param dictionary content preceding input matches may refer to, or null
+     * @return compressed length written into out at offset 0, or -1 if compressed data does not fit
+     *     limit
+     */
+    static int compress(
+        byte[] in,
+        int inOffset,
+        int length,
+        byte[] out,
+        int limit,
+        int[] hashTable,
+        @Nullable Dictionary dictionary) {
+      byte[] dict = null;
+      int[] dictTable = null;
+      int dictSize = 0;
+      if (dictionary != null) {
+        dict = dictionary.content;
+        dictTable = dictionary.hashTable;
+        dictSize = dict.length;
+      }
+      /*table stores position relative to input offset + 1, 0 is empty*/
+      Arrays.fill(hashTable, 0);
+      int end = inOffset + length;
+      int matchLimit = end - LAST_LITERALS;
+      int mfLimit = end - MF_LIMIT;
+      int anchor = inOffset;
+      int ip = inOffset;
+      int op = 0;
+
+      while (ip < mfLimit) {
+        int sequence = readInt(in, ip);
+        int hash = hash(sequence, HASH_LOG);
+        int ref = hashTable[hash] - 1 + inOffset;
+        hashTable[hash] = ip - inOffset + 1;
+        int matchLength = MIN_MATCH;
+        int offset;
+        if (ref >= inOffset && ip - ref <= MAX_DISTANCE && readInt(in, ref) == sequence) {
+          while (ip > anchor && ref > inOffset && in[ip - 1] == in[ref - 1]) {
+            ip--;
+            ref--;
+          }
+          while (ip + matchLength < matchLimit && in[ip + matchLength] == in[ref + matchLength]) {
+            matchLength++;
+          }
+          offset = ip - ref;
+        } else if (dictTable != null
+            && (ref = dictTable[hash(sequence, DICTIONARY_HASH_LOG)] - 1) >= 0
+            && ip - inOffset + dictSize - ref <= MAX_DISTANCE
+            && readInt(dict, ref) == sequence) {
+          /*match in dictionary: virtually precedes input*/
+          while (ip > anchor && ref > 0 && in[ip - 1] == dict[ref - 1]) {
+            ip--;
+            ref--;
+          }
+          while (ip + matchLength < matchLimit
+              && ref + matchLength < dictSize
+              && in[ip + matchLength] == dict[ref + matchLength]) {
+            matchLength++;
+          }
+          offset = ip - inOffset + dictSize - ref;
+        } else {
+          ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+          continue;
+        }
+        int literals = ip - anchor;
+        int matchRun = matchLength - MIN_MATCH;
+        /*token, literals, literals length, offset, match length*/
+        if (op + 1 + literals + literals / 255 + 1 + Short.BYTES + matchRun / 255 + 1 > limit) {
+          return -1;
+        }
+        int token = op++;
+        op = writeRun(out, op, literals);
+        System.arraycopy(in, anchor, out, op, literals);
+        op += literals;
+        out[op++] = (byte) offset;
+        out[op++] = (byte) (offset >>> 8);
+        op = writeRun(out, op, matchRun);
+        out[token] = (byte) (Math.min(literals, RUN_MASK) << 4 | Math.min(matchRun, RUN_MASK));
+
+        ip += matchLength;
+        anchor = ip;
+      }
+      int literals = end - anchor;
+      if (op + 1 + literals + literals / 255 + 1 > limit) {
+        return -1;
+      }
+      out[op++] = (byte) (Math.min(literals, RUN_MASK) << 4);
+      op = writeRun(out, op, literals);
+      System.arraycopy(in, anchor, out, op, literals);
+      return op + literals;
+    }
+
+    /** @param dictionary content preceding output matches may refer to, or null */
+    static void decompress(
+        byte[] in,
+        int inOffset,
+        int inLength,
+        byte[] out,
+        int outOffset,
+        int length,
+        @Nullable byte[] dictionary) {
+      int dictSize = dictionary == null ? 0 : dictionary.length;
+      int ip = inOffset;
+      int inEnd = inOffset + inLength;
+      int op = outOffset;
+      int outEnd = outOffset + length;
+      while (true) {
+        if (ip >= inEnd) {
+          throw compressionError("truncated sequence");
+        }
+        int token = in[ip++] & 0xFF;
+        int literals = token >>> 4;
+        if (literals == RUN_MASK) {
+          int b;
+          do {
+            if (ip >= inEnd) {
+              throw compressionError("truncated literals length");
+            }
+            b = in[ip++] & 0xFF;
+            literals += b;
+          } while (b == 255 && literals <= length);
+        }
+        if (literals > inEnd - ip || literals > outEnd - op) {
+          throw compressionError("literals out of bounds");
+        }
+        System.arraycopy(in, ip, out, op, literals);
+        ip += literals;
+        op += literals;
+        if (ip == inEnd) {
+          break;
+        }
+        if (inEnd - ip < Short.BYTES) {
+          throw compressionError("truncated match offset");
+        }
+        int offset = (in[ip] & 0xFF) | (in[ip + 1] & 0xFF) << 8;
+        ip += Short.BYTES;
+        int produced = op - outOffset;
+        if (offset == 0 || offset > produced + dictSize) {
+          throw compressionError("invalid match offset: " + offset);
+        }
+        int matchLength = token & RUN_MASK;
+        if (matchLength == RUN_MASK) {
+          int b;
+          do {
+            if (ip >= inEnd) {
+              throw compressionError("truncated match length");
+            }
+            b = in[ip++] & 0xFF;
+            matchLength += b;
+          } while (b == 255 && matchLength <= length);
+        }
+        matchLength += MIN_MATCH;
+        if (matchLength > outEnd - op) {
+          throw compressionError("match out of bounds");
+        }
+        if (offset > produced) {
+          /*match starts in dictionary, may continue from start of output*/
+          int dictDistance = offset - produced;
+          int dictLength = Math.min(matchLength, dictDistance);
+          System.arraycopy(dictionary, dictSize - dictDistance, out, op, dictLength);
+          op += dictLength;
+          int ref = outOffset;
+          for (int i = dictLength; i < matchLength; i++) {
+            out[op++] = out[ref++];
+          }
+          continue;
+        }
+        int ref = op - offset;
+        if (offset >= matchLength) {
+          System.arraycopy(out, ref, out, op, matchLength);
+          op += matchLength;
+        } else {
+          /*overlapping match repeats preceding bytes*/
+          for (int i = 0; i < matchLength; i++) {
+            out[op++] = out[ref++];
+          }
+        }
+      }
+      if (op != outEnd) {
+        throw compressionError("decompressed length mismatch");
+      }
+    }
+
+    /** @return table of dictionary position + 1 of 4-byte sequences, later positions win */
+    static int[] index(byte[] dictionary) {
+      int[] table = new int[1 << DICTIONARY_HASH_LOG];
+      for (int pos = 0; pos + MIN_MATCH <= dictionary.length; pos++) {
+        table[hash(readInt(dictionary, pos), DICTIONARY_HASH_LOG)] = pos + 1;
+      }
+      return table;
+    }
+
+    static int writeRun(byte[] out, int op, int run) {
+      if (run >= RUN_MASK) {
+        int remaining = run - RUN_MASK;
+        while (remaining >= 255) {
+          out[op++] = (byte) 255;
+          remaining -= 255;
+        }
+        out[op++] = (byte) remaining;
+      }
+      return op;
+    }
+
+    static int readInt(byte[] in, int offset) {
+      return (in[offset] & 0xFF)
+          | (in[offset + 1] & 0xFF) << 8
+          | (in[offset + 2] & 0xFF) << 16
+          | (in[offset + 3] & 0xFF) << 24;
+    }
+
+    static int hash(int sequence, int hashLog) {
+      return (sequence * -1640531535) >>> (Integer.SIZE - hashLog);
+    }
+  }
+}
@@ -17,6 +17,9 @@
 package com.jauntsdn.rsocket;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.util.IllegalReferenceCountException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -25,6 +28,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 
 /**
@@ -33,6 +38,8 @@ import javax.annotation.Nullable;
  */
 public final class Headers {
   public static int HEADER_LENGTH_MAX = 8192;
+  /* key-values count starting from which lookups use index */
+  static final int INDEX_THRESHOLD = 16;
 
   private static final Headers EMPTY = new Headers(false, 0, Collections.emptyList(), 0);
   private static final Headers DEFAULT_SERVICE = new Headers(true, 0, Collections.emptyList(), 0);
@@ -42,6 +49,7 @@ public final class Headers {
   private final long timeoutMillis;
   private final List<String> keyValues;
   private volatile ByteBuf cache;
+  private KeyIndex index;
 
   private Headers(
       boolean isDefaultService, long timeoutMillis, List<String> keyValues, int serializedSize) {
@@ -63,14 +71,8 @@ public final class Headers {
     if (!isValidKeySize(name)) {
       return null;
     }
-    List<String> nv = keyValues;
-    int length = nv.size();
-    for (int i = 0; i < length; i += 2) {
-      if (name.equals(nv.get(i))) {
-        return nv.get(i + 1);
-      }
-    }
-    return null;
+    int i = first(name);
+    return i < 0 ? null : keyValues.get(i + 1);
   }
 
   public List<String> headers(String name) {
@@ -78,17 +80,67 @@ public final class Headers {
       return null;
     }
     List<String> headers = null;
+    List<String> nv = keyValues;
+    for (int i = first(name); i >= 0; i = next(name, i)) {
+      if (headers == null) {
+        headers = new ArrayList<>(2);
+      }
+      headers.add(nv.get(i + 1));
+    }
+    return headers == null ? Collections.emptyList() : headers;
+  }
+
+  /**
+   * Calls action for each value of headers with provided name, in order of headers. Unlike {@link
+   * #headers(String)}, does not allocate.
+   */
+  public void forEachHeader(String name, Consumer<? super String> action) {
+    Objects.requireNonNull(action, "action");
+    if (!isValidKeySize(name)) {
+      return;
+    }
+    List<String> nv = keyValues;
+    for (int i = first(name); i >= 0; i = next(name, i)) {
+      action.accept(nv.get(i + 1));
+    }
+  }
+
+  /** @return position of first key equal to name, or -1 */
+  private int first(String name) {
     List<String> nv = keyValues;
     int length = nv.size();
+    if (length > INDEX_THRESHOLD) {
+      return index().first(nv, name);
+    }
     for (int i = 0; i < length; i += 2) {
-      if (name.equals(nv.get(i))) {
-        if (headers == null) {
-          headers = new ArrayList<>(2);
-        }
-        headers.add(nv.get(i + 1));
+      if (keyEquals(nv, i, name)) {
+        return i;
       }
     }
-    return headers == null ? Collections.emptyList() : headers;
+    return -1;
+  }
+
+  /** @return position of next key equal to name, or -1 */
+  private int next(String name, int position) {
+    List<String> nv = keyValues;
+    int length = nv.size();
+    if (length > INDEX_THRESHOLD) {
+      return index().next(position);
+    }
+    for (int i = position + 2; i < length; i += 2) {
+      if (keyEquals(nv, i, name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private KeyIndex index() {
+    KeyIndex idx = index;
+    if (idx == null) {
+      idx = index = KeyIndex.create(keyValues);
+    }
+    return idx;
   }
 
   public boolean isEmpty() {
@@ -197,6 +249,11 @@ public final class Headers {
     return new Headers(false, 0, headers, serializedSize);
   }
 
+  /* key-values are validated by decoder */
+  static Headers create(BufferKeyValues headers, int serializedSize) {
+    return new Headers(false, 0, headers, serializedSize);
+  }
+
   ByteBuf cache() {
     return cache;
   }
@@ -224,12 +281,16 @@ public final class Headers {
     private Builder(int size, List<String> headers) {
       int length = headers.size();
       List<String> nv = nameValues = new ArrayList<>(2 * size + length);
-      for (int i = 0; i < length; i++) {
+      int serializedSize = 0;
+      for (int i = 0; i < length; i += 2) {
         String name = headers.get(i);
         String value = headers.get(i + 1);
         nv.add(name);
         nv.add(value);
+        serializedSize +=
+            Rpc.ProtoMetadata.serializedSize(name) + Rpc.ProtoMetadata.serializedSize(value);
       }
+      this.serializedSize = serializedSize;
     }
 
     public Builder() {
@@ -303,6 +364,240 @@ public final class Headers {
     }
   }
 
+  private static boolean keyEquals(List<String> keyValues, int index, String key) {
+    if (keyValues instanceof BufferKeyValues) {
+      return ((BufferKeyValues) keyValues).keyEquals(index, key);
+    }
+    return key.equals(keyValues.get(index));
+  }
+
+  /**
+   * Open addressing index of header keys, built on first lookup. Headers with same key are chained
+   * in order.
+   */
+  static final class KeyIndex {
+    /* key position + 1, 0 if slot is empty */
+    final int[] slots;
+    /* position of next key equal to key of given header, or -1 */
+    final int[] next;
+
+    private KeyIndex(int[] slots, int[] next) {
+      this.slots = slots;
+      this.next = next;
+    }
+
+    static KeyIndex create(List<String> keyValues) {
+      int count = keyValues.size() / 2;
+      int capacity = Integer.highestOneBit(count) << 2;
+      int mask = capacity - 1;
+      int[] slots = new int[capacity];
+      int[] next = new int[count];
+      Arrays.fill(next, -1);
+      for (int position = 0; position < keyValues.size(); position += 2) {
+        int slot = hash(keyValues, position) & mask;
+        while (true) {
+          int cur = slots[slot];
+          if (cur == 0) {
+            slots[slot] = position + 1;
+            break;
+          }
+          int curPosition = cur - 1;
+          if (keyEquals(keyValues, curPosition, position)) {
+            while (next[curPosition / 2] >= 0) {
+              curPosition = next[curPosition / 2];
+            }
+            next[curPosition / 2] = position;
+            break;
+          }
+          slot = (slot + 1) & mask;
+        }
+      }
+      return new KeyIndex(slots, next);
+    }
+
+    int first(List<String> keyValues, String key) {
+      int[] s = slots;
+      int mask = s.length - 1;
+      int slot = hash(key) & mask;
+      while (true) {
+        int cur = s[slot];
+        if (cur == 0) {
+          return -1;
+        }
+        int position = cur - 1;
+        if (Headers.keyEquals(keyValues, position, key)) {
+          return position;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    int next(int position) {
+      return next[position / 2];
+    }
+
+    static int hash(String key) {
+      return spread(key.hashCode());
+    }
+
+    /* keys of encoded metadata are hashed and compared without decoding into strings */
+    static int hash(List<String> keyValues, int position) {
+      if (keyValues instanceof BufferKeyValues) {
+        return spread(((BufferKeyValues) keyValues).keyHash(position));
+      }
+      return hash(keyValues.get(position));
+    }
+
+    static boolean keyEquals(List<String> keyValues, int position, int otherPosition) {
+      if (keyValues instanceof BufferKeyValues) {
+        return ((BufferKeyValues) keyValues).keyEquals(position, otherPosition);
+      }
+      return keyValues.get(position).equals(keyValues.get(otherPosition));
+    }
+
+    private static int spread(int h) {
+      return h ^ (h >>> 16);
+    }
+  }
+
+  /**
+   * Key-values view over protobuf encoded metadata: offsets of keys and values are indexed on first
+   * access, strings are decoded on first read. Metadata is not retained, so view is only valid
+   * until metadata is released: later access that needs metadata bytes throws {@link
+   * IllegalReferenceCountException}.
+   */
+  static final class BufferKeyValues extends AbstractList<String> implements RandomAccess {
+    private final ByteBuf metadata;
+    private final int offset;
+    private final int length;
+    private Index index;
+
+    BufferKeyValues(ByteBuf metadata, int offset, int length) {
+      this.metadata = metadata;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public String get(int i) {
+      Index idx = index();
+      String[] strings = idx.strings;
+      if (i < 0 || i >= strings.length) {
+        throw new IndexOutOfBoundsException("index: " + i + ", size: " + strings.length);
+      }
+      String s = strings[i];
+      if (s == null) {
+        int[] offsets = idx.offsets;
+        s =
+            strings[i] =
+                buffer().toString(offsets[i * 2], offsets[i * 2 + 1], StandardCharsets.US_ASCII);
+      }
+      return s;
+    }
+
+    @Override
+    public int size() {
+      return index().strings.length;
+    }
+
+    boolean keyEquals(int i, String key) {
+      Index idx = index();
+      String s = idx.strings[i];
+      if (s != null) {
+        return key.equals(s);
+      }
+      int[] offsets = idx.offsets;
+      int keyLength = offsets[i * 2 + 1];
+      if (keyLength != key.length()) {
+        return false;
+      }
+      int keyOffset = offsets[i * 2];
+      ByteBuf m = buffer();
+      for (int j = 0; j < keyLength; j++) {
+        if ((char) (m.getByte(keyOffset + j) & 0xFF) != key.charAt(j)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    boolean keyEquals(int i, int j) {
+      int[] offsets = index().offsets;
+      int length = offsets[i * 2 + 1];
+      if (length != offsets[j * 2 + 1]) {
+        return false;
+      }
+      int offset = offsets[i * 2];
+      int otherOffset = offsets[j * 2];
+      ByteBuf m = buffer();
+      for (int k = 0; k < length; k++) {
+        if (m.getByte(offset + k) != m.getByte(otherOffset + k)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** @return {@link String#hashCode()} of key at given position, computed over encoded bytes */
+    int keyHash(int i) {
+      Index idx = index();
+      String s = idx.strings[i];
+      if (s != null) {
+        return s.hashCode();
+      }
+      int[] offsets = idx.offsets;
+      int keyOffset = offsets[i * 2];
+      int keyLength = offsets[i * 2 + 1];
+      ByteBuf m = buffer();
+      int h = 0;
+      for (int j = 0; j < keyLength; j++) {
+        h = 31 * h + (m.getByte(keyOffset + j) & 0xFF);
+      }
+      return h;
+    }
+
+    ByteBuf metadata() {
+      return buffer();
+    }
+
+    int offset() {
+      return offset;
+    }
+
+    int length() {
+      return length;
+    }
+
+    private Index index() {
+      Index idx = index;
+      if (idx == null) {
+        idx = index = new Index(Rpc.ProtoMetadata.indexHeaders(buffer(), offset, length));
+      }
+      return idx;
+    }
+
+    /*metadata is not retained by view: its use after release is reported instead of read*/
+    private ByteBuf buffer() {
+      ByteBuf m = metadata;
+      int refCnt = m.refCnt();
+      if (refCnt == 0) {
+        throw new IllegalReferenceCountException(refCnt);
+      }
+      return m;
+    }
+
+    /* published with data race: offsets are final, decoded strings are immutable */
+    static final class Index {
+      final int[] offsets;
+      final String[] strings;
+
+      Index(int[] offsets) {
+        this.offsets = offsets;
+        this.strings = new String[offsets.length / 2];
+      }
+    }
+  }
+
   private static String requireNonEmpty(String seq, String message) {
     Objects.requireNonNull(seq, message);
     if (seq.length() == 0) {
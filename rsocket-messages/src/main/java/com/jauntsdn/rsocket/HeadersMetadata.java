@@ -21,11 +21,9 @@ import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.util.AsciiString;
 import io.netty.util.ReferenceCountUtil;
-import io.netty.util.collection.IntCollections;
-import io.netty.util.collection.IntObjectHashMap;
-import io.netty.util.collection.IntObjectMap;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -43,6 +41,13 @@ public final class HeadersMetadata {
   static final int PREFIX_NAME_LENGTH_OFFSET = 2;
   static final int FLAG_PREFIX_FOLLOWS = 0b0000_0001;
   static final int FLAG_PREFIX_HEADERS = 0b0000_0010;
+  static final int FLAG_PREFIX_INDEXED = 0b0000_0100;
+  static final int FLAG_PREFIX_NAME_INDEXED = 0b0000_1000;
+  static final int FLAG_PREFIX_INCREMENTAL = 0b0001_0000;
+  static final int FLAG_PREFIX_TABLE_STATE = 0b0010_0000;
+  static final int FLAG_PREFIX_TABLE_RESET = 0b0100_0000;
+  static final int TABLE_STATE_SIZE = 2 * Integer.BYTES;
+  static final int TABLE_EPOCH_MASK = 0xFF_FFFF;
 
   static final int HEADER_NAME_MAX_LENGTH = Byte.MAX_VALUE - Byte.MIN_VALUE;
   static final int HEADER_VALUE_MAX_LENGTH = Short.MAX_VALUE - Short.MIN_VALUE;
@@ -58,6 +63,21 @@ public final class HeadersMetadata {
    *
    * [HEADER NAME LENGTH] HEADER NAME
    * [HEADER VALUE LENGTH] HEADER VALUE
+   *
+   * compressed headers (Encoder, Decoder), additional FLAGS:
+   * I - indexed: name and value are table entry, HEADER NAME LENGTH is entry index,
+   *     HEADER VALUE LENGTH is 0, name and value are absent
+   * N - name indexed: name is table entry, HEADER NAME LENGTH is entry index, name is absent
+   * C - incremental: name and value are added to dynamic table
+   *
+   * compressed headers are preceded by dynamic table state:
+   * [8] FLAGS: T - table state, R - reset: dynamic table is cleared before headers are decoded
+   * [24] TABLE EPOCH, incremented on each encoder reset
+   * [32] TABLE SEQUENCE: number of entries added to dynamic table before this message
+   *
+   * reset request (Decoder to Encoder, e.g. with metadata-push):
+   * [8] FLAGS: T - table state, R - reset
+   * [24] TABLE EPOCH of rejected message
    */
 
   private HeadersMetadata() {}
@@ -137,10 +157,15 @@ public final class HeadersMetadata {
     return decode(metadata, Projection.ALL);
   }
 
-  /** Decode byte buffer as string key-values of headers metadata for keys provided by projection */
+  /**
+   * Decode byte buffer as string key-values of headers metadata for keys provided by projection.
+   * Metadata encoded with {@link Encoder} is rejected with {@link IllegalArgumentException}, it is
+   * decoded with {@link Decoder} only.
+   */
   public static Iterator<String> decode(ByteBuf metadata, Projection projection) {
     int prefix = metadata.getInt(metadata.readerIndex());
     int flags = prefix >> (PREFIX_FLAGS_OFFSET * 8);
+    checkNotCompressed(flags);
     if ((flags & FLAG_PREFIX_HEADERS) == FLAG_PREFIX_HEADERS) {
       return new StringMetadataIterator(metadata, projection);
     }
@@ -154,17 +179,26 @@ public final class HeadersMetadata {
 
   /**
    * Decode byte buffer as AsciiString key-values of headers metadata for keys provided by
-   * projection
+   * projection. Metadata encoded with {@link Encoder} is rejected with {@link
+   * IllegalArgumentException}, it is decoded with {@link Decoder} only.
    */
   public static Iterator<AsciiString> decodeAscii(ByteBuf metadata, Projection projection) {
     int prefix = metadata.getInt(metadata.readerIndex());
     int flags = prefix >> (PREFIX_FLAGS_OFFSET * 8);
+    checkNotCompressed(flags);
     if ((flags & FLAG_PREFIX_HEADERS) == FLAG_PREFIX_HEADERS) {
       return new AsciiMetadataIterator(metadata, projection);
     }
     return Collections.emptyIterator();
   }
 
+  static void checkNotCompressed(int flags) {
+    if ((flags & FLAG_PREFIX_TABLE_STATE) == FLAG_PREFIX_TABLE_STATE) {
+      throw new IllegalArgumentException(
+          "compressed headers metadata must be decoded with HeadersMetadata.Decoder");
+    }
+  }
+
   static ByteBuf encodeHeaders(ByteBuf buffer, List<? extends CharSequence> headerNameValues) {
     int nameValuesCount = headerNameValues.size();
     for (int i = 0; i < nameValuesCount; i += 2) {
@@ -189,6 +223,516 @@ public final class HeadersMetadata {
     return buffer;
   }
 
+  /**
+   * Stateful headers metadata encoder with HPACK-like compression: headers are looked up in static
+   * table of common header names, and bounded dynamic table of recently sent headers. Repeated
+   * headers are encoded as table index, headers with repeated name are encoded as name index and
+   * value.
+   *
+   * <p>Dynamic table is shared by all messages encoded with given encoder, so metadata must be
+   * decoded with {@link Decoder} of same table configuration, in the same order as it was encoded -
+   * typically one encoder and decoder per connection, used on connection event loop. Encoder is not
+   * thread-safe.
+   *
+   * <p>Each message carries dynamic table epoch and sequence, so encoded message that is not
+   * decoded by peer (e.g. not sent, rejected or decoded out of order) is detected by {@link
+   * Decoder} on next message, instead of indexed headers decoded with wrong values. Decoder rejects
+   * messages until encoder is {@link #reset()}: peer sends {@link Decoder#resetRequest()} (e.g.
+   * with metadata-push) once its decoder is out of sync, and encoder side passes it to {@link
+   * #onResetRequest(ByteBuf)}.
+   *
+   * <p>Encoder must not be used for calls that may be encoded but not decoded by peer as part of
+   * normal operation: requests served from {@link ResponseCache} or shared by {@link SingleFlight}
+   * callers are encoded and never sent, and {@link Admission} server rejects or sheds calls before
+   * their metadata is decoded. Such calls use stateless {@link HeadersMetadata#encode(List)}.
+   */
+  public static final class Encoder {
+    private final Table table;
+    private int epoch;
+    private boolean resetPending = true;
+
+    private Encoder(Table table) {
+      this.table = table;
+    }
+
+    /** @return encoder with default dynamic table limits */
+    public static Encoder create() {
+      return new Encoder(Table.create());
+    }
+
+    /**
+     * @param maxTableEntries max number of headers retained by dynamic table
+     * @param maxTableSize max size of dynamic table: sum of header name and value lengths, plus
+     *     {@link Table#ENTRY_OVERHEAD} for each header
+     * @return encoder with provided dynamic table limits
+     */
+    public static Encoder create(int maxTableEntries, int maxTableSize) {
+      return new Encoder(Table.create(maxTableEntries, maxTableSize));
+    }
+
+    /**
+     * Clears dynamic table and starts new table epoch: next encoded message is decoded by {@link
+     * Decoder} regardless of messages lost before it. Intended to be called once encoded message is
+     * known to be not delivered, or peer decoder reported dynamic table is out of sync.
+     */
+    public void reset() {
+      table.clear();
+      epoch = (epoch + 1) & TABLE_EPOCH_MASK;
+      resetPending = true;
+    }
+
+    /**
+     * Resets encoder on reset request of peer decoder, see {@link Decoder#resetRequest()}. Request
+     * is ignored if it is for table epoch other than current one: encoder was already reset since
+     * rejected message, so repeated requests for same desync reset encoder once.
+     *
+     * @param resetRequest reset request, buffer indexes are not modified and buffer is not released
+     * @return true if encoder was reset
+     */
+    public boolean onResetRequest(ByteBuf resetRequest) {
+      Objects.requireNonNull(resetRequest, "resetRequest");
+      int readableBytes = resetRequest.readableBytes();
+      if (readableBytes != Integer.BYTES) {
+        throw new IllegalArgumentException("Unexpected reset request size: " + readableBytes);
+      }
+      int request = resetRequest.getInt(resetRequest.readerIndex());
+      int flags = request >>> 24;
+      if (flags != (FLAG_PREFIX_TABLE_STATE | FLAG_PREFIX_TABLE_RESET)) {
+        throw new IllegalArgumentException("Unexpected reset request flags: " + flags);
+      }
+      if ((request & TABLE_EPOCH_MASK) != epoch) {
+        return false;
+      }
+      reset();
+      return true;
+    }
+
+    /** Encodes headers metadata with provided ByteBufAllocator */
+    public ByteBuf encode(
+        ByteBufAllocator allocator, List<? extends CharSequence> headerNameValues) {
+      Objects.requireNonNull(allocator, "allocator");
+      int size = sizeOf(headerNameValues);
+      if (size == 0) {
+        return Unpooled.EMPTY_BUFFER;
+      }
+      return encodeHeaders(allocator.buffer(TABLE_STATE_SIZE + size), headerNameValues);
+    }
+
+    /**
+     * Encodes headers metadata into provided byte buffer, at most {@link
+     * HeadersMetadata#sizeOf(List)} bytes plus 8 bytes of dynamic table state are written
+     */
+    public ByteBuf encode(ByteBuf buffer, List<? extends CharSequence> headerNameValues) {
+      Objects.requireNonNull(buffer, "buffer");
+      if (sizeOf(headerNameValues) == 0) {
+        return buffer;
+      }
+      return encodeHeaders(buffer, headerNameValues);
+    }
+
+    ByteBuf encodeHeaders(ByteBuf buffer, List<? extends CharSequence> headerNameValues) {
+      Table t = table;
+      int stateFlags = FLAG_PREFIX_TABLE_STATE;
+      if (resetPending) {
+        resetPending = false;
+        stateFlags |= FLAG_PREFIX_TABLE_RESET;
+      }
+      buffer.writeInt(stateFlags << 24 | epoch);
+      buffer.writeInt(t.sequence());
+      int nameValuesCount = headerNameValues.size();
+      for (int i = 0; i < nameValuesCount; i += 2) {
+        CharSequence name = headerNameValues.get(i);
+        int valueIndex = i + 1;
+        CharSequence value = headerNameValues.get(valueIndex);
+        int flags = 0;
+        if (i == 0) {
+          flags |= FLAG_PREFIX_HEADERS;
+        }
+        if (valueIndex != nameValuesCount - 1) {
+          flags |= FLAG_PREFIX_FOLLOWS;
+        }
+        int nameHash = AsciiString.hashCode(name);
+        int valueHash = AsciiString.hashCode(value);
+        int index = t.indexOf(name, nameHash, value, valueHash);
+        if (index >= 0) {
+          buffer.writeInt((flags | FLAG_PREFIX_INDEXED) << 24 | index << 16);
+          continue;
+        }
+        int valueLength = value.length();
+        int nameIndex = t.indexOfName(name, nameHash);
+        boolean incremental = t.fits(name.length(), valueLength);
+        if (incremental) {
+          flags |= FLAG_PREFIX_INCREMENTAL;
+        }
+        if (nameIndex >= 0) {
+          buffer.writeInt((flags | FLAG_PREFIX_NAME_INDEXED) << 24 | nameIndex << 16 | valueLength);
+          buffer.writeCharSequence(value, StandardCharsets.US_ASCII);
+          if (incremental) {
+            t.add(t.name(nameIndex), AsciiString.of(value));
+          }
+        } else {
+          buffer.writeInt(flags << 24 | name.length() << 16 | valueLength);
+          buffer.writeCharSequence(name, StandardCharsets.US_ASCII);
+          buffer.writeCharSequence(value, StandardCharsets.US_ASCII);
+          if (incremental) {
+            t.add(AsciiString.of(name), AsciiString.of(value));
+          }
+        }
+      }
+      return buffer;
+    }
+  }
+
+  /**
+   * Stateful decoder of headers metadata encoded with {@link Encoder} of same table configuration.
+   * Indexed headers are returned as AsciiString instances cached by dynamic table. Metadata encoded
+   * with {@link HeadersMetadata#encode(List)} is decoded as well. Decoder is not thread-safe.
+   *
+   * <p>Message with dynamic table state not matching decoder table (encoded message was not
+   * decoded, or decoded out of order) is rejected with {@link IllegalStateException}, as are all
+   * subsequent messages until {@link Encoder#reset()} message is received. Peer encoder is reset
+   * with {@link #resetRequest()}, so decoder recovers without being re-created.
+   */
+  public static final class Decoder {
+    private final Table table;
+    private int epoch;
+    private boolean synced = true;
+    private int rejectedEpoch;
+
+    private Decoder(Table table) {
+      this.table = table;
+    }
+
+    /** @return decoder with default dynamic table limits */
+    public static Decoder create() {
+      return new Decoder(Table.create());
+    }
+
+    /** @return decoder with provided dynamic table limits, see {@link Encoder#create(int, int)} */
+    public static Decoder create(int maxTableEntries, int maxTableSize) {
+      return new Decoder(Table.create(maxTableEntries, maxTableSize));
+    }
+
+    /** @return false if dynamic table is out of sync, and messages are rejected until reset */
+    public boolean isSynced() {
+      return synced;
+    }
+
+    /**
+     * @return reset request for peer {@link Encoder#onResetRequest(ByteBuf)}, to be sent once
+     *     decoder is out of sync (e.g. with metadata-push). Request refers to table epoch of last
+     *     rejected message, so peer encoder ignores requests that are stale after its reset.
+     * @throws IllegalStateException if decoder is in sync
+     */
+    public ByteBuf resetRequest() {
+      if (synced) {
+        throw new IllegalStateException("Headers dynamic table is in sync");
+      }
+      return Unpooled.buffer(Integer.BYTES, Integer.BYTES)
+          .writeInt((FLAG_PREFIX_TABLE_STATE | FLAG_PREFIX_TABLE_RESET) << 24 | rejectedEpoch);
+    }
+
+    /**
+     * Decodes readable bytes of provided metadata as AsciiString key-values of headers metadata.
+     * All headers are decoded eagerly so dynamic table is kept in sync with encoder. Metadata
+     * reader index is advanced, metadata is not released.
+     */
+    public List<AsciiString> decode(ByteBuf metadata) {
+      Objects.requireNonNull(metadata, "metadata");
+      if (!metadata.isReadable()) {
+        return Collections.emptyList();
+      }
+      Table t = table;
+      int firstFlags = metadata.getUnsignedByte(metadata.readerIndex());
+      if ((firstFlags & FLAG_PREFIX_TABLE_STATE) == FLAG_PREFIX_TABLE_STATE) {
+        tableState(metadata, t);
+        if (!metadata.isReadable()) {
+          return Collections.emptyList();
+        }
+        firstFlags = metadata.getUnsignedByte(metadata.readerIndex());
+      }
+      if ((firstFlags & FLAG_PREFIX_HEADERS) != FLAG_PREFIX_HEADERS) {
+        return Collections.emptyList();
+      }
+      try {
+        return decodeHeaders(metadata, t);
+      } catch (RuntimeException e) {
+        /*dynamic table may be partially updated*/
+        synced = false;
+        rejectedEpoch = epoch;
+        throw e;
+      }
+    }
+
+    void tableState(ByteBuf metadata, Table t) {
+      int readableBytes = metadata.readableBytes();
+      if (readableBytes < TABLE_STATE_SIZE) {
+        synced = false;
+        rejectedEpoch = epoch;
+        throw new IllegalStateException(
+            "Unexpected metadata layout: available bytes is less than table state size: "
+                + readableBytes);
+      }
+      int state = metadata.readInt();
+      int sequence = metadata.readInt();
+      int stateFlags = state >>> 24;
+      int stateEpoch = state & TABLE_EPOCH_MASK;
+      if ((stateFlags & FLAG_PREFIX_TABLE_RESET) == FLAG_PREFIX_TABLE_RESET) {
+        t.clear();
+        epoch = stateEpoch;
+        synced = sequence == 0;
+      }
+      if (!synced || stateEpoch != epoch || sequence != t.sequence()) {
+        synced = false;
+        rejectedEpoch = stateEpoch;
+        throw new IllegalStateException(
+            "Headers dynamic table is out of sync: expected epoch "
+                + epoch
+                + ", sequence "
+                + t.sequence()
+                + ", received epoch "
+                + stateEpoch
+                + ", sequence "
+                + sequence);
+      }
+    }
+
+    List<AsciiString> decodeHeaders(ByteBuf metadata, Table t) {
+      List<AsciiString> nameValues = new ArrayList<>(8);
+      boolean follows;
+      do {
+        int readableBytes = metadata.readableBytes();
+        if (readableBytes < Integer.BYTES) {
+          throw new IllegalStateException(
+              "Unexpected metadata layout: available bytes is less than prefix size: "
+                  + readableBytes);
+        }
+        int prefix = metadata.readInt();
+        int flags = prefix >>> 24;
+        int nameField = (prefix >> 16) & 0xFF;
+        int valueLength = prefix & 0xFFFF;
+        follows = (flags & FLAG_PREFIX_FOLLOWS) == FLAG_PREFIX_FOLLOWS;
+
+        AsciiString name;
+        AsciiString value;
+        if ((flags & FLAG_PREFIX_INDEXED) == FLAG_PREFIX_INDEXED) {
+          name = t.name(nameField);
+          value = t.value(nameField);
+        } else {
+          boolean isNameIndexed = (flags & FLAG_PREFIX_NAME_INDEXED) == FLAG_PREFIX_NAME_INDEXED;
+          int headerLength = isNameIndexed ? valueLength : nameField + valueLength;
+          if (metadata.readableBytes() < headerLength) {
+            throw new IllegalStateException(
+                "Unexpected metadata layout: header length : "
+                    + headerLength
+                    + " exceeds readable bytes: "
+                    + metadata.readableBytes());
+          }
+          name =
+              isNameIndexed
+                  ? t.name(nameField)
+                  : (AsciiString) metadata.readCharSequence(nameField, StandardCharsets.US_ASCII);
+          value = (AsciiString) metadata.readCharSequence(valueLength, StandardCharsets.US_ASCII);
+          if ((flags & FLAG_PREFIX_INCREMENTAL) == FLAG_PREFIX_INCREMENTAL) {
+            if (!t.fits(name.length(), valueLength)) {
+              throw new IllegalStateException(
+                  "Unexpected metadata layout: header exceeds dynamic table size: "
+                      + name
+                      + ", "
+                      + valueLength);
+            }
+            t.add(name, value);
+          }
+        }
+        nameValues.add(name);
+        nameValues.add(value);
+      } while (follows);
+      return nameValues;
+    }
+  }
+
+  /**
+   * Headers table of {@link Encoder} and {@link Decoder}: static header names followed by dynamic
+   * FIFO of recently added headers, most recent first. Index of entry fits single byte.
+   */
+  static final class Table {
+    /* accounts for table bookkeeping per header, same as HPACK */
+    static final int ENTRY_OVERHEAD = 32;
+    static final int MAX_ENTRIES_DEFAULT = 64;
+    static final int MAX_SIZE_DEFAULT = 4096;
+
+    /* part of compressed metadata format, must not be reordered */
+    static final AsciiString[] STATIC_NAMES =
+        new AsciiString[] {
+          AsciiString.cached("authorization"),
+          AsciiString.cached("traceparent"),
+          AsciiString.cached("tracestate"),
+          AsciiString.cached("baggage"),
+          AsciiString.cached("b3"),
+          AsciiString.cached("x-b3-traceid"),
+          AsciiString.cached("x-b3-spanid"),
+          AsciiString.cached("x-b3-parentspanid"),
+          AsciiString.cached("x-b3-sampled"),
+          AsciiString.cached("x-request-id"),
+          AsciiString.cached("x-tenant-id"),
+          AsciiString.cached("user-agent"),
+          AsciiString.cached("content-type"),
+          AsciiString.cached("accept"),
+          AsciiString.cached("accept-encoding"),
+          AsciiString.cached("cookie"),
+        };
+
+    static final int[] STATIC_NAME_HASHES = new int[STATIC_NAMES.length];
+
+    static {
+      for (int i = 0; i < STATIC_NAMES.length; i++) {
+        STATIC_NAME_HASHES[i] = STATIC_NAMES[i].hashCode();
+      }
+    }
+
+    static final int MAX_INDEX = 0xFF;
+
+    private final int maxSize;
+    private final AsciiString[] names;
+    private final AsciiString[] values;
+    private final int[] nameHashes;
+    private final int[] valueHashes;
+    private long added;
+    private int count;
+    private int size;
+
+    private Table(int maxEntries, int maxSize) {
+      this.maxSize = maxSize;
+      this.names = new AsciiString[maxEntries];
+      this.values = new AsciiString[maxEntries];
+      this.nameHashes = new int[maxEntries];
+      this.valueHashes = new int[maxEntries];
+    }
+
+    static Table create() {
+      return new Table(MAX_ENTRIES_DEFAULT, MAX_SIZE_DEFAULT);
+    }
+
+    static Table create(int maxEntries, int maxSize) {
+      int maxDynamicEntries = MAX_INDEX + 1 - STATIC_NAMES.length;
+      if (maxEntries <= 0 || maxEntries > maxDynamicEntries) {
+        throw new IllegalArgumentException(
+            "maxTableEntries must be positive and not exceed "
+                + maxDynamicEntries
+                + ": "
+                + maxEntries);
+      }
+      if (maxSize <= 0) {
+        throw new IllegalArgumentException("maxTableSize must be positive: " + maxSize);
+      }
+      return new Table(maxEntries, maxSize);
+    }
+
+    /** @return number of entries added since table was created or cleared, modulo 2^32 */
+    int sequence() {
+      return (int) added;
+    }
+
+    void clear() {
+      Arrays.fill(names, null);
+      Arrays.fill(values, null);
+      added = 0;
+      count = 0;
+      size = 0;
+    }
+
+    boolean fits(int nameLength, int valueLength) {
+      return nameLength + valueLength + ENTRY_OVERHEAD <= maxSize;
+    }
+
+    /** @return index of header with provided name and value, or -1 */
+    int indexOf(CharSequence name, int nameHash, CharSequence value, int valueHash) {
+      int[] nh = nameHashes;
+      int[] vh = valueHashes;
+      int capacity = nh.length;
+      long last = added - 1;
+      for (int i = 0; i < count; i++) {
+        int slot = (int) ((last - i) % capacity);
+        if (nh[slot] == nameHash
+            && vh[slot] == valueHash
+            && names[slot].contentEquals(name)
+            && values[slot].contentEquals(value)) {
+          return STATIC_NAMES.length + i;
+        }
+      }
+      return -1;
+    }
+
+    /** @return index of header with provided name, or -1 */
+    int indexOfName(CharSequence name, int nameHash) {
+      AsciiString[] staticNames = STATIC_NAMES;
+      int[] staticHashes = STATIC_NAME_HASHES;
+      for (int i = 0; i < staticNames.length; i++) {
+        if (staticHashes[i] == nameHash && staticNames[i].contentEquals(name)) {
+          return i;
+        }
+      }
+      int[] nh = nameHashes;
+      int capacity = nh.length;
+      long last = added - 1;
+      for (int i = 0; i < count; i++) {
+        int slot = (int) ((last - i) % capacity);
+        if (nh[slot] == nameHash && names[slot].contentEquals(name)) {
+          return staticNames.length + i;
+        }
+      }
+      return -1;
+    }
+
+    AsciiString name(int index) {
+      int staticCount = STATIC_NAMES.length;
+      if (index < staticCount) {
+        return STATIC_NAMES[index];
+      }
+      return names[slot(index - staticCount)];
+    }
+
+    AsciiString value(int index) {
+      int staticCount = STATIC_NAMES.length;
+      if (index < staticCount) {
+        throw new IllegalStateException(
+            "Unexpected metadata layout: indexed header of static table: " + index);
+      }
+      return values[slot(index - staticCount)];
+    }
+
+    void add(AsciiString name, AsciiString value) {
+      int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+      int capacity = names.length;
+      while (count > 0 && (count == capacity || size + entrySize > maxSize)) {
+        int oldest = (int) ((added - count) % capacity);
+        size -= names[oldest].length() + values[oldest].length() + ENTRY_OVERHEAD;
+        names[oldest] = null;
+        values[oldest] = null;
+        count--;
+      }
+      int slot = (int) (added % capacity);
+      names[slot] = name;
+      values[slot] = value;
+      nameHashes[slot] = name.hashCode();
+      valueHashes[slot] = value.hashCode();
+      added++;
+      count++;
+      size += entrySize;
+    }
+
+    private int slot(int dynamicIndex) {
+      if (dynamicIndex >= count) {
+        throw new IllegalStateException(
+            "Unexpected metadata layout: dynamic table index: "
+                + dynamicIndex
+                + " exceeds entries count: "
+                + count);
+      }
+      return (int) ((added - 1 - dynamicIndex) % names.length);
+    }
+  }
+
   static final class AsciiMetadataIterator extends MetadataIterator
       implements Iterator<AsciiString> {
 
@@ -280,8 +824,8 @@ public final class HeadersMetadata {
         int prefix = m.readInt();
         int flags = prefix >> (PREFIX_FLAGS_OFFSET * 8);
         follows = (flags & FLAG_PREFIX_FOLLOWS) == FLAG_PREFIX_FOLLOWS;
-        int nameLength = (prefix >> (PREFIX_NAME_LENGTH_OFFSET * 8)) & 0x0F;
-        int valueLength = prefix & 0xFF;
+        int nameLength = (prefix >> (PREFIX_NAME_LENGTH_OFFSET * 8)) & 0xFF;
+        int valueLength = prefix & 0xFFFF;
         int headerLength = nameLength + valueLength;
         if (m.readableBytes() < headerLength) {
           releaseOnce(metadata);
@@ -294,29 +838,21 @@ public final class HeadersMetadata {
         if (!follows) {
           state |= STATE_FINISHED;
         }
-        IntObjectMap<List<AsciiString>> namesProjection = projection.headerNames();
-        if (Projection.isAll(namesProjection)) {
+        Projection p = projection;
+        if (p.isAll()) {
           curName = (AsciiString) m.readCharSequence(nameLength, StandardCharsets.US_ASCII);
           curValue = (AsciiString) m.readCharSequence(valueLength, StandardCharsets.US_ASCII);
           return true;
-        } else if (Projection.isNone(namesProjection)) {
-          m.skipBytes(nameLength + valueLength);
-        } else {
-          List<AsciiString> acceptedNames = namesProjection.get(nameLength);
-          if (acceptedNames != null) {
-            AsciiString name =
-                (AsciiString) m.readCharSequence(nameLength, StandardCharsets.US_ASCII);
-            if (acceptedNames.contains(name)) {
-              curName = name;
-              curValue = (AsciiString) m.readCharSequence(valueLength, StandardCharsets.US_ASCII);
-              return true;
-            } else {
-              m.skipBytes(valueLength);
-            }
-          } else {
-            m.skipBytes(headerLength);
-          }
         }
+        /*compared in place, rejected headers are skipped without allocation*/
+        AsciiString name = p.headerName(m, m.readerIndex(), nameLength);
+        if (name != null) {
+          m.skipBytes(nameLength);
+          curName = name;
+          curValue = (AsciiString) m.readCharSequence(valueLength, StandardCharsets.US_ASCII);
+          return true;
+        }
+        m.skipBytes(headerLength);
       } while (follows);
       return false;
     }
@@ -330,12 +866,13 @@ public final class HeadersMetadata {
   }
 
   public static final class Projection {
-    private static final Projection NONE = new Projection(IntCollections.emptyMap());
+    private static final Projection NONE = new Projection(new Names[0]);
     private static final Projection ALL = new Projection(null);
-    private final IntObjectMap<List<AsciiString>> sizeToHeaderNames;
+    /*indexed by header name length*/
+    private final Names[] lengthToHeaderNames;
 
-    private Projection(@Nullable IntObjectMap<List<AsciiString>> sizeToHeaderNames) {
-      this.sizeToHeaderNames = sizeToHeaderNames;
+    private Projection(@Nullable Names[] lengthToHeaderNames) {
+      this.lengthToHeaderNames = lengthToHeaderNames;
     }
 
     public static Projection all() {
@@ -349,62 +886,103 @@ public final class HeadersMetadata {
     public static Projection of(List<? extends CharSequence> headerNames) {
       Objects.requireNonNull(headerNames, "headerNames");
       int headerNamesSize = headerNames.size();
-      switch (headerNamesSize) {
-        case 0:
-          {
-            return NONE;
-          }
-        case 1:
-          {
-            IntObjectHashMap<List<AsciiString>> sizeToHeaderNames = new IntObjectHashMap<>(1);
-            CharSequence headerName = headerNames.get(0);
-            sizeToHeaderNames.put(
-                headerName.length(), Collections.singletonList(AsciiString.of(headerName)));
-            return new Projection(sizeToHeaderNames);
-          }
-        default:
-          {
-            IntObjectHashMap<List<AsciiString>> sizeToHeaderNames =
-                new IntObjectHashMap<>(headerNamesSize);
-            for (int i = 0; i < headerNamesSize; i++) {
-              CharSequence name = headerNames.get(i);
-              if (name == null) {
-                throw new IllegalArgumentException("headerName");
-              }
-              AsciiString asciiName = AsciiString.of(name);
-              int nameLength = asciiName.length();
-              List<AsciiString> headers = sizeToHeaderNames.get(nameLength);
-              if (headers == null) {
-                headers = new ArrayList<>(1);
-                headers.add(asciiName);
-                sizeToHeaderNames.put(nameLength, headers);
-              } else {
-                if (!headers.contains(asciiName)) {
-                  headers.add(asciiName);
-                }
-              }
-            }
-            return new Projection(sizeToHeaderNames);
-          }
+      if (headerNamesSize == 0) {
+        return NONE;
       }
+      List<AsciiString> asciiNames = new ArrayList<>(headerNamesSize);
+      int maxLength = 0;
+      for (int i = 0; i < headerNamesSize; i++) {
+        CharSequence name = headerNames.get(i);
+        if (name == null) {
+          throw new IllegalArgumentException("headerName");
+        }
+        int nameLength = name.length();
+        /*can not be present in metadata*/
+        if (nameLength == 0 || nameLength > HEADER_NAME_MAX_LENGTH) {
+          continue;
+        }
+        AsciiString asciiName = AsciiString.of(name);
+        if (!asciiNames.contains(asciiName)) {
+          asciiNames.add(asciiName);
+          maxLength = Math.max(maxLength, nameLength);
+        }
+      }
+      if (asciiNames.isEmpty()) {
+        return NONE;
+      }
+      Names[] lengthToHeaderNames = new Names[maxLength + 1];
+      for (AsciiString asciiName : asciiNames) {
+        int nameLength = asciiName.length();
+        Names names = lengthToHeaderNames[nameLength];
+        lengthToHeaderNames[nameLength] =
+            names == null ? new Names(asciiName) : names.add(asciiName);
+      }
+      return new Projection(lengthToHeaderNames);
     }
 
-    static boolean isAll(@Nullable IntObjectMap<List<AsciiString>> sizeToHeaderNames) {
-      return sizeToHeaderNames == null;
+    boolean isAll() {
+      return lengthToHeaderNames == null;
     }
 
-    static boolean isNone(@Nullable IntObjectMap<List<AsciiString>> sizeToHeaderNames) {
-      return sizeToHeaderNames != null && sizeToHeaderNames.isEmpty();
+    /**
+     * @return projected header name equal to bytes of provided buffer region, or null if header is
+     *     not accepted by projection
+     */
+    @Nullable
+    AsciiString headerName(ByteBuf buffer, int offset, int length) {
+      Names[] lengthToNames = lengthToHeaderNames;
+      if (lengthToNames == null) {
+        throw new IllegalStateException("all headers are accepted by projection");
+      }
+      if (length >= lengthToNames.length) {
+        return null;
+      }
+      Names names = lengthToNames[length];
+      if (names == null) {
+        return null;
+      }
+      return names.find(buffer, offset, length);
     }
 
-    /*
-     * null -> all
-     * empty -> none
-     * otherwise accept projection
-     **/
-    @Nullable
-    IntObjectMap<List<AsciiString>> headerNames() {
-      return sizeToHeaderNames;
+    /* projected header names of same length */
+    static final class Names {
+      final AsciiString[] names;
+      final Rpc.AsciiIndex.Key[] keys;
+
+      Names(AsciiString name) {
+        this(
+            new AsciiString[] {name},
+            new Rpc.AsciiIndex.Key[] {new Rpc.AsciiIndex.Key(bytes(name))});
+      }
+
+      private Names(AsciiString[] names, Rpc.AsciiIndex.Key[] keys) {
+        this.names = names;
+        this.keys = keys;
+      }
+
+      Names add(AsciiString name) {
+        int length = names.length;
+        AsciiString[] ns = Arrays.copyOf(names, length + 1);
+        Rpc.AsciiIndex.Key[] ks = Arrays.copyOf(keys, length + 1);
+        ns[length] = name;
+        ks[length] = new Rpc.AsciiIndex.Key(bytes(name));
+        return new Names(ns, ks);
+      }
+
+      @Nullable
+      AsciiString find(ByteBuf buffer, int offset, int length) {
+        Rpc.AsciiIndex.Key[] ks = keys;
+        for (int i = 0; i < ks.length; i++) {
+          if (ks[i].equals(buffer, offset, length)) {
+            return names[i];
+          }
+        }
+        return null;
+      }
+
+      static byte[] bytes(AsciiString name) {
+        return name.isEntireArrayUsed() ? name.array() : name.toByteArray();
+      }
     }
   }
 }
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Client-side policy of hedged request-response calls: idempotent calls ({@link
+ * Rpc.RpcMetadata#flagIdempotentCall(int)}) of configured methods that are not answered within
+ * method's p95 latency are duplicated to another RSocket of good {@link Availability}. First
+ * response is kept, and other call is cancelled.
+ *
+ * <p>Method latency is estimated from observed responses, and may be provided by server with lease
+ * metadata, see {@link #serviceCallLatency(String, int)}. Methods are not hedged until latency is
+ * known. Hedges are bounded by budget: ratio of hedged to hedgeable calls.
+ *
+ * <p>Policy is thread-safe, and is typically shared by client's {@code RpcHedging} message streams
+ * of all connections.
+ */
+public final class Hedging {
+  public static final double DEFAULT_BUDGET = 0.05;
+  public static final double DEFAULT_MIN_AVAILABILITY = 0.5;
+  /*hedges available for burst of slow responses*/
+  static final int MAX_BUDGET_HEDGES = 10;
+  static final long BUDGET_SCALE = 1_000_000;
+  /*method latency estimate*/
+  static final int WINDOW = 128;
+
+  private final Rpc.RpcMetadata.ServiceMethodIndex methods;
+  private final Map<String, Method> hedgedMethods;
+  private final Map<String, Method> serviceCalls;
+  private final Map<Long, Method> serviceCallIds;
+  private final long minDelayNanos;
+  private final double minAvailability;
+  private final long budgetDeposit;
+  private final AtomicLong budget = new AtomicLong(BUDGET_SCALE * MAX_BUDGET_HEDGES);
+
+  private Hedging(
+      Rpc.RpcMetadata.ServiceMethodIndex methods,
+      Map<String, Method> hedgedMethods,
+      Map<String, Method> serviceCalls,
+      long minDelayNanos,
+      double minAvailability,
+      double budget) {
+    this.methods = methods;
+    this.hedgedMethods = hedgedMethods;
+    this.serviceCalls = serviceCalls;
+    this.serviceCallIds = new HashMap<>();
+    this.minDelayNanos = minDelayNanos;
+    this.minAvailability = minAvailability;
+    this.budgetDeposit = Math.max(1, (long) (budget * BUDGET_SCALE));
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Deposits hedge budget for hedgeable call.
+   *
+   * @param metadata RPC metadata of request, not modified
+   * @return hedged method of request, or null if request is not hedged: is not idempotent, or its
+   *     method is not configured
+   */
+  @Nullable
+  public Method method(ByteBuf metadata) {
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    if (!Rpc.RpcMetadata.flagIdempotentCall(flags)) {
+      return null;
+    }
+    String serviceMethod = methods.find(flags, header, metadata);
+    if (serviceMethod == null) {
+      return null;
+    }
+    deposit();
+    return hedgedMethods.get(serviceMethod);
+  }
+
+  /** @return true if hedge budget allows one more hedged call, which is then charged */
+  public boolean tryHedge() {
+    AtomicLong b = budget;
+    while (true) {
+      long current = b.get();
+      if (current < BUDGET_SCALE) {
+        return false;
+      }
+      if (b.compareAndSet(current, current - BUDGET_SCALE)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @param targets candidates for hedged call
+   * @param excluded target of original call
+   * @return most available target other than excluded, or null if there is none with availability
+   *     of at least configured minimum
+   */
+  @Nullable
+  public <T extends Availability> T select(List<T> targets, Object excluded) {
+    T selected = null;
+    double selectedAvailability = minAvailability;
+    for (int i = 0; i < targets.size(); i++) {
+      T target = targets.get(i);
+      if (target == excluded) {
+        continue;
+      }
+      double availability = target.availability();
+      if (availability >= selectedAvailability) {
+        if (selected == null || availability > selectedAvailability) {
+          selected = target;
+          selectedAvailability = availability;
+        }
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Provides method latency reported by server, e.g. with {@link
+   * Lease.Metadata#serviceCallLatency(String, int)}. Latency estimated from observed responses
+   * overrides it once enough responses are recorded.
+   *
+   * @param serviceCall service call in "service/method" form
+   * @param latencyMicros service call p95 latency, micros
+   */
+  public void serviceCallLatency(String serviceCall, int latencyMicros) {
+    Objects.requireNonNull(serviceCall, "serviceCall");
+    if (latencyMicros <= 0) {
+      throw new IllegalArgumentException("latencyMicros must be positive: " + latencyMicros);
+    }
+    Method method = serviceCalls.get(serviceCall);
+    if (method != null) {
+      method.p95Micros = latencyMicros;
+    }
+  }
+
+  /**
+   * Provides method latencies reported by server with lease metadata, see {@link
+   * #serviceCallLatency(String, int)}.
+   *
+   * @param metadata lease metadata received from server
+   */
+  public void serviceCallLatencies(Lease.Metadata metadata) {
+    Objects.requireNonNull(metadata, "metadata");
+    if (metadata.serviceCalls() == 0) {
+      return;
+    }
+    /*lease frame latencies are matched by part of service call ID*/
+    for (Map.Entry<Long, Method> serviceCall : serviceCallIds.entrySet()) {
+      int latencyMicros = metadata.serviceCallLatencyMicros(serviceCall.getKey());
+      if (latencyMicros > 0) {
+        serviceCall.getValue().p95Micros = latencyMicros;
+      }
+    }
+  }
+
+  private void deposit() {
+    AtomicLong b = budget;
+    long deposit = budgetDeposit;
+    long max = BUDGET_SCALE * MAX_BUDGET_HEDGES;
+    while (true) {
+      long current = b.get();
+      if (current >= max) {
+        return;
+      }
+      if (b.compareAndSet(current, Math.min(max, current + deposit))) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Hedged method latency estimate: log-linear histogram of response latencies, with p95 updated
+   * and counts halved each 128 responses so estimate follows recent latency
+   */
+  public final class Method {
+    private final String serviceCall;
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyStatsRecorder.BUCKETS);
+    private final AtomicLong recorded = new AtomicLong();
+    volatile long p95Micros;
+
+    Method(String serviceCall) {
+      this.serviceCall = serviceCall;
+    }
+
+    /** @return service call in "service/method" form */
+    public String serviceCall() {
+      return serviceCall;
+    }
+
+    /** @return delay of hedged call since original call, nanos; or -1 if latency is not known */
+    public long delayNanos() {
+      long p95 = p95Micros;
+      if (p95 <= 0) {
+        return -1;
+      }
+      return Math.max(minDelayNanos, TimeUnit.MICROSECONDS.toNanos(p95));
+    }
+
+    /** @param latencyNanos interval between call is started and its response is received */
+    public void record(long latencyNanos) {
+      long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+      counts.incrementAndGet(LatencyStatsRecorder.bucket(micros));
+      if ((recorded.incrementAndGet() & (WINDOW - 1)) == 0) {
+        updateP95();
+      }
+    }
+
+    private void updateP95() {
+      AtomicLongArray c = counts;
+      long[] snapshot = new long[c.length()];
+      for (int i = 0; i < snapshot.length; i++) {
+        snapshot[i] = c.get(i);
+      }
+      p95Micros = Math.max(1, LatencyStatsRecorder.percentile(snapshot, 0, 0.95));
+      for (int i = 0; i < snapshot.length; i++) {
+        long count = snapshot[i];
+        if (count > 1) {
+          c.addAndGet(i, -(count / 2));
+        }
+      }
+    }
+  }
+
+  /**
+   * Request of hedged call: shares content of original request, and is released unless hedged call
+   * is made
+   */
+  public static final class Request extends AtomicReference<Message> {
+
+    private Request(Message request) {
+      super(request);
+    }
+
+    /**
+     * @param request original request, not modified
+     * @param messageFactory factory of hedged call request
+     */
+    public static Request of(Message request, Message.Factory messageFactory) {
+      ByteBuf data = request.data().retainedSlice();
+      ByteBuf metadata = request.hasMetadata() ? request.metadata().retainedSlice() : null;
+      return new Request(messageFactory.create(data, metadata));
+    }
+
+    /** @return request of hedged call, or null if it is already taken or released */
+    @Nullable
+    public Message take() {
+      return getAndSet(null);
+    }
+
+    public void release() {
+      Message request = getAndSet(null);
+      if (request != null) {
+        request.release();
+      }
+    }
+  }
+
+  public static final class Builder {
+    private final List<String[]> serviceMethods = new ArrayList<>();
+    private Rpc.CallIds callIds;
+    private double budget = DEFAULT_BUDGET;
+    private double minAvailability = DEFAULT_MIN_AVAILABILITY;
+    private long minDelayNanos;
+
+    private Builder() {}
+
+    /**
+     * Enables hedging of idempotent calls of given method
+     *
+     * @param service service name, or empty string for default service calls
+     */
+    public Builder method(String service, String method) {
+      Objects.requireNonNull(service, "service");
+      Objects.requireNonNull(method, "method");
+      serviceMethods.add(new String[] {service, method});
+      return this;
+    }
+
+    /** @param callIds call IDs of connections, so calls addressed with call ID are hedged */
+    public Builder callIds(Rpc.CallIds callIds) {
+      this.callIds = Objects.requireNonNull(callIds, "callIds");
+      return this;
+    }
+
+    /** @param budget max ratio of hedged calls to hedgeable calls, in (0, 1] */
+    public Builder budget(double budget) {
+      if (!(budget > 0 && budget <= 1)) {
+        throw new IllegalArgumentException("budget must be in (0, 1], provided: " + budget);
+      }
+      this.budget = budget;
+      return this;
+    }
+
+    /** @param minDelay lower bound of hedged call delay */
+    public Builder minDelay(Duration minDelay) {
+      Objects.requireNonNull(minDelay, "minDelay");
+      if (minDelay.isNegative()) {
+        throw new IllegalArgumentException("minDelay must be non-negative, provided: " + minDelay);
+      }
+      this.minDelayNanos = minDelay.toNanos();
+      return this;
+    }
+
+    /** @param minAvailability lower bound of hedged call target availability, in [0, 1] */
+    public Builder minAvailability(double minAvailability) {
+      if (!(minAvailability >= 0 && minAvailability <= 1)) {
+        throw new IllegalArgumentException(
+            "minAvailability must be in [0, 1], provided: " + minAvailability);
+      }
+      this.minAvailability = minAvailability;
+      return this;
+    }
+
+    public Hedging build() {
+      List<String> services = new ArrayList<>(serviceMethods.size());
+      List<String> methods = new ArrayList<>(serviceMethods.size());
+      for (String[] serviceMethod : serviceMethods) {
+        services.add(serviceMethod[0]);
+        methods.add(serviceMethod[1]);
+      }
+      Rpc.RpcMetadata.ServiceMethodIndex index =
+          Rpc.RpcMetadata.ServiceMethodIndex.create(services, methods);
+      Rpc.CallIds ids = callIds;
+      if (ids != null) {
+        index = index.withCallIds(ids);
+      }
+      Map<String, Method> hedgedMethods = new HashMap<>();
+      Map<String, Method> serviceCalls = new HashMap<>();
+      Hedging hedging =
+          new Hedging(index, hedgedMethods, serviceCalls, minDelayNanos, minAvailability, budget);
+      for (String[] serviceMethod : serviceMethods) {
+        String serviceCall = serviceMethod[0] + "/" + serviceMethod[1];
+        Method method = serviceCalls.get(serviceCall);
+        if (method == null) {
+          method = hedging.new Method(serviceCall);
+          serviceCalls.put(serviceCall, method);
+          hedging.serviceCallIds.put(Lease.Metadata.serviceCallId(serviceCall), method);
+        }
+        hedgedMethods.put(
+            Rpc.RpcMetadata.ServiceMethodIndex.key(serviceMethod[0], serviceMethod[1]), method);
+      }
+      return hedging;
+    }
+  }
+}
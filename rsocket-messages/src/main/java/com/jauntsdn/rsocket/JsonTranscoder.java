@@ -0,0 +1,1969 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import static com.jauntsdn.rsocket.Rpc.ProtoMessage.WIRETYPE_FIXED32;
+import static com.jauntsdn.rsocket.Rpc.ProtoMessage.WIRETYPE_FIXED64;
+import static com.jauntsdn.rsocket.Rpc.ProtoMessage.WIRETYPE_LENGTH_DELIMITED;
+import static com.jauntsdn.rsocket.Rpc.ProtoMessage.WIRETYPE_VARINT;
+import static com.jauntsdn.rsocket.Rpc.ProtoMessage.checkBounds;
+import static com.jauntsdn.rsocket.Rpc.ProtoMessage.readLength;
+import static com.jauntsdn.rsocket.Rpc.ProtoMessage.readVarint;
+import static com.jauntsdn.rsocket.Rpc.ProtoMessage.skipField;
+import static com.jauntsdn.rsocket.Rpc.ProtoMessage.skipVarint;
+import static com.jauntsdn.rsocket.Rpc.ProtoMessage.wireFormatError;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.jauntsdn.rsocket.exceptions.SerializationException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ByteProcessor;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Transcodes messages of {@link Rpc.ServiceDescriptor} calls between Protocol Buffers binary and
+ * JSON representations, according to proto3 JSON mapping. Field writers and readers are compiled
+ * once per message type from descriptors: binary message is streamed as JSON directly from its wire
+ * format into ByteBuf, and JSON is parsed directly into wire format, without intermediate message
+ * objects or JSON tree. Presence of proto2 required fields is not checked. Last of map entries with
+ * equal keys wins, as in parsed message: JSON has single member per key, and duplicate JSON members
+ * are written as map entries in order, so last of them wins once protobuf message is parsed.
+ *
+ * <p>Well-known types supported are wrappers, Timestamp, Duration, Struct, Value, ListValue and
+ * Empty. Any, FieldMask and group fields are not supported: transcoding message that contains them
+ * fails with {@link SerializationException}.
+ */
+public final class JsonTranscoder {
+  private final Map<String, Call> calls;
+
+  private JsonTranscoder(Map<String, Call> calls) {
+    this.calls = calls;
+  }
+
+  public static JsonTranscoder create(Rpc.ServiceDescriptor serviceDescriptor) {
+    return newBuilder(serviceDescriptor).build();
+  }
+
+  public static Builder newBuilder(Rpc.ServiceDescriptor serviceDescriptor) {
+    return new Builder(Objects.requireNonNull(serviceDescriptor, "serviceDescriptor"));
+  }
+
+  /**
+   * @param name call name as in {@link Rpc.ServiceDescriptor.Call}, e.g. /service/method
+   * @return call transcoder, or null if service has no call with given name
+   */
+  @Nullable
+  public Call call(String name) {
+    return calls.get(name);
+  }
+
+  public Collection<Call> calls() {
+    return calls.values();
+  }
+
+  public static final class Builder {
+    private final Rpc.ServiceDescriptor serviceDescriptor;
+    private boolean preservingProtoFieldNames;
+    private boolean ignoringUnknownFields;
+
+    private Builder(Rpc.ServiceDescriptor serviceDescriptor) {
+      this.serviceDescriptor = serviceDescriptor;
+    }
+
+    /**
+     * @param preservingProtoFieldNames true if JSON is written with field names as in proto
+     *     definition instead of lowerCamelCase JSON names. Both are accepted by JSON parser
+     */
+    public Builder preservingProtoFieldNames(boolean preservingProtoFieldNames) {
+      this.preservingProtoFieldNames = preservingProtoFieldNames;
+      return this;
+    }
+
+    /** @param ignoringUnknownFields true if JSON parser skips unknown fields instead of failing */
+    public Builder ignoringUnknownFields(boolean ignoringUnknownFields) {
+      this.ignoringUnknownFields = ignoringUnknownFields;
+      return this;
+    }
+
+    public JsonTranscoder build() {
+      Compiler compiler = new Compiler(preservingProtoFieldNames);
+      List<Rpc.ServiceDescriptor.Call> serviceCalls = serviceDescriptor.serviceCalls();
+      Map<String, Call> calls = new LinkedHashMap<>(serviceCalls.size());
+      for (Rpc.ServiceDescriptor.Call serviceCall : serviceCalls) {
+        String name = serviceCall.name;
+        Message.Builder requestBuilder = serviceCall.inMessageFactory.get();
+        if (requestBuilder == null) {
+          throw new IllegalArgumentException("call " + name + " request factory returned null");
+        }
+        Message response =
+            serviceCall.outMessageFactory.apply(CodedInputStream.newInstance(new byte[0]));
+        if (response == null) {
+          throw new IllegalArgumentException("call " + name + " response factory returned null");
+        }
+        Message request = requestBuilder.getDefaultInstanceForType();
+        calls.put(
+            name,
+            new Call(
+                name,
+                new MessageTranscoder(
+                    request,
+                    compiler.compile(request.getDescriptorForType()),
+                    ignoringUnknownFields),
+                new MessageTranscoder(
+                    response,
+                    compiler.compile(response.getDescriptorForType()),
+                    ignoringUnknownFields)));
+      }
+      return new JsonTranscoder(Collections.unmodifiableMap(calls));
+    }
+  }
+
+  /**
+   * Call messages transcoder. Source buffer readable bytes are transcoded, its indexes are not
+   * modified and it is not released. Result is written into target buffer starting at its writer
+   * index. On error target buffer writer index is not modified.
+   */
+  public static final class Call {
+    private final String name;
+    private final MessageTranscoder request;
+    private final MessageTranscoder response;
+
+    Call(String name, MessageTranscoder request, MessageTranscoder response) {
+      this.name = name;
+      this.request = request;
+      this.response = response;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public void requestToJson(ByteBuf protobuf, ByteBuf json) {
+      request.toJson(protobuf, json);
+    }
+
+    public void requestFromJson(ByteBuf json, ByteBuf protobuf) {
+      request.fromJson(json, protobuf);
+    }
+
+    public void responseToJson(ByteBuf protobuf, ByteBuf json) {
+      response.toJson(protobuf, json);
+    }
+
+    public void responseFromJson(ByteBuf json, ByteBuf protobuf) {
+      response.fromJson(json, protobuf);
+    }
+
+    @Override
+    public String toString() {
+      return "JsonTranscoder.Call{" + "name='" + name + '\'' + '}';
+    }
+  }
+
+  static final class MessageTranscoder {
+    private final Message prototype;
+    private final MessageCodec codec;
+    private final boolean ignoringUnknownFields;
+
+    MessageTranscoder(Message prototype, MessageCodec codec, boolean ignoringUnknownFields) {
+      this.prototype = prototype;
+      this.codec = codec;
+      this.ignoringUnknownFields = ignoringUnknownFields;
+    }
+
+    void toJson(ByteBuf protobuf, ByteBuf json) {
+      Objects.requireNonNull(protobuf, "protobuf");
+      Objects.requireNonNull(json, "json");
+      int writerIndex = json.writerIndex();
+      try {
+        try {
+          Writer.writeMessage(
+              codec, protobuf, protobuf.readerIndex(), protobuf.writerIndex(), json, 0);
+        } catch (NonCanonicalException e) {
+          /*fields are out of order or repeated: rewrite from message serialized canonically*/
+          json.writerIndex(writerIndex);
+          byte[] canonical =
+              prototype
+                  .getParserForType()
+                  .parseFrom(Rpc.ProtoMessage.codedInputStream(protobuf, false))
+                  .toByteArray();
+          Writer.writeMessage(
+              codec, Unpooled.wrappedBuffer(canonical), 0, canonical.length, json, 0);
+        }
+      } catch (InvalidProtocolBufferException e) {
+        json.writerIndex(writerIndex);
+        throw new SerializationException("Protobuf deserialization error", e);
+      } catch (Throwable t) {
+        json.writerIndex(writerIndex);
+        throw t;
+      }
+    }
+
+    void fromJson(ByteBuf json, ByteBuf protobuf) {
+      Objects.requireNonNull(json, "json");
+      Objects.requireNonNull(protobuf, "protobuf");
+      int writerIndex = protobuf.writerIndex();
+      /*nested message content is moved in place once its length is known*/
+      boolean isInPlace = protobuf.hasArray();
+      ByteBuf out = isInPlace ? protobuf : protobuf.alloc().heapBuffer(json.readableBytes());
+      try {
+        Reader reader = new Reader(json, out, ignoringUnknownFields);
+        try {
+          reader.readMessage(codec);
+          reader.expectEnd();
+        } catch (IllegalArgumentException | ArithmeticException | DateTimeException e) {
+          throw reader.error(e.getMessage(), e);
+        }
+        if (!isInPlace) {
+          protobuf.writeBytes(out);
+        }
+      } catch (Throwable t) {
+        protobuf.writerIndex(writerIndex);
+        throw t;
+      } finally {
+        if (!isInPlace) {
+          out.release();
+        }
+      }
+    }
+  }
+
+  /*messages*/
+  static final int TYPE_MESSAGE = 0;
+  static final int TYPE_WRAPPER = 1;
+  static final int TYPE_TIMESTAMP = 2;
+  static final int TYPE_DURATION = 3;
+  static final int TYPE_STRUCT = 4;
+  static final int TYPE_VALUE = 5;
+  static final int TYPE_LIST_VALUE = 6;
+  static final int TYPE_UNSUPPORTED = 7;
+
+  static final class Compiler {
+    private static final int MAX_INDEXED_NUMBER = 256;
+
+    private final Map<Descriptors.Descriptor, MessageCodec> codecs = new HashMap<>();
+    private final boolean preservingProtoFieldNames;
+
+    Compiler(boolean preservingProtoFieldNames) {
+      this.preservingProtoFieldNames = preservingProtoFieldNames;
+    }
+
+    MessageCodec compile(Descriptors.Descriptor descriptor) {
+      MessageCodec codec = codecs.get(descriptor);
+      if (codec != null) {
+        return codec;
+      }
+      /*registered before fields are compiled so recursive message types refer to itself*/
+      codec = new MessageCodec(descriptor, messageType(descriptor.getFullName()));
+      codecs.put(descriptor, codec);
+
+      List<Descriptors.FieldDescriptor> fieldDescriptors = new ArrayList<>(descriptor.getFields());
+      fieldDescriptors.sort((f1, f2) -> Integer.compare(f1.getNumber(), f2.getNumber()));
+      int count = fieldDescriptors.size();
+      Field[] fields = new Field[count];
+      int[] fieldNumbers = new int[count];
+      List<String> names = new ArrayList<>(count * 2);
+      List<Field> namedFields = new ArrayList<>(count * 2);
+      for (int i = 0; i < count; i++) {
+        Descriptors.FieldDescriptor fieldDescriptor = fieldDescriptors.get(i);
+        Field field = compile(fieldDescriptor);
+        fields[i] = field;
+        fieldNumbers[i] = fieldDescriptor.getNumber();
+        names.add(fieldDescriptor.getJsonName());
+        namedFields.add(field);
+        names.add(fieldDescriptor.getName());
+        namedFields.add(field);
+      }
+      codec.fields = fields;
+      codec.fieldNumbers = fieldNumbers;
+      codec.fieldIndexes = indexes(fieldNumbers);
+      codec.fieldsByName = new Rpc.AsciiIndex<>(names, namedFields);
+      return codec;
+    }
+
+    Field compile(Descriptors.FieldDescriptor fieldDescriptor) {
+      String name =
+          preservingProtoFieldNames ? fieldDescriptor.getName() : fieldDescriptor.getJsonName();
+      Field field =
+          new Field(fieldDescriptor, ("\"" + name + "\":").getBytes(StandardCharsets.UTF_8));
+      switch (fieldDescriptor.getJavaType()) {
+        case MESSAGE:
+          if (fieldDescriptor.getType() == Descriptors.FieldDescriptor.Type.GROUP) {
+            break;
+          }
+          MessageCodec message = field.message = compile(fieldDescriptor.getMessageType());
+          if (field.isMap) {
+            field.mapKey = message.fields[message.index(1, -1)];
+            field.mapValue = message.fields[message.index(2, -1)];
+          }
+          break;
+        case ENUM:
+          List<Descriptors.EnumValueDescriptor> values =
+              new ArrayList<>(fieldDescriptor.getEnumType().getValues());
+          values.sort((v1, v2) -> Integer.compare(v1.getNumber(), v2.getNumber()));
+          int count = values.size();
+          int[] enumNumbers = new int[count];
+          byte[][] enumNames = new byte[count][];
+          int size = 0;
+          for (Descriptors.EnumValueDescriptor value : values) {
+            int number = value.getNumber();
+            /*first of aliased values*/
+            if (size > 0 && enumNumbers[size - 1] == number) {
+              continue;
+            }
+            enumNumbers[size] = number;
+            enumNames[size] = ("\"" + value.getName() + "\"").getBytes(StandardCharsets.UTF_8);
+            size++;
+          }
+          field.enumNumbers = Arrays.copyOf(enumNumbers, size);
+          field.enumNames = Arrays.copyOf(enumNames, size);
+          field.enumIndexes = indexes(field.enumNumbers);
+          List<String> valueNames = new ArrayList<>(count);
+          for (Descriptors.EnumValueDescriptor value : values) {
+            valueNames.add(value.getName());
+          }
+          field.enumValues = new Rpc.AsciiIndex<>(valueNames, values);
+          break;
+        default:
+      }
+      return field;
+    }
+
+    /** @return index by number of sorted numbers, or null if numbers are negative or too large */
+    @Nullable
+    static int[] indexes(int[] numbers) {
+      int length = numbers.length;
+      if (length == 0
+          || numbers[0] < 0
+          || numbers[length - 1] > Math.max(MAX_INDEXED_NUMBER, length * 2)) {
+        return null;
+      }
+      int[] indexes = new int[numbers[length - 1] + 1];
+      Arrays.fill(indexes, -1);
+      for (int i = 0; i < length; i++) {
+        indexes[numbers[i]] = i;
+      }
+      return indexes;
+    }
+
+    static int messageType(String name) {
+      switch (name) {
+        case "google.protobuf.DoubleValue":
+        case "google.protobuf.FloatValue":
+        case "google.protobuf.Int64Value":
+        case "google.protobuf.UInt64Value":
+        case "google.protobuf.Int32Value":
+        case "google.protobuf.UInt32Value":
+        case "google.protobuf.BoolValue":
+        case "google.protobuf.StringValue":
+        case "google.protobuf.BytesValue":
+          return TYPE_WRAPPER;
+        case "google.protobuf.Timestamp":
+          return TYPE_TIMESTAMP;
+        case "google.protobuf.Duration":
+          return TYPE_DURATION;
+        case "google.protobuf.Struct":
+          return TYPE_STRUCT;
+        case "google.protobuf.Value":
+          return TYPE_VALUE;
+        case "google.protobuf.ListValue":
+          return TYPE_LIST_VALUE;
+        case "google.protobuf.Any":
+        case "google.protobuf.FieldMask":
+          return TYPE_UNSUPPORTED;
+        default:
+          return TYPE_MESSAGE;
+      }
+    }
+  }
+
+  static final class MessageCodec {
+    final Descriptors.Descriptor descriptor;
+    final int type;
+    /*sorted by field number*/
+    Field[] fields;
+    int[] fieldNumbers;
+    /*field index by field number, if field numbers are small*/
+    @Nullable int[] fieldIndexes;
+    Rpc.AsciiIndex<Field> fieldsByName;
+
+    MessageCodec(Descriptors.Descriptor descriptor, int type) {
+      this.descriptor = descriptor;
+      this.type = type;
+    }
+
+    /** @return index of field with given number, negative if not found */
+    int index(int fieldNumber, int lastIndex) {
+      int[] indexes = fieldIndexes;
+      if (indexes != null) {
+        return fieldNumber < indexes.length ? indexes[fieldNumber] : -1;
+      }
+      int[] numbers = fieldNumbers;
+      /*fields are usually serialized in order of field numbers*/
+      int next = lastIndex + 1;
+      if (next < numbers.length && numbers[next] == fieldNumber) {
+        return next;
+      }
+      if (lastIndex >= 0 && numbers[lastIndex] == fieldNumber) {
+        return lastIndex;
+      }
+      return Arrays.binarySearch(numbers, fieldNumber);
+    }
+
+    SerializationException unsupported() {
+      return new SerializationException(
+          "JSON transcoding error",
+          new UnsupportedOperationException(
+              "unsupported message type: " + descriptor.getFullName()));
+    }
+  }
+
+  static final class Field {
+    final Descriptors.FieldDescriptor descriptor;
+    final Descriptors.FieldDescriptor.Type type;
+    /*quoted name followed by colon*/
+    final byte[] name;
+    final int wireType;
+    /*encoded tag of field value, and of packed repeated values*/
+    final byte[] tag;
+    final byte[] packedTag;
+    final boolean isRepeated;
+    final boolean isPackable;
+    final boolean isPacked;
+    final boolean hasPresence;
+    final boolean isMap;
+    final boolean isUnsupported;
+    final boolean isNullValue;
+    final boolean isClosedEnum;
+    MessageCodec message;
+    Field mapKey;
+    Field mapValue;
+    /*sorted by enum number, names are quoted*/
+    int[] enumNumbers;
+    byte[][] enumNames;
+    @Nullable int[] enumIndexes;
+    Rpc.AsciiIndex<Descriptors.EnumValueDescriptor> enumValues;
+
+    Field(Descriptors.FieldDescriptor descriptor, byte[] name) {
+      this.descriptor = descriptor;
+      this.type = descriptor.getType();
+      this.name = name;
+      int wireType = this.wireType = descriptor.getLiteType().getWireType();
+      this.tag = tag(descriptor.getNumber(), wireType);
+      this.packedTag = tag(descriptor.getNumber(), WIRETYPE_LENGTH_DELIMITED);
+      this.isRepeated = descriptor.isRepeated();
+      this.isPackable = descriptor.isPackable();
+      this.isPacked = descriptor.isPacked();
+      this.hasPresence = descriptor.hasPresence();
+      this.isMap = descriptor.isMapField();
+      this.isUnsupported = type == Descriptors.FieldDescriptor.Type.GROUP;
+      boolean isEnum = type == Descriptors.FieldDescriptor.Type.ENUM;
+      this.isNullValue =
+          isEnum && descriptor.getEnumType().getFullName().equals("google.protobuf.NullValue");
+      this.isClosedEnum = isEnum && descriptor.getEnumType().isClosed();
+    }
+
+    static byte[] tag(int fieldNumber, int wireType) {
+      ByteBuf tag = Unpooled.buffer(5);
+      Reader.writeVarint(tag, fieldNumber << 3 | wireType);
+      return ByteBufUtil.getBytes(tag);
+    }
+
+    @Nullable
+    byte[] enumName(int number) {
+      int[] indexes = enumIndexes;
+      int index;
+      if (indexes != null) {
+        index = number >= 0 && number < indexes.length ? indexes[number] : -1;
+      } else {
+        index = Arrays.binarySearch(enumNumbers, number);
+      }
+      return index >= 0 ? enumNames[index] : null;
+    }
+
+    SerializationException unsupported() {
+      return new SerializationException(
+          "JSON transcoding error",
+          new UnsupportedOperationException(
+              "unsupported field type: " + type + " of " + descriptor.getFullName()));
+    }
+  }
+
+  /*message is transcoded from its canonical serialization instead*/
+  static final class NonCanonicalException extends RuntimeException {
+    private static final long serialVersionUID = -5327488361240734337L;
+
+    static final NonCanonicalException INSTANCE = new NonCanonicalException();
+
+    private NonCanonicalException() {
+      super(null, null, false, false);
+    }
+  }
+
+  static final int MAX_DEPTH = 100;
+
+  /**
+   * JSON keys of entries of map being written, as ranges of output. Entry with key that is already
+   * written replaces previous one, so last value wins as in parsed message.
+   */
+  static final class MapKeys {
+    int[] starts = new int[8];
+    /*-1 if entry is replaced*/
+    int[] lengths = new int[8];
+    int[] hashes = new int[8];
+    /*entry index + 1, 0 if slot is empty*/
+    int[] slots = new int[16];
+    int count;
+
+    /** @param entryStart output offset of map entry that was just written */
+    void add(ByteBuf out, int entryStart) {
+      int keyEnd = entryStart + 1;
+      while (true) {
+        byte b = out.getByte(keyEnd);
+        if (b == '"') {
+          break;
+        }
+        keyEnd += b == '\\' ? 2 : 1;
+      }
+      int length = keyEnd - entryStart;
+      int hash = 0;
+      for (int i = entryStart; i < keyEnd; i++) {
+        hash = 31 * hash + out.getByte(i);
+      }
+      if (count == starts.length) {
+        int capacity = count * 2;
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+      }
+      int index = count++;
+      starts[index] = entryStart;
+      lengths[index] = length;
+      hashes[index] = hash;
+
+      int[] s = slots;
+      int mask = s.length - 1;
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      while (true) {
+        int cur = s[slot];
+        if (cur == 0) {
+          break;
+        }
+        int previous = cur - 1;
+        if (hashes[previous] == hash
+            && lengths[previous] == length
+            && ByteBufUtil.equals(out, starts[previous], out, entryStart, length)) {
+          remove(out, previous);
+          s[slot] = index + 1;
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      s[slot] = index + 1;
+      if (count * 2 > s.length) {
+        rehash(s.length * 2);
+      }
+    }
+
+    /*removes entry with its trailing comma, and moves following entries*/
+    private void remove(ByteBuf out, int index) {
+      int next = index + 1;
+      while (lengths[next] < 0) {
+        next++;
+      }
+      int start = starts[index];
+      int nextStart = starts[next];
+      int removed = nextStart - start;
+      int writerIndex = out.writerIndex();
+      out.setBytes(start, ByteBufUtil.getBytes(out, nextStart, writerIndex - nextStart));
+      out.writerIndex(writerIndex - removed);
+      lengths[index] = -1;
+      for (int i = next; i < count; i++) {
+        starts[i] -= removed;
+      }
+    }
+
+    private void rehash(int capacity) {
+      int[] s = slots = new int[capacity];
+      int mask = capacity - 1;
+      for (int i = 0; i < count; i++) {
+        if (lengths[i] < 0) {
+          continue;
+        }
+        int hash = hashes[i];
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (s[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        s[slot] = i + 1;
+      }
+    }
+  }
+
+  /** Writes JSON from protobuf wire format */
+  static final class Writer {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64 =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final ByteBuf ZEROS = Unpooled.wrappedBuffer(new byte[Long.BYTES]);
+    private static final ByteProcessor NOT_ESCAPED =
+        b -> b < 0 || b >= 0x20 && b != '"' && b != '\\';
+
+    private Writer() {}
+
+    static void writeMessage(
+        MessageCodec codec, ByteBuf in, int offset, int end, ByteBuf out, int depth) {
+      if (++depth > MAX_DEPTH) {
+        throw wireFormatError("message nesting exceeds " + MAX_DEPTH);
+      }
+      switch (codec.type) {
+        case TYPE_MESSAGE:
+          writeFields(codec, in, offset, end, out, depth);
+          return;
+        case TYPE_WRAPPER:
+        case TYPE_VALUE:
+          writeSingular(codec, in, offset, end, out, depth);
+          return;
+        case TYPE_STRUCT:
+        case TYPE_LIST_VALUE:
+          writeRepeated(codec, in, offset, end, out, depth);
+          return;
+        case TYPE_TIMESTAMP:
+        case TYPE_DURATION:
+          writeTime(codec, in, offset, end, out);
+          return;
+        default:
+          throw codec.unsupported();
+      }
+    }
+
+    static void writeFields(
+        MessageCodec codec, ByteBuf in, int offset, int end, ByteBuf out, int depth) {
+      Field[] fields = codec.fields;
+      out.writeByte('{');
+      int lastIndex = -1;
+      Field repeated = null;
+      int repeatedStart = 0;
+      MapKeys mapKeys = null;
+      while (offset < end) {
+        long tag = readVarint(in, offset, end);
+        offset = skipVarint(in, offset, end);
+        int fieldNumber = (int) (tag >>> 3);
+        int wireType = (int) tag & 7;
+        int index = codec.index(fieldNumber, lastIndex);
+        if (index < 0) {
+          offset = skipField(in, offset, end, fieldNumber, wireType);
+          continue;
+        }
+        Field field = fields[index];
+        if (index != lastIndex) {
+          if (index < lastIndex) {
+            throw NonCanonicalException.INSTANCE;
+          }
+          if (repeated != null) {
+            out.writeByte(repeated.isMap ? '}' : ']');
+            repeated = null;
+          }
+          if (lastIndex >= 0) {
+            out.writeByte(',');
+          }
+          out.writeBytes(field.name);
+          lastIndex = index;
+          if (field.isRepeated) {
+            out.writeByte(field.isMap ? '{' : '[');
+            repeated = field;
+            repeatedStart = out.writerIndex();
+            mapKeys = field.isMap ? new MapKeys() : null;
+          }
+        } else if (!field.isRepeated) {
+          throw NonCanonicalException.INSTANCE;
+        }
+        if (field.isRepeated) {
+          offset =
+              writeElements(field, wireType, in, offset, end, out, repeatedStart, mapKeys, depth);
+        } else {
+          offset = writeValue(field, wireType, in, offset, end, out, depth);
+        }
+      }
+      if (repeated != null) {
+        out.writeByte(repeated.isMap ? '}' : ']');
+      }
+      out.writeByte('}');
+    }
+
+    /*wrappers and Value: JSON value of last present field*/
+    static void writeSingular(
+        MessageCodec codec, ByteBuf in, int offset, int end, ByteBuf out, int depth) {
+      Field field = null;
+      int fieldWireType = 0;
+      int fieldOffset = 0;
+      while (offset < end) {
+        long tag = readVarint(in, offset, end);
+        offset = skipVarint(in, offset, end);
+        int fieldNumber = (int) (tag >>> 3);
+        int wireType = (int) tag & 7;
+        int index = codec.index(fieldNumber, -1);
+        if (index >= 0) {
+          field = codec.fields[index];
+          fieldWireType = wireType;
+          fieldOffset = offset;
+        }
+        offset = skipField(in, offset, end, fieldNumber, wireType);
+      }
+      if (field != null) {
+        writeValue(field, fieldWireType, in, fieldOffset, end, out, depth);
+      } else if (codec.type == TYPE_VALUE) {
+        out.writeCharSequence("null", StandardCharsets.US_ASCII);
+      } else {
+        writeDefault(codec.fields[0], out, depth);
+      }
+    }
+
+    /*Struct and ListValue: JSON object or array of elements of single repeated field*/
+    static void writeRepeated(
+        MessageCodec codec, ByteBuf in, int offset, int end, ByteBuf out, int depth) {
+      Field field = codec.fields[0];
+      out.writeByte(field.isMap ? '{' : '[');
+      int start = out.writerIndex();
+      MapKeys mapKeys = field.isMap ? new MapKeys() : null;
+      while (offset < end) {
+        long tag = readVarint(in, offset, end);
+        offset = skipVarint(in, offset, end);
+        int fieldNumber = (int) (tag >>> 3);
+        int wireType = (int) tag & 7;
+        if (fieldNumber == field.descriptor.getNumber()) {
+          offset = writeElements(field, wireType, in, offset, end, out, start, mapKeys, depth);
+        } else {
+          offset = skipField(in, offset, end, fieldNumber, wireType);
+        }
+      }
+      out.writeByte(field.isMap ? '}' : ']');
+    }
+
+    static void writeTime(MessageCodec codec, ByteBuf in, int offset, int end, ByteBuf out) {
+      long seconds = 0;
+      int nanos = 0;
+      while (offset < end) {
+        long tag = readVarint(in, offset, end);
+        offset = skipVarint(in, offset, end);
+        int fieldNumber = (int) (tag >>> 3);
+        int wireType = (int) tag & 7;
+        if (wireType == WIRETYPE_VARINT && (fieldNumber == 1 || fieldNumber == 2)) {
+          long value = readVarint(in, offset, end);
+          if (fieldNumber == 1) {
+            seconds = value;
+          } else {
+            nanos = (int) value;
+          }
+        }
+        offset = skipField(in, offset, end, fieldNumber, wireType);
+      }
+      out.writeByte('"');
+      if (codec.type == TYPE_TIMESTAMP) {
+        String timestamp;
+        try {
+          timestamp = DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(seconds, nanos));
+        } catch (DateTimeException e) {
+          throw new SerializationException("Protobuf deserialization error", e);
+        }
+        out.writeCharSequence(timestamp, StandardCharsets.US_ASCII);
+      } else {
+        if (seconds < 0 || nanos < 0) {
+          out.writeByte('-');
+          seconds = -seconds;
+          nanos = -nanos;
+        }
+        writeLong(out, seconds);
+        if (nanos != 0) {
+          out.writeByte('.');
+          int digits;
+          if (nanos % 1_000_000 == 0) {
+            nanos /= 1_000_000;
+            digits = 3;
+          } else if (nanos % 1_000 == 0) {
+            nanos /= 1_000;
+            digits = 6;
+          } else {
+            digits = 9;
+          }
+          writeDigits(out, nanos, digits);
+        }
+        out.writeByte('s');
+      }
+      out.writeByte('"');
+    }
+
+    static int writeElements(
+        Field field,
+        int wireType,
+        ByteBuf in,
+        int offset,
+        int end,
+        ByteBuf out,
+        int repeatedStart,
+        @Nullable MapKeys mapKeys,
+        int depth) {
+      if (wireType == WIRETYPE_LENGTH_DELIMITED && field.isPackable) {
+        int length = readLength(in, offset, end);
+        offset = skipVarint(in, offset, end);
+        int packedEnd = checkBounds(offset, length, end);
+        while (offset < packedEnd) {
+          if (out.writerIndex() != repeatedStart) {
+            out.writeByte(',');
+          }
+          offset = writeScalar(field, in, offset, packedEnd, out, false);
+        }
+        return packedEnd;
+      }
+      if (out.writerIndex() != repeatedStart) {
+        out.writeByte(',');
+      }
+      if (mapKeys == null) {
+        return writeValue(field, wireType, in, offset, end, out, depth);
+      }
+      int entryStart = out.writerIndex();
+      offset = writeValue(field, wireType, in, offset, end, out, depth);
+      mapKeys.add(out, entryStart);
+      return offset;
+    }
+
+    static int writeValue(
+        Field field, int wireType, ByteBuf in, int offset, int end, ByteBuf out, int depth) {
+      if (field.isUnsupported) {
+        throw field.unsupported();
+      }
+      if (wireType != field.wireType) {
+        throw wireFormatError(
+            "unexpected wire type " + wireType + " of field " + field.descriptor.getFullName());
+      }
+      if (field.type == Descriptors.FieldDescriptor.Type.MESSAGE) {
+        int length = readLength(in, offset, end);
+        offset = skipVarint(in, offset, end);
+        int messageEnd = checkBounds(offset, length, end);
+        if (field.isMap) {
+          writeMapEntry(field, in, offset, messageEnd, out, depth);
+        } else {
+          writeMessage(field.message, in, offset, messageEnd, out, depth);
+        }
+        return messageEnd;
+      }
+      return writeScalar(field, in, offset, end, out, false);
+    }
+
+    static void writeMapEntry(
+        Field field, ByteBuf in, int offset, int end, ByteBuf out, int depth) {
+      int keyWireType = -1;
+      int keyOffset = 0;
+      int valueWireType = -1;
+      int valueOffset = 0;
+      while (offset < end) {
+        long tag = readVarint(in, offset, end);
+        offset = skipVarint(in, offset, end);
+        int fieldNumber = (int) (tag >>> 3);
+        int wireType = (int) tag & 7;
+        if (fieldNumber == 1) {
+          keyWireType = wireType;
+          keyOffset = offset;
+        } else if (fieldNumber == 2) {
+          valueWireType = wireType;
+          valueOffset = offset;
+        }
+        offset = skipField(in, offset, end, fieldNumber, wireType);
+      }
+      Field key = field.mapKey;
+      if (keyWireType < 0) {
+        if (key.type == Descriptors.FieldDescriptor.Type.STRING) {
+          out.writeCharSequence("\"\"", StandardCharsets.US_ASCII);
+        } else if (key.type == Descriptors.FieldDescriptor.Type.BOOL) {
+          out.writeCharSequence("\"false\"", StandardCharsets.US_ASCII);
+        } else {
+          out.writeCharSequence("\"0\"", StandardCharsets.US_ASCII);
+        }
+      } else {
+        if (keyWireType != key.wireType) {
+          throw wireFormatError("unexpected wire type " + keyWireType + " of map key");
+        }
+        writeScalar(key, in, keyOffset, end, out, true);
+      }
+      out.writeByte(':');
+      Field value = field.mapValue;
+      if (valueWireType < 0) {
+        writeDefault(value, out, depth);
+      } else {
+        writeValue(value, valueWireType, in, valueOffset, end, out, depth);
+      }
+    }
+
+    /**
+     * @param quoted true if numbers and booleans are written as JSON strings, e.g. map keys
+     * @return offset of next field
+     */
+    static int writeScalar(
+        Field field, ByteBuf in, int offset, int end, ByteBuf out, boolean quoted) {
+      switch (field.type) {
+        case DOUBLE:
+          {
+            int next = checkBounds(offset, 8, end);
+            writeDouble(out, Double.longBitsToDouble(in.getLongLE(offset)), quoted);
+            return next;
+          }
+        case FLOAT:
+          {
+            int next = checkBounds(offset, 4, end);
+            writeFloat(out, Float.intBitsToFloat(in.getIntLE(offset)), quoted);
+            return next;
+          }
+        case INT64:
+          writeQuotedLong(out, readVarint(in, offset, end));
+          return skipVarint(in, offset, end);
+        case UINT64:
+          writeQuotedUnsignedLong(out, readVarint(in, offset, end));
+          return skipVarint(in, offset, end);
+        case SINT64:
+          writeQuotedLong(out, CodedInputStream.decodeZigZag64(readVarint(in, offset, end)));
+          return skipVarint(in, offset, end);
+        case FIXED64:
+          {
+            int next = checkBounds(offset, 8, end);
+            writeQuotedUnsignedLong(out, in.getLongLE(offset));
+            return next;
+          }
+        case SFIXED64:
+          {
+            int next = checkBounds(offset, 8, end);
+            writeQuotedLong(out, in.getLongLE(offset));
+            return next;
+          }
+        case INT32:
+          writeInt(out, (int) readVarint(in, offset, end), quoted);
+          return skipVarint(in, offset, end);
+        case UINT32:
+          writeInt(out, readVarint(in, offset, end) & 0xFFFF_FFFFL, quoted);
+          return skipVarint(in, offset, end);
+        case SINT32:
+          writeInt(out, CodedInputStream.decodeZigZag32((int) readVarint(in, offset, end)), quoted);
+          return skipVarint(in, offset, end);
+        case FIXED32:
+          {
+            int next = checkBounds(offset, 4, end);
+            writeInt(out, in.getIntLE(offset) & 0xFFFF_FFFFL, quoted);
+            return next;
+          }
+        case SFIXED32:
+          {
+            int next = checkBounds(offset, 4, end);
+            writeInt(out, in.getIntLE(offset), quoted);
+            return next;
+          }
+        case BOOL:
+          writeBoolean(out, readVarint(in, offset, end) != 0, quoted);
+          return skipVarint(in, offset, end);
+        case ENUM:
+          {
+            int number = (int) readVarint(in, offset, end);
+            byte[] name;
+            if (field.isNullValue) {
+              out.writeCharSequence("null", StandardCharsets.US_ASCII);
+            } else if ((name = field.enumName(number)) != null) {
+              out.writeBytes(name);
+            } else {
+              writeInt(out, number, quoted);
+            }
+            return skipVarint(in, offset, end);
+          }
+        case STRING:
+          {
+            int length = readLength(in, offset, end);
+            offset = skipVarint(in, offset, end);
+            int next = checkBounds(offset, length, end);
+            writeString(out, in, offset, length);
+            return next;
+          }
+        case BYTES:
+          {
+            int length = readLength(in, offset, end);
+            offset = skipVarint(in, offset, end);
+            int next = checkBounds(offset, length, end);
+            writeBase64(out, in, offset, length);
+            return next;
+          }
+        default:
+          throw field.unsupported();
+      }
+    }
+
+    static void writeDefault(Field field, ByteBuf out, int depth) {
+      if (field.isUnsupported) {
+        throw field.unsupported();
+      }
+      switch (field.type) {
+        case MESSAGE:
+          writeMessage(field.message, Unpooled.EMPTY_BUFFER, 0, 0, out, depth);
+          return;
+        case ENUM:
+          if (field.isNullValue) {
+            out.writeCharSequence("null", StandardCharsets.US_ASCII);
+            return;
+          }
+          byte[] name = field.enumName(0);
+          if (name != null) {
+            out.writeBytes(name);
+          } else {
+            out.writeByte('0');
+          }
+          return;
+        case STRING:
+        case BYTES:
+          out.writeCharSequence("\"\"", StandardCharsets.US_ASCII);
+          return;
+        default:
+          writeScalar(field, ZEROS, 0, Long.BYTES, out, false);
+      }
+    }
+
+    static void writeString(ByteBuf out, ByteBuf in, int offset, int length) {
+      out.writeByte('"');
+      int end = offset + length;
+      while (offset < end) {
+        int escaped = in.forEachByte(offset, end - offset, NOT_ESCAPED);
+        if (escaped < 0) {
+          out.writeBytes(in, offset, end - offset);
+          break;
+        }
+        out.writeBytes(in, offset, escaped - offset);
+        byte b = in.getByte(escaped);
+        out.writeByte('\\');
+        switch (b) {
+          case '"':
+          case '\\':
+            out.writeByte(b);
+            break;
+          case '\b':
+            out.writeByte('b');
+            break;
+          case '\f':
+            out.writeByte('f');
+            break;
+          case '\n':
+            out.writeByte('n');
+            break;
+          case '\r':
+            out.writeByte('r');
+            break;
+          case '\t':
+            out.writeByte('t');
+            break;
+          default:
+            out.writeByte('u');
+            out.writeByte('0');
+            out.writeByte('0');
+            out.writeByte(HEX[b >> 4]);
+            out.writeByte(HEX[b & 0xF]);
+        }
+        offset = escaped + 1;
+      }
+      out.writeByte('"');
+    }
+
+    static void writeBase64(ByteBuf out, ByteBuf in, int offset, int length) {
+      byte[] alphabet = BASE64;
+      out.ensureWritable((length + 2) / 3 * 4 + 2);
+      out.writeByte('"');
+      int end = offset + length;
+      while (end - offset >= 3) {
+        int bits = in.getUnsignedMedium(offset);
+        out.writeByte(alphabet[bits >>> 18 & 0x3F]);
+        out.writeByte(alphabet[bits >>> 12 & 0x3F]);
+        out.writeByte(alphabet[bits >>> 6 & 0x3F]);
+        out.writeByte(alphabet[bits & 0x3F]);
+        offset += 3;
+      }
+      int remaining = end - offset;
+      if (remaining > 0) {
+        int bits = (in.getByte(offset) & 0xFF) << 16;
+        if (remaining == 2) {
+          bits |= (in.getByte(offset + 1) & 0xFF) << 8;
+        }
+        out.writeByte(alphabet[bits >>> 18 & 0x3F]);
+        out.writeByte(alphabet[bits >>> 12 & 0x3F]);
+        out.writeByte(remaining == 2 ? alphabet[bits >>> 6 & 0x3F] : '=');
+        out.writeByte('=');
+      }
+      out.writeByte('"');
+    }
+
+    static void writeDouble(ByteBuf out, double value, boolean quoted) {
+      if (Double.isNaN(value) || Double.isInfinite(value)) {
+        quoted = true;
+      }
+      if (quoted) {
+        out.writeByte('"');
+      }
+      if (Double.isNaN(value)) {
+        out.writeCharSequence("NaN", StandardCharsets.US_ASCII);
+      } else if (Double.isInfinite(value)) {
+        out.writeCharSequence(value > 0 ? "Infinity" : "-Infinity", StandardCharsets.US_ASCII);
+      } else {
+        out.writeCharSequence(Double.toString(value), StandardCharsets.US_ASCII);
+      }
+      if (quoted) {
+        out.writeByte('"');
+      }
+    }
+
+    static void writeFloat(ByteBuf out, float value, boolean quoted) {
+      if (Float.isNaN(value) || Float.isInfinite(value)) {
+        writeDouble(out, value, quoted);
+        return;
+      }
+      if (quoted) {
+        out.writeByte('"');
+      }
+      out.writeCharSequence(Float.toString(value), StandardCharsets.US_ASCII);
+      if (quoted) {
+        out.writeByte('"');
+      }
+    }
+
+    static void writeBoolean(ByteBuf out, boolean value, boolean quoted) {
+      if (quoted) {
+        out.writeByte('"');
+      }
+      out.writeCharSequence(value ? "true" : "false", StandardCharsets.US_ASCII);
+      if (quoted) {
+        out.writeByte('"');
+      }
+    }
+
+    static void writeInt(ByteBuf out, long value, boolean quoted) {
+      if (quoted) {
+        out.writeByte('"');
+      }
+      writeLong(out, value);
+      if (quoted) {
+        out.writeByte('"');
+      }
+    }
+
+    static void writeQuotedLong(ByteBuf out, long value) {
+      out.writeByte('"');
+      writeLong(out, value);
+      out.writeByte('"');
+    }
+
+    static void writeQuotedUnsignedLong(ByteBuf out, long value) {
+      out.writeByte('"');
+      if (value >= 0) {
+        writeLong(out, value);
+      } else {
+        out.writeCharSequence(Long.toUnsignedString(value), StandardCharsets.US_ASCII);
+      }
+      out.writeByte('"');
+    }
+
+    static void writeLong(ByteBuf out, long value) {
+      if (value < 0) {
+        if (value == Long.MIN_VALUE) {
+          out.writeCharSequence("-9223372036854775808", StandardCharsets.US_ASCII);
+          return;
+        }
+        out.writeByte('-');
+        value = -value;
+      }
+      int digits = 1;
+      for (long v = value; v >= 10; v /= 10) {
+        digits++;
+      }
+      writeDigits(out, value, digits);
+    }
+
+    /*zero padded*/
+    static void writeDigits(ByteBuf out, long value, int digits) {
+      out.ensureWritable(digits);
+      int writerIndex = out.writerIndex();
+      for (int i = digits - 1; i >= 0; i--) {
+        out.setByte(writerIndex + i, (int) ('0' + value % 10));
+        value /= 10;
+      }
+      out.writerIndex(writerIndex + digits);
+    }
+  }
+
+  /** Parses JSON into protobuf wire format */
+  static final class Reader {
+    /*nested message length is written into reserved space once message is read*/
+    private static final int MAX_LENGTH_SIZE = 5;
+
+    private final ByteBuf in;
+    private final ByteBuf out;
+    private final boolean ignoringUnknownFields;
+    private final int end;
+    private int offset;
+    private int depth;
+    /*result of readRawString: string bytes in place if there are no escapes, decoded otherwise*/
+    private int rawOffset;
+    private int rawLength;
+    private String decoded;
+
+    Reader(ByteBuf in, ByteBuf out, boolean ignoringUnknownFields) {
+      this.in = in;
+      this.out = out;
+      this.ignoringUnknownFields = ignoringUnknownFields;
+      this.offset = in.readerIndex();
+      this.end = in.writerIndex();
+    }
+
+    void readMessage(MessageCodec codec) {
+      if (++depth > MAX_DEPTH) {
+        throw error("message nesting exceeds " + MAX_DEPTH);
+      }
+      switch (codec.type) {
+        case TYPE_MESSAGE:
+          readFields(codec);
+          break;
+        case TYPE_WRAPPER:
+          {
+            Field field = codec.fields[0];
+            readValue(field, !field.hasPresence);
+          }
+          break;
+        case TYPE_TIMESTAMP:
+          {
+            Instant instant = OffsetDateTime.parse(readString()).toInstant();
+            writeVarintField(codec.fields[0], instant.getEpochSecond());
+            writeVarintField(codec.fields[1], instant.getNano());
+          }
+          break;
+        case TYPE_DURATION:
+          {
+            String duration = readString();
+            if (!duration.endsWith("s")) {
+              throw error("invalid duration: " + duration);
+            }
+            BigDecimal value = new BigDecimal(duration.substring(0, duration.length() - 1));
+            BigDecimal seconds = value.setScale(0, RoundingMode.DOWN);
+            writeVarintField(codec.fields[0], seconds.longValueExact());
+            writeVarintField(
+                codec.fields[1], value.subtract(seconds).movePointRight(9).intValueExact());
+          }
+          break;
+        case TYPE_STRUCT:
+          readMap(codec.fields[0]);
+          break;
+        case TYPE_LIST_VALUE:
+          readArray(codec.fields[0]);
+          break;
+        case TYPE_VALUE:
+          readAnyValue(codec);
+          break;
+        default:
+          throw codec.unsupported();
+      }
+      depth--;
+    }
+
+    void readFields(MessageCodec codec) {
+      expect('{');
+      if (peek() == '}') {
+        offset++;
+        return;
+      }
+      do {
+        Field field = readFieldName(codec);
+        expect(':');
+        if (field == null) {
+          skipValue();
+          continue;
+        }
+        if (peek() == 'n' && !isNullable(field)) {
+          readLiteral("null");
+          continue;
+        }
+        if (field.isMap) {
+          readMap(field);
+        } else if (field.isRepeated) {
+          readArray(field);
+        } else {
+          readValue(field, !field.hasPresence);
+        }
+      } while (next('}'));
+    }
+
+    void readMap(Field field) {
+      expect('{');
+      if (peek() == '}') {
+        offset++;
+        return;
+      }
+      Field key = field.mapKey;
+      do {
+        out.writeBytes(field.tag);
+        int lengthIndex = reserveLength();
+        if (key.type == Descriptors.FieldDescriptor.Type.STRING) {
+          readStringValue(key, false);
+        } else {
+          out.writeBytes(key.tag);
+          writeScalar(key, parseScalar(key, readString()));
+        }
+        expect(':');
+        readValue(field.mapValue, false);
+        writeLength(lengthIndex);
+      } while (next('}'));
+    }
+
+    void readArray(Field field) {
+      expect('[');
+      if (peek() == ']') {
+        offset++;
+        return;
+      }
+      if (field.isPacked) {
+        out.writeBytes(field.packedTag);
+        int lengthIndex = reserveLength();
+        do {
+          writeScalar(field, readScalar(field));
+        } while (next(']'));
+        writeLength(lengthIndex);
+      } else {
+        do {
+          readValue(field, false);
+        } while (next(']'));
+      }
+    }
+
+    /*google.protobuf.Value*/
+    void readAnyValue(MessageCodec codec) {
+      int fieldNumber;
+      switch (peek()) {
+        case 'n':
+          fieldNumber = 1;
+          break;
+        case '"':
+          fieldNumber = 3;
+          break;
+        case 't':
+        case 'f':
+          fieldNumber = 4;
+          break;
+        case '{':
+          fieldNumber = 5;
+          break;
+        case '[':
+          fieldNumber = 6;
+          break;
+        default:
+          fieldNumber = 2;
+      }
+      readValue(codec.fields[codec.index(fieldNumber, -1)], false);
+    }
+
+    /** @param omitDefault true if field is not written if its value is default */
+    void readValue(Field field, boolean omitDefault) {
+      if (field.isUnsupported) {
+        throw field.unsupported();
+      }
+      switch (field.type) {
+        case MESSAGE:
+          {
+            out.writeBytes(field.tag);
+            int lengthIndex = reserveLength();
+            readMessage(field.message);
+            writeLength(lengthIndex);
+          }
+          return;
+        case STRING:
+          readStringValue(field, omitDefault);
+          return;
+        case BYTES:
+          {
+            String value = readString();
+            boolean isUrlSafe = value.indexOf('-') >= 0 || value.indexOf('_') >= 0;
+            byte[] bytes = (isUrlSafe ? Base64.getUrlDecoder() : Base64.getDecoder()).decode(value);
+            if (omitDefault && bytes.length == 0) {
+              return;
+            }
+            out.writeBytes(field.tag);
+            writeVarint(out, bytes.length);
+            out.writeBytes(bytes);
+          }
+          return;
+        default:
+          long value = readScalar(field);
+          if (omitDefault && value == 0) {
+            return;
+          }
+          out.writeBytes(field.tag);
+          writeScalar(field, value);
+      }
+    }
+
+    void readStringValue(Field field, boolean omitDefault) {
+      if (readRawString()) {
+        int length = rawLength;
+        if (omitDefault && length == 0) {
+          return;
+        }
+        out.writeBytes(field.tag);
+        writeVarint(out, length);
+        out.writeBytes(in, rawOffset, length);
+      } else {
+        String value = decoded;
+        if (omitDefault && value.isEmpty()) {
+          return;
+        }
+        out.writeBytes(field.tag);
+        writeVarint(out, ByteBufUtil.utf8Bytes(value));
+        out.writeCharSequence(value, StandardCharsets.UTF_8);
+      }
+    }
+
+    /** @return scalar value as written on wire: floating point bits, ZigZag encoded */
+    long readScalar(Field field) {
+      switch (field.type) {
+        case BOOL:
+          if (peek() == 't') {
+            readLiteral("true");
+            return 1;
+          }
+          readLiteral("false");
+          return 0;
+        case ENUM:
+          return readEnum(field);
+        case INT32:
+        case SFIXED32:
+          return readInteger(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        case SINT32:
+          return CodedOutputStream.encodeZigZag32(
+                  (int) readInteger(Integer.MIN_VALUE, Integer.MAX_VALUE))
+              & 0xFFFF_FFFFL;
+        case UINT32:
+        case FIXED32:
+          return readInteger(0, 0xFFFF_FFFFL);
+        case INT64:
+        case SFIXED64:
+          return readInteger(Long.MIN_VALUE, Long.MAX_VALUE);
+        case SINT64:
+          return CodedOutputStream.encodeZigZag64(readInteger(Long.MIN_VALUE, Long.MAX_VALUE));
+        default:
+          return parseScalar(field, peek() == '"' ? readString() : readNumber());
+      }
+    }
+
+    long parseScalar(Field field, String value) {
+      switch (field.type) {
+        case BOOL:
+          if (value.equals("true")) {
+            return 1;
+          }
+          if (value.equals("false")) {
+            return 0;
+          }
+          throw error("invalid boolean: " + value);
+        case DOUBLE:
+          return Double.doubleToRawLongBits(parseDouble(value));
+        case FLOAT:
+          {
+            double d = parseDouble(value);
+            float f = (float) d;
+            if (Float.isInfinite(f) && !Double.isInfinite(d)) {
+              throw error("float value out of range: " + value);
+            }
+            return Float.floatToRawIntBits(f) & 0xFFFF_FFFFL;
+          }
+        case INT32:
+        case SFIXED32:
+          return parseInteger(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        case SINT32:
+          return CodedOutputStream.encodeZigZag32(
+                  (int) parseInteger(value, Integer.MIN_VALUE, Integer.MAX_VALUE))
+              & 0xFFFF_FFFFL;
+        case UINT32:
+        case FIXED32:
+          return parseInteger(value, 0, 0xFFFF_FFFFL);
+        case INT64:
+        case SFIXED64:
+          return parseInteger(value, Long.MIN_VALUE, Long.MAX_VALUE);
+        case SINT64:
+          return CodedOutputStream.encodeZigZag64(
+              parseInteger(value, Long.MIN_VALUE, Long.MAX_VALUE));
+        case UINT64:
+        case FIXED64:
+          {
+            BigInteger integer = parseBigInteger(value);
+            if (integer.signum() < 0 || integer.bitLength() > 64) {
+              throw error("uint64 value out of range: " + value);
+            }
+            return integer.longValue();
+          }
+        default:
+          throw error("unexpected value of field " + field.descriptor.getFullName());
+      }
+    }
+
+    long readEnum(Field field) {
+      if (field.isNullValue) {
+        readLiteral("null");
+        return 0;
+      }
+      if (peek() == '"') {
+        Descriptors.EnumValueDescriptor value =
+            readRawString()
+                ? field.enumValues.get(in, rawOffset, rawLength)
+                : field.enumValues.get(decoded);
+        if (value == null) {
+          String name =
+              decoded != null ? decoded : in.toString(rawOffset, rawLength, StandardCharsets.UTF_8);
+          throw error(
+              "invalid enum value: "
+                  + name
+                  + " of "
+                  + field.descriptor.getEnumType().getFullName());
+        }
+        return value.getNumber();
+      }
+      int number = (int) readInteger(Integer.MIN_VALUE, Integer.MAX_VALUE);
+      if (field.isClosedEnum && field.enumName(number) == null) {
+        throw error(
+            "invalid enum value: "
+                + number
+                + " of "
+                + field.descriptor.getEnumType().getFullName());
+      }
+      return number;
+    }
+
+    /*plain integers are parsed in place*/
+    long readInteger(long min, long max) {
+      if (peek() == '"') {
+        return parseInteger(readString(), min, max);
+      }
+      int i = offset;
+      boolean isNegative = i < end && in.getByte(i) == '-';
+      if (isNegative) {
+        i++;
+      }
+      int start = i;
+      long value = 0;
+      while (i < end) {
+        byte b = in.getByte(i);
+        if (b < '0' || b > '9') {
+          break;
+        }
+        value = value * 10 + (b - '0');
+        i++;
+      }
+      int digits = i - start;
+      if (digits == 0 || digits > 18 || i < end && isNumberChar(in.getByte(i))) {
+        return parseInteger(readNumber(), min, max);
+      }
+      if (isNegative) {
+        value = -value;
+      }
+      if (value < min || value > max) {
+        throw error("integer value out of range: " + value);
+      }
+      offset = i;
+      return value;
+    }
+
+    double parseDouble(String value) {
+      switch (value) {
+        case "NaN":
+          return Double.NaN;
+        case "Infinity":
+          return Double.POSITIVE_INFINITY;
+        case "-Infinity":
+          return Double.NEGATIVE_INFINITY;
+        default:
+          double d = Double.parseDouble(value);
+          if (Double.isInfinite(d)) {
+            throw error("double value out of range: " + value);
+          }
+          return d;
+      }
+    }
+
+    long parseInteger(String value, long min, long max) {
+      long result;
+      try {
+        result = Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        BigInteger integer = parseBigInteger(value);
+        if (integer.bitLength() > 63) {
+          throw error("integer value out of range: " + value);
+        }
+        result = integer.longValue();
+      }
+      if (result < min || result > max) {
+        throw error("integer value out of range: " + value);
+      }
+      return result;
+    }
+
+    /*accepts integral numbers in exponent and fraction forms, e.g. 1e3, 1.0*/
+    BigInteger parseBigInteger(String value) {
+      try {
+        return new BigDecimal(value).toBigIntegerExact();
+      } catch (NumberFormatException | ArithmeticException e) {
+        throw error("invalid integer: " + value);
+      }
+    }
+
+    void writeVarintField(Field field, long value) {
+      if (value != 0) {
+        out.writeBytes(field.tag);
+        writeVarint(out, value);
+      }
+    }
+
+    void writeScalar(Field field, long value) {
+      switch (field.wireType) {
+        case WIRETYPE_VARINT:
+          writeVarint(out, value);
+          return;
+        case WIRETYPE_FIXED64:
+          out.writeLongLE(value);
+          return;
+        case WIRETYPE_FIXED32:
+          out.writeIntLE((int) value);
+          return;
+        default:
+          throw field.unsupported();
+      }
+    }
+
+    int reserveLength() {
+      int lengthIndex = out.writerIndex();
+      out.writeZero(MAX_LENGTH_SIZE);
+      return lengthIndex;
+    }
+
+    void writeLength(int lengthIndex) {
+      int contentIndex = lengthIndex + MAX_LENGTH_SIZE;
+      int writerIndex = out.writerIndex();
+      int length = writerIndex - contentIndex;
+      out.writerIndex(lengthIndex);
+      writeVarint(out, length);
+      int padding = contentIndex - out.writerIndex();
+      if (padding > 0) {
+        out.setBytes(out.writerIndex(), out, contentIndex, length);
+      }
+      out.writerIndex(writerIndex - padding);
+    }
+
+    static void writeVarint(ByteBuf out, long value) {
+      while ((value & ~0x7FL) != 0) {
+        out.writeByte((int) (value & 0x7F | 0x80));
+        value >>>= 7;
+      }
+      out.writeByte((int) value);
+    }
+
+    @Nullable
+    Field readFieldName(MessageCodec codec) {
+      Field field =
+          readRawString()
+              ? codec.fieldsByName.get(in, rawOffset, rawLength)
+              : codec.fieldsByName.get(decoded);
+      if (field == null && !ignoringUnknownFields) {
+        String name =
+            decoded != null ? decoded : in.toString(rawOffset, rawLength, StandardCharsets.UTF_8);
+        throw error("unknown field: " + name + " of message " + codec.descriptor.getFullName());
+      }
+      return field;
+    }
+
+    /**
+     * @return true if string has no escapes and its bytes are available in place at rawOffset,
+     *     rawLength. Otherwise decoded string is available as decoded
+     */
+    boolean readRawString() {
+      expect('"');
+      int start = offset;
+      int quote = in.forEachByte(start, end - start, b -> b != '"' && b != '\\');
+      if (quote >= 0 && in.getByte(quote) == '"') {
+        rawOffset = start;
+        rawLength = quote - start;
+        decoded = null;
+        offset = quote + 1;
+        return true;
+      }
+      offset = start - 1;
+      decoded = readString();
+      return false;
+    }
+
+    String readString() {
+      expect('"');
+      int start = offset;
+      int quote = in.forEachByte(start, end - start, b -> b != '"' && b != '\\');
+      if (quote < 0) {
+        throw error("unterminated string");
+      }
+      if (in.getByte(quote) == '"') {
+        offset = quote + 1;
+        return in.toString(start, quote - start, StandardCharsets.UTF_8);
+      }
+      /*escapes*/
+      ByteBuf decoded = Unpooled.buffer(quote - start + 16);
+      int i = start;
+      while (true) {
+        if (i >= end) {
+          throw error("unterminated string");
+        }
+        byte b = in.getByte(i++);
+        if (b == '"') {
+          break;
+        }
+        if (b != '\\') {
+          decoded.writeByte(b);
+          continue;
+        }
+        if (i >= end) {
+          throw error("unterminated string");
+        }
+        byte escaped = in.getByte(i++);
+        switch (escaped) {
+          case '"':
+          case '\\':
+          case '/':
+            decoded.writeByte(escaped);
+            break;
+          case 'b':
+            decoded.writeByte('\b');
+            break;
+          case 'f':
+            decoded.writeByte('\f');
+            break;
+          case 'n':
+            decoded.writeByte('\n');
+            break;
+          case 'r':
+            decoded.writeByte('\r');
+            break;
+          case 't':
+            decoded.writeByte('\t');
+            break;
+          case 'u':
+            {
+              char c = readHexChar(i);
+              i += 4;
+              if (Character.isHighSurrogate(c)
+                  && i + 6 <= end
+                  && in.getByte(i) == '\\'
+                  && in.getByte(i + 1) == 'u') {
+                char low = readHexChar(i + 2);
+                if (Character.isLowSurrogate(low)) {
+                  i += 6;
+                  decoded.writeCharSequence(
+                      new String(new char[] {c, low}), StandardCharsets.UTF_8);
+                  break;
+                }
+              }
+              decoded.writeCharSequence(String.valueOf(c), StandardCharsets.UTF_8);
+            }
+            break;
+          default:
+            offset = i - 1;
+            throw error("invalid escape: " + (char) escaped);
+        }
+      }
+      offset = i;
+      return decoded.toString(StandardCharsets.UTF_8);
+    }
+
+    char readHexChar(int index) {
+      if (index + 4 > end) {
+        throw error("unterminated string");
+      }
+      int c = 0;
+      for (int i = index; i < index + 4; i++) {
+        int digit = Character.digit(in.getByte(i), 16);
+        if (digit < 0) {
+          offset = i;
+          throw error("invalid unicode escape");
+        }
+        c = c << 4 | digit;
+      }
+      return (char) c;
+    }
+
+    String readNumber() {
+      skipWhitespace();
+      int start = offset;
+      int i = start;
+      while (i < end && isNumberChar(in.getByte(i))) {
+        i++;
+      }
+      if (i == start) {
+        throw error("expected number");
+      }
+      offset = i;
+      return in.toString(start, i - start, StandardCharsets.US_ASCII);
+    }
+
+    static boolean isNumberChar(byte b) {
+      return b >= '0' && b <= '9' || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    void readLiteral(String literal) {
+      skipWhitespace();
+      int length = literal.length();
+      if (end - offset < length) {
+        throw error("expected " + literal);
+      }
+      for (int i = 0; i < length; i++) {
+        if (in.getByte(offset + i) != literal.charAt(i)) {
+          throw error("expected " + literal);
+        }
+      }
+      offset += length;
+    }
+
+    void skipValue() {
+      if (++depth > MAX_DEPTH) {
+        throw error("value nesting exceeds " + MAX_DEPTH);
+      }
+      switch (peek()) {
+        case '{':
+          offset++;
+          if (peek() == '}') {
+            offset++;
+            break;
+          }
+          do {
+            readRawString();
+            expect(':');
+            skipValue();
+          } while (next('}'));
+          break;
+        case '[':
+          offset++;
+          if (peek() == ']') {
+            offset++;
+            break;
+          }
+          do {
+            skipValue();
+          } while (next(']'));
+          break;
+        case '"':
+          readRawString();
+          break;
+        case 't':
+          readLiteral("true");
+          break;
+        case 'f':
+          readLiteral("false");
+          break;
+        case 'n':
+          readLiteral("null");
+          break;
+        default:
+          readNumber();
+      }
+      depth--;
+    }
+
+    /** @return true if next element follows, false if container is closed */
+    boolean next(char close) {
+      int b = peek();
+      if (b == ',') {
+        offset++;
+        return true;
+      }
+      if (b == close) {
+        offset++;
+        return false;
+      }
+      throw error("expected , or " + close);
+    }
+
+    void expect(char c) {
+      if (peek() != c) {
+        throw error("expected " + c);
+      }
+      offset++;
+    }
+
+    void expectEnd() {
+      skipWhitespace();
+      if (offset != end) {
+        throw error("unexpected trailing data");
+      }
+    }
+
+    int peek() {
+      skipWhitespace();
+      return offset < end ? in.getByte(offset) : -1;
+    }
+
+    void skipWhitespace() {
+      int i = offset;
+      while (i < end) {
+        byte b = in.getByte(i);
+        if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+          break;
+        }
+        i++;
+      }
+      offset = i;
+    }
+
+    static boolean isNullable(Field field) {
+      return !field.isRepeated
+          && (field.isNullValue
+              || field.type == Descriptors.FieldDescriptor.Type.MESSAGE
+                  && field.message.type == TYPE_VALUE);
+    }
+
+    SerializationException error(String message) {
+      return error(message, null);
+    }
+
+    SerializationException error(String message, @Nullable Throwable cause) {
+      IllegalArgumentException e =
+          new IllegalArgumentException(
+              message + ", at position " + (offset - in.readerIndex()), cause);
+      return new SerializationException("JSON deserialization error", e);
+    }
+  }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Response latency stats recorder of RPC calls: request names are service calls in "service/method"
+ * form, and first response signal latencies of configured methods are recorded into log-linear
+ * histograms. Latencies are recorded with no allocation and contention: each recording thread
+ * (typically event loop) has own histograms it is single writer of, which are merged when read with
+ * {@link #snapshot()}. Snapshot percentiles are suitable for {@link
+ * Lease.Metadata#serviceCallLatency(String, int)}, and snapshot selects service calls that cost the
+ * most aggregate latency for lease metadata with {@link
+ * Snapshot#serviceCallLatencies(Lease.Metadata, double)}.
+ *
+ * <p>Recorder is thread-safe, and is typically shared by connections of {@link
+ * Lease.Configurer#configure(Lease.Controller)}.
+ */
+public final class LatencyStatsRecorder implements Lease.StatsRecorder<String> {
+  /** Request name of calls that are not RPC calls of configured methods */
+  public static final String UNKNOWN_CALL = "";
+
+  /*log-linear histogram of latencies in micros: 16 linear sub-buckets of each power of 2*/
+  static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final int MAX_VALUE_BITS = 32;
+  static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+  static final int BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final Rpc.RpcMetadata.ServiceMethodIndex methods;
+  /*service call by service method constant*/
+  private final Map<String, String> serviceCalls;
+  /*histogram offset by service call constant*/
+  private final Map<String, Integer> offsets;
+  private final List<String> serviceCallNames;
+  private final CopyOnWriteArrayList<AtomicLongArray> shards = new CopyOnWriteArrayList<>();
+  private final FastThreadLocal<AtomicLongArray> shard;
+  /*guarded by this*/
+  private long[] previous;
+  private volatile long rttMicros;
+
+  private LatencyStatsRecorder(
+      Rpc.RpcMetadata.ServiceMethodIndex methods,
+      Map<String, String> serviceCalls,
+      List<String> serviceCallNames) {
+    this.methods = methods;
+    this.serviceCalls = serviceCalls;
+    this.serviceCallNames = serviceCallNames;
+    Map<String, Integer> o = new HashMap<>();
+    for (int i = 0; i < serviceCallNames.size(); i++) {
+      o.put(serviceCallNames.get(i), i * BUCKETS);
+    }
+    this.offsets = o;
+    int length = serviceCallNames.size() * BUCKETS;
+    this.previous = new long[length];
+    this.shard =
+        new FastThreadLocal<AtomicLongArray>() {
+          @Override
+          protected AtomicLongArray initialValue() {
+            AtomicLongArray s = new AtomicLongArray(length);
+            shards.add(s);
+            return s;
+          }
+        };
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  @Override
+  public String onRequestStarted(Interaction.Type requestType, ByteBuf metadata) {
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    if ((flags & Rpc.RpcMetadata.FLAG_COMPACT) == 0) {
+      return UNKNOWN_CALL;
+    }
+    String serviceMethod = methods.find(flags, header, metadata);
+    if (serviceMethod == null) {
+      return UNKNOWN_CALL;
+    }
+    return serviceCalls.get(serviceMethod);
+  }
+
+  @Override
+  public void onResponseStarted(
+      Interaction.Type requestType,
+      String request,
+      Interaction.StreamSignal firstSignal,
+      long latencyMicros) {
+    /*rejected due to missing lease*/
+    if (latencyMicros == 0 || firstSignal.type() == Interaction.StreamSignal.Type.CANCEL) {
+      return;
+    }
+    Integer offset = offsets.get(request);
+    if (offset == null) {
+      return;
+    }
+    AtomicLongArray s = shard.get();
+    int index = offset + bucket(latencyMicros);
+    /*single writer*/
+    s.lazySet(index, s.get(index) + 1);
+  }
+
+  @Override
+  public void onResponseTerminated(
+      Interaction.Type requestType,
+      String request,
+      Interaction.StreamSignal lastSignal,
+      long responseDurationMicros) {}
+
+  @Override
+  public void onRtt(long rttMicros) {
+    this.rttMicros = rttMicros;
+  }
+
+  @Override
+  public void onError(Interaction.Type requestType, Throwable err) {}
+
+  @Override
+  public void onOpen() {}
+
+  @Override
+  public void onClose(long graceTimeoutMillis) {}
+
+  /** @return last round-trip time measurement of any connection, micros; 0 if there is none */
+  public long rttMicros() {
+    return rttMicros;
+  }
+
+  /** @return service calls of configured methods, in "service/method" form */
+  public List<String> serviceCalls() {
+    return serviceCallNames;
+  }
+
+  /** @return latencies recorded since previous snapshot, merged from all recording threads */
+  public synchronized Snapshot snapshot() {
+    long[] prev = previous;
+    long[] current = new long[prev.length];
+    for (AtomicLongArray s : shards) {
+      for (int i = 0; i < current.length; i++) {
+        current[i] += s.get(i);
+      }
+    }
+    long[] interval = new long[current.length];
+    for (int i = 0; i < current.length; i++) {
+      interval[i] = current[i] - prev[i];
+    }
+    previous = current;
+    return new Snapshot(offsets, serviceCallNames, interval);
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return value < 0 ? 0 : (int) value;
+    }
+    long v = Math.min(value, MAX_VALUE);
+    int exp = Long.SIZE - 1 - Long.numberOfLeadingZeros(v);
+    int sub = (int) (v >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  static long bucketUpperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exp = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int sub = bucket % SUB_BUCKETS;
+    long lower = (long) (SUB_BUCKETS + sub) << (exp - SUB_BUCKET_BITS);
+    return lower + (1L << (exp - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /**
+   * @param counts histograms
+   * @param offset offset of histogram
+   * @param percentile percentile, in (0, 1]
+   * @return upper bound of percentile value, or 0 if histogram is empty
+   */
+  static long percentile(long[] counts, int offset, double percentile) {
+    long total = 0;
+    for (int i = offset; i < offset + BUCKETS; i++) {
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile);
+    long sum = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      sum += counts[offset + i];
+      if (sum >= rank) {
+        return bucketUpperBound(i);
+      }
+    }
+    return bucketUpperBound(BUCKETS - 1);
+  }
+
+  /** Latencies of service calls recorded during snapshot interval */
+  public static final class Snapshot {
+    private final Map<String, Integer> offsets;
+    private final List<String> serviceCalls;
+    private final long[] counts;
+
+    Snapshot(Map<String, Integer> offsets, List<String> serviceCalls, long[] counts) {
+      this.offsets = offsets;
+      this.serviceCalls = serviceCalls;
+      this.counts = counts;
+    }
+
+    /** @return count of responses of service call in "service/method" form */
+    public long count(String serviceCall) {
+      Integer offset = offsets.get(serviceCall);
+      if (offset == null) {
+        return 0;
+      }
+      long[] c = counts;
+      long count = 0;
+      for (int i = offset; i < offset + BUCKETS; i++) {
+        count += c[i];
+      }
+      return count;
+    }
+
+    /**
+     * @param serviceCall service call in "service/method" form
+     * @param percentile percentile, in (0, 1]
+     * @return latency percentile upper bound, micros; or 0 if there are no responses
+     */
+    public int latencyMicros(String serviceCall, double percentile) {
+      if (!(percentile > 0 && percentile <= 1)) {
+        throw new IllegalArgumentException("percentile must be in (0, 1], provided: " + percentile);
+      }
+      Integer offset = offsets.get(serviceCall);
+      if (offset == null) {
+        return 0;
+      }
+      return (int) Math.min(Integer.MAX_VALUE, percentile(counts, offset, percentile));
+    }
+
+    /** @return p95 latency of service call, micros; or 0 if there are no responses */
+    public int p95Micros(String serviceCall) {
+      return latencyMicros(serviceCall, 0.95);
+    }
+
+    /**
+     * Adds p95 latencies of given service calls that have responses to lease metadata
+     *
+     * @param metadata lease metadata
+     * @param serviceCalls no more than {@link Lease.Metadata#serviceCallMaxCount()} service calls
+     * @return given lease metadata
+     */
+    public Lease.Metadata serviceCallLatencies(Lease.Metadata metadata, List<String> serviceCalls) {
+      Objects.requireNonNull(metadata, "metadata");
+      Objects.requireNonNull(serviceCalls, "serviceCalls");
+      for (String serviceCall : serviceCalls) {
+        int p95 = p95Micros(serviceCall);
+        if (p95 > 0) {
+          metadata.serviceCallLatency(serviceCall, p95);
+        }
+      }
+      return metadata;
+    }
+
+    /**
+     * @return aggregate latency of service call responses in "service/method" form, micros;
+     *     estimated with histogram bucket upper bounds
+     */
+    public long aggregateMicros(String serviceCall) {
+      Integer offset = offsets.get(serviceCall);
+      if (offset == null) {
+        return 0;
+      }
+      return aggregateMicros(offset);
+    }
+
+    /**
+     * @param limit max number of service calls
+     * @return service calls with responses that cost the most aggregate latency, most expensive
+     *     first
+     */
+    public List<String> topServiceCalls(int limit) {
+      if (limit <= 0) {
+        throw new IllegalArgumentException("limit must be positive, provided: " + limit);
+      }
+      List<String> calls = serviceCalls;
+      long[] aggregates = new long[calls.size()];
+      List<String> top = new ArrayList<>(calls.size());
+      for (int i = 0; i < calls.size(); i++) {
+        long aggregate = aggregateMicros(i * BUCKETS);
+        aggregates[i] = aggregate;
+        if (aggregate > 0) {
+          top.add(calls.get(i));
+        }
+      }
+      top.sort(
+          (first, second) ->
+              Long.compare(
+                  aggregates[offsets.get(second) / BUCKETS],
+                  aggregates[offsets.get(first) / BUCKETS]));
+      return top.size() > limit ? top.subList(0, limit) : top;
+    }
+
+    /**
+     * Adds p95 latencies of service calls that cost the most aggregate latency to lease metadata:
+     * most expensive calls are added until they account for given share of aggregate latency of all
+     * calls, or metadata is full. Number of added calls is variable: few calls are added if latency
+     * is dominated by few of them.
+     *
+     * @param metadata lease metadata, typically created with {@link Lease.Metadata#create(int)}
+     * @param coverage share of aggregate latency of all calls, in (0, 1]
+     * @return given lease metadata
+     */
+    public Lease.Metadata serviceCallLatencies(Lease.Metadata metadata, double coverage) {
+      Objects.requireNonNull(metadata, "metadata");
+      if (!(coverage > 0 && coverage <= 1)) {
+        throw new IllegalArgumentException("coverage must be in (0, 1], provided: " + coverage);
+      }
+      int available = metadata.maxServiceCalls() - metadata.serviceCalls();
+      if (available <= 0) {
+        return metadata;
+      }
+      List<String> top = topServiceCalls(serviceCalls.size() + 1);
+      long total = 0;
+      for (String serviceCall : top) {
+        total += aggregateMicros(serviceCall);
+      }
+      double covered = 0;
+      for (int i = 0; i < top.size() && i < available && covered < coverage * total; i++) {
+        String serviceCall = top.get(i);
+        metadata.serviceCallLatency(
+            Lease.Metadata.serviceCallId(serviceCall), p95Micros(serviceCall));
+        covered += aggregateMicros(serviceCall);
+      }
+      return metadata;
+    }
+
+    /** @return service calls of snapshot, in "service/method" form */
+    public List<String> serviceCalls() {
+      return serviceCalls;
+    }
+
+    private long aggregateMicros(int offset) {
+      long[] c = counts;
+      long aggregate = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        long count = c[offset + i];
+        if (count > 0) {
+          aggregate += count * bucketUpperBound(i);
+        }
+      }
+      return aggregate;
+    }
+  }
+
+  public static final class Builder {
+    private final List<String[]> serviceMethods = new ArrayList<>();
+    private Rpc.CallIds callIds;
+
+    private Builder() {}
+
+    /**
+     * Enables latency recording of given method calls
+     *
+     * @param service service name, or empty string for default service calls
+     */
+    public Builder method(String service, String method) {
+      Objects.requireNonNull(service, "service");
+      Objects.requireNonNull(method, "method");
+      serviceMethods.add(new String[] {service, method});
+      return this;
+    }
+
+    /** @param callIds call IDs of connections, so calls addressed with call ID are recorded */
+    public Builder callIds(Rpc.CallIds callIds) {
+      this.callIds = Objects.requireNonNull(callIds, "callIds");
+      return this;
+    }
+
+    public LatencyStatsRecorder build() {
+      List<String> services = new ArrayList<>(serviceMethods.size());
+      List<String> methods = new ArrayList<>(serviceMethods.size());
+      Map<String, String> serviceCalls = new HashMap<>();
+      List<String> serviceCallNames = new ArrayList<>();
+      for (String[] serviceMethod : serviceMethods) {
+        String key = Rpc.RpcMetadata.ServiceMethodIndex.key(serviceMethod[0], serviceMethod[1]);
+        if (serviceCalls.containsKey(key)) {
+          continue;
+        }
+        String serviceCall = serviceMethod[0] + "/" + serviceMethod[1];
+        services.add(serviceMethod[0]);
+        methods.add(serviceMethod[1]);
+        serviceCalls.put(key, serviceCall);
+        serviceCallNames.add(serviceCall);
+      }
+      Rpc.RpcMetadata.ServiceMethodIndex index =
+          Rpc.RpcMetadata.ServiceMethodIndex.create(services, methods);
+      Rpc.CallIds ids = callIds;
+      if (ids != null) {
+        index = index.withCallIds(ids);
+      }
+      return new LatencyStatsRecorder(
+          index, serviceCalls, Collections.unmodifiableList(serviceCallNames));
+    }
+  }
+}
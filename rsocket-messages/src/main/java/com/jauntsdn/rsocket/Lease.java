@@ -16,8 +16,10 @@
 
 package com.jauntsdn.rsocket;
 
+import com.jauntsdn.rsocket.exceptions.ApplicationErrorException;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.concurrent.Future;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
 import javax.annotation.Nullable;
@@ -27,20 +29,76 @@ public final class Lease {
 
   private Lease() {}
 
+  /**
+   * Lease metadata: allowed fire-and-forget requests and p95 latencies of service calls.
+   *
+   * <p>Lease frame conveys at most {@link #serviceCallMaxCount()} service call latencies keyed by
+   * 32-bit hash of service call name, full set of service call latencies is keyed by 64-bit ID.
+   * Both representations are kept in sync: upper 32 bits of service call ID are lease frame hash,
+   * so latencies added by ID are conveyed by lease frame, and latencies received with lease frame
+   * are available by ID, see {@link #serviceCallLatencyMicros(long)}.
+   */
   public static final class Metadata {
+    /** Max number of service call latencies of metadata created with {@link #create(int)} */
+    public static final int MAX_SERVICE_CALLS = 255;
+
+    static final long SERVICE_CALL_HASH_MASK = 0xFFFF_FFFFL;
+
     private final long[] serviceCallLatencies = new long[2];
+    private final long[] serviceCallIds;
+    private final int[] latencies;
+    private int serviceCalls;
     private int allowedFnfRequests;
 
-    private Metadata() {}
+    private Metadata(int maxServiceCalls) {
+      this.serviceCallIds = new long[maxServiceCalls];
+      this.latencies = new int[maxServiceCalls];
+    }
 
     public static Metadata create() {
-      return new Metadata();
+      return new Metadata(serviceCallMaxCount());
     }
 
+    /**
+     * @param maxServiceCalls max number of service call latencies, at most {@link
+     *     #MAX_SERVICE_CALLS}
+     * @return metadata with given capacity of service call latencies. Latencies beyond {@link
+     *     #serviceCallMaxCount()} are not conveyed with lease frame
+     */
+    public static Metadata create(int maxServiceCalls) {
+      if (maxServiceCalls <= 0 || maxServiceCalls > MAX_SERVICE_CALLS) {
+        throw new IllegalArgumentException(
+            "maxServiceCalls must be in range [1, "
+                + MAX_SERVICE_CALLS
+                + "], provided: "
+                + maxServiceCalls);
+      }
+      return new Metadata(maxServiceCalls);
+    }
+
+    /** @return max number of service call latencies of metadata created with {@link #create()} */
     public static int serviceCallMaxCount() {
       return 2;
     }
 
+    /**
+     * @param serviceCall service call in "service/method" form
+     * @return 64-bit ID of service call: lease frame hash of its name (upper 32 bits), and FNV-1a
+     *     hash of its name (lower 32 bits)
+     */
+    public static long serviceCallId(String serviceCall) {
+      requireNotEmpty(serviceCall, "serviceCall");
+      long hash = 0xCBF2_9CE4_8422_2325L;
+      for (int i = 0; i < serviceCall.length(); i++) {
+        hash = (hash ^ serviceCall.charAt(i)) * 0x0000_0100_0000_01B3L;
+      }
+      /*murmur3 finalizer spreads FNV-1a hash of similar names*/
+      hash = (hash ^ (hash >>> 33)) * 0xFF51_AFD7_ED55_8CCDL;
+      hash = (hash ^ (hash >>> 33)) * 0xC4CE_B9FE_1A85_EC53L;
+      hash ^= hash >>> 33;
+      return (long) serviceCall.hashCode() << 32 | (hash & SERVICE_CALL_HASH_MASK);
+    }
+
     /**
      * @param allowedFnfRequests number of allowed fire-and-forget calls in addition to provided by
      *     lease itself.
@@ -60,21 +118,176 @@ public final class Lease {
     public Metadata serviceCallLatency(String serviceCall, int latencyMicros) {
       requireNotEmpty(serviceCall, "serviceCall");
       requirePositive(latencyMicros, "latencyMicros");
-      for (int i = 0; i < serviceCallLatencies.length; i++) {
-        if (serviceCallLatencies[i] == 0) {
-          serviceCallLatencies[i] = encodeServiceCall(serviceCall, latencyMicros);
-          return this;
+      addServiceCall(serviceCallId(serviceCall), latencyMicros);
+      return this;
+    }
+
+    /**
+     * @param serviceCallId service call ID, see {@link #serviceCallId(String)}
+     * @param latencyMicros service call p95 latency, micros
+     * @return this Metadata instance
+     */
+    public Metadata serviceCallLatency(long serviceCallId, int latencyMicros) {
+      requirePositive(latencyMicros, "latencyMicros");
+      addServiceCall(serviceCallId, latencyMicros);
+      return this;
+    }
+
+    /** @return max number of service call latencies of this metadata */
+    public int maxServiceCalls() {
+      return serviceCallIds.length;
+    }
+
+    /** @return number of service call latencies */
+    public int serviceCalls() {
+      return serviceCalls;
+    }
+
+    /** @return ID of service call latency at given index */
+    public long serviceCallId(int index) {
+      return serviceCallIds[checkIndex(index)];
+    }
+
+    /** @return latency of service call at given index, micros */
+    public int latencyMicros(int index) {
+      return latencies[checkIndex(index)];
+    }
+
+    /**
+     * @return latency of service call with given ID, micros; or 0 if there is none. Latencies
+     *     received with lease frame have IDs with lower 32 bits zero, and are matched by upper 32
+     *     bits of given ID
+     */
+    public int serviceCallLatencyMicros(long serviceCallId) {
+      long[] ids = serviceCallIds;
+      int count = serviceCalls;
+      for (int i = 0; i < count; i++) {
+        if (ids[i] == serviceCallId) {
+          return latencies[i];
         }
       }
-      throw new IllegalStateException(
-          "No more than serviceCallMaxCount() = " + serviceCallMaxCount() + " are allowed");
+      long frameHash = serviceCallId & ~SERVICE_CALL_HASH_MASK;
+      for (int i = 0; i < count; i++) {
+        if (ids[i] == frameHash) {
+          return latencies[i];
+        }
+      }
+      return 0;
+    }
+
+    /*
+     * [VARINT] ALLOWED FNF REQUESTS
+     * [8] SERVICE CALLS COUNT
+     *
+     * COUNT times:
+     * [64] SERVICE CALL ID
+     * [VARINT] LATENCY MICROS
+     */
+
+    /*compact encoding of metadata*/
+    ByteBuf encode(ByteBuf buffer) {
+      Objects.requireNonNull(buffer, "buffer");
+      writeVarint(buffer, allowedFnfRequests);
+      int count = serviceCalls;
+      buffer.writeByte(count);
+      long[] ids = serviceCallIds;
+      int[] l = latencies;
+      for (int i = 0; i < count; i++) {
+        buffer.writeLong(ids[i]);
+        writeVarint(buffer, l[i]);
+      }
+      return buffer;
+    }
+
+    /*decodes metadata from readable bytes of provided buffer, reader index is advanced*/
+    static Metadata decode(ByteBuf metadata) {
+      Objects.requireNonNull(metadata, "metadata");
+      int allowedFnf = readVarint(metadata);
+      if (allowedFnf < 0 || !metadata.isReadable()) {
+        throw new ApplicationErrorException("unexpected lease metadata structure");
+      }
+      int count = metadata.readUnsignedByte();
+      Metadata m = new Metadata(Math.max(count, 1));
+      if (allowedFnf > 0) {
+        m.allowedFnfRequests(allowedFnf);
+      }
+      for (int i = 0; i < count; i++) {
+        if (metadata.readableBytes() < Long.BYTES) {
+          throw new ApplicationErrorException("unexpected lease metadata structure");
+        }
+        long id = metadata.readLong();
+        int latency = readVarint(metadata);
+        if (latency <= 0) {
+          throw new ApplicationErrorException("unexpected lease metadata structure");
+        }
+        m.addServiceCall(id, latency);
+      }
+      return m;
+    }
+
+    private void addServiceCall(long serviceCallId, int latencyMicros) {
+      int count = serviceCalls;
+      if (count == serviceCallIds.length) {
+        throw new IllegalStateException(
+            "No more than " + serviceCallIds.length + " service call latencies are allowed");
+      }
+      serviceCallIds[count] = serviceCallId;
+      latencies[count] = latencyMicros;
+      serviceCalls = count + 1;
+      /*lease frame latencies*/
+      long[] frameLatencies = serviceCallLatencies;
+      for (int i = 0; i < frameLatencies.length; i++) {
+        if (frameLatencies[i] == 0) {
+          frameLatencies[i] = (serviceCallId & ~SERVICE_CALL_HASH_MASK) | latencyMicros;
+          return;
+        }
+      }
+    }
+
+    private int checkIndex(int index) {
+      if (index < 0 || index >= serviceCalls) {
+        throw new IndexOutOfBoundsException("index: " + index + ", service calls: " + serviceCalls);
+      }
+      return index;
+    }
+
+    static void writeVarint(ByteBuf buffer, int value) {
+      while ((value & ~0x7F) != 0) {
+        buffer.writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer.writeByte(value);
+    }
+
+    static int readVarint(ByteBuf buffer) {
+      int value = 0;
+      for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+        if (!buffer.isReadable()) {
+          break;
+        }
+        byte b = buffer.readByte();
+        value |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+      throw new ApplicationErrorException("unexpected lease metadata structure");
     }
 
+    /** Adds service call latency of lease frame */
     Metadata serviceCallLatency(long serviceCallLatency) {
       requirePositive(serviceCallLatency, "serviceCallLatency");
       for (int i = 0; i < serviceCallLatencies.length; i++) {
         if (serviceCallLatencies[i] == 0) {
           serviceCallLatencies[i] = serviceCallLatency;
+          /*lease frame only conveys upper 32 bits of service call ID*/
+          int count = serviceCalls;
+          int latency = decodeLatency(serviceCallLatency);
+          if (count < serviceCallIds.length && latency > 0) {
+            serviceCallIds[count] = serviceCallLatency & ~SERVICE_CALL_HASH_MASK;
+            latencies[count] = latency;
+            serviceCalls = count + 1;
+          }
           return this;
         }
       }
@@ -0,0 +1,514 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Load balancer core of {@code LoadBalancedRSocket}: selects member of pool with power of two
+ * choices - two random members are compared by cost, which is product of outstanding requests and
+ * expected latency, divided by {@link Availability}. Expected latency is per-call latency reported
+ * by server with lease metadata for calls of configured methods ({@link
+ * #serviceCallLatencies(Availability, Lease.Metadata)}), and latency of responses observed by
+ * member otherwise. Latency of member without responses yet is {@link Builder#defaultLatency}, and
+ * failed requests are recorded with latency of at least {@link Builder#failureLatency} so members
+ * returning errors fast are not preferred.
+ *
+ * <p>Members are updated lock-free, with copy-on-write array, so selection takes no locks and
+ * allocates nothing. Load balancer is thread-safe.
+ *
+ * @param <T> member type, typically flavor's RSocket
+ */
+public final class LoadBalancer<T extends Availability> {
+  /** Method of requests that are not RPC calls of configured methods */
+  public static final int UNKNOWN_METHOD = -1;
+  public static final Duration DEFAULT_LATENCY = Duration.ofMillis(1);
+  public static final Duration DEFAULT_FAILURE_LATENCY = Duration.ofSeconds(1);
+
+  private static final Member<?>[] EMPTY = new Member<?>[0];
+  private static final Member<?>[] CLOSED = new Member<?>[0];
+
+  private final Rpc.RpcMetadata.ServiceMethodIndex methods;
+  /*method index by service method constant*/
+  private final Map<String, Integer> methodIndexes;
+  /*method index by lease metadata service call ID*/
+  private final Map<Long, Integer> serviceCallIds;
+  private final int methodCount;
+  private final long defaultLatencyMicros;
+  private final long failureLatencyMicros;
+  private final AtomicReference<Member<?>[]> members = new AtomicReference<>(EMPTY);
+  private final CompletableFuture<Void> onClose = new CompletableFuture<>();
+
+  private LoadBalancer(
+      Rpc.RpcMetadata.ServiceMethodIndex methods,
+      Map<String, Integer> methodIndexes,
+      Map<Long, Integer> serviceCallIds,
+      int methodCount,
+      long defaultLatencyMicros,
+      long failureLatencyMicros) {
+    this.methods = methods;
+    this.methodIndexes = methodIndexes;
+    this.serviceCallIds = serviceCallIds;
+    this.methodCount = methodCount;
+    this.defaultLatencyMicros = defaultLatencyMicros;
+    this.failureLatencyMicros = failureLatencyMicros;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @param metadata RPC metadata of request, not modified; or null if request has no metadata
+   * @return index of configured method of request, or {@link #UNKNOWN_METHOD}
+   */
+  public int method(@Nullable ByteBuf metadata) {
+    if (metadata == null || methodCount == 0) {
+      return UNKNOWN_METHOD;
+    }
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    if ((flags & Rpc.RpcMetadata.FLAG_COMPACT) == 0) {
+      return UNKNOWN_METHOD;
+    }
+    String serviceMethod = methods.find(flags, header, metadata);
+    if (serviceMethod == null) {
+      return UNKNOWN_METHOD;
+    }
+    return methodIndexes.get(serviceMethod);
+  }
+
+  /**
+   * @param method method of request, see {@link #method(ByteBuf)}
+   * @return member of lowest cost of two random members, or available member if both are not
+   *     available; null if there is none
+   */
+  @Nullable
+  public Member<T> select(int method) {
+    Member<T>[] ms = members();
+    int count = ms.length;
+    if (count == 0) {
+      return null;
+    }
+    if (count == 1) {
+      Member<T> member = ms[0];
+      return member.availability() > 0 ? member : null;
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(count);
+    int second = random.nextInt(count - 1);
+    if (second >= first) {
+      second++;
+    }
+    Member<T> firstMember = ms[first];
+    Member<T> secondMember = ms[second];
+    double firstCost = firstMember.cost(method);
+    double secondCost = secondMember.cost(method);
+    if (firstCost <= secondCost) {
+      return firstCost < Double.POSITIVE_INFINITY ? firstMember : selectAvailable(ms, method);
+    }
+    return secondCost < Double.POSITIVE_INFINITY ? secondMember : selectAvailable(ms, method);
+  }
+
+  /** @return true if member is added, false if it is already present or load balancer is closed */
+  public boolean add(T target) {
+    Objects.requireNonNull(target, "target");
+    AtomicReference<Member<?>[]> ms = members;
+    while (true) {
+      Member<?>[] current = ms.get();
+      if (current == CLOSED || indexOf(current, target) >= 0) {
+        return false;
+      }
+      Member<?>[] next = new Member<?>[current.length + 1];
+      System.arraycopy(current, 0, next, 0, current.length);
+      next[current.length] = newMember(target);
+      if (ms.compareAndSet(current, next)) {
+        return true;
+      }
+    }
+  }
+
+  /** @return true if member is removed, false if it is not present */
+  public boolean remove(T target) {
+    Objects.requireNonNull(target, "target");
+    AtomicReference<Member<?>[]> ms = members;
+    while (true) {
+      Member<?>[] current = ms.get();
+      int index = indexOf(current, target);
+      if (index < 0) {
+        return false;
+      }
+      Member<?>[] next;
+      if (current.length == 1) {
+        next = EMPTY;
+      } else {
+        next = new Member<?>[current.length - 1];
+        System.arraycopy(current, 0, next, 0, index);
+        System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+      }
+      if (ms.compareAndSet(current, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Replaces members with given targets. Stats of targets that are already members are retained.
+   *
+   * @return false if load balancer is closed
+   */
+  public boolean update(Collection<? extends T> targets) {
+    Objects.requireNonNull(targets, "targets");
+    AtomicReference<Member<?>[]> ms = members;
+    while (true) {
+      Member<?>[] current = ms.get();
+      if (current == CLOSED) {
+        return false;
+      }
+      List<Member<?>> next = new ArrayList<>(targets.size());
+      for (T target : targets) {
+        Objects.requireNonNull(target, "target");
+        boolean duplicate = false;
+        for (Member<?> member : next) {
+          if (member.target == target) {
+            duplicate = true;
+            break;
+          }
+        }
+        if (duplicate) {
+          continue;
+        }
+        int index = indexOf(current, target);
+        next.add(index >= 0 ? current[index] : newMember(target));
+      }
+      Member<?>[] n = next.isEmpty() ? EMPTY : next.toArray(new Member<?>[0]);
+      if (ms.compareAndSet(current, n)) {
+        return true;
+      }
+    }
+  }
+
+  /** @return targets of members */
+  public List<T> targets() {
+    Member<T>[] ms = members();
+    List<T> targets = new ArrayList<>(ms.length);
+    for (Member<T> member : ms) {
+      targets.add(member.target);
+    }
+    return targets;
+  }
+
+  /** @return member of given target, or null if target is not member */
+  @Nullable
+  public Member<T> member(T target) {
+    Objects.requireNonNull(target, "target");
+    Member<T>[] ms = members();
+    int index = indexOf(ms, target);
+    return index < 0 ? null : ms[index];
+  }
+
+  /**
+   * Provides per-call latencies reported by server of given member, e.g. with lease metadata
+   *
+   * @return false if target is not member
+   */
+  public boolean serviceCallLatencies(T target, Lease.Metadata metadata) {
+    Objects.requireNonNull(metadata, "metadata");
+    Member<T> member = member(target);
+    if (member == null) {
+      return false;
+    }
+    AtomicIntegerArray latencies = member.reportedLatencies;
+    if (metadata.serviceCalls() == 0) {
+      return true;
+    }
+    /*lease frame latencies are matched by part of service call ID*/
+    for (Map.Entry<Long, Integer> serviceCall : serviceCallIds.entrySet()) {
+      int latencyMicros = metadata.serviceCallLatencyMicros(serviceCall.getKey());
+      if (latencyMicros > 0) {
+        latencies.set(serviceCall.getValue(), latencyMicros);
+      }
+    }
+    return true;
+  }
+
+  /** @return highest availability of members for given rank */
+  public double availability(int rank) {
+    double availability = 0;
+    for (Member<T> member : members()) {
+      availability = Math.max(availability, member.target.availability(rank));
+    }
+    return availability;
+  }
+
+  /**
+   * Closes load balancer: members are removed, and are not added anymore
+   *
+   * @return targets of removed members, or empty list if load balancer is already closed
+   */
+  public List<T> close() {
+    @SuppressWarnings("unchecked")
+    Member<T>[] ms = (Member<T>[]) members.getAndSet(CLOSED);
+    if (ms == CLOSED) {
+      return Collections.emptyList();
+    }
+    List<T> targets = new ArrayList<>(ms.length);
+    for (Member<T> member : ms) {
+      targets.add(member.target);
+    }
+    onClose.complete(null);
+    return targets;
+  }
+
+  public boolean isClosed() {
+    return members.get() == CLOSED;
+  }
+
+  public CompletionStage<Void> onClose() {
+    return onClose;
+  }
+
+  private Member<T> newMember(T target) {
+    return new Member<>(target, methodCount, defaultLatencyMicros, failureLatencyMicros);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Member<T>[] members() {
+    return (Member<T>[]) members.get();
+  }
+
+  @Nullable
+  private static <T extends Availability> Member<T> selectAvailable(Member<T>[] ms, int method) {
+    Member<T> selected = null;
+    double selectedCost = Double.POSITIVE_INFINITY;
+    for (Member<T> member : ms) {
+      double cost = member.cost(method);
+      if (cost < selectedCost) {
+        selected = member;
+        selectedCost = cost;
+      }
+    }
+    return selected;
+  }
+
+  private static int indexOf(Member<?>[] members, Object target) {
+    for (int i = 0; i < members.length; i++) {
+      if (members[i].target == target) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Member of load balancer: tracks outstanding requests and response latency of target. Each
+   * started request is expected to be stopped exactly once.
+   */
+  public static final class Member<T extends Availability> {
+    /*observed latency follows recent responses over ~8 samples*/
+    static final int LATENCY_SMOOTHING_SHIFT = 3;
+
+    private final T target;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicIntegerArray reportedLatencies;
+    private final long defaultLatencyMicros;
+    private final long failureLatencyMicros;
+    /*updates may race, estimate tolerates lost samples*/
+    private volatile long latencyMicros;
+
+    Member(T target, int methodCount, long defaultLatencyMicros, long failureLatencyMicros) {
+      this.target = target;
+      this.reportedLatencies = new AtomicIntegerArray(methodCount);
+      this.defaultLatencyMicros = defaultLatencyMicros;
+      this.failureLatencyMicros = failureLatencyMicros;
+    }
+
+    public T target() {
+      return target;
+    }
+
+    /** @return request start time, nanos */
+    public long start() {
+      outstanding.incrementAndGet();
+      return System.nanoTime();
+    }
+
+    /**
+     * Records latency of request response
+     *
+     * @param startNanos request start time, see {@link #start()}
+     */
+    public void record(long startNanos) {
+      sample(Math.max(1, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos)));
+    }
+
+    /**
+     * Records failed request: its latency is penalized to at least {@link
+     * Builder#failureLatency(Duration)}
+     *
+     * @param startNanos request start time, see {@link #start()}
+     */
+    public void recordFailure(long startNanos) {
+      long elapsed = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+      sample(Math.max(failureLatencyMicros, elapsed));
+    }
+
+    private void sample(long sample) {
+      long latency = latencyMicros;
+      latencyMicros =
+          latency == 0 ? sample : latency + ((sample - latency) >> LATENCY_SMOOTHING_SHIFT);
+    }
+
+    /** Request terminated: completed, failed or cancelled */
+    public void stop() {
+      outstanding.decrementAndGet();
+    }
+
+    public int outstanding() {
+      return outstanding.get();
+    }
+
+    /** @return latency of responses observed by member, micros; or 0 if there are none */
+    public long latencyMicros() {
+      return latencyMicros;
+    }
+
+    double availability() {
+      return target.availability();
+    }
+
+    /**
+     * @param method method of request
+     * @return cost of request, or {@link Double#POSITIVE_INFINITY} if member is not available
+     */
+    double cost(int method) {
+      double availability = target.availability();
+      if (availability <= 0) {
+        return Double.POSITIVE_INFINITY;
+      }
+      long latency = 0;
+      if (method >= 0) {
+        latency = reportedLatencies.get(method);
+      }
+      if (latency == 0) {
+        latency = latencyMicros;
+        if (latency == 0) {
+          latency = defaultLatencyMicros;
+        }
+      }
+      return (outstanding.get() + 1) * (double) latency / availability;
+    }
+  }
+
+  public static final class Builder {
+    private final List<String[]> serviceMethods = new ArrayList<>();
+    private Rpc.CallIds callIds;
+    private Duration defaultLatency = DEFAULT_LATENCY;
+    private Duration failureLatency = DEFAULT_FAILURE_LATENCY;
+
+    private Builder() {}
+
+    /**
+     * Enables per-call latency of given method calls
+     *
+     * @param service service name, or empty string for default service calls
+     */
+    public Builder method(String service, String method) {
+      Objects.requireNonNull(service, "service");
+      Objects.requireNonNull(method, "method");
+      serviceMethods.add(new String[] {service, method});
+      return this;
+    }
+
+    /** @param callIds call IDs of connections, so calls addressed with call ID are recognized */
+    public Builder callIds(Rpc.CallIds callIds) {
+      this.callIds = Objects.requireNonNull(callIds, "callIds");
+      return this;
+    }
+
+    /**
+     * @param defaultLatency expected latency of member without observed responses, typically
+     *     close to latency of healthy members
+     */
+    public Builder defaultLatency(Duration defaultLatency) {
+      this.defaultLatency = requirePositive(defaultLatency, "defaultLatency");
+      return this;
+    }
+
+    /** @param failureLatency lower bound of latency recorded for failed requests */
+    public Builder failureLatency(Duration failureLatency) {
+      this.failureLatency = requirePositive(failureLatency, "failureLatency");
+      return this;
+    }
+
+    public <T extends Availability> LoadBalancer<T> build() {
+      List<String> services = new ArrayList<>(serviceMethods.size());
+      List<String> methods = new ArrayList<>(serviceMethods.size());
+      Map<String, Integer> methodIndexes = new HashMap<>();
+      Map<Long, Integer> serviceCallIds = new HashMap<>();
+      for (String[] serviceMethod : serviceMethods) {
+        String key = Rpc.RpcMetadata.ServiceMethodIndex.key(serviceMethod[0], serviceMethod[1]);
+        if (methodIndexes.containsKey(key)) {
+          continue;
+        }
+        int index = services.size();
+        services.add(serviceMethod[0]);
+        methods.add(serviceMethod[1]);
+        methodIndexes.put(key, index);
+        serviceCallIds.put(
+            Lease.Metadata.serviceCallId(serviceMethod[0] + "/" + serviceMethod[1]), index);
+      }
+      Rpc.RpcMetadata.ServiceMethodIndex index =
+          Rpc.RpcMetadata.ServiceMethodIndex.create(services, methods);
+      Rpc.CallIds ids = callIds;
+      if (ids != null) {
+        index = index.withCallIds(ids);
+      }
+      return new LoadBalancer<>(
+          index,
+          methodIndexes,
+          serviceCallIds,
+          services.size(),
+          Math.max(1, defaultLatency.toNanos() / 1000),
+          Math.max(1, failureLatency.toNanos() / 1000));
+    }
+
+    private static Duration requirePositive(Duration duration, String message) {
+      Objects.requireNonNull(duration, message);
+      if (duration.isNegative() || duration.isZero()) {
+        throw new IllegalArgumentException(message + " must be positive, provided: " + duration);
+      }
+      return duration;
+    }
+  }
+}
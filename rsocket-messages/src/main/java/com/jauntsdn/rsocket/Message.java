@@ -48,5 +48,18 @@ public abstract class Message extends AbstractReferenceCounted {
     Message createMetadata(ByteBuf metadata);
 
     Message empty();
+
+    /**
+     * @return factory of messages returned to thread-local pool on release, see {@link #unpooled()}
+     *     for debugging
+     */
+    static Factory pooled() {
+      return PooledMessageFactory.POOLED;
+    }
+
+    /** @return factory of messages allocated per call */
+    static Factory unpooled() {
+      return PooledMessageFactory.UNPOOLED;
+    }
   }
 }
@@ -94,6 +94,56 @@ public final class MessageMetadata {
     return metadata;
   }
 
+  /**
+   * @return immutable, thread-safe template of currently configured message metadata. Metadata
+   *     writer, if provided, is shared by all messages built with template and must be thread-safe
+   *     as well
+   */
+  public Template template() {
+    return new Template(allocator, metadataSize, isDefaultService, metadataWriter);
+  }
+
+  /**
+   * Immutable message metadata with precomputed header, intended to be shared across threads for
+   * messages of same metadata configuration. Building message metadata does not allocate anything
+   * besides ByteBuf.
+   */
+  public static final class Template {
+    private final ByteBufAllocator allocator;
+    private final int capacity;
+    private final long prefix;
+    private final Consumer<ByteBuf> metadataWriter;
+
+    Template(
+        ByteBufAllocator allocator,
+        int metadataSize,
+        boolean isDefaultService,
+        Consumer<ByteBuf> metadataWriter) {
+      this.allocator = allocator;
+      this.capacity = HEADER_SIZE + metadataSize;
+      this.prefix = MessageMetadataFlyweight.prefix(isDefaultService);
+      this.metadataWriter = metadataWriter;
+    }
+
+    /** @return message metadata written by template's metadata writer, if any */
+    public ByteBuf build() {
+      ByteBuf metadata = allocator.buffer(capacity).writeLong(prefix);
+      Consumer<ByteBuf> mw = metadataWriter;
+      if (mw != null) {
+        mw.accept(metadata);
+      }
+      return metadata;
+    }
+
+    /** @return message metadata written by provided metadata writer */
+    public ByteBuf build(Consumer<ByteBuf> metadataWriter) {
+      Objects.requireNonNull(metadataWriter, "metadataWriter");
+      ByteBuf metadata = allocator.buffer(capacity).writeLong(prefix);
+      metadataWriter.accept(metadata);
+      return metadata;
+    }
+  }
+
   static int requirePositive(int val, String message) {
     if (val <= 0) {
       throw new IllegalArgumentException(message + " must be positive, provided: " + val);
@@ -225,18 +275,16 @@ public final class MessageMetadata {
     static final int FLAG_DEFAULT_SERVICE = 0b1000_0000_0000_0000;
 
     static ByteBuf encode(ByteBufAllocator allocator, int metadataSize, boolean defaultService) {
-      ByteBuf buffer = allocator.buffer(HEADER_SIZE + metadataSize);
-
-      buffer.writeShort((int) (HEADER_MAGIC >> 32));
-      buffer.writeShort((int) ((HEADER_MAGIC >> 16) & 0xFFFF));
-      buffer.writeShort((int) (HEADER_MAGIC & 0xFFFF));
+      return allocator.buffer(HEADER_SIZE + metadataSize).writeLong(prefix(defaultService));
+    }
 
+    /** @return magic string and header as single 8 byte word */
+    static long prefix(boolean defaultService) {
       int header = 0;
       if (defaultService) {
         header |= FLAG_DEFAULT_SERVICE;
       }
-      buffer.writeShort(header);
-      return buffer;
+      return HEADER_MAGIC << 16 | header;
     }
 
     /** @return 16 bit header from metadata, or -1 if metadata does not have header */
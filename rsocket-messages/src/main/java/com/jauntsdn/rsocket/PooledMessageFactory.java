@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.Recycler;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+import io.netty.util.ResourceLeakTracker;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Message factory returning released messages to thread-local pool. Pooling is disabled with {@code
+ * -Dcom.jauntsdn.rsocket.message.pooling=false}, then messages are allocated per call. Messages not
+ * released are reported by netty's ResourceLeakDetector, configured with {@code
+ * -Dio.netty.leakDetection.level}.
+ */
+final class PooledMessageFactory implements Message.Factory {
+  static final String POOLING_PROPERTY = "com.jauntsdn.rsocket.message.pooling";
+  static final boolean POOLING_ENABLED =
+      Boolean.parseBoolean(System.getProperty(POOLING_PROPERTY, "true"));
+
+  static final PooledMessageFactory POOLED = new PooledMessageFactory(POOLING_ENABLED);
+  static final PooledMessageFactory UNPOOLED = new PooledMessageFactory(false);
+
+  private static final Recycler<PooledMessage> RECYCLER =
+      new Recycler<PooledMessage>() {
+        @Override
+        protected PooledMessage newObject(Handle<PooledMessage> handle) {
+          return new PooledMessage(handle);
+        }
+      };
+
+  private static final ResourceLeakDetector<Message> LEAK_DETECTOR =
+      ResourceLeakDetectorFactory.instance().newResourceLeakDetector(Message.class);
+
+  private final boolean isPooled;
+
+  private PooledMessageFactory(boolean isPooled) {
+    this.isPooled = isPooled;
+  }
+
+  @Override
+  public Message create(ByteBuf data, @Nullable ByteBuf metadata) {
+    Objects.requireNonNull(data, "data");
+    return message(data, metadata);
+  }
+
+  @Override
+  public Message createMetadata(ByteBuf metadata) {
+    Objects.requireNonNull(metadata, "metadata");
+    return message(Unpooled.EMPTY_BUFFER, metadata);
+  }
+
+  @Override
+  public Message empty() {
+    return message(Unpooled.EMPTY_BUFFER, null);
+  }
+
+  boolean isPooled() {
+    return isPooled;
+  }
+
+  private Message message(ByteBuf data, @Nullable ByteBuf metadata) {
+    PooledMessage message = isPooled ? RECYCLER.get() : new PooledMessage(null);
+    return message.init(data, metadata, LEAK_DETECTOR.track(message));
+  }
+
+  static final class PooledMessage extends Message {
+    private final Recycler.Handle<PooledMessage> handle;
+    private ByteBuf data;
+    private ByteBuf metadata;
+    private ResourceLeakTracker<Message> leak;
+
+    PooledMessage(@Nullable Recycler.Handle<PooledMessage> handle) {
+      this.handle = handle;
+    }
+
+    PooledMessage init(
+        ByteBuf data, @Nullable ByteBuf metadata, @Nullable ResourceLeakTracker<Message> leak) {
+      setRefCnt(1);
+      this.data = data;
+      this.metadata = metadata;
+      this.leak = leak;
+      return this;
+    }
+
+    @Override
+    public boolean hasMetadata() {
+      return metadata != null;
+    }
+
+    @Override
+    public ByteBuf metadata() {
+      ByteBuf m = metadata;
+      return m != null ? m : Unpooled.EMPTY_BUFFER;
+    }
+
+    @Override
+    public boolean hasData() {
+      return data.isReadable();
+    }
+
+    @Override
+    public ByteBuf data() {
+      return data;
+    }
+
+    @Override
+    public boolean hasContent() {
+      return false;
+    }
+
+    @Override
+    public ByteBuf content() {
+      return Unpooled.EMPTY_BUFFER;
+    }
+
+    @Override
+    public Message touch(Object hint) {
+      ResourceLeakTracker<Message> l = leak;
+      if (l != null) {
+        l.record(hint);
+      }
+      return this;
+    }
+
+    @Override
+    protected void deallocate() {
+      ByteBuf d = data;
+      ByteBuf m = metadata;
+      ResourceLeakTracker<Message> l = leak;
+      data = null;
+      metadata = null;
+      leak = null;
+      try {
+        d.release();
+        if (m != null) {
+          m.release();
+        }
+      } finally {
+        if (l != null) {
+          l.close(this);
+        }
+        Recycler.Handle<PooledMessage> h = handle;
+        if (h != null) {
+          h.recycle(this);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Client-side cache of request-response calls responses. Only calls with idempotent flag of RPC
+ * metadata ({@link Rpc.RpcMetadata#flagIdempotentCall(int)}), of methods configured with TTL, are
+ * cached. Entries are keyed by service method, caller identity and request data bytes; responses
+ * data is stored as off-heap buffer copies. Cache is bounded by bytes of requests and responses,
+ * least recently used entries are evicted first.
+ *
+ * <p>Caller is identified by {@link SingleFlight.CallerIdentity}: by default request metadata
+ * (headers) is part of key, so response of call made with one set of headers (e.g. authorization,
+ * tenant) is never served to call with another. Trace is not part of key. Identity that ignores
+ * headers must only be configured if responses do not depend on them.
+ *
+ * <p>Cache is thread-safe, and is typically shared by client's {@code RpcResponseCaching} message
+ * streams of all connections. Calls addressed with call ID are resolved with single {@link
+ * Builder#callIds(Rpc.CallIds)}, so cache must not be shared by connections with different call
+ * IDs. Request served from cache is not sent, so its headers must not be encoded with stateful
+ * {@link HeadersMetadata.Encoder}.
+ */
+public final class ResponseCache {
+  public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+  /*approximate heap footprint of entry: key, entry, map node, buffer wrappers*/
+  static final int ENTRY_OVERHEAD = 160;
+
+  private final Rpc.RpcMetadata.ServiceMethodIndex methods;
+  private final Map<String, Long> ttls;
+  private final SingleFlight.CallerIdentity callerIdentity;
+  private final long maxBytes;
+  private final ByteBufAllocator allocator;
+  private final LongSupplier nanoClock;
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  /*guarded by this*/
+  private long bytes;
+
+  private ResponseCache(
+      Rpc.RpcMetadata.ServiceMethodIndex methods,
+      Map<String, Long> ttls,
+      SingleFlight.CallerIdentity callerIdentity,
+      long maxBytes,
+      ByteBufAllocator allocator,
+      LongSupplier nanoClock) {
+    this.methods = methods;
+    this.ttls = ttls;
+    this.callerIdentity = callerIdentity;
+    this.maxBytes = maxBytes;
+    this.allocator = allocator;
+    this.nanoClock = nanoClock;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @param metadata RPC metadata of request, not modified
+   * @param data request data, not modified
+   * @return retained cached response data, or null if there is no unexpired response
+   */
+  @Nullable
+  public ByteBuf get(ByteBuf metadata, ByteBuf data) {
+    Key key = key(metadata, data);
+    return key == null ? null : lookup(key);
+  }
+
+  /**
+   * Service method, caller identity and hash of request are computed once per call: key is used
+   * both to look up cached response with {@link #get(Key)}, and to cache response with {@link
+   * #put(Key, ByteBuf)}.
+   *
+   * @param metadata RPC metadata of request, not modified
+   * @param data request data, not modified
+   * @return key of request, or null if request is not cached: is not idempotent, its method is not
+   *     configured, or it has no caller identity. Key references request data and metadata, so it
+   *     is valid while request message is not released, unless {@link #get(Key)} returned null
+   */
+  @Nullable
+  public Key key(ByteBuf metadata, ByteBuf data) {
+    String method = cachedMethod(metadata);
+    if (method == null) {
+      return null;
+    }
+    Object caller = callerIdentity.callerIdentity(metadata);
+    if (caller == null) {
+      return null;
+    }
+    Key key = new Key();
+    key.set(method, caller, hash(data), data);
+    return key;
+  }
+
+  /**
+   * @param key key of request, created with {@link #key(ByteBuf, ByteBuf)}
+   * @return retained cached response data, or null if there is no unexpired response. On miss
+   *     request data and caller identity of key are copied, so key outlives request message
+   */
+  @Nullable
+  public ByteBuf get(Key key) {
+    Objects.requireNonNull(key, "key");
+    ByteBuf response = lookup(key);
+    if (response == null) {
+      key.detach();
+    }
+    return response;
+  }
+
+  @Nullable
+  private ByteBuf lookup(Key key) {
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (nanoClock.getAsLong() - entry.expiresAt >= 0) {
+        remove(entry.key);
+        return null;
+      }
+      return entry.response.retainedDuplicate();
+    }
+  }
+
+  /**
+   * @param key key of request, created with {@link #key(ByteBuf, ByteBuf)}
+   * @param response response data, not modified: it is copied into off-heap buffer
+   */
+  public void put(Key key, ByteBuf response) {
+    Objects.requireNonNull(key, "key");
+    Objects.requireNonNull(response, "response");
+    int weight = key.weight() + response.readableBytes() + ENTRY_OVERHEAD;
+    if (weight > maxBytes) {
+      return;
+    }
+    key.detach();
+    long expiresAt = nanoClock.getAsLong() + ttls.get(key.method);
+    ByteBuf copy = allocator.directBuffer(response.readableBytes());
+    copy.writeBytes(response, response.readerIndex(), response.readableBytes());
+
+    synchronized (this) {
+      Entry previous = entries.put(key, new Entry(key, copy, expiresAt, weight));
+      if (previous != null) {
+        bytes -= previous.weight;
+        previous.response.release();
+      }
+      bytes += weight;
+      Iterator<Entry> eldest = entries.values().iterator();
+      while (bytes > maxBytes) {
+        Entry entry = eldest.next();
+        eldest.remove();
+        bytes -= entry.weight;
+        entry.response.release();
+      }
+    }
+  }
+
+  /** Removes all entries */
+  public synchronized void clear() {
+    for (Entry entry : entries.values()) {
+      entry.response.release();
+    }
+    entries.clear();
+    bytes = 0;
+  }
+
+  /** @return count of cached responses, including expired ones not evicted yet */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** @return bytes of cached requests and responses, plus per-entry overhead */
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  @Nullable
+  String cachedMethod(ByteBuf metadata) {
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    if (!Rpc.RpcMetadata.flagIdempotentCall(flags)) {
+      return null;
+    }
+    return methods.find(flags, header, metadata);
+  }
+
+  /*view of request headers, copied by key once response is not found in cache*/
+  static Object requestHeaders(ByteBuf metadata) {
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    int offset = Rpc.RpcMetadata.metadataOffset(header, flags);
+    int length = metadata.writerIndex() - offset;
+    if (length <= 0) {
+      return Unpooled.EMPTY_BUFFER;
+    }
+    return metadata.slice(offset, length);
+  }
+
+  /*guarded by this*/
+  private void remove(Key key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      bytes -= entry.weight;
+      entry.response.release();
+    }
+  }
+
+  static long hash(ByteBuf data) {
+    int offset = data.readerIndex();
+    int end = data.writerIndex();
+    long hash = 0x9E37_79B9_7F4A_7C15L ^ (end - offset);
+    for (; offset + Long.BYTES <= end; offset += Long.BYTES) {
+      hash = (hash ^ data.getLong(offset)) * 0xC2B2_AE3D_27D4_EB4FL;
+      hash ^= hash >>> 29;
+    }
+    for (; offset < end; offset++) {
+      hash = (hash ^ data.getByte(offset)) * 0xC2B2_AE3D_27D4_EB4FL;
+    }
+    return hash ^ hash >>> 32;
+  }
+
+  /** Cache key of request: service method, caller identity and request data */
+  public static final class Key {
+    String method;
+    Object caller;
+    long hash;
+    ByteBuf request;
+    boolean isDetached;
+
+    Key() {}
+
+    void set(String method, Object caller, long hash, ByteBuf request) {
+      this.method = method;
+      this.caller = caller;
+      this.hash = hash;
+      this.request = request;
+    }
+
+    /*copies request data and caller identity buffer so key outlives request message*/
+    void detach() {
+      if (isDetached) {
+        return;
+      }
+      isDetached = true;
+      request = Unpooled.wrappedBuffer(ByteBufUtil.getBytes(request));
+      Object c = caller;
+      if (c instanceof ByteBuf) {
+        caller = Unpooled.wrappedBuffer(ByteBufUtil.getBytes((ByteBuf) c));
+      }
+    }
+
+    int weight() {
+      Object c = caller;
+      int callerBytes = c instanceof ByteBuf ? ((ByteBuf) c).readableBytes() : 0;
+      return request.readableBytes() + callerBytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      /*method constants of ServiceMethodIndex*/
+      return method == key.method
+          && hash == key.hash
+          && caller.equals(key.caller)
+          && ByteBufUtil.equals(request, key.request);
+    }
+
+    @Override
+    public int hashCode() {
+      return (Long.hashCode(hash) * 31 + method.hashCode()) * 31 + caller.hashCode();
+    }
+  }
+
+  static final class Entry {
+    final Key key;
+    final ByteBuf response;
+    final long expiresAt;
+    final int weight;
+
+    Entry(Key key, ByteBuf response, long expiresAt, int weight) {
+      this.key = key;
+      this.response = response;
+      this.expiresAt = expiresAt;
+      this.weight = weight;
+    }
+  }
+
+  public static final class Builder {
+    private final Map<String, Long> ttls = new HashMap<>();
+    private final List<String[]> serviceMethods = new ArrayList<>();
+    private Rpc.CallIds callIds;
+    private SingleFlight.CallerIdentity callerIdentity = ResponseCache::requestHeaders;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+    private LongSupplier nanoClock = System::nanoTime;
+
+    private Builder() {}
+
+    /**
+     * Enables caching of idempotent calls of given method
+     *
+     * @param service service name, or empty string for default service calls
+     * @param ttl time cached response is served for
+     */
+    public Builder method(String service, String method, Duration ttl) {
+      Objects.requireNonNull(service, "service");
+      Objects.requireNonNull(method, "method");
+      Objects.requireNonNull(ttl, "ttl");
+      if (ttl.isNegative() || ttl.isZero()) {
+        throw new IllegalArgumentException("ttl must be positive, provided: " + ttl);
+      }
+      String serviceMethod = Rpc.RpcMetadata.ServiceMethodIndex.key(service, method);
+      if (ttls.put(serviceMethod, ttl.toNanos()) == null) {
+        serviceMethods.add(new String[] {service, method});
+      }
+      return this;
+    }
+
+    /** @param callIds call IDs of connections, so calls addressed with call ID are cached */
+    public Builder callIds(Rpc.CallIds callIds) {
+      this.callIds = Objects.requireNonNull(callIds, "callIds");
+      return this;
+    }
+
+    /**
+     * @param callerIdentity identity of caller, part of cache key: responses are served only to
+     *     calls of same caller. Request metadata (headers) by default
+     */
+    public Builder callerIdentity(SingleFlight.CallerIdentity callerIdentity) {
+      this.callerIdentity = Objects.requireNonNull(callerIdentity, "callerIdentity");
+      return this;
+    }
+
+    /** @param maxBytes bound of cached requests and responses bytes */
+    public Builder maxBytes(long maxBytes) {
+      if (maxBytes <= 0) {
+        throw new IllegalArgumentException("maxBytes must be positive, provided: " + maxBytes);
+      }
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /** @param allocator allocator of off-heap buffers responses are copied into */
+    public Builder allocator(ByteBufAllocator allocator) {
+      this.allocator = Objects.requireNonNull(allocator, "allocator");
+      return this;
+    }
+
+    Builder nanoClock(LongSupplier nanoClock) {
+      this.nanoClock = Objects.requireNonNull(nanoClock, "nanoClock");
+      return this;
+    }
+
+    public ResponseCache build() {
+      List<String> services = new ArrayList<>(serviceMethods.size());
+      List<String> methods = new ArrayList<>(serviceMethods.size());
+      for (String[] serviceMethod : serviceMethods) {
+        services.add(serviceMethod[0]);
+        methods.add(serviceMethod[1]);
+      }
+      Rpc.RpcMetadata.ServiceMethodIndex index =
+          Rpc.RpcMetadata.ServiceMethodIndex.create(services, methods);
+      Rpc.CallIds ids = callIds;
+      if (ids != null) {
+        index = index.withCallIds(ids);
+      }
+      return new ResponseCache(
+          index, new HashMap<>(ttls), callerIdentity, maxBytes, allocator, nanoClock);
+    }
+  }
+}
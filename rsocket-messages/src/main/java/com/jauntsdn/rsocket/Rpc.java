@@ -16,7 +16,10 @@
 
 package com.jauntsdn.rsocket;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnsafeByteOperations;
 import com.jauntsdn.rsocket.exceptions.ApplicationErrorException;
 import com.jauntsdn.rsocket.exceptions.SerializationException;
 import io.netty.buffer.ByteBuf;
@@ -25,17 +28,25 @@ import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.buffer.UnpooledHeapByteBuf;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
 public final class Rpc {
 
@@ -115,6 +126,34 @@ public final class Rpc {
           externalMetadataSize);
     }
 
+    /**
+     * Encodes content with headers written directly into content buffer. Default implementation
+     * encodes headers into separate buffer with {@link ProtoMetadata#encodeHeaders(Headers)},
+     * codecs should override it to reserve {@link Headers#serializedSize()} bytes of content buffer
+     * and write headers with {@link ProtoMetadata#encodeHeaders(Headers, ByteBuf)}.
+     */
+    default ByteBuf encodeContent(
+        ByteBufAllocator allocator,
+        Headers headers,
+        int localHeader,
+        String service,
+        String method,
+        boolean hasRequestN,
+        boolean isIdempotent,
+        int dataSize,
+        int externalMetadataSize) {
+      return encodeContent(
+          allocator,
+          ProtoMetadata.encodeHeaders(headers),
+          localHeader,
+          service,
+          method,
+          hasRequestN,
+          isIdempotent,
+          dataSize,
+          externalMetadataSize);
+    }
+
     Message encodeMessage(ByteBuf content, int rank);
 
     ByteBuf encodeContent(ByteBufAllocator allocator, int dataSize);
@@ -135,7 +174,7 @@ public final class Rpc {
    * HEADER
    *
    * [8] VERSION
-   * [8] FLAGS: COMPACT ENCODING, DEFAULT SERVICE, FOREIGN_CALL, TRACE METADATA
+   * [8] FLAGS: COMPACT ENCODING, DEFAULT SERVICE, FOREIGN_CALL, TRACE METADATA, COMPRESSED
    * [8] SERVICE LENGTH ? (!DEFAULT SERVICE)
    * [8] METHOD LENGTH
    * [16] TRACE LENGTH ? (TRACE_METADATA)
@@ -153,6 +192,8 @@ public final class Rpc {
 
     /*version*/
     public static final byte VERSION = 1;
+    /*service and method are addressed with call ID assigned by Rpc.CallIds*/
+    public static final byte VERSION_CALL_ID = 2;
     static final long MASK_VERSION = 0xFF00_0000_0000_0000L;
     static final long MASK_VERSION_SHIFT = 56;
     /*flags*/
@@ -163,6 +204,7 @@ public final class Rpc {
     static final int FLAG_FOREIGN_CALL = 0b0010_0000;
     static final int FLAG_IDEMPOTENT_CALL = 0b0001_0000;
     static final int FLAG_TRACE = 0b0000_1000;
+    static final int FLAG_COMPRESSED = 0b0000_0100;
 
     /*service*/
     static final long MASK_SERVICE_LENGTH = 0x0000_FF00_0000_0000L;
@@ -175,7 +217,151 @@ public final class Rpc {
     static final int MASK_METHOD_SHIFT = 32;
 
     public static long header(ByteBuf rpcMetadata) {
-      return rpcMetadata.getLong(0);
+      if (rpcMetadata.capacity() >= Long.BYTES) {
+        return rpcMetadata.getLong(0);
+      }
+      /*call ID metadata may be shorter than 8 bytes*/
+      long header = 0;
+      for (int i = 0; i < rpcMetadata.capacity(); i++) {
+        header |= (rpcMetadata.getByte(i) & 0xFFL) << (Long.SIZE - Byte.SIZE * (i + 1));
+      }
+      return header;
+    }
+
+    /*
+     * call ID encoding
+     *
+     * [8] VERSION_CALL_ID
+     * [8] FLAGS: COMPACT ENCODING, FOREIGN_CALL, IDEMPOTENT_CALL, TRACE METADATA, COMPRESSED
+     * [16] CALL ID
+     * [16] TRACE LENGTH ? (TRACE_METADATA)
+     * */
+    static final long MASK_CALL_ID = 0x0000_FFFF_0000_0000L;
+    static final int MASK_CALL_ID_SHIFT = 32;
+    static final long MASK_CALL_ID_TRACE_LENGTH = 0x0000_0000_FFFF_0000L;
+    static final int MASK_CALL_ID_TRACE_LENGTH_SHIFT = 16;
+
+    /** @return true if service and method of call are addressed with call ID */
+    public static boolean isCallId(long header) {
+      return version(header) == VERSION_CALL_ID;
+    }
+
+    /** @return call ID of metadata with {@link #VERSION_CALL_ID} version */
+    public static int callId(long header) {
+      return (int) ((header & MASK_CALL_ID) >> MASK_CALL_ID_SHIFT);
+    }
+
+    /** @return trace length of metadata with {@link #VERSION_CALL_ID} version */
+    public static int callIdTraceLength(long header, int flags) {
+      boolean hasTrace = (flags & FLAG_TRACE) == FLAG_TRACE;
+      return hasTrace
+          ? (int) ((header & MASK_CALL_ID_TRACE_LENGTH) >> MASK_CALL_ID_TRACE_LENGTH_SHIFT)
+          : 0;
+    }
+
+    /** @return offset of trace, or metadata if there is no trace, for {@link #VERSION_CALL_ID} */
+    public static int callIdTraceOffset(int flags) {
+      boolean hasTrace = (flags & FLAG_TRACE) == FLAG_TRACE;
+      return hasTrace ? 4 + Short.BYTES : 4;
+    }
+
+    /**
+     * Writes header of metadata with {@link #VERSION_CALL_ID} version: trace of given length, and
+     * metadata are expected to be written by caller
+     *
+     * @param traceLength trace length, or 0 if there is no trace
+     * @return provided buffer
+     */
+    public static ByteBuf encodeCallId(
+        ByteBuf buffer, int callId, boolean isIdempotent, boolean isForeignCall, int traceLength) {
+      return encodeCallId(buffer, callId, isIdempotent, isForeignCall, false, traceLength);
+    }
+
+    /**
+     * Writes header of metadata with {@link #VERSION_CALL_ID} version: trace of given length, and
+     * metadata are expected to be written by caller
+     *
+     * @param isCompressed true if payload data is compressed with {@link Compression}
+     * @param traceLength trace length, or 0 if there is no trace
+     * @return provided buffer
+     */
+    public static ByteBuf encodeCallId(
+        ByteBuf buffer,
+        int callId,
+        boolean isIdempotent,
+        boolean isForeignCall,
+        boolean isCompressed,
+        int traceLength) {
+      CallIds.requireValidId(callId);
+      if (traceLength < 0 || traceLength > 0xFFFF) {
+        throw new IllegalArgumentException("traceLength must be in range [0, 65535]");
+      }
+      int flags = FLAG_COMPACT;
+      if (isIdempotent) {
+        flags |= FLAG_IDEMPOTENT_CALL;
+      }
+      if (isForeignCall) {
+        flags |= FLAG_FOREIGN_CALL;
+      }
+      if (isCompressed) {
+        flags |= FLAG_COMPRESSED;
+      }
+      if (traceLength > 0) {
+        flags |= FLAG_TRACE;
+        return buffer
+            .writeInt(VERSION_CALL_ID << 24 | flags << 16 | callId)
+            .writeShort(traceLength);
+      }
+      return buffer.writeInt(VERSION_CALL_ID << 24 | flags << 16 | callId);
+    }
+
+    /**
+     * Expands metadata of call addressed with call ID into metadata of {@link #VERSION} version
+     * that carries service and method names, so it is decoded by accessors not aware of call IDs:
+     * {@link #service(ByteBuf, long, int)}, {@link #method(ByteBuf, long, int)} and {@link
+     * #serviceMethod(int, long, ByteBuf, List)}. Flags, trace and metadata (headers) are preserved.
+     *
+     * @param callIds call IDs of connection metadata is received on
+     * @return metadata of {@link #VERSION} version allocated with given allocator. Throws
+     *     IllegalArgumentException if call ID is not assigned
+     */
+    public static ByteBuf expandCallId(
+        ByteBuf metadata, long header, int flags, CallIds callIds, ByteBufAllocator allocator) {
+      requireCompact(flags);
+      if (!isCallId(header)) {
+        throw new IllegalArgumentException("RSocket-RPC metadata is not addressed with call ID");
+      }
+      int callId = requireAssignedCallId(header, callIds);
+      String service = callIds.service(callId);
+      String method = callIds.method(callId);
+      boolean hasTrace = (flags & FLAG_TRACE) == FLAG_TRACE;
+      boolean defaultService = service.isEmpty();
+      int traceOffset = callIdTraceOffset(flags);
+      int traceLength = callIdTraceLength(header, flags);
+      int headersOffset = traceOffset + traceLength;
+      int headersLength = Math.max(0, metadata.writerIndex() - headersOffset);
+
+      int size = 3 + service.length() + method.length() + traceLength + headersLength;
+      if (!defaultService) {
+        size += Byte.BYTES;
+      }
+      if (hasTrace) {
+        size += Short.BYTES;
+      }
+      ByteBuf expanded = allocator.buffer(size, size);
+      expanded.writeByte(VERSION);
+      expanded.writeByte(defaultService ? flags | FLAG_DEFAULT_SERVICE : flags);
+      if (!defaultService) {
+        expanded.writeByte(service.length());
+      }
+      expanded.writeByte(method.length());
+      if (hasTrace) {
+        expanded.writeShort(traceLength);
+      }
+      ByteBufUtil.writeAscii(expanded, service);
+      ByteBufUtil.writeAscii(expanded, method);
+      expanded.writeBytes(metadata, traceOffset, traceLength + headersLength);
+      return expanded;
     }
 
     public static int version(long header) {
@@ -194,32 +380,151 @@ public final class Rpc {
       return (flags & FLAG_IDEMPOTENT_CALL) == FLAG_IDEMPOTENT_CALL;
     }
 
+    /** @return true if payload data is compressed with {@link Compression} */
+    public static boolean flagCompressed(int flags) {
+      return (flags & FLAG_COMPRESSED) == FLAG_COMPRESSED;
+    }
+
+    /**
+     * Sets compressed flag of already encoded metadata of any version, for codecs deciding on
+     * compression after metadata is written.
+     *
+     * @param metadataOffset offset of RPC metadata in buffer
+     * @return provided buffer
+     */
+    public static ByteBuf markCompressed(ByteBuf buffer, int metadataOffset) {
+      int flagsOffset = metadataOffset + 1;
+      buffer.setByte(flagsOffset, buffer.getByte(flagsOffset) | FLAG_COMPRESSED);
+      return buffer;
+    }
+
+    /*clears compressed flag once payload is decompressed*/
+    static ByteBuf unmarkCompressed(ByteBuf buffer, int metadataOffset) {
+      int flagsOffset = metadataOffset + 1;
+      buffer.setByte(flagsOffset, buffer.getByte(flagsOffset) & ~FLAG_COMPRESSED);
+      return buffer;
+    }
+
+    /**
+     * @return service name of call addressed with service name. Throws IllegalArgumentException if
+     *     call is addressed with call ID, see {@link #service(ByteBuf, long, int, CallIds)}. Call
+     *     ID metadata is expanded by {@code RpcHandler} before calls are dispatched to services,
+     *     see {@link #expandCallId(ByteBuf, long, int, CallIds, ByteBufAllocator)}
+     */
     public static String service(ByteBuf metadata, long header, int flags) {
-      if (!((flags & FLAG_COMPACT) == FLAG_COMPACT)) {
-        throw new IllegalArgumentException("RSocket-RPC default encoding is not implemented");
-      }
+      requireCompact(flags);
+      requireNotCallId(header);
 
       boolean defaultService = (flags & FLAG_DEFAULT_SERVICE) == FLAG_DEFAULT_SERVICE;
       if (defaultService) {
         return "";
       }
+      return metadata.toString(
+          serviceOffset(flags), serviceLength(header), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param callIds call IDs of connection metadata is received on
+     * @return service name of call addressed with service name or call ID, empty string for default
+     *     service. Throws IllegalArgumentException if call ID is not assigned
+     */
+    public static String service(ByteBuf metadata, long header, int flags, CallIds callIds) {
+      if (!isCallId(header)) {
+        return service(metadata, header, flags);
+      }
+      requireCompact(flags);
+      return callIds.service(requireAssignedCallId(header, callIds));
+    }
+
+    /**
+     * @return true if call is addressed to default service: has default service flag, or empty
+     *     service name
+     */
+    public static boolean isDefaultService(long header, int flags) {
+      requireCompact(flags);
+      if (isCallId(header)) {
+        return false;
+      }
+      boolean defaultService = (flags & FLAG_DEFAULT_SERVICE) == FLAG_DEFAULT_SERVICE;
+      return defaultService || serviceLength(header) == 0;
+    }
+
+    /**
+     * @return offset of metadata (headers) following service, method and trace, for metadata of
+     *     any version
+     */
+    public static int metadataOffset(long header, int flags) {
+      requireCompact(flags);
+      if (isCallId(header)) {
+        return callIdTraceOffset(flags) + callIdTraceLength(header, flags);
+      }
+      boolean hasTrace = (flags & FLAG_TRACE) == FLAG_TRACE;
+      if ((flags & FLAG_DEFAULT_SERVICE) == FLAG_DEFAULT_SERVICE) {
+        int methodLength =
+            (int)
+                ((header & MASK_METHOD_DEFAULT_SERVICE_LENGTH)
+                    >> MASK_METHOD_DEFAULT_SERVICE_SHIFT);
+        /*version, flags, method length, trace length*/
+        return hasTrace
+            ? 3 + Short.BYTES + methodLength + (int) ((header >> 24) & 0xFFFF)
+            : 3 + methodLength;
+      }
+      int methodLength = (int) ((header & MASK_METHOD_LENGTH) >> MASK_METHOD_SHIFT);
+      int traceLength = hasTrace ? (int) ((header >> 16) & 0xFFFF) : 0;
+      return serviceOffset(flags) + serviceLength(header) + methodLength + traceLength;
+    }
+
+    static int serviceOffset(int flags) {
       boolean tracing = (flags & FLAG_TRACE) == FLAG_TRACE;
       int serviceOffset = 4;
       if (tracing) {
         serviceOffset += Short.BYTES;
       }
-      int serviceLength = (int) ((header & MASK_SERVICE_LENGTH) >> MASK_SERVICE_SHIFT);
-      return metadata.toString(serviceOffset, serviceLength, StandardCharsets.US_ASCII);
+      return serviceOffset;
+    }
+
+    static int serviceLength(long header) {
+      return (int) ((header & MASK_SERVICE_LENGTH) >> MASK_SERVICE_SHIFT);
+    }
+
+    static void requireCompact(int flags) {
+      if (!((flags & FLAG_COMPACT) == FLAG_COMPACT)) {
+        throw new IllegalArgumentException("RSocket-RPC default encoding is not implemented");
+      }
+    }
+
+    static void requireNotCallId(long header) {
+      if (isCallId(header)) {
+        throw new IllegalArgumentException(
+            "RSocket-RPC call ID metadata is resolved with call IDs of connection, call ID: "
+                + callId(header));
+      }
+    }
+
+    static int requireAssignedCallId(long header, CallIds callIds) {
+      Objects.requireNonNull(callIds, "callIds");
+      int callId = callId(header);
+      if (callIds.service(callId) == null) {
+        throw new IllegalArgumentException("RSocket-RPC call ID is not assigned: " + callId);
+      }
+      return callId;
     }
 
     public static String defaultService() {
       return "";
     }
 
+    /**
+     * @return method name of call addressed with service name. Throws IllegalArgumentException if
+     *     call is addressed with call ID, see {@link #method(ByteBuf, long, int, CallIds)}. Call ID
+     *     metadata is expanded by {@code RpcHandler} before calls are dispatched to services, see
+     *     {@link #expandCallId(ByteBuf, long, int, CallIds, ByteBufAllocator)}
+     */
     public static String method(ByteBuf metadata, long header, int flags) {
       if (!((flags & FLAG_COMPACT) == FLAG_COMPACT)) {
         throw new IllegalArgumentException("RSocket-RPC default encoding is not implemented");
       }
+      requireNotCallId(header);
 
       boolean defaultService =
           (flags & RpcMetadata.FLAG_DEFAULT_SERVICE) == RpcMetadata.FLAG_DEFAULT_SERVICE;
@@ -242,6 +547,19 @@ public final class Rpc {
       return metadata.toString(methodOffset, methodLength, StandardCharsets.US_ASCII);
     }
 
+    /**
+     * @param callIds call IDs of connection metadata is received on
+     * @return method name of call addressed with service name or call ID. Throws
+     *     IllegalArgumentException if call ID is not assigned
+     */
+    public static String method(ByteBuf metadata, long header, int flags, CallIds callIds) {
+      if (!isCallId(header)) {
+        return method(metadata, header, flags);
+      }
+      requireCompact(flags);
+      return callIds.method(requireAssignedCallId(header, callIds));
+    }
+
     /*
      *
      *   * HEADER
@@ -257,6 +575,7 @@ public final class Rpc {
       if (!((flags & FLAG_COMPACT) == FLAG_COMPACT)) {
         throw new IllegalArgumentException("RSocket-RPC default encoding is not implemented");
       }
+      requireNotCallId(header);
 
       if (serviceMethods.isEmpty()) {
         return null;
@@ -302,7 +621,7 @@ public final class Rpc {
               ? methodLengthOffset + Byte.BYTES + Short.BYTES
               : methodLengthOffset + Byte.BYTES;
 
-      for (int i = 0; i < serviceLength; i++) {
+      for (int i = 0; i < serviceMethods.size(); i++) {
         String serviceMethod = serviceMethods.get(i);
         if (serviceMethod.length() == serviceMethodLength) {
           boolean isEqual = true;
@@ -319,6 +638,653 @@ public final class Rpc {
       }
       return null;
     }
+
+    /**
+     * @param serviceMethods ASCII methods of default service calls, and service + method
+     *     concatenations of non-default service calls
+     * @param callIds call IDs of connection metadata is received on
+     * @return service method from provided list matching RPC metadata of call addressed with
+     *     service name or call ID, or null if there is none
+     */
+    @Nullable
+    public static String serviceMethod(
+        int flags,
+        long header,
+        ByteBuf rSocketRpcMetadata,
+        List<String> serviceMethods,
+        CallIds callIds) {
+      if (!isCallId(header)) {
+        return serviceMethod(flags, header, rSocketRpcMetadata, serviceMethods);
+      }
+      requireCompact(flags);
+      Objects.requireNonNull(callIds, "callIds");
+      int callId = callId(header);
+      String service = callIds.service(callId);
+      if (service == null) {
+        return null;
+      }
+      String method = callIds.method(callId);
+      int serviceMethodLength = service.length() + method.length();
+      for (int i = 0; i < serviceMethods.size(); i++) {
+        String serviceMethod = serviceMethods.get(i);
+        if (serviceMethod.length() == serviceMethodLength
+            && serviceMethod.startsWith(service)
+            && serviceMethod.endsWith(method)) {
+          return serviceMethod;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @param serviceMethods index of service methods, created once with {@link
+     *     ServiceMethodIndex#create(List, List)}
+     * @return service method constant from index matching RPC metadata, or null if there is none.
+     *     Does not allocate
+     */
+    @Nullable
+    public static String serviceMethod(
+        int flags, long header, ByteBuf rSocketRpcMetadata, ServiceMethodIndex serviceMethods) {
+      return serviceMethods.find(flags, header, rSocketRpcMetadata);
+    }
+
+    /**
+     * Precompiled index of service methods, alternative to linear scan of {@link
+     * #serviceMethod(int, long, ByteBuf, List)}. Methods are bucketed by length and hash of their
+     * first and last 8 bytes, lookup returns service method constant of {@link #key(String,
+     * String)} - with no allocation. Calls are matched by service and method pair: service "a"
+     * with method "bc" is distinct from service "ab" with method "c", and default service method
+     * "FooGet" is distinct from service "Foo" with method "Get".
+     */
+    public static final class ServiceMethodIndex {
+      private final AsciiIndex<String> serviceMethods;
+      /*service methods by call ID*/
+      private final String[] callIdMethods;
+
+      private ServiceMethodIndex(AsciiIndex<String> serviceMethods, String[] callIdMethods) {
+        this.serviceMethods = serviceMethods;
+        this.callIdMethods = callIdMethods;
+      }
+
+      /**
+       * @param callIds call IDs assigned for connection
+       * @return index of same service methods, that also finds methods of calls addressed with call
+       *     ID by array index
+       */
+      public ServiceMethodIndex withCallIds(CallIds callIds) {
+        Objects.requireNonNull(callIds, "callIds");
+        AsciiIndex<String> index = serviceMethods;
+        String[] methods = new String[callIds.maxId() + 1];
+        for (int id = 0; id < methods.length; id++) {
+          String service = callIds.service(id);
+          if (service != null) {
+            methods[id] = index.get(service + callIds.method(id), service.length());
+          }
+        }
+        return new ServiceMethodIndex(index, methods);
+      }
+
+      /**
+       * @param services ASCII services of calls, empty for default service calls
+       * @param methods ASCII methods of calls, same size as services
+       * @return index of service methods
+       */
+      public static ServiceMethodIndex create(List<String> services, List<String> methods) {
+        Objects.requireNonNull(services, "services");
+        Objects.requireNonNull(methods, "methods");
+        int count = services.size();
+        if (count != methods.size()) {
+          throw new IllegalArgumentException(
+              "services count: " + count + " does not match methods count: " + methods.size());
+        }
+        List<String> keys = new ArrayList<>(count);
+        int[] splits = new int[count];
+        List<String> constants = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          String service = Objects.requireNonNull(services.get(i), "service");
+          String method = Objects.requireNonNull(methods.get(i), "method");
+          keys.add(service + method);
+          splits[i] = service.length();
+          constants.add(key(service, method));
+        }
+        return new ServiceMethodIndex(
+            new AsciiIndex<>(keys, splits, constants), CallIds.EMPTY_NAMES);
+      }
+
+      /**
+       * @param service service name, or empty string for default service calls
+       * @return service method constant returned by index lookup: method of default service call,
+       *     service/method otherwise
+       */
+      public static String key(String service, String method) {
+        return service.isEmpty() ? method : service + '/' + method;
+      }
+
+      /** @return service method constant matching RPC metadata, or null if there is none */
+      @Nullable
+      public String find(int flags, long header, ByteBuf rSocketRpcMetadata) {
+        requireCompact(flags);
+
+        if (isCallId(header)) {
+          String[] methods = callIdMethods;
+          int callId = callId(header);
+          return callId < methods.length ? methods[callId] : null;
+        }
+        AsciiIndex<String> index = serviceMethods;
+        if (index.size() == 0) {
+          return null;
+        }
+        boolean defaultService = (flags & FLAG_DEFAULT_SERVICE) == FLAG_DEFAULT_SERVICE;
+        boolean hasTrace = (flags & FLAG_TRACE) == FLAG_TRACE;
+        if (defaultService) {
+          int methodLength =
+              (int)
+                  ((header & MASK_METHOD_DEFAULT_SERVICE_LENGTH)
+                      >> MASK_METHOD_DEFAULT_SERVICE_SHIFT);
+          /*version, flags, method length, trace length*/
+          int methodOffset = hasTrace ? 3 + Short.BYTES : 3;
+          return index.get(rSocketRpcMetadata, methodOffset, methodLength, 0);
+        }
+        int serviceLength = serviceLength(header);
+        int methodLength = (int) ((header & MASK_METHOD_LENGTH) >> MASK_METHOD_SHIFT);
+        return index.get(
+            rSocketRpcMetadata,
+            serviceOffset(flags),
+            serviceLength + methodLength,
+            serviceLength);
+      }
+
+      public int size() {
+        return serviceMethods.size();
+      }
+    }
+
+    /**
+     * Routing table of RPC services, keyed by service name. Service of RPC call is looked up by
+     * comparing service name bytes of RPC metadata in place - with no String allocation and charset
+     * decoding.
+     *
+     * @param <T> service type
+     */
+    public static final class ServiceIndex<T> {
+      /*null if some service names are not ASCII*/
+      @Nullable private final AsciiIndex<T> services;
+      /*services by name, fallback for service names that are not ASCII*/
+      @Nullable private final Map<String, T> serviceNames;
+      /*services by call ID*/
+      private final Object[] callIdServices;
+
+      private ServiceIndex(
+          @Nullable AsciiIndex<T> services,
+          @Nullable Map<String, T> serviceNames,
+          Object[] callIdServices) {
+        this.services = services;
+        this.serviceNames = serviceNames;
+        this.callIdServices = callIdServices;
+      }
+
+      /**
+       * @param callIds call IDs assigned for connection
+       * @param defaultService service of default service call IDs, or null if there is none
+       * @return routing table of same services, that also finds services of calls addressed with
+       *     call ID by array index
+       */
+      public ServiceIndex<T> withCallIds(CallIds callIds, @Nullable T defaultService) {
+        Objects.requireNonNull(callIds, "callIds");
+        Object[] svcs = new Object[callIds.maxId() + 1];
+        for (int id = 0; id < svcs.length; id++) {
+          String service = callIds.service(id);
+          if (service != null) {
+            svcs[id] = service.isEmpty() ? defaultService : find(service);
+          }
+        }
+        return new ServiceIndex<>(services, serviceNames, svcs);
+      }
+
+      /**
+       * @param services service name to service mapping. Services with ASCII names are found
+       *     without allocation, if some names are not ASCII then services are found by service name
+       *     decoded from RPC metadata
+       * @return routing table of RPC services
+       */
+      public static <T> ServiceIndex<T> create(Map<String, T> services) {
+        Objects.requireNonNull(services, "services");
+        List<String> names = new ArrayList<>(services.size());
+        List<T> values = new ArrayList<>(services.size());
+        for (Map.Entry<String, T> service : services.entrySet()) {
+          String name = service.getKey();
+          if (!AsciiIndex.isAscii(name)) {
+            return new ServiceIndex<>(null, new HashMap<>(services), CallIds.EMPTY_NAMES);
+          }
+          names.add(name);
+          values.add(service.getValue());
+        }
+        return new ServiceIndex<>(new AsciiIndex<>(names, values), null, CallIds.EMPTY_NAMES);
+      }
+
+      /**
+       * @return service of non-default service call, or null if there is no service with name from
+       *     RPC metadata
+       */
+      @Nullable
+      @SuppressWarnings("unchecked")
+      public T find(ByteBuf metadata, long header, int flags) {
+        requireCompact(flags);
+        if (isCallId(header)) {
+          Object[] svcs = callIdServices;
+          int callId = callId(header);
+          return callId < svcs.length ? (T) svcs[callId] : null;
+        }
+        AsciiIndex<T> s = services;
+        if (s == null) {
+          return serviceNames.get(service(metadata, header, flags));
+        }
+        return s.get(metadata, serviceOffset(flags), serviceLength(header));
+      }
+
+      /** @return service with given name, or null if there is none */
+      @Nullable
+      public T find(String service) {
+        AsciiIndex<T> s = services;
+        if (s == null) {
+          return serviceNames.get(service);
+        }
+        return AsciiIndex.isAscii(service) ? s.get(service) : null;
+      }
+
+      public int size() {
+        AsciiIndex<T> s = services;
+        return s == null ? serviceNames.size() : s.size();
+      }
+    }
+  }
+
+  /**
+   * Table of 16 bit call IDs assigned to service and method pairs, for RPC metadata with {@link
+   * RpcMetadata#VERSION_CALL_ID} version: calls carry call ID instead of service and method names.
+   * Table is exchanged between peers with {@link #encode(ByteBufAllocator)} and {@link
+   * #decode(ByteBuf)}, as part of connection setup metadata or metadata-push, and updated with
+   * {@link #merge(CallIds)}. Default service calls are assigned to empty service. Table is
+   * immutable.
+   */
+  public static final class CallIds {
+    public static final int MAX_ID = 0xFFFF;
+    static final String[] EMPTY_NAMES = new String[0];
+    private static final CallIds EMPTY = new CallIds(EMPTY_NAMES, EMPTY_NAMES, -1);
+
+    /*
+     * [16] COUNT
+     *
+     * COUNT times:
+     * [16] CALL ID
+     * [8] SERVICE LENGTH
+     * [8] METHOD LENGTH
+     * [SERVICE LENGTH] SERVICE
+     * [METHOD LENGTH] METHOD
+     */
+
+    /*indexed by call ID*/
+    private final String[] services;
+    private final String[] methods;
+    private final int maxId;
+    /*call IDs by method by service*/
+    private volatile Map<String, Map<String, Integer>> ids;
+
+    private CallIds(String[] services, String[] methods, int maxId) {
+      this.services = services;
+      this.methods = methods;
+      this.maxId = maxId;
+    }
+
+    public static CallIds empty() {
+      return EMPTY;
+    }
+
+    public static Builder newBuilder() {
+      return new Builder();
+    }
+
+    /** @return service of given call ID, or null if call ID is not assigned */
+    @Nullable
+    public String service(int callId) {
+      return callId >= 0 && callId <= maxId ? services[callId] : null;
+    }
+
+    /** @return method of given call ID, or null if call ID is not assigned */
+    @Nullable
+    public String method(int callId) {
+      return callId >= 0 && callId <= maxId ? methods[callId] : null;
+    }
+
+    /** @return call ID assigned to given service and method, or -1 */
+    public int id(String service, String method) {
+      Objects.requireNonNull(service, "service");
+      Objects.requireNonNull(method, "method");
+      Map<String, Map<String, Integer>> m = ids;
+      if (m == null) {
+        m = new HashMap<>();
+        for (int id = 0; id <= maxId; id++) {
+          String s = services[id];
+          if (s != null) {
+            m.computeIfAbsent(s, k -> new HashMap<>()).put(methods[id], id);
+          }
+        }
+        ids = m;
+      }
+      Map<String, Integer> serviceIds = m.get(service);
+      Integer id = serviceIds == null ? null : serviceIds.get(method);
+      return id == null ? -1 : id;
+    }
+
+    /** @return max assigned call ID, or -1 if table is empty */
+    public int maxId() {
+      return maxId;
+    }
+
+    /**
+     * @param update call IDs, possibly received with metadata-push
+     * @return table with call IDs of this table, and call IDs of provided table
+     */
+    public CallIds merge(CallIds update) {
+      Objects.requireNonNull(update, "update");
+      int max = Math.max(maxId, update.maxId);
+      String[] svcs = Arrays.copyOf(services, max + 1);
+      String[] mtds = Arrays.copyOf(methods, max + 1);
+      for (int id = 0; id <= update.maxId; id++) {
+        String service = update.services[id];
+        if (service != null) {
+          svcs[id] = service;
+          mtds[id] = update.methods[id];
+        }
+      }
+      return new CallIds(svcs, mtds, max);
+    }
+
+    public ByteBuf encode(ByteBufAllocator allocator) {
+      Objects.requireNonNull(allocator, "allocator");
+      int count = 0;
+      int size = Short.BYTES;
+      for (int id = 0; id <= maxId; id++) {
+        String service = services[id];
+        if (service != null) {
+          count++;
+          size += Integer.BYTES + service.length() + methods[id].length();
+        }
+      }
+      ByteBuf buffer = allocator.buffer(size);
+      buffer.writeShort(count);
+      for (int id = 0; id <= maxId; id++) {
+        String service = services[id];
+        if (service != null) {
+          String method = methods[id];
+          buffer.writeInt(id << 16 | service.length() << 8 | method.length());
+          ByteBufUtil.writeAscii(buffer, service);
+          ByteBufUtil.writeAscii(buffer, method);
+        }
+      }
+      return buffer;
+    }
+
+    /** Decodes call IDs from readable bytes of provided buffer, reader index is advanced */
+    public static CallIds decode(ByteBuf callIds) {
+      Objects.requireNonNull(callIds, "callIds");
+      if (callIds.readableBytes() < Short.BYTES) {
+        throw new ApplicationErrorException("unexpected call IDs structure");
+      }
+      int count = callIds.readUnsignedShort();
+      Builder builder = new Builder();
+      for (int i = 0; i < count; i++) {
+        if (callIds.readableBytes() < Integer.BYTES) {
+          throw new ApplicationErrorException("unexpected call IDs structure");
+        }
+        int prefix = callIds.readInt();
+        int id = prefix >>> 16;
+        int serviceLength = (prefix >> 8) & 0xFF;
+        int methodLength = prefix & 0xFF;
+        if (callIds.readableBytes() < serviceLength + methodLength) {
+          throw new ApplicationErrorException("unexpected call IDs structure");
+        }
+        String service =
+            callIds.readCharSequence(serviceLength, StandardCharsets.US_ASCII).toString();
+        String method =
+            callIds.readCharSequence(methodLength, StandardCharsets.US_ASCII).toString();
+        builder.add(id, service, method);
+      }
+      return builder.build();
+    }
+
+    static int requireValidId(int callId) {
+      if (callId < 0 || callId > MAX_ID) {
+        throw new IllegalArgumentException(
+            "callId must be in range [0, " + MAX_ID + "], provided: " + callId);
+      }
+      return callId;
+    }
+
+    public static final class Builder {
+      private String[] services = new String[8];
+      private String[] methods = new String[8];
+      private int maxId = -1;
+
+      private Builder() {}
+
+      /** Assigns next call ID to given service and method */
+      public Builder add(String service, String method) {
+        return add(maxId + 1, service, method);
+      }
+
+      /** Assigns given call ID to given service and method, use empty service for default one */
+      public Builder add(int callId, String service, String method) {
+        requireValidId(callId);
+        Objects.requireNonNull(service, "service");
+        Objects.requireNonNull(method, "method");
+        if (service.length() > 0xFF || method.length() > 0xFF) {
+          throw new IllegalArgumentException("service and method length must not exceed 255");
+        }
+        if (callId >= services.length) {
+          int length = Math.min(Math.max(services.length * 2, callId + 1), MAX_ID + 1);
+          services = Arrays.copyOf(services, length);
+          methods = Arrays.copyOf(methods, length);
+        }
+        services[callId] = service;
+        methods[callId] = method;
+        maxId = Math.max(maxId, callId);
+        return this;
+      }
+
+      public CallIds build() {
+        if (maxId < 0) {
+          return EMPTY;
+        }
+        return new CallIds(
+            Arrays.copyOf(services, maxId + 1), Arrays.copyOf(methods, maxId + 1), maxId);
+      }
+    }
+  }
+
+  /**
+   * Open addressing hash table of ASCII keys. Lookup by key bytes is allocation-free: hash is
+   * computed from key length and its first and last 8 bytes, candidate keys are compared in place 8
+   * bytes at a time. Keys concatenated from two parts, like service and method, are distinguished
+   * by split - length of their first part, so same concatenations of different parts do not
+   * collide.
+   */
+  static final class AsciiIndex<T> {
+    private static final long HASH_MULTIPLIER_FIRST = 0x9E37_79B9_7F4A_7C15L;
+    private static final long HASH_MULTIPLIER_LAST = 0xC2B2_AE3D_27D4_EB4FL;
+
+    private final Key[] keys;
+    private final Object[] values;
+    private final int mask;
+    private final int size;
+
+    AsciiIndex(List<? extends CharSequence> keys, List<? extends T> values) {
+      this(keys, new int[keys.size()], values);
+    }
+
+    AsciiIndex(List<? extends CharSequence> keys, int[] splits, List<? extends T> values) {
+      int count = keys.size();
+      if (count != values.size() || count != splits.length) {
+        throw new IllegalArgumentException(
+            "keys count: " + count + " does not match values count: " + values.size());
+      }
+      /*load factor is at most 0.5*/
+      int capacity = Integer.highestOneBit(Math.max(count, 1)) << 2;
+      Key[] ks = this.keys = new Key[capacity];
+      Object[] vs = this.values = new Object[capacity];
+      int m = this.mask = capacity - 1;
+      int size = 0;
+      for (int i = 0; i < count; i++) {
+        CharSequence k = Objects.requireNonNull(keys.get(i), "key");
+        T value = Objects.requireNonNull(values.get(i), "value");
+        Key key = new Key(ascii(k), splits[i]);
+        int idx = key.hash & m;
+        while (true) {
+          Key cur = ks[idx];
+          if (cur == null) {
+            ks[idx] = key;
+            vs[idx] = value;
+            size++;
+            break;
+          }
+          if (cur.hash == key.hash
+              && cur.split == key.split
+              && Arrays.equals(cur.bytes, key.bytes)) {
+            vs[idx] = value;
+            break;
+          }
+          idx = (idx + 1) & m;
+        }
+      }
+      this.size = size;
+    }
+
+    @Nullable
+    T get(ByteBuf buffer, int offset, int length) {
+      return get(buffer, offset, length, 0);
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    T get(ByteBuf buffer, int offset, int length, int split) {
+      int hash = hash(buffer, offset, length, split);
+      Key[] ks = keys;
+      int m = mask;
+      int idx = hash & m;
+      while (true) {
+        Key key = ks[idx];
+        if (key == null) {
+          return null;
+        }
+        if (key.hash == hash && key.split == split && key.equals(buffer, offset, length)) {
+          return (T) values[idx];
+        }
+        idx = (idx + 1) & m;
+      }
+    }
+
+    @Nullable
+    T get(CharSequence key) {
+      return get(key, 0);
+    }
+
+    @Nullable
+    T get(CharSequence key, int split) {
+      int length = key.length();
+      for (int i = 0; i < length; i++) {
+        if (key.charAt(i) > 0x7F) {
+          return null;
+        }
+      }
+      return get(Unpooled.wrappedBuffer(ascii(key)), 0, length, split);
+    }
+
+    int size() {
+      return size;
+    }
+
+    static int hash(ByteBuf buffer, int offset, int length, int split) {
+      long hash;
+      if (length >= Long.BYTES) {
+        long first = buffer.getLong(offset);
+        long last = buffer.getLong(offset + length - Long.BYTES);
+        hash = first * HASH_MULTIPLIER_FIRST ^ last * HASH_MULTIPLIER_LAST;
+      } else {
+        long bytes = 0;
+        for (int i = 0; i < length; i++) {
+          bytes = bytes << 8 | (buffer.getByte(offset + i) & 0xFF);
+        }
+        hash = bytes * HASH_MULTIPLIER_FIRST;
+      }
+      hash ^= length ^ (long) split << 40;
+      return (int) (hash ^ (hash >>> 32));
+    }
+
+    static boolean isAscii(CharSequence key) {
+      for (int i = 0; i < key.length(); i++) {
+        if (key.charAt(i) > 0x7F) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    static byte[] ascii(CharSequence key) {
+      int length = key.length();
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        char c = key.charAt(i);
+        if (c > 0x7F) {
+          throw new IllegalArgumentException("key is not ASCII string: " + key);
+        }
+        bytes[i] = (byte) c;
+      }
+      return bytes;
+    }
+
+    static final class Key {
+      final byte[] bytes;
+      /*big-endian 8 byte words of key, as read by ByteBuf.getLong()*/
+      final long[] words;
+      final int split;
+      final int hash;
+
+      Key(byte[] bytes) {
+        this(bytes, 0);
+      }
+
+      Key(byte[] bytes, int split) {
+        this.bytes = bytes;
+        this.split = split;
+        int length = bytes.length;
+        ByteBuf buffer = Unpooled.wrappedBuffer(bytes);
+        long[] ws = this.words = new long[length / Long.BYTES];
+        for (int i = 0; i < ws.length; i++) {
+          ws[i] = buffer.getLong(i * Long.BYTES);
+        }
+        this.hash = hash(buffer, 0, length, split);
+      }
+
+      boolean equals(ByteBuf buffer, int offset, int length) {
+        byte[] bs = bytes;
+        if (bs.length != length) {
+          return false;
+        }
+        long[] ws = words;
+        int wordsLength = ws.length;
+        for (int i = 0; i < wordsLength; i++) {
+          if (buffer.getLong(offset + i * Long.BYTES) != ws[i]) {
+            return false;
+          }
+        }
+        for (int i = wordsLength * Long.BYTES; i < length; i++) {
+          if (buffer.getByte(offset + i) != bs[i]) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
   }
 
   public static final class ProtoMetadata {
@@ -367,6 +1333,38 @@ public final class Rpc {
       return byteBuf;
     }
 
+    /**
+     * Encodes headers into provided buffer, starting at its writer index. Unlike {@link
+     * #encodeHeaders(Headers)}, encoded headers are not cached, so this is preferred for headers
+     * that are sent once. Buffer must have {@link Headers#serializedSize()} bytes writable.
+     *
+     * @param headers headers to encode
+     * @param buffer buffer to write headers to
+     * @return provided buffer
+     */
+    public static ByteBuf encodeHeaders(Headers headers, ByteBuf buffer) {
+      Objects.requireNonNull(headers, "headers");
+      Objects.requireNonNull(buffer, "buffer");
+      if (headers.isEmpty()) {
+        return buffer;
+      }
+      ByteBuf cache = headers.cache();
+      if (cache != null) {
+        return buffer.writeBytes(cache, cache.readerIndex(), cache.readableBytes());
+      }
+      List<String> asciiHeaders = headers.headers();
+      if (asciiHeaders instanceof Headers.BufferKeyValues) {
+        Headers.BufferKeyValues encoded = (Headers.BufferKeyValues) asciiHeaders;
+        return buffer.writeBytes(encoded.metadata(), encoded.offset(), encoded.length());
+      }
+      for (int i = 0; i < asciiHeaders.size(); i++) {
+        String asciiHeader = asciiHeaders.get(i);
+        encodeLen(buffer, asciiHeader.length());
+        ByteBufUtil.writeAscii(buffer, asciiHeader);
+      }
+      return buffer;
+    }
+
     static void encodeLen(ByteBuf byteBuf, int len) {
       if (len < VARINT_BYTE_MAX) {
         byteBuf.writeShort(LEN_TAG << 8 | len);
@@ -427,6 +1425,582 @@ public final class Rpc {
       } while (remaining > 0);
       return Headers.create(headers);
     }
+
+    /**
+     * Lazily decodes headers from readable bytes of provided metadata, without consuming them.
+     * Offsets of header names and values are indexed on first access, and String is created only
+     * for header value that is actually read. {@link Headers#header(String)} compares header names
+     * as ASCII bytes directly.
+     *
+     * <p>Returned headers are a view over metadata buffer and do not retain it: metadata must not
+     * be released while headers are in use, and headers must not outlive message they are decoded
+     * from. Access to released metadata is reported with {@link IllegalReferenceCountException}.
+     * Malformed metadata is reported with {@link ApplicationErrorException} on first access.
+     *
+     * @param metadata protobuf encoded metadata
+     * @return headers view over metadata
+     */
+    public static Headers decodeHeadersLazy(ByteBuf metadata) {
+      Objects.requireNonNull(metadata, "metadata");
+      int length = metadata.readableBytes();
+      if (length == 0) {
+        return Headers.empty();
+      }
+      return Headers.create(
+          new Headers.BufferKeyValues(metadata, metadata.readerIndex(), length), length);
+    }
+
+    /**
+     * @return offset and length pairs of header names and values contained in metadata region
+     *     starting at provided offset
+     */
+    static int[] indexHeaders(ByteBuf metadata, int offset, int length) {
+      int[] index = new int[8];
+      int count = 0;
+      int cur = offset;
+      int end = offset + length;
+      do {
+        if (end - cur < 2) {
+          throw new ApplicationErrorException("unexpected metadata structure");
+        }
+        short tagLenStart = metadata.getShort(cur);
+        cur += Short.BYTES;
+        int tag = tagLenStart >> 8;
+        if (tag != LEN_TAG) {
+          throw new ApplicationErrorException("unexpected protobuf metadata message tag: " + tag);
+        }
+        int lenStart = tagLenStart & 0xFF;
+        int len;
+        if ((lenStart & /*cont bit*/ 0x80) == 0) {
+          len = lenStart & 0x7F;
+        } else {
+          if (end - cur < 1) {
+            throw new ApplicationErrorException("unexpected metadata structure");
+          }
+          byte lenEnd = metadata.getByte(cur);
+          cur += Byte.BYTES;
+          if ((lenEnd & /*cont bit*/ 0x80) != 0) {
+            throw new ApplicationErrorException(
+                "unexpected protobuf metadata header length, exceeds " + Headers.HEADER_LENGTH_MAX);
+          }
+          len = lenStart & 0x7F | lenEnd << 7;
+          if (len > Headers.HEADER_LENGTH_MAX) {
+            throw new ApplicationErrorException(
+                "unexpected protobuf metadata header length, exceeds "
+                    + Headers.HEADER_LENGTH_MAX
+                    + ": "
+                    + len);
+          }
+        }
+        if (len > end - cur) {
+          throw new ApplicationErrorException(
+              "unexpected protobuf metadata header length, exceeds metadata: " + len);
+        }
+        boolean isKey = (count & 1) == 0;
+        if (isKey && len == 0) {
+          throw new ApplicationErrorException("unexpected protobuf metadata empty header name");
+        }
+        int pos = count * 2;
+        if (pos == index.length) {
+          index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[pos] = cur;
+        index[pos + 1] = len;
+        count++;
+        cur += len;
+      } while (cur < end);
+
+      if ((count & 1) != 0) {
+        throw new ApplicationErrorException("unexpected protobuf metadata headers count: " + count);
+      }
+      return index.length == count * 2 ? index : Arrays.copyOf(index, count * 2);
+    }
+  }
+
+  /** Protocol Buffers messages serialization with ByteBuf */
+  public static final class ProtoMessage {
+
+    private ProtoMessage() {}
+
+    /**
+     * Serializes message into provided buffer, starting at its writer index, with no intermediate
+     * byte array: heap buffers are written through backing array, direct buffers through their NIO
+     * buffer. Intended for content buffer of {@link Codec#encodeContent(ByteBufAllocator, int)},
+     * sized with {@link com.google.protobuf.MessageLite#getSerializedSize()}.
+     *
+     * @return provided buffer
+     */
+    public static ByteBuf encode(com.google.protobuf.MessageLite message, ByteBuf buffer) {
+      Objects.requireNonNull(message, "message");
+      Objects.requireNonNull(buffer, "buffer");
+      int size = message.getSerializedSize();
+      if (size == 0) {
+        return buffer;
+      }
+      buffer.ensureWritable(size);
+      int writerIndex = buffer.writerIndex();
+      try {
+        if (buffer.hasArray()) {
+          CodedOutputStream output =
+              CodedOutputStream.newInstance(
+                  buffer.array(), buffer.arrayOffset() + writerIndex, size);
+          message.writeTo(output);
+          output.checkNoSpaceLeft();
+        } else if (buffer.nioBufferCount() == 1) {
+          CodedOutputStream output =
+              CodedOutputStream.newInstance(buffer.internalNioBuffer(writerIndex, size));
+          message.writeTo(output);
+          output.flush();
+        } else {
+          /*composite buffers*/
+          buffer.setBytes(writerIndex, message.toByteArray());
+        }
+      } catch (Throwable t) {
+        throw new SerializationException("Message serialization error", t);
+      }
+      return buffer.writerIndex(writerIndex + size);
+    }
+
+    /**
+     * @param buffer buffer with serialized message as readable bytes, buffer indexes are not
+     *     modified
+     * @param aliasing true if bytes fields of decoded message may reference buffer memory instead
+     *     of being copied, then buffer must not be released while decoded message is in use - see
+     *     {@link #decodeAliased(ByteBuf, com.google.protobuf.Parser)}
+     * @return CodedInputStream over buffer backing array, or its NIO buffers
+     */
+    public static CodedInputStream codedInputStream(ByteBuf buffer, boolean aliasing) {
+      Objects.requireNonNull(buffer, "buffer");
+      int readerIndex = buffer.readerIndex();
+      int length = buffer.readableBytes();
+      /*aliasing is applied by protobuf only to streams over ByteString which is immutable*/
+      ByteString bytes;
+      if (buffer.hasArray()) {
+        bytes =
+            UnsafeByteOperations.unsafeWrap(
+                buffer.array(), buffer.arrayOffset() + readerIndex, length);
+      } else if (buffer.nioBufferCount() == 1) {
+        bytes = UnsafeByteOperations.unsafeWrap(buffer.nioBuffer(readerIndex, length));
+      } else {
+        bytes = ByteString.EMPTY;
+        for (ByteBuffer nioBuffer : buffer.nioBuffers(readerIndex, length)) {
+          bytes = bytes.concat(UnsafeByteOperations.unsafeWrap(nioBuffer));
+        }
+      }
+      CodedInputStream input = bytes.newCodedInput();
+      input.enableAliasing(aliasing);
+      return input;
+    }
+
+    /**
+     * Decodes message from readable bytes of provided buffer, bytes fields are copied. Buffer is
+     * not released.
+     */
+    public static <T extends com.google.protobuf.MessageLite> T decode(
+        ByteBuf buffer, com.google.protobuf.Parser<T> parser) {
+      Objects.requireNonNull(parser, "parser");
+      try {
+        return parser.parseFrom(codedInputStream(buffer, false));
+      } catch (IOException e) {
+        throw new SerializationException("Protobuf deserialization error", e);
+      }
+    }
+
+    /**
+     * Decodes message from readable bytes of provided buffer, bytes fields reference buffer memory
+     * instead of being copied. Buffer ownership is transferred to returned holder: buffer is
+     * released once holder is released, and decoded message must not be used after that.
+     */
+    public static <T extends com.google.protobuf.MessageLite> Aliased<T> decodeAliased(
+        ByteBuf buffer, com.google.protobuf.Parser<T> parser) {
+      Objects.requireNonNull(parser, "parser");
+      try {
+        return new Aliased<>(parser.parseFrom(codedInputStream(buffer, true)), buffer);
+      } catch (IOException e) {
+        ReferenceCountUtil.safeRelease(buffer);
+        throw new SerializationException("Protobuf deserialization error", e);
+      } catch (Throwable t) {
+        ReferenceCountUtil.safeRelease(buffer);
+        throw t;
+      }
+    }
+
+    /**
+     * Reference counted holder of decoded message and buffer it references: buffer is released with
+     * holder
+     */
+    public static final class Aliased<T extends com.google.protobuf.MessageLite>
+        extends AbstractReferenceCounted {
+      private final T message;
+      private final ByteBuf buffer;
+
+      Aliased(T message, ByteBuf buffer) {
+        this.message = message;
+        this.buffer = buffer;
+      }
+
+      /** @return decoded message, valid until holder is released */
+      public T message() {
+        if (refCnt() == 0) {
+          throw new IllegalReferenceCountException(0);
+        }
+        return message;
+      }
+
+      @Override
+      public Aliased<T> touch(Object hint) {
+        buffer.touch(hint);
+        return this;
+      }
+
+      @Override
+      protected void deallocate() {
+        buffer.release();
+      }
+    }
+
+    static final int WIRETYPE_VARINT = 0;
+    static final int WIRETYPE_FIXED64 = 1;
+    static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    static final int WIRETYPE_START_GROUP = 3;
+    static final int WIRETYPE_END_GROUP = 4;
+    static final int WIRETYPE_FIXED32 = 5;
+
+    static long readVarint(ByteBuf buffer, int offset, int end) {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        if (offset >= end) {
+          throw wireFormatError("truncated varint");
+        }
+        byte b = buffer.getByte(offset++);
+        result |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return result;
+        }
+      }
+      throw wireFormatError("malformed varint");
+    }
+
+    static int skipVarint(ByteBuf buffer, int offset, int end) {
+      while (offset < end) {
+        if (buffer.getByte(offset++) >= 0) {
+          return offset;
+        }
+      }
+      throw wireFormatError("truncated varint");
+    }
+
+    static int checkBounds(int offset, int length, int end) {
+      if (length < 0) {
+        throw wireFormatError("invalid length: " + length);
+      }
+      if (length > end - offset) {
+        throw wireFormatError("truncated message");
+      }
+      return offset + length;
+    }
+
+    static SerializationException wireFormatError(String message) {
+      return new SerializationException(
+          "Protobuf deserialization error", new IllegalArgumentException(message));
+    }
+
+    /**
+     * @return offset of next field after skipped field value which starts at offset, nested groups
+     *     are skipped entirely
+     */
+    static int skipField(ByteBuf buffer, int offset, int end, int fieldNumber, int wireType) {
+      switch (wireType) {
+        case WIRETYPE_VARINT:
+          return skipVarint(buffer, offset, end);
+        case WIRETYPE_FIXED64:
+          return checkBounds(offset, 8, end);
+        case WIRETYPE_FIXED32:
+          return checkBounds(offset, 4, end);
+        case WIRETYPE_LENGTH_DELIMITED:
+          {
+            int length = readLength(buffer, offset, end);
+            return checkBounds(skipVarint(buffer, offset, end), length, end);
+          }
+        case WIRETYPE_START_GROUP:
+          {
+            /*iterative, so deeply nested groups do not overflow stack*/
+            int groupDepth = 1;
+            while (true) {
+              if (offset >= end) {
+                throw wireFormatError("unterminated group");
+              }
+              long tag = readVarint(buffer, offset, end);
+              offset = skipVarint(buffer, offset, end);
+              int number = (int) (tag >>> 3);
+              int type = (int) tag & 7;
+              switch (type) {
+                case WIRETYPE_START_GROUP:
+                  groupDepth++;
+                  break;
+                case WIRETYPE_END_GROUP:
+                  if (--groupDepth == 0) {
+                    if (number != fieldNumber) {
+                      throw wireFormatError("unexpected end group: " + number);
+                    }
+                    return offset;
+                  }
+                  break;
+                default:
+                  offset = skipField(buffer, offset, end, number, type);
+              }
+            }
+          }
+        default:
+          throw wireFormatError("invalid wire type: " + wireType);
+      }
+    }
+
+    static int readLength(ByteBuf buffer, int offset, int end) {
+      long length = readVarint(buffer, offset, end);
+      if (length < 0 || length > Integer.MAX_VALUE) {
+        throw wireFormatError("invalid length: " + length);
+      }
+      return (int) length;
+    }
+
+    /**
+     * Extracts selected top-level fields of serialized message without decoding it as a whole, so
+     * routing services may inspect few request fields (e.g. shard key) and forward original bytes
+     * unmodified. Scalar field semantics apply: if field occurs multiple times, last occurrence is
+     * projected.
+     */
+    public static final class Projection {
+      private final int[] fieldNumbers;
+
+      private Projection(int[] fieldNumbers) {
+        this.fieldNumbers = fieldNumbers;
+      }
+
+      /** @param fieldNumbers numbers of top-level message fields to extract */
+      public static Projection of(int... fieldNumbers) {
+        Objects.requireNonNull(fieldNumbers, "fieldNumbers");
+        int[] numbers = fieldNumbers.clone();
+        Arrays.sort(numbers);
+        for (int i = 0; i < numbers.length; i++) {
+          int number = numbers[i];
+          if (number <= 0) {
+            throw new IllegalArgumentException("fieldNumbers must be positive: " + number);
+          }
+          if (i > 0 && numbers[i - 1] == number) {
+            throw new IllegalArgumentException("fieldNumbers contain duplicate: " + number);
+          }
+        }
+        return new Projection(numbers);
+      }
+
+      public int[] fieldNumbers() {
+        return fieldNumbers.clone();
+      }
+
+      /**
+       * @param message buffer with serialized message as readable bytes, buffer indexes are not
+       *     modified and buffer is not released
+       * @return projected fields, length-delimited fields reference message buffer memory
+       */
+      public Fields decode(ByteBuf message) {
+        Objects.requireNonNull(message, "message");
+        int[] numbers = fieldNumbers;
+        Fields fields = new Fields(message, numbers);
+        int offset = message.readerIndex();
+        int end = message.writerIndex();
+        int groupDepth = 0;
+        while (offset < end) {
+          long tag = readVarint(message, offset, end);
+          offset = skipVarint(message, offset, end);
+          int fieldNumber = (int) (tag >>> 3);
+          int wireType = (int) tag & 7;
+          if (fieldNumber <= 0) {
+            throw wireFormatError("invalid field number: " + fieldNumber);
+          }
+          int fieldIndex = groupDepth == 0 ? Arrays.binarySearch(numbers, fieldNumber) : -1;
+          switch (wireType) {
+            case WIRETYPE_VARINT:
+              {
+                long value = readVarint(message, offset, end);
+                int valueOffset = offset;
+                offset = skipVarint(message, offset, end);
+                if (fieldIndex >= 0) {
+                  fields.set(fieldIndex, wireType, value, valueOffset, offset - valueOffset);
+                }
+              }
+              break;
+            case WIRETYPE_FIXED64:
+              {
+                int valueOffset = offset;
+                offset = checkBounds(offset, 8, end);
+                if (fieldIndex >= 0) {
+                  fields.set(fieldIndex, wireType, message.getLongLE(valueOffset), valueOffset, 8);
+                }
+              }
+              break;
+            case WIRETYPE_FIXED32:
+              {
+                int valueOffset = offset;
+                offset = checkBounds(offset, 4, end);
+                if (fieldIndex >= 0) {
+                  fields.set(
+                      fieldIndex,
+                      wireType,
+                      message.getIntLE(valueOffset) & 0xFFFF_FFFFL,
+                      valueOffset,
+                      4);
+                }
+              }
+              break;
+            case WIRETYPE_LENGTH_DELIMITED:
+              {
+                int length = readLength(message, offset, end);
+                offset = skipVarint(message, offset, end);
+                int valueOffset = offset;
+                offset = checkBounds(offset, length, end);
+                if (fieldIndex >= 0) {
+                  fields.set(fieldIndex, wireType, length, valueOffset, length);
+                }
+              }
+              break;
+            case WIRETYPE_START_GROUP:
+              groupDepth++;
+              break;
+            case WIRETYPE_END_GROUP:
+              if (--groupDepth < 0) {
+                throw wireFormatError("unexpected end group");
+              }
+              break;
+            default:
+              throw wireFormatError("invalid wire type: " + wireType);
+          }
+        }
+        if (groupDepth != 0) {
+          throw wireFormatError("unterminated group");
+        }
+        return fields;
+      }
+
+      /**
+       * Projected message fields. Length-delimited fields reference memory of decoded message
+       * buffer, so they are valid while that buffer is not released.
+       */
+      public static final class Fields {
+        private static final byte ABSENT = -1;
+
+        private final ByteBuf message;
+        private final int[] fieldNumbers;
+        private final byte[] wireTypes;
+        private final long[] values;
+        private final int[] offsets;
+        private final int[] lengths;
+
+        Fields(ByteBuf message, int[] fieldNumbers) {
+          this.message = message;
+          this.fieldNumbers = fieldNumbers;
+          int count = fieldNumbers.length;
+          byte[] types = wireTypes = new byte[count];
+          Arrays.fill(types, ABSENT);
+          values = new long[count];
+          offsets = new int[count];
+          lengths = new int[count];
+        }
+
+        void set(int fieldIndex, int wireType, long value, int offset, int length) {
+          wireTypes[fieldIndex] = (byte) wireType;
+          values[fieldIndex] = value;
+          offsets[fieldIndex] = offset;
+          lengths[fieldIndex] = length;
+        }
+
+        /** @return true if projected field is present in message */
+        public boolean has(int fieldNumber) {
+          int fieldIndex = Arrays.binarySearch(fieldNumbers, fieldNumber);
+          return fieldIndex >= 0 && wireTypes[fieldIndex] != ABSENT;
+        }
+
+        /**
+         * @return value of varint (int32, int64, uint32, uint64, bool, enum), fixed64 (fixed64,
+         *     sfixed64, double bits) or fixed32 (fixed32, sfixed32, float bits) field, 0 if field
+         *     is absent. Values of sint32/sint64 fields are ZigZag encoded
+         */
+        public long longValue(int fieldNumber) {
+          int fieldIndex = fieldIndex(fieldNumber);
+          byte wireType = wireTypes[fieldIndex];
+          switch (wireType) {
+            case ABSENT:
+              return 0;
+            case WIRETYPE_VARINT:
+            case WIRETYPE_FIXED64:
+            case WIRETYPE_FIXED32:
+              return values[fieldIndex];
+            default:
+              throw new IllegalStateException(
+                  "field " + fieldNumber + " is not numeric, wire type: " + wireType);
+          }
+        }
+
+        /** @return see {@link #longValue(int)} */
+        public int intValue(int fieldNumber) {
+          return (int) longValue(fieldNumber);
+        }
+
+        public boolean booleanValue(int fieldNumber) {
+          return longValue(fieldNumber) != 0;
+        }
+
+        public double doubleValue(int fieldNumber) {
+          return Double.longBitsToDouble(longValue(fieldNumber));
+        }
+
+        public float floatValue(int fieldNumber) {
+          return Float.intBitsToFloat(intValue(fieldNumber));
+        }
+
+        /**
+         * @return slice of message buffer with length-delimited field (string, bytes, embedded
+         *     message) content, empty buffer if field is absent. Slice is not retained
+         */
+        public ByteBuf bytes(int fieldNumber) {
+          int fieldIndex = fieldIndex(fieldNumber);
+          byte wireType = wireTypes[fieldIndex];
+          switch (wireType) {
+            case ABSENT:
+              return Unpooled.EMPTY_BUFFER;
+            case WIRETYPE_LENGTH_DELIMITED:
+              return message.slice(offsets[fieldIndex], lengths[fieldIndex]);
+            default:
+              throw new IllegalStateException(
+                  "field " + fieldNumber + " is not length-delimited, wire type: " + wireType);
+          }
+        }
+
+        /** @return UTF-8 string field content, empty string if field is absent */
+        public String string(int fieldNumber) {
+          int fieldIndex = fieldIndex(fieldNumber);
+          byte wireType = wireTypes[fieldIndex];
+          switch (wireType) {
+            case ABSENT:
+              return "";
+            case WIRETYPE_LENGTH_DELIMITED:
+              return message.toString(
+                  offsets[fieldIndex], lengths[fieldIndex], StandardCharsets.UTF_8);
+            default:
+              throw new IllegalStateException(
+                  "field " + fieldNumber + " is not length-delimited, wire type: " + wireType);
+          }
+        }
+
+        private int fieldIndex(int fieldNumber) {
+          int fieldIndex = Arrays.binarySearch(fieldNumbers, fieldNumber);
+          if (fieldIndex < 0) {
+            throw new IllegalArgumentException("field " + fieldNumber + " is not projected");
+          }
+          return fieldIndex;
+        }
+      }
+    }
   }
 
   /**
@@ -453,14 +2027,68 @@ public final class Rpc {
       final String name;
       final InboundMessageFactory inMessageFactory;
       final OutboundMessageFactory outMessageFactory;
+      @Nullable final ProtoMessage.Projection projection;
+      @Nullable final Compression compression;
 
       private Call(
           String name,
           InboundMessageFactory inMessageFactory,
-          OutboundMessageFactory outMessageFactory) {
+          OutboundMessageFactory outMessageFactory,
+          @Nullable ProtoMessage.Projection projection,
+          @Nullable Compression compression) {
         this.name = name;
         this.inMessageFactory = inMessageFactory;
         this.outMessageFactory = outMessageFactory;
+        this.projection = projection;
+        this.compression = compression;
+      }
+
+      /**
+       * @param projection request fields extracted by routing services without decoding request
+       *     message
+       * @return copy of this call with given request projection
+       */
+      public Call withProjection(ProtoMessage.Projection projection) {
+        Objects.requireNonNull(projection, "projection");
+        return new Call(name, inMessageFactory, outMessageFactory, projection, compression);
+      }
+
+      /**
+       * @param compression payload compression of call messages, opt-in per call
+       * @return copy of this call with given compression
+       */
+      public Call withCompression(Compression compression) {
+        Objects.requireNonNull(compression, "compression");
+        return new Call(name, inMessageFactory, outMessageFactory, projection, compression);
+      }
+
+      /**
+       * @return payload compression, or null if call messages are not compressed. Compression is
+       *     applied and reverted with {@link Compression.Calls} by message streams of RPC flavors
+       *     (grpc RpcCompression): RPC handlers and call observers pass payloads through as is
+       */
+      @Nullable
+      public Compression compression() {
+        return compression;
+      }
+
+      /** @return request projection, or null if not set */
+      @Nullable
+      public ProtoMessage.Projection projection() {
+        return projection;
+      }
+
+      /**
+       * @param request buffer with serialized request message as readable bytes, not modified
+       * @return projected request fields
+       * @throws IllegalStateException if call has no request projection
+       */
+      public ProtoMessage.Projection.Fields project(ByteBuf request) {
+        ProtoMessage.Projection p = projection;
+        if (p == null) {
+          throw new IllegalStateException("call " + name + " has no request projection");
+        }
+        return p.decode(request);
       }
 
       @Override
@@ -490,7 +2118,7 @@ public final class Rpc {
         Objects.requireNonNull(name, "name");
         Objects.requireNonNull(inMessageFactory, "inMessageFactory");
         Objects.requireNonNull(outMessageFactory, "outMessageFactory");
-        return new Call(name, inMessageFactory, outMessageFactory);
+        return new Call(name, inMessageFactory, outMessageFactory, null, null);
       }
 
       public static Call of(
@@ -502,7 +2130,8 @@ public final class Rpc {
         Objects.requireNonNull(method, "method");
         Objects.requireNonNull(inMessageFactory, "inMessageFactory");
         Objects.requireNonNull(outMessageFactory, "outMessageFactory");
-        return new Call('/' + service + '/' + method, inMessageFactory, outMessageFactory);
+        return new Call(
+            '/' + service + '/' + method, inMessageFactory, outMessageFactory, null, null);
       }
     }
 
@@ -521,6 +2150,14 @@ public final class Rpc {
       }
 
       com.google.protobuf.Message create(CodedInputStream codedInputStream) throws IOException;
+
+      /**
+       * @param data buffer with serialized message as readable bytes
+       * @param aliasing see {@link ProtoMessage#codedInputStream(ByteBuf, boolean)}
+       */
+      default com.google.protobuf.Message apply(ByteBuf data, boolean aliasing) {
+        return apply(ProtoMessage.codedInputStream(data, aliasing));
+      }
     }
   }
 }
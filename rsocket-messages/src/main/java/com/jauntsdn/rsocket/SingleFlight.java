@@ -0,0 +1,342 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Table of in-flight request-response calls coalescing concurrent identical calls (single-flight):
+ * idempotent calls ({@link Rpc.RpcMetadata#flagIdempotentCall(int)}) of same service method with
+ * equal request data, made by same caller while first of them is in flight, share its response
+ * instead of being sent separately. Each caller receives own reference of response message.
+ *
+ * <p>Caller is identified by {@link CallerIdentity}: by default request metadata (headers) is part
+ * of call identity, so calls with different headers (e.g. authorization, tenant) are never
+ * coalesced. Trace is not part of call identity. Calls addressed with call ID are resolved to
+ * service method with call IDs of connection, so table may be shared by connections with
+ * different call IDs.
+ *
+ * <p>Call is cancelled once all its callers left. Table is thread-safe, and is typically shared by
+ * {@code RpcSingleFlight} message streams of all client connections, or of server RPC handler.
+ * Requests of coalesced callers are not sent, so their headers must not be encoded with stateful
+ * {@link HeadersMetadata.Encoder}.
+ */
+public final class SingleFlight {
+  private static final int ACTIVE = 0;
+  private static final int COMPLETED = 1;
+  private static final int ABANDONED = 2;
+
+  private final CallerIdentity callerIdentity;
+  /*guarded by this*/
+  private final HashMap<Key, Flight> flights = new HashMap<>();
+
+  /** Creates table with request metadata (headers) as caller identity */
+  public SingleFlight() {
+    this(SingleFlight::requestHeaders);
+  }
+
+  /** @param callerIdentity identity of caller, calls of different callers are not coalesced */
+  public SingleFlight(CallerIdentity callerIdentity) {
+    this.callerIdentity = Objects.requireNonNull(callerIdentity, "callerIdentity");
+  }
+
+  /**
+   * @param metadata RPC metadata of request, not modified
+   * @param data request data, not modified
+   * @return key of call, or null if call is not coalesced: is not idempotent, or is addressed with
+   *     call ID. Request data is copied so key outlives request message
+   */
+  @Nullable
+  public Key key(ByteBuf metadata, ByteBuf data) {
+    return key(metadata, data, Rpc.CallIds.empty());
+  }
+
+  /**
+   * @param metadata RPC metadata of request, not modified
+   * @param data request data, not modified
+   * @param callIds call IDs of connection request is sent or received on
+   * @return key of call, or null if call is not coalesced: is not idempotent, its call ID is not
+   *     assigned, or it has no caller identity. Request data is copied so key outlives request
+   *     message
+   */
+  @Nullable
+  public Key key(ByteBuf metadata, ByteBuf data, Rpc.CallIds callIds) {
+    Objects.requireNonNull(callIds, "callIds");
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    if (!Rpc.RpcMetadata.flagIdempotentCall(flags)) {
+      return null;
+    }
+    String method;
+    if (Rpc.RpcMetadata.isCallId(header)) {
+      int callId = Rpc.RpcMetadata.callId(header);
+      String service = callIds.service(callId);
+      if (service == null) {
+        return null;
+      }
+      method = service + '/' + callIds.method(callId);
+    } else {
+      method =
+          Rpc.RpcMetadata.service(metadata, header, flags)
+              + '/'
+              + Rpc.RpcMetadata.method(metadata, header, flags);
+    }
+    Object caller = callerIdentity.callerIdentity(metadata);
+    if (caller == null) {
+      return null;
+    }
+    return new Key(
+        method,
+        caller,
+        ResponseCache.hash(data),
+        Unpooled.wrappedBuffer(ByteBufUtil.getBytes(data)));
+  }
+
+  static Object requestHeaders(ByteBuf metadata) {
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    int offset = Rpc.RpcMetadata.metadataOffset(header, flags);
+    int length = metadata.writerIndex() - offset;
+    if (length <= 0) {
+      return Unpooled.EMPTY_BUFFER;
+    }
+    return Unpooled.wrappedBuffer(ByteBufUtil.getBytes(metadata, offset, length));
+  }
+
+  /**
+   * Joins flight of identical in-flight call, or starts new flight if there is none. Caller that
+   * started flight ({@link Flight#isLeader(Listener)}) is expected to make call, and complete
+   * flight with its outcome.
+   *
+   * @param key key of call, created with {@link #key(ByteBuf, ByteBuf)}
+   * @param listener notified with outcome of call, unless it left flight
+   * @return flight of call
+   */
+  public Flight join(Key key, Listener listener) {
+    Objects.requireNonNull(key, "key");
+    Objects.requireNonNull(listener, "listener");
+    synchronized (this) {
+      Flight flight = flights.get(key);
+      if (flight == null) {
+        flight = new Flight(key, listener);
+        flights.put(key, flight);
+      } else {
+        flight.listeners.add(listener);
+      }
+      return flight;
+    }
+  }
+
+  /** @return count of in-flight calls */
+  public synchronized int size() {
+    return flights.size();
+  }
+
+  /** Identity of caller: calls of different callers are never coalesced */
+  public interface CallerIdentity {
+
+    /**
+     * @param metadata RPC metadata of request, not modified
+     * @return identity of caller with value-based equals and hashCode (e.g. principal of
+     *     authorization header), or null if call must not be coalesced
+     */
+    @Nullable
+    Object callerIdentity(ByteBuf metadata);
+  }
+
+  /** Listener of call outcome */
+  public interface Listener {
+
+    /**
+     * @param response own reference of response message, or null if call completed without response
+     */
+    void onResponse(@Nullable Message response);
+
+    void onError(Throwable t);
+  }
+
+  /** In-flight call shared by its listeners */
+  public final class Flight {
+    private final Key key;
+    private final Listener leader;
+    /*guarded by SingleFlight.this*/
+    private final ArrayList<Listener> listeners = new ArrayList<>(2);
+    private int state = ACTIVE;
+    private Runnable cancel;
+
+    Flight(Key key, Listener leader) {
+      this.key = key;
+      this.leader = leader;
+      listeners.add(leader);
+    }
+
+    /** @return true if given listener started flight, and is expected to make call */
+    public boolean isLeader(Listener listener) {
+      return leader == listener;
+    }
+
+    /**
+     * @param cancel cancels call once all listeners left flight. Called immediately if flight is
+     *     already abandoned
+     */
+    public void onCancel(Runnable cancel) {
+      Objects.requireNonNull(cancel, "cancel");
+      synchronized (SingleFlight.this) {
+        int s = state;
+        if (s == COMPLETED) {
+          return;
+        }
+        if (s == ACTIVE) {
+          this.cancel = cancel;
+          return;
+        }
+      }
+      cancel.run();
+    }
+
+    /**
+     * Notifies listeners with response: each one receives own response message, with own indexes of
+     * shared data and metadata. Response is released if there are no listeners left.
+     *
+     * @param response response message of call, or null if call completed without response
+     * @param messageFactory creates response message of each listener
+     */
+    public void complete(@Nullable Message response, Message.Factory messageFactory) {
+      Objects.requireNonNull(messageFactory, "messageFactory");
+      Listener[] ls = finish();
+      if (ls == null) {
+        if (response != null) {
+          response.release();
+        }
+        return;
+      }
+      if (response == null || ls.length == 1) {
+        for (Listener l : ls) {
+          l.onResponse(response);
+        }
+        return;
+      }
+      Message[] responses = new Message[ls.length];
+      try {
+        ByteBuf data = response.data();
+        ByteBuf metadata = response.hasMetadata() ? response.metadata() : null;
+        for (int i = 0; i < responses.length; i++) {
+          responses[i] =
+              messageFactory.create(
+                  data.retainedDuplicate(), metadata == null ? null : metadata.retainedDuplicate());
+        }
+      } catch (Throwable t) {
+        for (Message r : responses) {
+          if (r != null) {
+            r.release();
+          }
+        }
+        for (Listener l : ls) {
+          l.onError(t);
+        }
+        return;
+      } finally {
+        response.release();
+      }
+      for (int i = 0; i < ls.length; i++) {
+        ls[i].onResponse(responses[i]);
+      }
+    }
+
+    /** Notifies listeners with error of call */
+    public void completeError(Throwable t) {
+      Objects.requireNonNull(t, "t");
+      Listener[] ls = finish();
+      if (ls == null) {
+        return;
+      }
+      for (Listener l : ls) {
+        l.onError(t);
+      }
+    }
+
+    /**
+     * Removes listener from flight: it is not notified with outcome of call. Call is cancelled once
+     * last listener left
+     */
+    public void leave(Listener listener) {
+      Runnable c;
+      synchronized (SingleFlight.this) {
+        if (state != ACTIVE || !listeners.remove(listener) || !listeners.isEmpty()) {
+          return;
+        }
+        state = ABANDONED;
+        flights.remove(key, this);
+        c = cancel;
+        cancel = null;
+      }
+      if (c != null) {
+        c.run();
+      }
+    }
+
+    @Nullable
+    private Listener[] finish() {
+      synchronized (SingleFlight.this) {
+        if (state != ACTIVE) {
+          return null;
+        }
+        state = COMPLETED;
+        cancel = null;
+        flights.remove(key, this);
+        return listeners.toArray(new Listener[0]);
+      }
+    }
+  }
+
+  /** Key of call: service method, caller identity and request data */
+  public static final class Key {
+    final String method;
+    final Object caller;
+    final long hash;
+    final ByteBuf request;
+
+    Key(String method, Object caller, long hash, ByteBuf request) {
+      this.method = method;
+      this.caller = caller;
+      this.hash = hash;
+      this.request = request;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      return hash == key.hash
+          && method.equals(key.method)
+          && caller.equals(key.caller)
+          && ByteBufUtil.equals(request, key.request);
+    }
+
+    @Override
+    public int hashCode() {
+      return (Long.hashCode(hash) * 31 + method.hashCode()) * 31 + caller.hashCode();
+    }
+  }
+}
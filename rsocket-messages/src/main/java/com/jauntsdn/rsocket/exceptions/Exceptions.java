@@ -58,11 +58,18 @@ public final class Exceptions {
     return t == LEASE_EXHAUST_EXCEPTION || t == LEASE_EXPIRE_EXCEPTION;
   }
 
+  public static boolean isAdmissionError(Throwable t) {
+    return t == ADMISSION_REJECT_EXCEPTION;
+  }
+
   public static final String LEASE_EXPIRED_MESSAGE = "lease_expired";
   public static final String LEASE_EXHAUSTED_MESSAGE = "lease_exhausted";
+  public static final String ADMISSION_REJECTED_MESSAGE = "admission_rejected";
 
   public static final RejectedException LEASE_EXPIRE_EXCEPTION =
       new RejectedException(LEASE_EXPIRED_MESSAGE, null, true);
   public static final RejectedException LEASE_EXHAUST_EXCEPTION =
       new RejectedException(LEASE_EXHAUSTED_MESSAGE, null, true);
+  public static final RejectedException ADMISSION_REJECT_EXCEPTION =
+      new RejectedException(ADMISSION_REJECTED_MESSAGE, null, true);
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.RejectedException;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.annotation.Nullable;
+
+/**
+ * RSocket over pool of RSockets: each request is sent with member selected by {@link LoadBalancer}.
+ * Members are managed with {@link #loadBalancer()}.
+ */
+public final class LoadBalancedRSocket implements RSocket {
+  static final String NO_AVAILABLE_RSOCKET = "load balancer has no available RSocket";
+
+  private final LoadBalancer<RSocket> loadBalancer;
+
+  public LoadBalancedRSocket(LoadBalancer<RSocket> loadBalancer) {
+    this.loadBalancer = Objects.requireNonNull(loadBalancer, "loadBalancer");
+  }
+
+  public LoadBalancer<RSocket> loadBalancer() {
+    return loadBalancer;
+  }
+
+  @Override
+  public Uni<Void> fireAndForget(Message message) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Uni.createFrom().failure(t);
+    }
+    if (member == null) {
+      message.release();
+      return Uni.createFrom().failure(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return member.target().fireAndForget(message);
+  }
+
+  @Override
+  public Uni<Message> requestResponse(Message message) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Uni.createFrom().failure(t);
+    }
+    if (member == null) {
+      message.release();
+      return Uni.createFrom().failure(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return Uni.createFrom()
+        .deferred(
+            () -> {
+              long start = member.start();
+              return member
+                  .target()
+                  .requestResponse(message)
+                  .onItem()
+                  .invoke(response -> member.record(start))
+                  .onFailure()
+                  .invoke(err -> member.recordFailure(start))
+                  .onTermination()
+                  .invoke(member::stop);
+            });
+  }
+
+  @Override
+  public Multi<Message> requestStream(Message message) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Multi.createFrom().failure(t);
+    }
+    if (member == null) {
+      message.release();
+      return Multi.createFrom().failure(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return Multi.createFrom()
+        .deferred(
+            () -> {
+              member.start();
+              return member.target().requestStream(message).onTermination().invoke(member::stop);
+            });
+  }
+
+  @Override
+  public Multi<Message> requestChannel(Flow.Publisher<Message> messages) {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    if (member == null) {
+      return Multi.createFrom().failure(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return Multi.createFrom()
+        .deferred(
+            () -> {
+              member.start();
+              return member.target().requestChannel(messages).onTermination().invoke(member::stop);
+            });
+  }
+
+  @Override
+  public Uni<Void> metadataPush(Message message) {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    if (member == null) {
+      message.release();
+      return Uni.createFrom().failure(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return member.target().metadataPush(message);
+  }
+
+  @Override
+  public Optional<Message.Factory> messageFactory() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.messageFactory();
+  }
+
+  @Override
+  public Optional<ScheduledExecutorService> scheduler() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.scheduler();
+  }
+
+  @Override
+  public Optional<ScheduledExecutorService> coarseScheduler() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.coarseScheduler();
+  }
+
+  @Override
+  public Optional<ByteBufAllocator> allocator() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.allocator();
+  }
+
+  @Override
+  public double availability(int rank) {
+    return loadBalancer.availability(rank);
+  }
+
+  @Override
+  public void dispose() {
+    for (RSocket rSocket : loadBalancer.close()) {
+      rSocket.dispose();
+    }
+  }
+
+  @Override
+  public void dispose(String reason, boolean isGraceful) {
+    for (RSocket rSocket : loadBalancer.close()) {
+      rSocket.dispose(reason, isGraceful);
+    }
+  }
+
+  @Override
+  public boolean isDisposed() {
+    return loadBalancer.isClosed();
+  }
+
+  @Override
+  public Uni<Void> onClose() {
+    return Uni.createFrom().completionStage(loadBalancer.onClose());
+  }
+
+  @Nullable
+  private LoadBalancer.Member<RSocket> select(Message message) {
+    LoadBalancer<RSocket> lb = loadBalancer;
+    return lb.select(lb.method(message.hasMetadata() ? message.metadata() : null));
+  }
+
+  @Nullable
+  private RSocket any() {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    return member == null ? null : member.target();
+  }
+}
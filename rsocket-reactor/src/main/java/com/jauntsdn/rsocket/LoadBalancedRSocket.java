@@ -0,0 +1,202 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.RejectedException;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Objects;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * RSocket over pool of RSockets: each request is sent with member selected by {@link LoadBalancer}.
+ * Members are managed with {@link #loadBalancer()}.
+ */
+public final class LoadBalancedRSocket implements RSocket {
+  static final String NO_AVAILABLE_RSOCKET = "load balancer has no available RSocket";
+
+  private final LoadBalancer<RSocket> loadBalancer;
+
+  public LoadBalancedRSocket(LoadBalancer<RSocket> loadBalancer) {
+    this.loadBalancer = Objects.requireNonNull(loadBalancer, "loadBalancer");
+  }
+
+  public LoadBalancer<RSocket> loadBalancer() {
+    return loadBalancer;
+  }
+
+  @Override
+  public Mono<Void> fireAndForget(Message message) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Mono.error(t);
+    }
+    if (member == null) {
+      message.release();
+      return Mono.error(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return member.target().fireAndForget(message);
+  }
+
+  @Override
+  public Mono<Message> requestResponse(Message message) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Mono.error(t);
+    }
+    if (member == null) {
+      message.release();
+      return Mono.error(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return Mono.defer(
+        () -> {
+          long start = member.start();
+          return member
+              .target()
+              .requestResponse(message)
+              .doFinally(
+                  signal -> {
+                    if (signal == SignalType.ON_COMPLETE) {
+                      member.record(start);
+                    } else if (signal == SignalType.ON_ERROR) {
+                      member.recordFailure(start);
+                    }
+                    member.stop();
+                  });
+        });
+  }
+
+  @Override
+  public Flux<Message> requestStream(Message message) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Flux.error(t);
+    }
+    if (member == null) {
+      message.release();
+      return Flux.error(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return Flux.defer(
+        () -> {
+          member.start();
+          return member.target().requestStream(message).doFinally(signal -> member.stop());
+        });
+  }
+
+  @Override
+  public Flux<Message> requestChannel(Publisher<Message> messages) {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    if (member == null) {
+      return Flux.error(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return Flux.defer(
+        () -> {
+          member.start();
+          return member.target().requestChannel(messages).doFinally(signal -> member.stop());
+        });
+  }
+
+  @Override
+  public Mono<Void> metadataPush(Message message) {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    if (member == null) {
+      message.release();
+      return Mono.error(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return member.target().metadataPush(message);
+  }
+
+  @Override
+  public Optional<Message.Factory> messageFactory() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.messageFactory();
+  }
+
+  @Override
+  public Optional<Scheduler> scheduler() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.scheduler();
+  }
+
+  @Override
+  public Optional<Scheduler> coarseScheduler() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.coarseScheduler();
+  }
+
+  @Override
+  public Optional<ByteBufAllocator> allocator() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.allocator();
+  }
+
+  @Override
+  public double availability(int rank) {
+    return loadBalancer.availability(rank);
+  }
+
+  @Override
+  public void dispose() {
+    for (RSocket rSocket : loadBalancer.close()) {
+      rSocket.dispose();
+    }
+  }
+
+  @Override
+  public void dispose(String reason, boolean isGraceful) {
+    for (RSocket rSocket : loadBalancer.close()) {
+      rSocket.dispose(reason, isGraceful);
+    }
+  }
+
+  @Override
+  public boolean isDisposed() {
+    return loadBalancer.isClosed();
+  }
+
+  @Override
+  public Mono<Void> onClose() {
+    return Mono.fromCompletionStage(loadBalancer.onClose());
+  }
+
+  @Nullable
+  private LoadBalancer.Member<RSocket> select(Message message) {
+    LoadBalancer<RSocket> lb = loadBalancer;
+    return lb.select(lb.method(message.hasMetadata() ? message.metadata() : null));
+  }
+
+  @Nullable
+  private RSocket any() {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    return member == null ? null : member.target();
+  }
+}
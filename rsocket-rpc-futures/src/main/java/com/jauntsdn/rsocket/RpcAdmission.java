@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.Exceptions;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Server message streams admitting RPC calls by rank with {@link Admission}: calls over rank's
+ * share of concurrency limit are queued, or rejected with {@link
+ * Exceptions#ADMISSION_REJECT_EXCEPTION} before request is decoded. Wraps server {@link
+ * RpcHandler}.
+ */
+public final class RpcAdmission extends RSocketProxy {
+  private final Admission admission;
+  /*queued calls are started on scheduler of source, if any*/
+  @Nullable private final Executor executor;
+
+  public RpcAdmission(MessageStreams source, Admission admission) {
+    super(Objects.requireNonNull(source, "source"));
+    this.admission = Objects.requireNonNull(admission, "admission");
+    this.executor = source.scheduler().orElse(null);
+  }
+
+  @Override
+  public CompletionStage<Void> fireAndForget(Message message) {
+    return admit(message, source::fireAndForget);
+  }
+
+  @Override
+  public CompletionStage<Message> requestResponse(Message message) {
+    return admit(message, source::requestResponse);
+  }
+
+  private <T> CompletionStage<T> admit(
+      Message message, Function<Message, CompletionStage<T>> interaction) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return RpcHandler.completedFuture(t);
+    }
+    if (a.tryAcquire(rank)) {
+      CompletionStage<T> response = interaction.apply(message);
+      response.whenComplete((r, err) -> a.release());
+      return response;
+    }
+    if (rank == 0) {
+      message.release();
+      return RpcHandler.completedFuture(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    CompletableFuture<T> response = new CompletableFuture<>();
+    /*completed, or cancelled by caller*/
+    response.whenComplete((r, err) -> call.release());
+    boolean queued =
+        call.enqueue(
+            () -> {
+              Message m = call.take();
+              if (m == null) {
+                return;
+              }
+              interaction
+                  .apply(m)
+                  .whenComplete(
+                      (r, err) -> {
+                        if (err != null) {
+                          response.completeExceptionally(err);
+                        } else if (!response.complete(r)) {
+                          ReferenceCountUtil.safeRelease(r);
+                        }
+                      });
+            },
+            executor);
+    if (!queued) {
+      response.completeExceptionally(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    return response;
+  }
+}
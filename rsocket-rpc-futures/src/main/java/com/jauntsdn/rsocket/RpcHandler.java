@@ -36,6 +36,8 @@ public final class RpcHandler implements MessageStreams {
       "RpcHandler: no default service because more than 1 service registered";
 
   private final Map<String, RpcService> services;
+  private final Rpc.RpcMetadata.ServiceIndex<RpcService> servicesIndex;
+  private final Rpc.CallIds callIds;
   private final RpcService defaultService;
   private final CompletableFuture<Void> onClose = new CompletableFuture<>();
   private final Consumer<Throwable> errorConsumer;
@@ -85,14 +87,61 @@ public final class RpcHandler implements MessageStreams {
           }
         }
     }
+    servicesIndex = Rpc.RpcMetadata.ServiceIndex.create(services);
+    callIds = Rpc.CallIds.empty();
+  }
+
+  private RpcHandler(RpcHandler rpcHandler, Rpc.CallIds callIds) {
+    this.errorConsumer = rpcHandler.errorConsumer;
+    this.services = rpcHandler.services;
+    this.defaultService = rpcHandler.defaultService;
+    this.servicesIndex = rpcHandler.servicesIndex.withCallIds(callIds, rpcHandler.defaultService);
+    this.callIds = callIds;
+  }
+
+  /**
+   * @param callIds call IDs assigned for connection, e.g. decoded from connection setup metadata
+   * @return handler of same services that also serves calls addressed with call IDs. Services are
+   *     shared with this handler
+   */
+  public RpcHandler withCallIds(Rpc.CallIds callIds) {
+    Objects.requireNonNull(callIds, "callIds");
+    return new RpcHandler(this, callIds);
+  }
+
+  /*services decode service and method of call with accessors not aware of call IDs*/
+  static Message expandCallId(Message message, long header, int flags, Rpc.CallIds callIds) {
+    ByteBuf metadata = message.metadata();
+    ByteBuf expanded =
+        Rpc.RpcMetadata.expandCallId(metadata, header, flags, callIds, metadata.alloc());
+    ByteBuf data = message.data().retain();
+    Message expandedMessage;
+    try {
+      expandedMessage = Message.Factory.pooled().create(data, expanded);
+    } catch (Throwable t) {
+      data.release();
+      expanded.release();
+      throw t;
+    }
+    message.release();
+    return expandedMessage;
+  }
+
+  static String serviceName(ByteBuf metadata, long header, int flags) {
+    if (Rpc.RpcMetadata.isCallId(header)) {
+      return "call ID " + Rpc.RpcMetadata.callId(header);
+    }
+    return Rpc.RpcMetadata.service(metadata, header, flags);
   }
 
   @Override
   public CompletionStage<Void> fireAndForget(Message message) {
     try {
-      String serviceName = service(message.metadata());
+      ByteBuf metadata = message.metadata();
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
 
-      if (serviceName.isEmpty()) {
+      if (Rpc.RpcMetadata.isDefaultService(header, flags)) {
         int size = services.size();
         switch (size) {
           case 0:
@@ -106,12 +155,16 @@ public final class RpcHandler implements MessageStreams {
         }
       }
 
-      RpcService rpcService = services.get(serviceName);
+      RpcService rpcService = servicesIndex.find(metadata, header, flags);
       if (rpcService == null) {
+        String serviceName = serviceName(metadata, header, flags);
         message.release();
         return completedFuture(new RpcException(serviceName));
       }
 
+      if (Rpc.RpcMetadata.isCallId(header)) {
+        message = expandCallId(message, header, flags, callIds);
+      }
       return rpcService.fireAndForget(message);
     } catch (Throwable t) {
       ReferenceCountUtil.safeRelease(message);
@@ -122,9 +175,11 @@ public final class RpcHandler implements MessageStreams {
   @Override
   public CompletionStage<Message> requestResponse(Message message) {
     try {
-      String serviceName = service(message.metadata());
+      ByteBuf metadata = message.metadata();
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
 
-      if (serviceName.isEmpty()) {
+      if (Rpc.RpcMetadata.isDefaultService(header, flags)) {
         int size = services.size();
         switch (size) {
           case 0:
@@ -138,11 +193,15 @@ public final class RpcHandler implements MessageStreams {
         }
       }
 
-      RpcService rpcService = services.get(serviceName);
+      RpcService rpcService = servicesIndex.find(metadata, header, flags);
       if (rpcService == null) {
+        String serviceName = serviceName(metadata, header, flags);
         message.release();
         return completedFuture(new RpcException(serviceName));
       }
+      if (Rpc.RpcMetadata.isCallId(header)) {
+        message = expandCallId(message, header, flags, callIds);
+      }
       return rpcService.requestResponse(message);
     } catch (Throwable t) {
       ReferenceCountUtil.safeRelease(message);
@@ -184,12 +243,6 @@ public final class RpcHandler implements MessageStreams {
     return onClose;
   }
 
-  static String service(ByteBuf metadata) {
-    long header = Rpc.RpcMetadata.header(metadata);
-    int flags = Rpc.RpcMetadata.flags(header);
-    return Rpc.RpcMetadata.service(metadata, header, flags);
-  }
-
   public static final class Factory implements RpcService.Factory<RpcHandler> {
     private final Consumer<Throwable> errorConsumer;
     private final RpcService.Factory<?>[] serviceFactories;
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.netty.util.ReferenceCountUtil;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client message streams hedging idempotent request-response calls with {@link Hedging}: call that
+ * is not answered within method latency is duplicated to most available of hedge targets. First
+ * response is kept, and other call is cancelled. Failed hedged call does not fail original one.
+ */
+public final class RpcHedging extends RSocketProxy {
+  private final List<? extends RSocket> hedgeTargets;
+  private final Hedging hedging;
+  private final ScheduledExecutorService scheduler;
+  private final Message.Factory messageFactory;
+
+  /** @param scheduler schedules hedged calls */
+  public RpcHedging(
+      MessageStreams source,
+      List<? extends RSocket> hedgeTargets,
+      Hedging hedging,
+      ScheduledExecutorService scheduler) {
+    super(Objects.requireNonNull(source, "source"));
+    this.hedgeTargets = Objects.requireNonNull(hedgeTargets, "hedgeTargets");
+    this.hedging = Objects.requireNonNull(hedging, "hedging");
+    this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  @Override
+  public CompletionStage<Message> requestResponse(Message message) {
+    Hedging h = hedging;
+    Hedging.Method method;
+    Hedging.Request hedgeRequest;
+    long delayNanos;
+    try {
+      method = h.method(message.metadata());
+      if (method == null) {
+        return source.requestResponse(message);
+      }
+      delayNanos = method.delayNanos();
+      hedgeRequest = delayNanos < 0 ? null : Hedging.Request.of(message, messageFactory);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return RpcHandler.completedFuture(t);
+    }
+    HedgedCall call = new HedgedCall(method, hedgeRequest);
+    call.primary = source.requestResponse(message).toCompletableFuture();
+    call.primary.whenComplete(call::onPrimary);
+    if (hedgeRequest != null) {
+      MessageStreams s = source;
+      List<? extends RSocket> targets = hedgeTargets;
+      call.timer =
+          scheduler.schedule(
+              () -> {
+                if (call.isDone()) {
+                  return;
+                }
+                RSocket target = h.select(targets, s);
+                if (target == null || !h.tryHedge()) {
+                  hedgeRequest.release();
+                  return;
+                }
+                Message request = hedgeRequest.take();
+                if (request == null) {
+                  return;
+                }
+                CompletableFuture<Message> hedge =
+                    target.requestResponse(request).toCompletableFuture();
+                call.hedge = hedge;
+                hedge.whenComplete(call::onHedge);
+                if (call.isDone()) {
+                  hedge.cancel(true);
+                }
+              },
+              delayNanos,
+              TimeUnit.NANOSECONDS);
+    }
+    call.whenComplete(call::onComplete);
+    return call;
+  }
+
+  static final class HedgedCall extends CompletableFuture<Message> {
+    final Hedging.Method method;
+    final Hedging.Request hedgeRequest;
+    final long start = System.nanoTime();
+    volatile CompletableFuture<Message> primary;
+    volatile CompletableFuture<Message> hedge;
+    volatile ScheduledFuture<?> timer;
+
+    HedgedCall(Hedging.Method method, Hedging.Request hedgeRequest) {
+      this.method = method;
+      this.hedgeRequest = hedgeRequest;
+    }
+
+    void onPrimary(Message response, Throwable err) {
+      if (err != null) {
+        completeExceptionally(err);
+      } else {
+        /*latency of original call only, hedged calls would bias hedging delay down*/
+        method.record(System.nanoTime() - start);
+        onResponse(response);
+      }
+    }
+
+    void onHedge(Message response, Throwable err) {
+      /*failed hedged call does not fail original one*/
+      if (err == null) {
+        onResponse(response);
+      }
+    }
+
+    void onResponse(Message response) {
+      if (!complete(response) && response != null) {
+        response.release();
+      }
+    }
+
+    void onComplete(Message response, Throwable err) {
+      ScheduledFuture<?> t = timer;
+      if (t != null) {
+        t.cancel(false);
+      }
+      Hedging.Request r = hedgeRequest;
+      if (r != null) {
+        r.release();
+      }
+      CompletableFuture<Message> p = primary;
+      if (p != null) {
+        p.cancel(true);
+      }
+      CompletableFuture<Message> h = hedge;
+      if (h != null) {
+        h.cancel(true);
+      }
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.Exceptions;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import javax.annotation.Nullable;
+
+/**
+ * Server message streams admitting RPC calls by rank with {@link Admission}: calls over rank's
+ * share of concurrency limit are queued, or rejected with {@link
+ * Exceptions#ADMISSION_REJECT_EXCEPTION} before request is decoded. Request-channel calls are not
+ * queued: they are either started or rejected. Wraps server {@link RpcHandler}.
+ */
+public final class RpcAdmission extends RSocketProxy {
+  private static final int FIRE_AND_FORGET = 0;
+  private static final int REQUEST_RESPONSE = 1;
+  private static final int REQUEST_STREAM = 2;
+
+  private final Admission admission;
+  /*queued calls are started on scheduler of source, if any*/
+  @Nullable private final Executor executor;
+
+  public RpcAdmission(MessageStreams source, Admission admission) {
+    super(Objects.requireNonNull(source, "source"));
+    this.admission = Objects.requireNonNull(admission, "admission");
+    this.executor = source.scheduler().orElse(null);
+  }
+
+  @Override
+  public void fireAndForget(Message message, StreamObserver<Message> responseObserver) {
+    admit(message, responseObserver, FIRE_AND_FORGET);
+  }
+
+  @Override
+  public void requestResponse(Message message, StreamObserver<Message> responseObserver) {
+    admit(message, responseObserver, REQUEST_RESPONSE);
+  }
+
+  @Override
+  public void requestStream(Message message, StreamObserver<Message> responseObserver) {
+    admit(message, responseObserver, REQUEST_STREAM);
+  }
+
+  @Override
+  public StreamObserver<Message> requestChannel(
+      Message message, StreamObserver<Message> responseObserver) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      responseObserver.onError(t);
+      return MessageStreamsHandler.noopServerObserver();
+    }
+    if (!a.tryAcquire(rank)) {
+      message.release();
+      responseObserver.onError(Exceptions.ADMISSION_REJECT_EXCEPTION);
+      return MessageStreamsHandler.noopServerObserver();
+    }
+    return super.requestChannel(message, new AdmissionObserver(responseObserver, a, null));
+  }
+
+  private void admit(Message message, StreamObserver<Message> responseObserver, int interaction) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      responseObserver.onError(t);
+      return;
+    }
+    if (a.tryAcquire(rank)) {
+      start(message, new AdmissionObserver(responseObserver, a, null), interaction);
+      return;
+    }
+    if (rank == 0) {
+      message.release();
+      responseObserver.onError(Exceptions.ADMISSION_REJECT_EXCEPTION);
+      return;
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    AdmissionObserver observer = new AdmissionObserver(responseObserver, a, call);
+    boolean queued =
+        call.enqueue(
+            () -> {
+              Message m = call.take();
+              if (m != null) {
+                start(m, observer, interaction);
+              }
+            },
+            executor);
+    if (!queued) {
+      call.release();
+      responseObserver.onError(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+  }
+
+  private void start(Message message, StreamObserver<Message> observer, int interaction) {
+    MessageStreams s = source;
+    switch (interaction) {
+      case FIRE_AND_FORGET:
+        s.fireAndForget(message, observer);
+        break;
+      case REQUEST_RESPONSE:
+        s.requestResponse(message, observer);
+        break;
+      default:
+        s.requestStream(message, observer);
+    }
+  }
+
+  /*frees admitted call's slot once response is terminated or cancelled*/
+  static final class AdmissionObserver extends ServerCallStreamObserver<Message> {
+    private static final AtomicIntegerFieldUpdater<AdmissionObserver> RELEASED =
+        AtomicIntegerFieldUpdater.newUpdater(AdmissionObserver.class, "released");
+
+    final ServerCallStreamObserver<Message> upstream;
+    final Admission admission;
+    @Nullable final Admission.Call call;
+    volatile int released;
+
+    AdmissionObserver(
+        StreamObserver<Message> upstream, Admission admission, @Nullable Admission.Call call) {
+      this.upstream = (ServerCallStreamObserver<Message>) upstream;
+      this.admission = admission;
+      this.call = call;
+    }
+
+    @Override
+    public void onNext(Message value) {
+      upstream.onNext(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      release();
+      upstream.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      release();
+      upstream.onCompleted();
+    }
+
+    @Override
+    public void setOnCancelHandler(Runnable onCancelHandler) {
+      upstream.setOnCancelHandler(
+          () -> {
+            release();
+            onCancelHandler.run();
+          });
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return upstream.isCancelled();
+    }
+
+    @Override
+    public void setOnCloseHandler(Runnable onCloseHandler) {
+      upstream.setOnCloseHandler(onCloseHandler);
+    }
+
+    @Override
+    public void setCompression(String compression) {
+      upstream.setCompression(compression);
+    }
+
+    @Override
+    public boolean isReady() {
+      return upstream.isReady();
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {
+      upstream.setOnReadyHandler(onReadyHandler);
+    }
+
+    @Override
+    public void disableAutoInboundFlowControl() {
+      upstream.disableAutoInboundFlowControl();
+    }
+
+    @Override
+    public void disableAutoRequest() {
+      upstream.disableAutoRequest();
+    }
+
+    @Override
+    public void request(int count) {
+      upstream.request(count);
+    }
+
+    @Override
+    public void setMessageCompression(boolean enable) {
+      upstream.setMessageCompression(enable);
+    }
+
+    void release() {
+      if (RELEASED.compareAndSet(this, 0, 1)) {
+        Admission.Call c = call;
+        if (c != null) {
+          c.release();
+        } else {
+          admission.release();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Objects;
+
+/**
+ * Message streams compressing call messages with {@link Compression.Calls}. Requester streams
+ * wrap client {@link RSocket}: requests of calls with compression are compressed, and their
+ * compressed responses are decompressed. Responder streams wrap server {@link RpcHandler}:
+ * compressed requests are decompressed, and responses of compressed requests are compressed.
+ * Request-channel messages are passed through as is.
+ *
+ * <p>Dictionaries of calls are sent by requester with metadata-push once requester streams are
+ * created, and are installed by responder streams on receipt, so later requests compressed against
+ * them are decompressed. Dictionaries of responses are expected to be configured on both peers.
+ */
+public final class RpcCompression extends RSocketProxy {
+  private static final int FIRE_AND_FORGET = 0;
+  private static final int REQUEST_RESPONSE = 1;
+  private static final int REQUEST_STREAM = 2;
+
+  private volatile Compression.Calls calls;
+  private final boolean isResponder;
+  private final ByteBufAllocator allocator;
+  private final Message.Factory messageFactory;
+
+  private RpcCompression(MessageStreams source, Compression.Calls calls, boolean isResponder) {
+    super(Objects.requireNonNull(source, "source"));
+    this.calls = Objects.requireNonNull(calls, "calls");
+    this.isResponder = isResponder;
+    this.allocator = source.allocator().orElse(ByteBufAllocator.DEFAULT);
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  /**
+   * @return client message streams compressing requests of calls with compression. Dictionaries
+   *     of calls are sent with metadata-push if source is {@link RSocket}
+   */
+  public static RpcCompression requester(MessageStreams source, Compression.Calls calls) {
+    RpcCompression rpcCompression = new RpcCompression(source, calls, false);
+    if (calls.hasDictionaries() && source instanceof RSocket) {
+      ByteBuf dictionaries = calls.encodeDictionaries(rpcCompression.allocator);
+      ((RSocket) source)
+          .metadataPush(
+              rpcCompression.messageFactory.createMetadata(dictionaries),
+              MessageStreams.noopClientObserver());
+    }
+    return rpcCompression;
+  }
+
+  /** @return server message streams decompressing requests, and compressing their responses */
+  public static RpcCompression responder(MessageStreams source, Compression.Calls calls) {
+    return new RpcCompression(source, calls, true);
+  }
+
+  @Override
+  public void metadataPush(Message message, StreamObserver<Message> responseObserver) {
+    if (!isResponder || !Compression.Calls.isDictionaries(message.metadata())) {
+      super.metadataPush(message, responseObserver);
+      return;
+    }
+    try {
+      calls = calls.withDictionaries(message.metadata());
+    } catch (Throwable t) {
+      responseObserver.onError(t);
+      return;
+    } finally {
+      message.release();
+    }
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void fireAndForget(Message message, StreamObserver<Message> responseObserver) {
+    call(message, responseObserver, FIRE_AND_FORGET);
+  }
+
+  @Override
+  public void requestResponse(Message message, StreamObserver<Message> responseObserver) {
+    call(message, responseObserver, REQUEST_RESPONSE);
+  }
+
+  @Override
+  public void requestStream(Message message, StreamObserver<Message> responseObserver) {
+    call(message, responseObserver, REQUEST_STREAM);
+  }
+
+  private void call(Message message, StreamObserver<Message> responseObserver, int interaction) {
+    Compression.Calls c = calls;
+    Message request;
+    StreamObserver<Message> observer = responseObserver;
+    try {
+      ByteBuf metadata = message.metadata();
+      Compression compression = c.find(metadata);
+      if (isResponder) {
+        boolean isCompressed = message.hasMetadata() && Compression.Calls.isCompressed(metadata);
+        request = c.decompressRequest(message, allocator, messageFactory);
+        if (isCompressed && compression != null && interaction != FIRE_AND_FORGET) {
+          observer = new CompressingObserver(responseObserver, this, compression);
+        }
+      } else if (compression != null) {
+        request = c.compressRequest(message, compression, allocator, messageFactory);
+        if (interaction != FIRE_AND_FORGET) {
+          observer = new DecompressingObserver(responseObserver, this);
+        }
+      } else {
+        request = message;
+      }
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      responseObserver.onError(t);
+      return;
+    }
+    MessageStreams s = source;
+    switch (interaction) {
+      case FIRE_AND_FORGET:
+        s.fireAndForget(request, observer);
+        break;
+      case REQUEST_RESPONSE:
+        s.requestResponse(request, observer);
+        break;
+      default:
+        s.requestStream(request, observer);
+    }
+  }
+
+  static final class CompressingObserver extends ServerCallStreamObserver<Message> {
+    final ServerCallStreamObserver<Message> upstream;
+    final RpcCompression rpcCompression;
+    final Compression compression;
+
+    CompressingObserver(
+        StreamObserver<Message> upstream, RpcCompression rpcCompression, Compression compression) {
+      this.upstream = (ServerCallStreamObserver<Message>) upstream;
+      this.rpcCompression = rpcCompression;
+      this.compression = compression;
+    }
+
+    @Override
+    public void onNext(Message value) {
+      RpcCompression r = rpcCompression;
+      Message response;
+      try {
+        response = r.calls.compressResponse(value, compression, r.allocator, r.messageFactory);
+      } catch (Throwable t) {
+        value.release();
+        throw t;
+      }
+      upstream.onNext(response);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      upstream.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      upstream.onCompleted();
+    }
+
+    @Override
+    public void setOnCancelHandler(Runnable onCancelHandler) {
+      upstream.setOnCancelHandler(onCancelHandler);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return upstream.isCancelled();
+    }
+
+    @Override
+    public void setOnCloseHandler(Runnable onCloseHandler) {
+      upstream.setOnCloseHandler(onCloseHandler);
+    }
+
+    @Override
+    public void setCompression(String compression) {
+      upstream.setCompression(compression);
+    }
+
+    @Override
+    public boolean isReady() {
+      return upstream.isReady();
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {
+      upstream.setOnReadyHandler(onReadyHandler);
+    }
+
+    @Override
+    public void disableAutoInboundFlowControl() {
+      upstream.disableAutoInboundFlowControl();
+    }
+
+    @Override
+    public void disableAutoRequest() {
+      upstream.disableAutoRequest();
+    }
+
+    @Override
+    public void request(int count) {
+      upstream.request(count);
+    }
+
+    @Override
+    public void setMessageCompression(boolean enable) {
+      upstream.setMessageCompression(enable);
+    }
+  }
+
+  /*malformed compressed response cancels call, and terminates observer with error*/
+  static final class DecompressingObserver implements ClientResponseObserver<Message, Message> {
+    final StreamObserver<Message> observer;
+    final RpcCompression rpcCompression;
+    ClientCallStreamObserver<Message> requestStream;
+    boolean isDone;
+
+    DecompressingObserver(StreamObserver<Message> observer, RpcCompression rpcCompression) {
+      this.observer = observer;
+      this.rpcCompression = rpcCompression;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void beforeStart(ClientCallStreamObserver<Message> requestStream) {
+      this.requestStream = requestStream;
+      StreamObserver<Message> o = observer;
+      if (o instanceof ClientResponseObserver) {
+        ((ClientResponseObserver<Message, Message>) o).beforeStart(requestStream);
+      }
+    }
+
+    @Override
+    public void onNext(Message response) {
+      if (isDone) {
+        response.release();
+        return;
+      }
+      RpcCompression r = rpcCompression;
+      Message message;
+      try {
+        message = r.calls.decompressResponse(response, r.allocator, r.messageFactory);
+      } catch (Throwable t) {
+        response.release();
+        isDone = true;
+        ClientCallStreamObserver<Message> rs = requestStream;
+        if (rs != null) {
+          rs.cancel("response decompression error", t);
+        }
+        observer.onError(t);
+        return;
+      }
+      observer.onNext(message);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      if (!isDone) {
+        isDone = true;
+        observer.onError(t);
+      }
+    }
+
+    @Override
+    public void onCompleted() {
+      if (!isDone) {
+        isDone = true;
+        observer.onCompleted();
+      }
+    }
+  }
+}
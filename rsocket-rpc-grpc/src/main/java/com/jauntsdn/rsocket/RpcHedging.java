@@ -0,0 +1,261 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import io.netty.util.ReferenceCountUtil;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * Client message streams hedging idempotent request-response calls with {@link Hedging}: call that
+ * is not answered within method latency is duplicated to most available of hedge targets. First
+ * response is kept, and other call is cancelled. Failed hedged call does not fail original one.
+ */
+public final class RpcHedging extends RSocketProxy {
+  private final List<? extends RSocket> hedgeTargets;
+  private final Hedging hedging;
+  private final ScheduledExecutorService scheduler;
+  private final Message.Factory messageFactory;
+
+  /** @param scheduler schedules hedged calls */
+  public RpcHedging(
+      MessageStreams source,
+      List<? extends RSocket> hedgeTargets,
+      Hedging hedging,
+      ScheduledExecutorService scheduler) {
+    super(Objects.requireNonNull(source, "source"));
+    this.hedgeTargets = Objects.requireNonNull(hedgeTargets, "hedgeTargets");
+    this.hedging = Objects.requireNonNull(hedging, "hedging");
+    this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void requestResponse(Message message, StreamObserver<Message> responseObserver) {
+    Hedging h = hedging;
+    Hedging.Method method;
+    Hedging.Request hedgeRequest;
+    long delayNanos;
+    try {
+      method = h.method(message.metadata());
+      if (method == null) {
+        source.requestResponse(message, responseObserver);
+        return;
+      }
+      delayNanos = method.delayNanos();
+      hedgeRequest = delayNanos < 0 ? null : Hedging.Request.of(message, messageFactory);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      responseObserver.onError(t);
+      return;
+    }
+    HedgedCall call = new HedgedCall(responseObserver, method, hedgeRequest);
+    if (responseObserver instanceof ClientResponseObserver) {
+      ((ClientResponseObserver<Message, Message>) responseObserver)
+          .beforeStart(new CancellingObserver(call));
+    }
+    source.requestResponse(message, call.primary);
+    if (hedgeRequest != null) {
+      MessageStreams s = source;
+      List<? extends RSocket> targets = hedgeTargets;
+      call.timer =
+          scheduler.schedule(
+              () -> {
+                if (call.isDone()) {
+                  return;
+                }
+                RSocket target = h.select(targets, s);
+                if (target == null || !h.tryHedge()) {
+                  hedgeRequest.release();
+                  return;
+                }
+                Message request = hedgeRequest.take();
+                if (request == null) {
+                  return;
+                }
+                target.requestResponse(request, call.hedge);
+              },
+              delayNanos,
+              TimeUnit.NANOSECONDS);
+      if (call.isDone()) {
+        call.cancelTimer();
+      }
+    }
+  }
+
+  static final class HedgedCall extends AtomicBoolean {
+    final StreamObserver<Message> observer;
+    final Hedging.Method method;
+    @Nullable final Hedging.Request hedgeRequest;
+    final long start = System.nanoTime();
+    final CallObserver primary = new CallObserver(this, false);
+    final CallObserver hedge = new CallObserver(this, true);
+    volatile ScheduledFuture<?> timer;
+
+    HedgedCall(
+        StreamObserver<Message> observer,
+        Hedging.Method method,
+        @Nullable Hedging.Request hedgeRequest) {
+      this.observer = observer;
+      this.method = method;
+      this.hedgeRequest = hedgeRequest;
+    }
+
+    boolean isDone() {
+      return get();
+    }
+
+    /*first response, or error of original call, completes call and cancels other call*/
+    boolean complete(CallObserver winner) {
+      if (!compareAndSet(false, true)) {
+        return false;
+      }
+      cancelTimer();
+      Hedging.Request r = hedgeRequest;
+      if (r != null) {
+        r.release();
+      }
+      (winner == primary ? hedge : primary).cancel();
+      return true;
+    }
+
+    void cancel() {
+      if (compareAndSet(false, true)) {
+        cancelTimer();
+        Hedging.Request r = hedgeRequest;
+        if (r != null) {
+          r.release();
+        }
+        primary.cancel();
+        hedge.cancel();
+      }
+    }
+
+    void cancelTimer() {
+      ScheduledFuture<?> t = timer;
+      if (t != null) {
+        t.cancel(false);
+      }
+    }
+  }
+
+  static final class CallObserver implements ClientResponseObserver<Message, Message> {
+    final HedgedCall call;
+    final boolean isHedge;
+    volatile ClientCallStreamObserver<Message> requestStream;
+    boolean responded;
+
+    CallObserver(HedgedCall call, boolean isHedge) {
+      this.call = call;
+      this.isHedge = isHedge;
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<Message> requestStream) {
+      this.requestStream = requestStream;
+      if (call.isDone()) {
+        cancel();
+      }
+    }
+
+    @Override
+    public void onNext(Message response) {
+      HedgedCall c = call;
+      /*latency of original call only, hedged calls would bias hedging delay down*/
+      if (!isHedge) {
+        c.method.record(System.nanoTime() - c.start);
+      }
+      if (!c.complete(this)) {
+        response.release();
+        return;
+      }
+      responded = true;
+      c.observer.onNext(response);
+      c.observer.onCompleted();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      /*failed hedged call does not fail original one*/
+      if (!isHedge && call.complete(this)) {
+        call.observer.onError(t);
+      }
+    }
+
+    @Override
+    public void onCompleted() {
+      if (!responded && !isHedge && call.complete(this)) {
+        call.observer.onCompleted();
+      }
+    }
+
+    void cancel() {
+      ClientCallStreamObserver<Message> r = requestStream;
+      if (r != null) {
+        r.cancel("hedged call completed", null);
+      }
+    }
+  }
+
+  /*cancels original and hedged calls on caller's cancel*/
+  static final class CancellingObserver extends ClientCallStreamObserver<Message> {
+    final HedgedCall call;
+
+    CancellingObserver(HedgedCall call) {
+      this.call = call;
+    }
+
+    @Override
+    public void cancel(@Nullable String message, @Nullable Throwable cause) {
+      call.cancel();
+    }
+
+    @Override
+    public boolean isReady() {
+      return false;
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {}
+
+    @Override
+    public void request(int count) {}
+
+    @Override
+    public void setMessageCompression(boolean enable) {}
+
+    @Override
+    public void disableAutoInboundFlowControl() {}
+
+    @Override
+    public void onNext(Message value) {}
+
+    @Override
+    public void onError(Throwable t) {}
+
+    @Override
+    public void onCompleted() {}
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Objects;
+
+/**
+ * Client message streams serving request-response calls from {@link ResponseCache}: idempotent
+ * calls of cached methods are answered from cache without network round trip, otherwise their
+ * responses are cached. Responses with metadata are not cached.
+ */
+public final class RpcResponseCaching extends RSocketProxy {
+  private final ResponseCache cache;
+  private final Message.Factory messageFactory;
+
+  public RpcResponseCaching(MessageStreams source, ResponseCache cache) {
+    super(Objects.requireNonNull(source, "source"));
+    this.cache = Objects.requireNonNull(cache, "cache");
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  @Override
+  public void requestResponse(Message message, StreamObserver<Message> responseObserver) {
+    ResponseCache c = cache;
+    ResponseCache.Key key;
+    try {
+      key = c.key(message.metadata(), message.data());
+      if (key != null) {
+        ByteBuf cached = c.get(key);
+        if (cached != null) {
+          message.release();
+          responseObserver.onNext(messageFactory.create(cached));
+          responseObserver.onCompleted();
+          return;
+        }
+      }
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      responseObserver.onError(t);
+      return;
+    }
+    if (key == null) {
+      source.requestResponse(message, responseObserver);
+      return;
+    }
+    source.requestResponse(message, new CachingObserver(responseObserver, c, key));
+  }
+
+  static final class CachingObserver implements ClientResponseObserver<Message, Message> {
+    final StreamObserver<Message> observer;
+    final ResponseCache cache;
+    final ResponseCache.Key key;
+
+    CachingObserver(StreamObserver<Message> observer, ResponseCache cache, ResponseCache.Key key) {
+      this.observer = observer;
+      this.cache = cache;
+      this.key = key;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void beforeStart(ClientCallStreamObserver<Message> requestStream) {
+      StreamObserver<Message> o = observer;
+      if (o instanceof ClientResponseObserver) {
+        ((ClientResponseObserver<Message, Message>) o).beforeStart(requestStream);
+      }
+    }
+
+    @Override
+    public void onNext(Message response) {
+      if (!response.hasMetadata()) {
+        try {
+          cache.put(key, response.data());
+        } catch (Throwable t) {
+          response.release();
+          throw t;
+        }
+      }
+      observer.onNext(response);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      observer.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      observer.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Message streams coalescing concurrent identical idempotent request-response calls with {@link
+ * SingleFlight}: call is made once, and its response is shared by all callers. Wraps client
+ * RSocket, or server {@link RpcHandler}.
+ */
+public final class RpcSingleFlight extends RSocketProxy {
+  private final SingleFlight singleFlight;
+  private final Rpc.CallIds callIds;
+  private final Message.Factory messageFactory;
+
+  public RpcSingleFlight(MessageStreams source, SingleFlight singleFlight) {
+    this(source, singleFlight, Rpc.CallIds.empty());
+  }
+
+  /**
+   * @param callIds call IDs of wrapped connection, so calls addressed with call ID are coalesced
+   *     with calls of same service method
+   */
+  public RpcSingleFlight(MessageStreams source, SingleFlight singleFlight, Rpc.CallIds callIds) {
+    super(Objects.requireNonNull(source, "source"));
+    this.singleFlight = Objects.requireNonNull(singleFlight, "singleFlight");
+    this.callIds = Objects.requireNonNull(callIds, "callIds");
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void requestResponse(Message message, StreamObserver<Message> responseObserver) {
+    SingleFlight.Key key;
+    try {
+      key = singleFlight.key(message.metadata(), message.data(), callIds);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      responseObserver.onError(t);
+      return;
+    }
+    if (key == null) {
+      source.requestResponse(message, responseObserver);
+      return;
+    }
+    ObserverListener listener = new ObserverListener(responseObserver);
+    SingleFlight.Flight flight = singleFlight.join(key, listener);
+    if (responseObserver instanceof ClientResponseObserver) {
+      ((ClientResponseObserver<Message, Message>) responseObserver)
+          .beforeStart(new LeavingObserver(flight, listener));
+    }
+    if (!flight.isLeader(listener)) {
+      message.release();
+      return;
+    }
+    source.requestResponse(message, new FlightObserver(flight, messageFactory));
+  }
+
+  static final class ObserverListener implements SingleFlight.Listener {
+    final StreamObserver<Message> observer;
+
+    ObserverListener(StreamObserver<Message> observer) {
+      this.observer = observer;
+    }
+
+    @Override
+    public void onResponse(@Nullable Message response) {
+      StreamObserver<Message> o = observer;
+      if (response != null) {
+        o.onNext(response);
+      }
+      o.onCompleted();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      observer.onError(t);
+    }
+  }
+
+  /*completes flight with outcome of call made by leader*/
+  static final class FlightObserver implements ClientResponseObserver<Message, Message> {
+    final SingleFlight.Flight flight;
+    final Message.Factory messageFactory;
+
+    FlightObserver(SingleFlight.Flight flight, Message.Factory messageFactory) {
+      this.flight = flight;
+      this.messageFactory = messageFactory;
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<Message> requestStream) {
+      flight.onCancel(() -> requestStream.cancel("single-flight call abandoned", null));
+    }
+
+    @Override
+    public void onNext(Message response) {
+      flight.complete(response, messageFactory);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      flight.completeError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      flight.complete(null, messageFactory);
+    }
+  }
+
+  /*cancelling caller leaves flight, call is cancelled once all callers left*/
+  static final class LeavingObserver extends ClientCallStreamObserver<Message> {
+    final SingleFlight.Flight flight;
+    final SingleFlight.Listener listener;
+
+    LeavingObserver(SingleFlight.Flight flight, SingleFlight.Listener listener) {
+      this.flight = flight;
+      this.listener = listener;
+    }
+
+    @Override
+    public void cancel(@Nullable String message, @Nullable Throwable cause) {
+      flight.leave(listener);
+    }
+
+    @Override
+    public boolean isReady() {
+      return false;
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {}
+
+    @Override
+    public void request(int count) {}
+
+    @Override
+    public void setMessageCompression(boolean enable) {}
+
+    @Override
+    public void disableAutoInboundFlowControl() {}
+
+    @Override
+    public void onNext(Message value) {}
+
+    @Override
+    public void onError(Throwable t) {}
+
+    @Override
+    public void onCompleted() {}
+  }
+}
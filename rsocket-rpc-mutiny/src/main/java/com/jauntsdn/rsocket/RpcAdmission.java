@@ -0,0 +1,227 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.Exceptions;
+import io.netty.util.ReferenceCountUtil;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import javax.annotation.Nullable;
+
+/**
+ * Server message streams admitting RPC calls by rank with {@link Admission}: calls over rank's
+ * share of concurrency limit are queued, or rejected with {@link
+ * Exceptions#ADMISSION_REJECT_EXCEPTION} before request is decoded. Wraps server {@link
+ * RpcHandler}.
+ */
+public final class RpcAdmission extends RSocketProxy {
+  private final Admission admission;
+  /*queued calls are started on scheduler of source, if any*/
+  @Nullable private final Executor executor;
+
+  public RpcAdmission(MessageStreams source, Admission admission) {
+    super(Objects.requireNonNull(source, "source"));
+    this.admission = Objects.requireNonNull(admission, "admission");
+    this.executor = source.scheduler().orElse(null);
+  }
+
+  @Override
+  public Uni<Void> fireAndForget(Message message) {
+    return Uni.createFrom().deferred(() -> admitFireAndForget(message));
+  }
+
+  private Uni<Void> admitFireAndForget(Message message) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Uni.createFrom().failure(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return source.fireAndForget(message).onTermination().invoke(a::release);
+    }
+    if (rank == 0) {
+      message.release();
+      return Uni.createFrom().failure(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .chain(
+            () -> {
+              Message m = call.take();
+              return m != null ? source.fireAndForget(m) : Uni.createFrom().voidItem();
+            })
+        .onTermination()
+        .invoke(call::release);
+  }
+
+  @Override
+  public Uni<Message> requestResponse(Message message) {
+    return Uni.createFrom().deferred(() -> admitRequestResponse(message));
+  }
+
+  private Uni<Message> admitRequestResponse(Message message) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Uni.createFrom().failure(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return source.requestResponse(message).onTermination().invoke(a::release);
+    }
+    if (rank == 0) {
+      message.release();
+      return Uni.createFrom().failure(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .chain(
+            () -> {
+              Message m = call.take();
+              return m != null ? source.requestResponse(m) : Uni.createFrom().<Message>nothing();
+            })
+        .onTermination()
+        .invoke(call::release);
+  }
+
+  @Override
+  public Multi<Message> requestStream(Message message) {
+    return Multi.createFrom().deferred(() -> admitRequestStream(message));
+  }
+
+  private Multi<Message> admitRequestStream(Message message) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Multi.createFrom().failure(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return source.requestStream(message).onTermination().invoke(a::release);
+    }
+    if (rank == 0) {
+      message.release();
+      return Multi.createFrom().failure(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .onItem()
+        .transformToMulti(
+            ignored ->
+                Multi.createFrom()
+                    .deferred(
+                        () -> {
+                          Message m = call.take();
+                          return m != null
+                              ? source.requestStream(m)
+                              : Multi.createFrom().<Message>empty();
+                        }))
+        .onTermination()
+        .invoke(call::release);
+  }
+
+  @Override
+  public Multi<Message> requestChannel(Message message, Flow.Publisher<Message> messages) {
+    return Multi.createFrom().deferred(() -> admitRequestChannel(message, messages));
+  }
+
+  private Multi<Message> admitRequestChannel(Message message, Flow.Publisher<Message> messages) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      cancel(messages);
+      return Multi.createFrom().failure(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return RpcAdmission.super
+          .requestChannel(message, messages)
+          .onTermination()
+          .invoke(a::release);
+    }
+    if (rank == 0) {
+      message.release();
+      cancel(messages);
+      return Multi.createFrom().failure(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .onFailure()
+        .invoke(err -> cancel(messages))
+        .onCancellation()
+        .invoke(() -> cancel(messages))
+        .onItem()
+        .transformToMulti(
+            ignored ->
+                Multi.createFrom()
+                    .deferred(
+                        () -> {
+                          Message m = call.take();
+                          if (m == null) {
+                            cancel(messages);
+                            return Multi.createFrom().<Message>empty();
+                          }
+                          return RpcAdmission.super.requestChannel(m, messages);
+                        }))
+        .onTermination()
+        .invoke(call::release);
+  }
+
+  /*inbound messages of channel that is not started are cancelled, received ones are released*/
+  static void cancel(Flow.Publisher<Message> messages) {
+    messages.subscribe(
+        new Flow.Subscriber<Message>() {
+          @Override
+          public void onSubscribe(Flow.Subscription s) {
+            s.cancel();
+          }
+
+          @Override
+          public void onNext(Message message) {
+            message.release();
+          }
+
+          @Override
+          public void onError(Throwable t) {}
+
+          @Override
+          public void onComplete() {}
+        });
+  }
+
+  /*completes once queued call is started, call's message is released on termination*/
+  static Uni<Void> admitted(Admission.Call call, @Nullable Executor executor) {
+    return Uni.createFrom()
+        .emitter(
+            emitter -> {
+              if (!call.enqueue(() -> emitter.complete(null), executor)) {
+                emitter.fail(Exceptions.ADMISSION_REJECT_EXCEPTION);
+              }
+            });
+  }
+}
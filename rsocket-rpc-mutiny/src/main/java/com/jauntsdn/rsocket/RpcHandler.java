@@ -38,6 +38,8 @@ public final class RpcHandler implements MessageStreamsHandler {
       "RpcHandler: no default service because more than 1 service registered";
 
   private final Map<String, RpcService> services;
+  private final Rpc.RpcMetadata.ServiceIndex<RpcService> servicesIndex;
+  private final Rpc.CallIds callIds;
   private final RpcService defaultService;
   private final CompletableFuture<RpcHandler> onClose = new CompletableFuture<>();
   private final Consumer<Throwable> errorConsumer;
@@ -87,14 +89,61 @@ public final class RpcHandler implements MessageStreamsHandler {
           }
         }
     }
+    servicesIndex = Rpc.RpcMetadata.ServiceIndex.create(services);
+    callIds = Rpc.CallIds.empty();
+  }
+
+  private RpcHandler(RpcHandler rpcHandler, Rpc.CallIds callIds) {
+    this.errorConsumer = rpcHandler.errorConsumer;
+    this.services = rpcHandler.services;
+    this.defaultService = rpcHandler.defaultService;
+    this.servicesIndex = rpcHandler.servicesIndex.withCallIds(callIds, rpcHandler.defaultService);
+    this.callIds = callIds;
+  }
+
+  /**
+   * @param callIds call IDs assigned for connection, e.g. decoded from connection setup metadata
+   * @return handler of same services that also serves calls addressed with call IDs. Services are
+   *     shared with this handler
+   */
+  public RpcHandler withCallIds(Rpc.CallIds callIds) {
+    Objects.requireNonNull(callIds, "callIds");
+    return new RpcHandler(this, callIds);
+  }
+
+  /*services decode service and method of call with accessors not aware of call IDs*/
+  static Message expandCallId(Message message, long header, int flags, Rpc.CallIds callIds) {
+    ByteBuf metadata = message.metadata();
+    ByteBuf expanded =
+        Rpc.RpcMetadata.expandCallId(metadata, header, flags, callIds, metadata.alloc());
+    ByteBuf data = message.data().retain();
+    Message expandedMessage;
+    try {
+      expandedMessage = Message.Factory.pooled().create(data, expanded);
+    } catch (Throwable t) {
+      data.release();
+      expanded.release();
+      throw t;
+    }
+    message.release();
+    return expandedMessage;
+  }
+
+  static String serviceName(ByteBuf metadata, long header, int flags) {
+    if (Rpc.RpcMetadata.isCallId(header)) {
+      return "call ID " + Rpc.RpcMetadata.callId(header);
+    }
+    return Rpc.RpcMetadata.service(metadata, header, flags);
   }
 
   @Override
   public Uni<Void> fireAndForget(Message message) {
     try {
-      String serviceName = service(message.metadata());
+      ByteBuf metadata = message.metadata();
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
 
-      if (serviceName.isEmpty()) {
+      if (Rpc.RpcMetadata.isDefaultService(header, flags)) {
         int size = services.size();
         switch (size) {
           case 0:
@@ -108,12 +157,16 @@ public final class RpcHandler implements MessageStreamsHandler {
         }
       }
 
-      RpcService rpcService = services.get(serviceName);
+      RpcService rpcService = servicesIndex.find(metadata, header, flags);
       if (rpcService == null) {
+        String serviceName = serviceName(metadata, header, flags);
         message.release();
         return Uni.createFrom().failure(new RpcException(serviceName));
       }
 
+      if (Rpc.RpcMetadata.isCallId(header)) {
+        message = expandCallId(message, header, flags, callIds);
+      }
       return rpcService.fireAndForget(message);
     } catch (Throwable t) {
       ReferenceCountUtil.safeRelease(message);
@@ -124,9 +177,11 @@ public final class RpcHandler implements MessageStreamsHandler {
   @Override
   public Uni<Message> requestResponse(Message message) {
     try {
-      String serviceName = service(message.metadata());
+      ByteBuf metadata = message.metadata();
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
 
-      if (serviceName.isEmpty()) {
+      if (Rpc.RpcMetadata.isDefaultService(header, flags)) {
         int size = services.size();
         switch (size) {
           case 0:
@@ -140,11 +195,15 @@ public final class RpcHandler implements MessageStreamsHandler {
         }
       }
 
-      RpcService rpcService = services.get(serviceName);
+      RpcService rpcService = servicesIndex.find(metadata, header, flags);
       if (rpcService == null) {
+        String serviceName = serviceName(metadata, header, flags);
         message.release();
         return Uni.createFrom().failure(new RpcException(serviceName));
       }
+      if (Rpc.RpcMetadata.isCallId(header)) {
+        message = expandCallId(message, header, flags, callIds);
+      }
       return rpcService.requestResponse(message);
     } catch (Throwable t) {
       ReferenceCountUtil.safeRelease(message);
@@ -155,9 +214,11 @@ public final class RpcHandler implements MessageStreamsHandler {
   @Override
   public Multi<Message> requestStream(Message message) {
     try {
-      String serviceName = service(message.metadata());
+      ByteBuf metadata = message.metadata();
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
 
-      if (serviceName.isEmpty()) {
+      if (Rpc.RpcMetadata.isDefaultService(header, flags)) {
         int size = services.size();
         switch (size) {
           case 0:
@@ -172,12 +233,16 @@ public final class RpcHandler implements MessageStreamsHandler {
         }
       }
 
-      RpcService rpcService = services.get(serviceName);
+      RpcService rpcService = servicesIndex.find(metadata, header, flags);
       if (rpcService == null) {
+        String serviceName = serviceName(metadata, header, flags);
         message.release();
         return Multi.createFrom().failure(new RpcException(serviceName));
       }
 
+      if (Rpc.RpcMetadata.isCallId(header)) {
+        message = expandCallId(message, header, flags, callIds);
+      }
       return rpcService.requestStream(message);
     } catch (Throwable t) {
       ReferenceCountUtil.safeRelease(message);
@@ -195,9 +260,11 @@ public final class RpcHandler implements MessageStreamsHandler {
   @Override
   public Multi<Message> requestChannel(Message message, Flow.Publisher<Message> messages) {
     try {
-      String serviceName = service(message.metadata());
+      ByteBuf metadata = message.metadata();
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
 
-      if (serviceName.isEmpty()) {
+      if (Rpc.RpcMetadata.isDefaultService(header, flags)) {
         int size = services.size();
         switch (size) {
           case 0:
@@ -212,12 +279,16 @@ public final class RpcHandler implements MessageStreamsHandler {
         }
       }
 
-      RpcService rpcService = services.get(serviceName);
+      RpcService rpcService = servicesIndex.find(metadata, header, flags);
       if (rpcService == null) {
+        String serviceName = serviceName(metadata, header, flags);
         message.release();
         return Multi.createFrom().failure(new RpcException(serviceName));
       }
 
+      if (Rpc.RpcMetadata.isCallId(header)) {
+        message = expandCallId(message, header, flags, callIds);
+      }
       return rpcService.requestChannel(message, messages);
     } catch (Throwable t) {
       ReferenceCountUtil.safeRelease(message);
@@ -259,12 +330,6 @@ public final class RpcHandler implements MessageStreamsHandler {
     return Uni.createFrom().completionStage(onClose).replaceWithVoid();
   }
 
-  static String service(ByteBuf metadata) {
-    long header = Rpc.RpcMetadata.header(metadata);
-    int flags = Rpc.RpcMetadata.flags(header);
-    return Rpc.RpcMetadata.service(metadata, header, flags);
-  }
-
   public static final class Factory implements RpcService.Factory<RpcHandler> {
     private final Consumer<Throwable> errorConsumer;
     private final RpcService.Factory<?>[] serviceFactories;
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.netty.util.ReferenceCountUtil;
+import io.smallrye.mutiny.Uni;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Client message streams hedging idempotent request-response calls with {@link Hedging}: call that
+ * is not answered within method latency is duplicated to most available of hedge targets. First
+ * response is kept, and other call is cancelled. Failed hedged call does not fail original one.
+ */
+public final class RpcHedging extends RSocketProxy {
+  private final List<? extends RSocket> hedgeTargets;
+  private final Hedging hedging;
+  private final Message.Factory messageFactory;
+
+  public RpcHedging(MessageStreams source, List<? extends RSocket> hedgeTargets, Hedging hedging) {
+    super(Objects.requireNonNull(source, "source"));
+    this.hedgeTargets = Objects.requireNonNull(hedgeTargets, "hedgeTargets");
+    this.hedging = Objects.requireNonNull(hedging, "hedging");
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  @Override
+  public Uni<Message> requestResponse(Message message) {
+    return Uni.createFrom().deferred(() -> hedgedRequestResponse(message));
+  }
+
+  private Uni<Message> hedgedRequestResponse(Message message) {
+    Hedging h = hedging;
+    Hedging.Method method;
+    Hedging.Request hedgeRequest;
+    long delayNanos;
+    try {
+      method = h.method(message.metadata());
+      if (method == null) {
+        return source.requestResponse(message);
+      }
+      delayNanos = method.delayNanos();
+      hedgeRequest = delayNanos < 0 ? null : Hedging.Request.of(message, messageFactory);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Uni.createFrom().failure(t);
+    }
+    long start = System.nanoTime();
+    /*latency of original call only, hedged calls would bias hedging delay down*/
+    Uni<Message> response =
+        source
+            .requestResponse(message)
+            .onItem()
+            .invoke(r -> method.record(System.nanoTime() - start));
+    if (hedgeRequest != null) {
+      MessageStreams s = source;
+      List<? extends RSocket> targets = hedgeTargets;
+      Uni<Message> hedged =
+          Uni.createFrom()
+              .voidItem()
+              .onItem()
+              .delayIt()
+              .by(Duration.ofNanos(delayNanos))
+              .onItem()
+              .transformToUni(
+                  ignored -> {
+                    RSocket target = h.select(targets, s);
+                    if (target == null || !h.tryHedge()) {
+                      hedgeRequest.release();
+                      return Uni.createFrom().nothing();
+                    }
+                    Message request = hedgeRequest.take();
+                    if (request == null) {
+                      return Uni.createFrom().nothing();
+                    }
+                    return target
+                        .requestResponse(request)
+                        .onFailure()
+                        .recoverWithUni(Uni.createFrom().nothing());
+                  });
+      AtomicBoolean responded = new AtomicBoolean();
+      response =
+          Uni.combine()
+              .any()
+              .of(firstResponse(response, responded), firstResponse(hedged, responded))
+              .onTermination()
+              .invoke(hedgeRequest::release);
+    }
+    return response;
+  }
+
+  /*response of call that lost race to other call is released instead of being dropped*/
+  private static Uni<Message> firstResponse(Uni<Message> response, AtomicBoolean responded) {
+    return response
+        .onItem()
+        .transformToUni(
+            r -> {
+              if (responded.compareAndSet(false, true)) {
+                return Uni.createFrom().item(r);
+              }
+              r.release();
+              return Uni.createFrom().nothing();
+            });
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import io.smallrye.mutiny.Uni;
+import java.util.Objects;
+
+/**
+ * Client message streams serving request-response calls from {@link ResponseCache}: idempotent
+ * calls of cached methods are answered from cache without network round trip, otherwise their
+ * responses are cached. Responses with metadata are not cached.
+ */
+public final class RpcResponseCaching extends RSocketProxy {
+  private final ResponseCache cache;
+  private final Message.Factory messageFactory;
+
+  public RpcResponseCaching(MessageStreams source, ResponseCache cache) {
+    super(Objects.requireNonNull(source, "source"));
+    this.cache = Objects.requireNonNull(cache, "cache");
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  @Override
+  public Uni<Message> requestResponse(Message message) {
+    return Uni.createFrom().deferred(() -> cachingRequestResponse(message));
+  }
+
+  private Uni<Message> cachingRequestResponse(Message message) {
+    ResponseCache c = cache;
+    ResponseCache.Key key;
+    try {
+      key = c.key(message.metadata(), message.data());
+      if (key != null) {
+        ByteBuf cached = c.get(key);
+        if (cached != null) {
+          message.release();
+          return Uni.createFrom().item(messageFactory.create(cached));
+        }
+      }
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Uni.createFrom().failure(t);
+    }
+    Uni<Message> response = source.requestResponse(message);
+    if (key == null) {
+      return response;
+    }
+    return response
+        .onItem()
+        .invoke(
+            r -> {
+              if (!r.hasMetadata()) {
+                try {
+                  c.put(key, r.data());
+                } catch (Throwable t) {
+                  r.release();
+                  throw t;
+                }
+              }
+            });
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.netty.util.ReferenceCountUtil;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import java.util.Objects;
+
+/**
+ * Message streams coalescing concurrent identical idempotent request-response calls with {@link
+ * SingleFlight}: call is made once, and its response is shared by all callers. Wraps client
+ * RSocket, or server {@link RpcHandler}.
+ */
+public final class RpcSingleFlight extends RSocketProxy {
+  private final SingleFlight singleFlight;
+  private final Rpc.CallIds callIds;
+  private final Message.Factory messageFactory;
+
+  public RpcSingleFlight(MessageStreams source, SingleFlight singleFlight) {
+    this(source, singleFlight, Rpc.CallIds.empty());
+  }
+
+  /**
+   * @param callIds call IDs of wrapped connection, so calls addressed with call ID are coalesced
+   *     with calls of same service method
+   */
+  public RpcSingleFlight(MessageStreams source, SingleFlight singleFlight, Rpc.CallIds callIds) {
+    super(Objects.requireNonNull(source, "source"));
+    this.singleFlight = Objects.requireNonNull(singleFlight, "singleFlight");
+    this.callIds = Objects.requireNonNull(callIds, "callIds");
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  @Override
+  public Uni<Message> requestResponse(Message message) {
+    SingleFlight.Key key;
+    try {
+      key = singleFlight.key(message.metadata(), message.data(), callIds);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Uni.createFrom().failure(t);
+    }
+    if (key == null) {
+      return source.requestResponse(message);
+    }
+    SingleFlight sf = singleFlight;
+    MessageStreams s = source;
+    Message.Factory mf = messageFactory;
+    return Uni.createFrom()
+        .emitter(
+            emitter -> {
+              EmitterListener listener = new EmitterListener(emitter);
+              SingleFlight.Flight flight = sf.join(key, listener);
+              emitter.onTermination(() -> flight.leave(listener));
+              if (!flight.isLeader(listener)) {
+                message.release();
+                return;
+              }
+              Cancellable call =
+                  s.requestResponse(message)
+                      .subscribe()
+                      .with(r -> flight.complete(r, mf), flight::completeError);
+              flight.onCancel(call::cancel);
+            });
+  }
+
+  static final class EmitterListener implements SingleFlight.Listener {
+    final UniEmitter<? super Message> emitter;
+
+    EmitterListener(UniEmitter<? super Message> emitter) {
+      this.emitter = emitter;
+    }
+
+    @Override
+    public void onResponse(Message response) {
+      emitter.complete(response);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      emitter.fail(t);
+    }
+  }
+}
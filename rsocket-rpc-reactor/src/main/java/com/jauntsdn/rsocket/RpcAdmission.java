@@ -0,0 +1,214 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.Exceptions;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Server message streams admitting RPC calls by rank with {@link Admission}: calls over rank's
+ * share of concurrency limit are queued, or rejected with {@link
+ * Exceptions#ADMISSION_REJECT_EXCEPTION} before request is decoded. Wraps server {@link
+ * RpcHandler}.
+ */
+public final class RpcAdmission extends RSocketProxy {
+  private final Admission admission;
+  /*queued calls are started on scheduler of source, if any*/
+  @Nullable private final Executor executor;
+
+  public RpcAdmission(MessageStreams source, Admission admission) {
+    super(Objects.requireNonNull(source, "source"));
+    this.admission = Objects.requireNonNull(admission, "admission");
+    this.executor =
+        source.scheduler().<Executor>map(scheduler -> scheduler::schedule).orElse(null);
+  }
+
+  @Override
+  public Mono<Void> fireAndForget(Message message) {
+    return Mono.defer(() -> admitFireAndForget(message));
+  }
+
+  private Mono<Void> admitFireAndForget(Message message) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Mono.error(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return source.fireAndForget(message).doFinally(signal -> a.release());
+    }
+    if (rank == 0) {
+      message.release();
+      return Mono.error(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .then(
+            Mono.defer(
+                () -> {
+                  Message m = call.take();
+                  return m != null ? source.fireAndForget(m) : Mono.empty();
+                }))
+        .doFinally(signal -> call.release());
+  }
+
+  @Override
+  public Mono<Message> requestResponse(Message message) {
+    return Mono.defer(() -> admitRequestResponse(message));
+  }
+
+  private Mono<Message> admitRequestResponse(Message message) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Mono.error(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return source.requestResponse(message).doFinally(signal -> a.release());
+    }
+    if (rank == 0) {
+      message.release();
+      return Mono.error(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .then(
+            Mono.defer(
+                () -> {
+                  Message m = call.take();
+                  return m != null ? source.requestResponse(m) : Mono.empty();
+                }))
+        .doFinally(signal -> call.release());
+  }
+
+  @Override
+  public Flux<Message> requestStream(Message message) {
+    return Flux.defer(() -> admitRequestStream(message));
+  }
+
+  private Flux<Message> admitRequestStream(Message message) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Flux.error(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return source.requestStream(message).doFinally(signal -> a.release());
+    }
+    if (rank == 0) {
+      message.release();
+      return Flux.error(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .thenMany(
+            Flux.defer(
+                () -> {
+                  Message m = call.take();
+                  return m != null ? source.requestStream(m) : Flux.empty();
+                }))
+        .doFinally(signal -> call.release());
+  }
+
+  @Override
+  public Flux<Message> requestChannel(Message message, Publisher<Message> messages) {
+    return Flux.defer(() -> admitRequestChannel(message, messages));
+  }
+
+  private Flux<Message> admitRequestChannel(Message message, Publisher<Message> messages) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      cancel(messages);
+      return Flux.error(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return super.requestChannel(message, messages).doFinally(signal -> a.release());
+    }
+    if (rank == 0) {
+      message.release();
+      cancel(messages);
+      return Flux.error(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .doOnError(err -> cancel(messages))
+        .doOnCancel(() -> cancel(messages))
+        .thenMany(
+            Flux.defer(
+                () -> {
+                  Message m = call.take();
+                  if (m == null) {
+                    cancel(messages);
+                    return Flux.empty();
+                  }
+                  return super.requestChannel(m, messages);
+                }))
+        .doFinally(signal -> call.release());
+  }
+
+  /*inbound messages of channel that is not started are cancelled, received ones are released*/
+  static void cancel(Publisher<Message> messages) {
+    messages.subscribe(
+        new Subscriber<Message>() {
+          @Override
+          public void onSubscribe(Subscription s) {
+            s.cancel();
+          }
+
+          @Override
+          public void onNext(Message message) {
+            message.release();
+          }
+
+          @Override
+          public void onError(Throwable t) {}
+
+          @Override
+          public void onComplete() {}
+        });
+  }
+
+  /*completes once queued call is started, call's message is released on termination*/
+  static Mono<Void> admitted(Admission.Call call, @Nullable Executor executor) {
+    return Mono.create(
+        sink -> {
+          if (!call.enqueue(sink::success, executor)) {
+            sink.error(Exceptions.ADMISSION_REJECT_EXCEPTION);
+          }
+        });
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.netty.util.ReferenceCountUtil;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import reactor.core.publisher.Mono;
+
+/**
+ * Client message streams hedging idempotent request-response calls with {@link Hedging}: call that
+ * is not answered within method latency is duplicated to most available of hedge targets. First
+ * response is kept, and other call is cancelled. Failed hedged call does not fail original one.
+ */
+public final class RpcHedging extends RSocketProxy {
+  private final List<? extends RSocket> hedgeTargets;
+  private final Hedging hedging;
+  private final Message.Factory messageFactory;
+
+  public RpcHedging(MessageStreams source, List<? extends RSocket> hedgeTargets, Hedging hedging) {
+    super(Objects.requireNonNull(source, "source"));
+    this.hedgeTargets = Objects.requireNonNull(hedgeTargets, "hedgeTargets");
+    this.hedging = Objects.requireNonNull(hedging, "hedging");
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  @Override
+  public Mono<Message> requestResponse(Message message) {
+    return Mono.defer(() -> hedgedRequestResponse(message));
+  }
+
+  private Mono<Message> hedgedRequestResponse(Message message) {
+    Hedging h = hedging;
+    Hedging.Method method;
+    Hedging.Request hedgeRequest;
+    long delayNanos;
+    try {
+      method = h.method(message.metadata());
+      if (method == null) {
+        return source.requestResponse(message);
+      }
+      delayNanos = method.delayNanos();
+      hedgeRequest = delayNanos < 0 ? null : Hedging.Request.of(message, messageFactory);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Mono.error(t);
+    }
+    long start = System.nanoTime();
+    /*latency of original call only, hedged calls would bias hedging delay down*/
+    Mono<Message> response =
+        source.requestResponse(message).doOnNext(r -> method.record(System.nanoTime() - start));
+    if (hedgeRequest != null) {
+      MessageStreams s = source;
+      List<? extends RSocket> targets = hedgeTargets;
+      Mono<Message> hedged =
+          Mono.delay(Duration.ofNanos(delayNanos))
+              .flatMap(
+                  ignored -> {
+                    RSocket target = h.select(targets, s);
+                    if (target == null || !h.tryHedge()) {
+                      hedgeRequest.release();
+                      return Mono.never();
+                    }
+                    Message request = hedgeRequest.take();
+                    if (request == null) {
+                      return Mono.never();
+                    }
+                    return target.requestResponse(request).onErrorResume(err -> Mono.never());
+                  });
+      AtomicBoolean responded = new AtomicBoolean();
+      response =
+          Mono.firstWithSignal(firstResponse(response, responded), firstResponse(hedged, responded))
+              .doFinally(signal -> hedgeRequest.release());
+    }
+    return response;
+  }
+
+  /*response of call that lost race to other call is released instead of being dropped*/
+  private static Mono<Message> firstResponse(Mono<Message> response, AtomicBoolean responded) {
+    return response.flatMap(
+        r -> {
+          if (responded.compareAndSet(false, true)) {
+            return Mono.just(r);
+          }
+          r.release();
+          return Mono.never();
+        });
+  }
+}
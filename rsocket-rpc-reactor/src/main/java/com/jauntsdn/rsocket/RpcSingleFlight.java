@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.netty.util.ReferenceCountUtil;
+import java.util.Objects;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Message streams coalescing concurrent identical idempotent request-response calls with {@link
+ * SingleFlight}: call is made once, and its response is shared by all callers. Wraps client
+ * RSocket, or server {@link RpcHandler}.
+ */
+public final class RpcSingleFlight extends RSocketProxy {
+  private final SingleFlight singleFlight;
+  private final Rpc.CallIds callIds;
+  private final Message.Factory messageFactory;
+
+  public RpcSingleFlight(MessageStreams source, SingleFlight singleFlight) {
+    this(source, singleFlight, Rpc.CallIds.empty());
+  }
+
+  /**
+   * @param callIds call IDs of wrapped connection, so calls addressed with call ID are coalesced
+   *     with calls of same service method
+   */
+  public RpcSingleFlight(MessageStreams source, SingleFlight singleFlight, Rpc.CallIds callIds) {
+    super(Objects.requireNonNull(source, "source"));
+    this.singleFlight = Objects.requireNonNull(singleFlight, "singleFlight");
+    this.callIds = Objects.requireNonNull(callIds, "callIds");
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  @Override
+  public Mono<Message> requestResponse(Message message) {
+    SingleFlight.Key key;
+    try {
+      key = singleFlight.key(message.metadata(), message.data(), callIds);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Mono.error(t);
+    }
+    if (key == null) {
+      return source.requestResponse(message);
+    }
+    SingleFlight sf = singleFlight;
+    MessageStreams s = source;
+    Message.Factory mf = messageFactory;
+    return Mono.create(
+        sink -> {
+          SinkListener listener = new SinkListener(sink);
+          SingleFlight.Flight flight = sf.join(key, listener);
+          sink.onCancel(() -> flight.leave(listener));
+          if (!flight.isLeader(listener)) {
+            message.release();
+            return;
+          }
+          Disposable call =
+              s.requestResponse(message)
+                  .subscribe(
+                      r -> flight.complete(r, mf),
+                      flight::completeError,
+                      () -> flight.complete(null, mf));
+          flight.onCancel(call::dispose);
+        });
+  }
+
+  static final class SinkListener implements SingleFlight.Listener {
+    final MonoSink<Message> sink;
+
+    SinkListener(MonoSink<Message> sink) {
+      this.sink = sink;
+    }
+
+    @Override
+    public void onResponse(Message response) {
+      sink.success(response);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      sink.error(t);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.Exceptions;
+import io.netty.util.ReferenceCountUtil;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Single;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Server message streams admitting RPC calls by rank with {@link Admission}: calls over rank's
+ * share of concurrency limit are queued, or rejected with {@link
+ * Exceptions#ADMISSION_REJECT_EXCEPTION} before request is decoded. Wraps server {@link
+ * RpcHandler}.
+ */
+public final class RpcAdmission extends RSocketProxy {
+  private final Admission admission;
+  /*queued calls are started on scheduler of source, if any*/
+  @Nullable private final Executor executor;
+
+  public RpcAdmission(MessageStreams source, Admission admission) {
+    super(Objects.requireNonNull(source, "source"));
+    this.admission = Objects.requireNonNull(admission, "admission");
+    this.executor =
+        source.scheduler().<Executor>map(scheduler -> scheduler::scheduleDirect).orElse(null);
+  }
+
+  @Override
+  public Completable fireAndForget(Message message) {
+    return Completable.defer(() -> admitFireAndForget(message));
+  }
+
+  private Completable admitFireAndForget(Message message) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Completable.error(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return source.fireAndForget(message).doFinally(a::release);
+    }
+    if (rank == 0) {
+      message.release();
+      return Completable.error(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .andThen(
+            Completable.defer(
+                () -> {
+                  Message m = call.take();
+                  return m != null ? source.fireAndForget(m) : Completable.complete();
+                }))
+        .doFinally(call::release);
+  }
+
+  @Override
+  public Single<Message> requestResponse(Message message) {
+    return Single.defer(() -> admitRequestResponse(message));
+  }
+
+  private Single<Message> admitRequestResponse(Message message) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Single.error(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return source.requestResponse(message).doFinally(a::release);
+    }
+    if (rank == 0) {
+      message.release();
+      return Single.error(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .andThen(
+            Single.defer(
+                () -> {
+                  Message m = call.take();
+                  return m != null ? source.requestResponse(m) : Single.<Message>never();
+                }))
+        .doFinally(call::release);
+  }
+
+  @Override
+  public Flowable<Message> requestStream(Message message) {
+    return Flowable.defer(() -> admitRequestStream(message));
+  }
+
+  private Flowable<Message> admitRequestStream(Message message) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Flowable.error(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return source.requestStream(message).doFinally(a::release);
+    }
+    if (rank == 0) {
+      message.release();
+      return Flowable.error(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .andThen(
+            Flowable.defer(
+                () -> {
+                  Message m = call.take();
+                  return m != null ? source.requestStream(m) : Flowable.<Message>empty();
+                }))
+        .doFinally(call::release);
+  }
+
+  @Override
+  public Flowable<Message> requestChannel(Message message, Publisher<Message> messages) {
+    return Flowable.defer(() -> admitRequestChannel(message, messages));
+  }
+
+  private Flowable<Message> admitRequestChannel(Message message, Publisher<Message> messages) {
+    Admission a = admission;
+    int rank;
+    try {
+      rank = a.rank(message.metadata());
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      cancel(messages);
+      return Flowable.error(t);
+    }
+    if (a.tryAcquire(rank)) {
+      return RpcAdmission.super.requestChannel(message, messages).doFinally(a::release);
+    }
+    if (rank == 0) {
+      message.release();
+      cancel(messages);
+      return Flowable.error(Exceptions.ADMISSION_REJECT_EXCEPTION);
+    }
+    Admission.Call call = new Admission.Call(a, rank, message);
+    return admitted(call, executor)
+        .doOnError(err -> cancel(messages))
+        .doOnDispose(() -> cancel(messages))
+        .andThen(
+            Flowable.defer(
+                () -> {
+                  Message m = call.take();
+                  if (m == null) {
+                    cancel(messages);
+                    return Flowable.<Message>empty();
+                  }
+                  return RpcAdmission.super.requestChannel(m, messages);
+                }))
+        .doFinally(call::release);
+  }
+
+  /*inbound messages of channel that is not started are cancelled, received ones are released*/
+  static void cancel(Publisher<Message> messages) {
+    messages.subscribe(
+        new Subscriber<Message>() {
+          @Override
+          public void onSubscribe(Subscription s) {
+            s.cancel();
+          }
+
+          @Override
+          public void onNext(Message message) {
+            message.release();
+          }
+
+          @Override
+          public void onError(Throwable t) {}
+
+          @Override
+          public void onComplete() {}
+        });
+  }
+
+  /*completes once queued call is started, call's message is released on termination*/
+  static Completable admitted(Admission.Call call, @Nullable Executor executor) {
+    return Completable.create(
+        emitter -> {
+          if (!call.enqueue(emitter::onComplete, executor)) {
+            emitter.onError(Exceptions.ADMISSION_REJECT_EXCEPTION);
+          }
+        });
+  }
+}
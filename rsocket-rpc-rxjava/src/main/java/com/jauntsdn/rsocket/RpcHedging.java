@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jauntsdn.rsocket;
+
+import io.netty.util.ReferenceCountUtil;
+import io.reactivex.rxjava3.core.Single;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Client message streams hedging idempotent request-response calls with {@link Hedging}: call that
+ * is not answered within method latency is duplicated to most available of hedge targets. First
+ * response is kept, and other call is cancelled. Failed hedged call does not fail original one.
+ */
+public final class RpcHedging extends RSocketProxy {
+  private final List<? extends RSocket> hedgeTargets;
+  private final Hedging hedging;
+  private final Message.Factory messageFactory;
+
+  public RpcHedging(MessageStreams source, List<? extends RSocket> hedgeTargets, Hedging hedging) {
+    super(Objects.requireNonNull(source, "source"));
+    this.hedgeTargets = Objects.requireNonNull(hedgeTargets, "hedgeTargets");
+    this.hedging = Objects.requireNonNull(hedging, "hedging");
+    this.messageFactory = source.messageFactory().orElse(Message.Factory.pooled());
+  }
+
+  @Override
+  public Single<Message> requestResponse(Message message) {
+    return Single.defer(() -> hedgedRequestResponse(message));
+  }
+
+  private Single<Message> hedgedRequestResponse(Message message) {
+    Hedging h = hedging;
+    Hedging.Method method;
+    Hedging.Request hedgeRequest;
+    long delayNanos;
+    try {
+      method = h.method(message.metadata());
+      if (method == null) {
+        return source.requestResponse(message);
+      }
+      delayNanos = method.delayNanos();
+      hedgeRequest = delayNanos < 0 ? null : Hedging.Request.of(message, messageFactory);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Single.error(t);
+    }
+    long start = System.nanoTime();
+    /*latency of original call only, hedged calls would bias hedging delay down*/
+    Single<Message> response =
+        source.requestResponse(message).doOnSuccess(r -> method.record(System.nanoTime() - start));
+    if (hedgeRequest != null) {
+      MessageStreams s = source;
+      List<? extends RSocket> targets = hedgeTargets;
+      Single<Message> hedged =
+          Single.timer(delayNanos, TimeUnit.NANOSECONDS)
+              .flatMap(
+                  ignored -> {
+                    RSocket target = h.select(targets, s);
+                    if (target == null || !h.tryHedge()) {
+                      hedgeRequest.release();
+                      return Single.never();
+                    }
+                    Message request = hedgeRequest.take();
+                    if (request == null) {
+                      return Single.never();
+                    }
+                    return target.requestResponse(request).onErrorResumeNext(err -> Single.never());
+                  });
+      AtomicBoolean responded = new AtomicBoolean();
+      response =
+          Single.ambArray(firstResponse(response, responded), firstResponse(hedged, responded))
+              .doFinally(hedgeRequest::release);
+    }
+    return response;
+  }
+
+  /*response of call that lost race to other call is released instead of being dropped*/
+  private static Single<Message> firstResponse(Single<Message> response, AtomicBoolean responded) {
+    return response.flatMap(
+        r -> {
+          if (responded.compareAndSet(false, true)) {
+            return Single.just(r);
+          }
+          r.release();
+          return Single.never();
+        });
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.RejectedException;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.core.Single;
+import java.util.Objects;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import org.reactivestreams.Publisher;
+
+/**
+ * RSocket over pool of RSockets: each request is sent with member selected by {@link LoadBalancer}.
+ * Members are managed with {@link #loadBalancer()}.
+ */
+public final class LoadBalancedRSocket implements RSocket {
+  static final String NO_AVAILABLE_RSOCKET = "load balancer has no available RSocket";
+
+  private final LoadBalancer<RSocket> loadBalancer;
+
+  public LoadBalancedRSocket(LoadBalancer<RSocket> loadBalancer) {
+    this.loadBalancer = Objects.requireNonNull(loadBalancer, "loadBalancer");
+  }
+
+  public LoadBalancer<RSocket> loadBalancer() {
+    return loadBalancer;
+  }
+
+  @Override
+  public Completable fireAndForget(Message message) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Completable.error(t);
+    }
+    if (member == null) {
+      message.release();
+      return Completable.error(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return member.target().fireAndForget(message);
+  }
+
+  @Override
+  public Single<Message> requestResponse(Message message) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Single.error(t);
+    }
+    if (member == null) {
+      message.release();
+      return Single.error(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return Single.defer(
+        () -> {
+          long start = member.start();
+          return member
+              .target()
+              .requestResponse(message)
+              .doOnSuccess(response -> member.record(start))
+              .doOnError(err -> member.recordFailure(start))
+              .doFinally(member::stop);
+        });
+  }
+
+  @Override
+  public Flowable<Message> requestStream(Message message) {
+    LoadBalancer.Member<RSocket> member;
+    try {
+      member = select(message);
+    } catch (Throwable t) {
+      ReferenceCountUtil.safeRelease(message);
+      return Flowable.error(t);
+    }
+    if (member == null) {
+      message.release();
+      return Flowable.error(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return Flowable.defer(
+        () -> {
+          member.start();
+          return member.target().requestStream(message).doFinally(member::stop);
+        });
+  }
+
+  @Override
+  public Flowable<Message> requestChannel(Publisher<Message> messages) {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    if (member == null) {
+      return Flowable.error(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return Flowable.defer(
+        () -> {
+          member.start();
+          return member.target().requestChannel(messages).doFinally(member::stop);
+        });
+  }
+
+  @Override
+  public Completable metadataPush(Message message) {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    if (member == null) {
+      message.release();
+      return Completable.error(new RejectedException(NO_AVAILABLE_RSOCKET));
+    }
+    return member.target().metadataPush(message);
+  }
+
+  @Override
+  public Optional<Message.Factory> messageFactory() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.messageFactory();
+  }
+
+  @Override
+  public Optional<Scheduler> scheduler() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.scheduler();
+  }
+
+  @Override
+  public Optional<Scheduler> coarseScheduler() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.coarseScheduler();
+  }
+
+  @Override
+  public Optional<ByteBufAllocator> allocator() {
+    RSocket rSocket = any();
+    return rSocket == null ? Optional.empty() : rSocket.allocator();
+  }
+
+  @Override
+  public double availability(int rank) {
+    return loadBalancer.availability(rank);
+  }
+
+  @Override
+  public void dispose() {
+    for (RSocket rSocket : loadBalancer.close()) {
+      rSocket.dispose();
+    }
+  }
+
+  @Override
+  public void dispose(String reason, boolean isGraceful) {
+    for (RSocket rSocket : loadBalancer.close()) {
+      rSocket.dispose(reason, isGraceful);
+    }
+  }
+
+  @Override
+  public boolean isDisposed() {
+    return loadBalancer.isClosed();
+  }
+
+  @Override
+  public Completable onClose() {
+    return Completable.fromCompletionStage(loadBalancer.onClose());
+  }
+
+  @Nullable
+  private LoadBalancer.Member<RSocket> select(Message message) {
+    LoadBalancer<RSocket> lb = loadBalancer;
+    return lb.select(lb.method(message.hasMetadata() ? message.metadata() : null));
+  }
+
+  @Nullable
+  private RSocket any() {
+    LoadBalancer.Member<RSocket> member = loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+    return member == null ? null : member.target();
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveLeaseTest {
+  static ScheduledExecutorService executor;
+
+  @BeforeAll
+  static void setUp() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @AfterAll
+  static void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void limitFollowsLatency() {
+    AdaptiveLease.Limit limit = new AdaptiveLease.Limit(20, 4, 100, 1.5, 0.2);
+    /*stable latency, limit is used in full: grows up to max*/
+    double previous = limit.limit;
+    for (int i = 0; i < 10; i++) {
+      double next = limit.update(1000, (int) limit.limit);
+      Assertions.assertThat(next).isGreaterThan(previous);
+      previous = next;
+    }
+    for (int i = 0; i < 200; i++) {
+      limit.update(1000, (int) limit.limit);
+    }
+    Assertions.assertThat(limit.limit).isEqualTo(100);
+
+    /*queueing: latency grows, limit shrinks*/
+    previous = limit.limit;
+    for (int i = 0; i < 10; i++) {
+      double next = limit.update(5000, (int) limit.limit);
+      Assertions.assertThat(next).isLessThan(previous);
+      previous = next;
+    }
+    Assertions.assertThat(limit.limit).isLessThan(75);
+
+    /*latency recovers, limit grows*/
+    for (int i = 0; i < 5; i++) {
+      double next = limit.update(1000, (int) limit.limit);
+      Assertions.assertThat(next).isGreaterThan(previous);
+      previous = next;
+    }
+  }
+
+  @Test
+  void limitNotUsedInFull() {
+    AdaptiveLease.Limit limit = new AdaptiveLease.Limit(20, 4, 100, 1.5, 0.2);
+    for (int i = 0; i < 10; i++) {
+      Assertions.assertThat(limit.update(1000, 5)).isEqualTo(20);
+    }
+  }
+
+  @Test
+  void allowedRequests() {
+    AdaptiveLease.Limit limit = new AdaptiveLease.Limit(20, 4, 100, 1.5, 0.2);
+    /*20 concurrent requests of 10 millis each during 1 second*/
+    Assertions.assertThat(limit.allowedRequests(1000, 10_000)).isEqualTo(2000);
+    Assertions.assertThat(limit.allowedRequests(1000, 0)).isEqualTo(20);
+    Assertions.assertThat(limit.allowedRequests(1, 1_000_000)).isEqualTo(4);
+  }
+
+  @Test
+  void publishLeases() {
+    TestController controller = new TestController(500);
+    AdaptiveLease lease = AdaptiveLease.newBuilder().initialLimit(10).build();
+    Optional<Lease.StatsRecorder<?>> recorder = lease.configure(controller);
+    Assertions.assertThat(recorder).isPresent();
+    AdaptiveLease.Limiter limiter = (AdaptiveLease.Limiter) recorder.get();
+
+    limiter.run();
+    Assertions.assertThat(controller.ttls).containsExactly(500);
+    Assertions.assertThat(controller.allowed).containsExactly(10);
+
+    limiter.onRtt(20_000);
+    for (int i = 0; i < 10; i++) {
+      Interaction.Type request =
+          limiter.onRequestStarted(Interaction.Type.REQUEST_RESPONSE, Unpooled.EMPTY_BUFFER);
+      limiter.onResponseStarted(
+          Interaction.Type.REQUEST_RESPONSE,
+          request,
+          Interaction.StreamSignal.Next.INSTANCE,
+          10_000);
+    }
+    for (int i = 0; i < 10; i++) {
+      limiter.onResponseTerminated(
+          Interaction.Type.REQUEST_RESPONSE,
+          Interaction.Type.REQUEST_RESPONSE,
+          Interaction.StreamSignal.Complete.INSTANCE,
+          10_000);
+    }
+    limiter.run();
+    Assertions.assertThat(limiter.inflight.get()).isZero();
+    Assertions.assertThat(controller.ttls).containsExactly(500, 540);
+    /*limit grows: all 10 permits were used*/
+    Assertions.assertThat(controller.allowed.get(1)).isGreaterThan(10 * 540 / 10);
+  }
+
+  @Test
+  void publishLeasesUntilClose() throws Exception {
+    TestController controller = new TestController(10);
+    AdaptiveLease lease = AdaptiveLease.newBuilder().initialLimit(10).build();
+    AdaptiveLease.Limiter limiter = (AdaptiveLease.Limiter) lease.configure(controller).get();
+
+    limiter.onOpen();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (controller.ttls.size() < 3 && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    Assertions.assertThat(controller.ttls.size()).isGreaterThanOrEqualTo(3);
+    Assertions.assertThat(controller.ttls).allMatch(ttl -> ttl == 10);
+    Assertions.assertThat(controller.allowed).allMatch(allowed -> allowed == 10);
+
+    limiter.onClose(0);
+    Assertions.assertThat(limiter.leases.isCancelled()).isTrue();
+    /*lease that was being published on close is completed*/
+    executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+    int published = controller.ttls.size();
+    Thread.sleep(50);
+    Assertions.assertThat(controller.ttls).hasSize(published);
+  }
+
+  static final class TestController implements Lease.Controller {
+    final int rttIntervalMillis;
+    final List<Integer> ttls = new CopyOnWriteArrayList<>();
+    final List<Integer> allowed = new CopyOnWriteArrayList<>();
+
+    TestController(int rttIntervalMillis) {
+      this.rttIntervalMillis = rttIntervalMillis;
+    }
+
+    @Override
+    public void allow(
+        int timeToLiveMillis, int allowedRequests, int rank, @Nullable Lease.Metadata metadata) {
+      ttls.add(timeToLiveMillis);
+      allowed.add(allowedRequests);
+    }
+
+    @Override
+    public ScheduledExecutorService executor() {
+      return executor;
+    }
+
+    @Override
+    public Future<Void> onClose() {
+      return ImmediateEventExecutor.INSTANCE.newPromise();
+    }
+
+    @Override
+    public boolean isEventLoopOnly() {
+      return true;
+    }
+
+    @Override
+    public int rttIntervalMillis() {
+      return rttIntervalMillis;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class AdmissionTest {
+
+  @Test
+  void ranks() {
+    Rpc.CallIds callIds = Rpc.CallIds.newBuilder().add("Service", "sync").build();
+    Admission admission =
+        Admission.newBuilder()
+            .method("Service", "report", 0)
+            .method("Service", "sync", 3)
+            .method("", "defaultGet", 2)
+            .defaultRank(1)
+            .callIds(callIds)
+            .build();
+    Assertions.assertThat(admission.rank(RpcMetadataTest.rpcMetadata("Service", "report", 8)))
+        .isEqualTo(0);
+    Assertions.assertThat(admission.rank(RpcMetadataTest.rpcMetadata("Service", "sync", 0)))
+        .isEqualTo(3);
+    Assertions.assertThat(admission.rank(RpcMetadataTest.rpcMetadata("", "defaultGet", 0)))
+        .isEqualTo(2);
+    Assertions.assertThat(admission.rank(RpcMetadataTest.rpcMetadata("Service", "get", 0)))
+        .isEqualTo(1);
+    Assertions.assertThat(
+            admission.rank(
+                Rpc.RpcMetadata.encodeCallId(
+                    Unpooled.buffer(), callIds.id("Service", "sync"), false, false, 0)))
+        .isEqualTo(3);
+    Assertions.assertThatThrownBy(() -> Admission.newBuilder().method("Service", "get", 4))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void rankShares() {
+    Admission admission = Admission.newBuilder().limit(20).build();
+    for (int i = 0; i < 10; i++) {
+      Assertions.assertThat(admission.tryAcquire(0)).isTrue();
+    }
+    Assertions.assertThat(admission.tryAcquire(0)).isFalse();
+    for (int i = 0; i < 5; i++) {
+      Assertions.assertThat(admission.tryAcquire(1)).isTrue();
+    }
+    Assertions.assertThat(admission.tryAcquire(1)).isFalse();
+    for (int i = 0; i < 3; i++) {
+      Assertions.assertThat(admission.tryAcquire(2)).isTrue();
+    }
+    Assertions.assertThat(admission.tryAcquire(2)).isFalse();
+    for (int i = 0; i < 2; i++) {
+      Assertions.assertThat(admission.tryAcquire(3)).isTrue();
+    }
+    Assertions.assertThat(admission.tryAcquire(3)).isFalse();
+    Assertions.assertThat(admission.inflight()).isEqualTo(20);
+
+    admission.release();
+    Assertions.assertThat(admission.tryAcquire(0)).isFalse();
+    Assertions.assertThat(admission.tryAcquire(3)).isTrue();
+  }
+
+  @Test
+  void queueByRank() {
+    Admission admission = Admission.newBuilder().limit(2).maxQueued(1).build();
+    Assertions.assertThat(admission.tryAcquire(3)).isTrue();
+    Assertions.assertThat(admission.tryAcquire(3)).isTrue();
+    List<Integer> started = new ArrayList<>();
+
+    Message rank1Message = message();
+    Admission.Call rank1 = new Admission.Call(admission, 1, rank1Message);
+    Assertions.assertThat(rank1.enqueue(() -> started.add(1))).isTrue();
+    Admission.Call rank3 = new Admission.Call(admission, 3, message());
+    Assertions.assertThat(rank3.enqueue(() -> started.add(3))).isTrue();
+    Message rejectedMessage = message();
+    Admission.Call rejected = new Admission.Call(admission, 3, rejectedMessage);
+    Assertions.assertThat(rejected.enqueue(() -> started.add(-1))).isFalse();
+    rejected.release();
+    Assertions.assertThat(rejectedMessage.refCnt()).isZero();
+    Assertions.assertThat(admission.queued()).isEqualTo(2);
+    /*queued calls are not overtaken*/
+    Assertions.assertThat(admission.tryAcquire(3)).isFalse();
+
+    admission.release();
+    Assertions.assertThat(started).containsExactly(3);
+    Message taken = rank3.take();
+    Assertions.assertThat(taken).isNotNull();
+    Assertions.assertThat(rank3.take()).isNull();
+    taken.release();
+    rank3.release();
+    /*rank 1 share of limit is 1*/
+    Assertions.assertThat(started).containsExactly(3);
+    admission.release();
+    Assertions.assertThat(started).containsExactly(3, 1);
+    rank1.release();
+    Assertions.assertThat(rank1Message.refCnt()).isZero();
+    Assertions.assertThat(admission.inflight()).isZero();
+    Assertions.assertThat(admission.queued()).isZero();
+  }
+
+  @Test
+  void releaseQueuedCall() {
+    Admission admission = Admission.newBuilder().limit(1).build();
+    Assertions.assertThat(admission.tryAcquire(3)).isTrue();
+    Message message = message();
+    Admission.Call call = new Admission.Call(admission, 2, message);
+    Assertions.assertThat(call.enqueue(() -> Assertions.fail("released call is started"))).isTrue();
+
+    /*cancelled while queued*/
+    call.release();
+    Assertions.assertThat(message.refCnt()).isZero();
+    Assertions.assertThat(admission.queued()).isZero();
+    admission.release();
+    Assertions.assertThat(admission.inflight()).isZero();
+    Assertions.assertThat(admission.tryAcquire(0)).isTrue();
+  }
+
+  @Test
+  void startQueuedCallOnExecutor() {
+    Admission admission = Admission.newBuilder().limit(1).build();
+    Assertions.assertThat(admission.tryAcquire(3)).isTrue();
+    List<Runnable> tasks = new ArrayList<>();
+    List<Integer> started = new ArrayList<>();
+    Admission.Call call = new Admission.Call(admission, 2, message());
+    Assertions.assertThat(call.enqueue(() -> started.add(2), tasks::add)).isTrue();
+
+    /*call is not started on releasing thread*/
+    admission.release();
+    Assertions.assertThat(started).isEmpty();
+    Assertions.assertThat(tasks).hasSize(1);
+    Assertions.assertThat(admission.inflight()).isEqualTo(1);
+    tasks.get(0).run();
+    Assertions.assertThat(started).containsExactly(2);
+    call.release();
+    Assertions.assertThat(admission.inflight()).isZero();
+
+    Assertions.assertThat(admission.tryAcquire(3)).isTrue();
+    Admission.Call rejected = new Admission.Call(admission, 2, message());
+    Assertions.assertThat(
+            rejected.enqueue(
+                () -> started.add(-2),
+                task -> {
+                  throw new RejectedExecutionException();
+                }))
+        .isTrue();
+    /*started on releasing thread if executor rejects call*/
+    admission.release();
+    Assertions.assertThat(started).containsExactly(2, -2);
+    rejected.release();
+    Assertions.assertThat(admission.inflight()).isZero();
+  }
+
+  static Message message() {
+    return Message.Factory.unpooled().create(Unpooled.buffer().writeInt(42));
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.SerializationException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.rsocket.rpc.RpcCallMetadata;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class CompressionTest {
+  static final int MAX_LENGTH = 1024 * 1024;
+
+  @ParameterizedTest
+  @ValueSource(strings = {"heap", "direct", "composite"})
+  void compress(String bufferType) {
+    RpcCallMetadata.Builder builder = RpcCallMetadata.newBuilder();
+    for (int i = 0; i < 500; i++) {
+      builder.addNameValues("com.jauntsdn.rsocket.header" + i % 17).addNameValues("value" + i);
+    }
+    ByteBuf payload = Unpooled.wrappedBuffer(builder.build().toByteArray());
+    ByteBuf repeated = Unpooled.wrappedBuffer("ab".repeat(3000).getBytes());
+    ByteBuf[] payloads = {payload, repeated};
+    for (Compression compression : new Compression[] {Compression.fast(), Compression.deflate()}) {
+      for (ByteBuf src : payloads) {
+        ByteBuf compressed = ProtobufMessageTest.buffer(bufferType);
+        ByteBuf decompressed = ProtobufMessageTest.buffer(bufferType);
+        try {
+          ByteBuf source = copy(src, bufferType);
+          try {
+            Assertions.assertThat(compression.compress(source, compressed)).isTrue();
+            Assertions.assertThat(source).isEqualTo(src);
+          } finally {
+            source.release();
+          }
+          Assertions.assertThat(compressed.readableBytes()).isLessThan(src.readableBytes() / 2);
+          Assertions.assertThat(Compression.decompressedLength(compressed))
+              .isEqualTo(src.readableBytes());
+
+          Compression.decompress(compressed, decompressed, MAX_LENGTH);
+          Assertions.assertThat(decompressed).isEqualTo(src);
+        } finally {
+          compressed.release();
+          decompressed.release();
+        }
+      }
+    }
+  }
+
+  @Test
+  void compressBelowThresholdOrIncompressible() {
+    byte[] random = new byte[8192];
+    new Random(42).nextBytes(random);
+    ByteBuf incompressible = Unpooled.wrappedBuffer(random);
+    ByteBuf small = Unpooled.wrappedBuffer(new byte[Compression.DEFAULT_THRESHOLD - 1]);
+    ByteBuf dst = ByteBufAllocator.DEFAULT.buffer();
+    try {
+      for (Compression compression :
+          new Compression[] {Compression.fast(), Compression.deflate()}) {
+        Assertions.assertThat(compression.compress(incompressible, dst)).isFalse();
+        Assertions.assertThat(compression.compress(small, dst)).isFalse();
+        Assertions.assertThat(dst.writerIndex()).isZero();
+      }
+      Assertions.assertThat(Compression.fast(0).compress(small, dst)).isTrue();
+    } finally {
+      dst.release();
+    }
+  }
+
+  @Test
+  void decompressMalformed() {
+    ByteBuf payload = Unpooled.wrappedBuffer("abc".repeat(1000).getBytes());
+    ByteBuf compressed = Unpooled.buffer();
+    Assertions.assertThat(Compression.fast().compress(payload, compressed)).isTrue();
+
+    Assertions.assertThatThrownBy(
+            () -> Compression.decompress(compressed, Unpooled.buffer(), 2999))
+        .isInstanceOf(SerializationException.class);
+
+    ByteBuf truncated = compressed.slice(0, compressed.readableBytes() - 1);
+    Assertions.assertThatThrownBy(
+            () -> Compression.decompress(truncated, Unpooled.buffer(), MAX_LENGTH))
+        .isInstanceOf(SerializationException.class);
+
+    ByteBuf unsupported = compressed.copy().setByte(0, 42);
+    Assertions.assertThatThrownBy(
+            () -> Compression.decompress(unsupported, Unpooled.buffer(), MAX_LENGTH))
+        .isInstanceOf(SerializationException.class);
+
+    ByteBuf deflated = Unpooled.buffer();
+    Assertions.assertThat(Compression.deflate().compress(payload, deflated)).isTrue();
+    ByteBuf corrupted = deflated.copy().setByte(deflated.writerIndex() - 1, 0);
+    Assertions.assertThatThrownBy(
+            () -> Compression.decompress(corrupted, Unpooled.buffer(), MAX_LENGTH))
+        .isInstanceOf(SerializationException.class);
+  }
+
+  @Test
+  void decompressUntrustedLength() {
+    ByteBuf forged =
+        Unpooled.buffer().writeByte(Compression.CODEC_FAST).writeInt(1 << 30).writeZero(16);
+    ByteBuf dst = Unpooled.buffer(16);
+    Assertions.assertThatThrownBy(() -> Compression.decompress(forged, dst, Integer.MAX_VALUE))
+        .isInstanceOf(SerializationException.class);
+    Assertions.assertThat(dst.capacity()).isEqualTo(16);
+
+    ByteBuf payload = Unpooled.wrappedBuffer(new byte[100_000]);
+    ByteBuf compressed = Unpooled.buffer();
+    Assertions.assertThat(Compression.deflate().compress(payload, compressed)).isTrue();
+    Assertions.assertThatThrownBy(
+            () -> Compression.decompress(compressed, dst, payload.readableBytes() - 1))
+        .isInstanceOf(SerializationException.class);
+    Assertions.assertThat(dst.capacity()).isEqualTo(16);
+    Compression.decompress(compressed, dst, payload.readableBytes());
+    Assertions.assertThat(dst).isEqualTo(payload);
+  }
+
+  @Test
+  void callsMessages() {
+    Rpc.ServiceDescriptor.Call call =
+        Rpc.ServiceDescriptor.Call.of("com.acme.Greeter", "hello", () -> null, in -> null)
+            .withCompression(Compression.fast());
+    Rpc.ServiceDescriptor.Call uncompressedCall =
+        Rpc.ServiceDescriptor.Call.of("com.acme.Greeter", "bye", () -> null, in -> null);
+    Compression.Calls calls = Compression.Calls.create(List.of(call, uncompressedCall), MAX_LENGTH);
+    Message.Factory messageFactory = Message.Factory.unpooled();
+    ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+    byte[] content = "hello".repeat(1000).getBytes();
+
+    Assertions.assertThat(calls.find(RpcMetadataTest.rpcMetadata("com.acme.Greeter", "bye", 0)))
+        .isNull();
+    Assertions.assertThat(calls.find(Unpooled.EMPTY_BUFFER)).isNull();
+    ByteBuf metadata = RpcMetadataTest.rpcMetadata("com.acme.Greeter", "hello", 0);
+    Compression compression = calls.find(metadata);
+    Assertions.assertThat(compression).isNotNull();
+
+    Message request = messageFactory.create(Unpooled.wrappedBuffer(content), metadata);
+    Message compressedRequest =
+        calls.compressRequest(request, compression, allocator, messageFactory);
+    Assertions.assertThat(request.refCnt()).isZero();
+    Assertions.assertThat(compressedRequest.data().readableBytes()).isLessThan(content.length);
+    Assertions.assertThat(Compression.Calls.isCompressed(compressedRequest.metadata())).isTrue();
+
+    Message decompressedRequest =
+        calls.decompressRequest(compressedRequest, allocator, messageFactory);
+    Assertions.assertThat(compressedRequest.refCnt()).isZero();
+    Assertions.assertThat(decompressedRequest.data()).isEqualTo(Unpooled.wrappedBuffer(content));
+    Assertions.assertThat(Compression.Calls.isCompressed(decompressedRequest.metadata())).isFalse();
+    Assertions.assertThat(calls.find(decompressedRequest.metadata())).isSameAs(compression);
+    decompressedRequest.release();
+
+    Message response = messageFactory.create(Unpooled.wrappedBuffer(content));
+    Message compressedResponse =
+        calls.compressResponse(response, compression, allocator, messageFactory);
+    Assertions.assertThat(compressedResponse.hasMetadata()).isTrue();
+    Message decompressedResponse =
+        calls.decompressResponse(compressedResponse, allocator, messageFactory);
+    Assertions.assertThat(compressedResponse.refCnt()).isZero();
+    Assertions.assertThat(decompressedResponse.hasMetadata()).isFalse();
+    Assertions.assertThat(decompressedResponse.data()).isEqualTo(Unpooled.wrappedBuffer(content));
+    decompressedResponse.release();
+
+    Message small = messageFactory.create(Unpooled.wrappedBuffer(new byte[16]));
+    Assertions.assertThat(calls.compressResponse(small, compression, allocator, messageFactory))
+        .isSameAs(small);
+    Message withMetadata =
+        messageFactory.create(Unpooled.wrappedBuffer(content), Unpooled.wrappedBuffer(content));
+    Assertions.assertThat(
+            calls.compressResponse(withMetadata, compression, allocator, messageFactory))
+        .isSameAs(withMetadata);
+    Assertions.assertThat(calls.decompressResponse(withMetadata, allocator, messageFactory))
+        .isSameAs(withMetadata);
+    small.release();
+    withMetadata.release();
+  }
+
+  @Test
+  void rpcMetadataFlag() {
+    ByteBuf metadata = Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), 42, false, false, true, 0);
+    int flags = Rpc.RpcMetadata.flags(Rpc.RpcMetadata.header(metadata));
+    Assertions.assertThat(Rpc.RpcMetadata.flagCompressed(flags)).isTrue();
+    Assertions.assertThat(Rpc.RpcMetadata.flagIdempotentCall(flags)).isFalse();
+
+    ByteBuf uncompressed = Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), 42, true, false, 16);
+    flags = Rpc.RpcMetadata.flags(Rpc.RpcMetadata.header(uncompressed));
+    Assertions.assertThat(Rpc.RpcMetadata.flagCompressed(flags)).isFalse();
+
+    ByteBuf content = Unpooled.buffer().writeByte(0);
+    content.writeBytes(uncompressed);
+    Rpc.RpcMetadata.markCompressed(content, 1);
+    long header = Rpc.RpcMetadata.header(content.slice(1, content.readableBytes() - 1));
+    flags = Rpc.RpcMetadata.flags(header);
+    Assertions.assertThat(Rpc.RpcMetadata.flagCompressed(flags)).isTrue();
+    Assertions.assertThat(Rpc.RpcMetadata.flagIdempotentCall(flags)).isTrue();
+    Assertions.assertThat(Rpc.RpcMetadata.callId(header)).isEqualTo(42);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"heap", "direct", "composite"})
+  void compressDictionary(String bufferType) {
+    Random random = new Random(42);
+    Rpc.ServiceDescriptor serviceDescriptor =
+        new Rpc.ServiceDescriptor(
+            Arrays.asList(
+                Rpc.ServiceDescriptor.Call.of(
+                    "Service", "request", RpcCallMetadata::newBuilder, RpcCallMetadata::parseFrom),
+                Rpc.ServiceDescriptor.Call.of(
+                    "Service", "stream", RpcCallMetadata::newBuilder, RpcCallMetadata::parseFrom)));
+    Compression.Dictionary.Trainer trainer =
+        Compression.Dictionary.newTrainer(serviceDescriptor, 100);
+    for (int i = 0; i < 150; i++) {
+      ByteBuf sample = Unpooled.wrappedBuffer(smallMessage(random));
+      Assertions.assertThat(trainer.sample("/Service/request", sample)).isEqualTo(i < 100);
+    }
+    for (int i = 0; i < 50; i++) {
+      trainer.sample("/Service/stream", Unpooled.wrappedBuffer(smallMessage(random)));
+    }
+    Assertions.assertThat(trainer.samples()).isEqualTo(150);
+    Assertions.assertThatThrownBy(() -> trainer.sample("/Service/absent", Unpooled.buffer()))
+        .isInstanceOf(IllegalArgumentException.class);
+
+    Compression.Dictionary dictionary = trainer.train(4096);
+    Assertions.assertThat(dictionary.size()).isPositive().isLessThanOrEqualTo(4096);
+
+    ByteBuf encoded = dictionary.encode(ByteBufAllocator.DEFAULT);
+    Compression.Dictionary decoded;
+    try {
+      decoded = Compression.Dictionary.decode(encoded);
+      Assertions.assertThat(encoded.readableBytes()).isZero();
+    } finally {
+      encoded.release();
+    }
+    Assertions.assertThat(decoded.id()).isEqualTo(dictionary.id());
+
+    Compression compression = Compression.fast(64, dictionary);
+    int dictionaryCompressedSize = 0;
+    int compressedSize = 0;
+    for (int i = 0; i < 20; i++) {
+      byte[] message = smallMessage(random);
+      ByteBuf src = copy(Unpooled.wrappedBuffer(message), bufferType);
+      ByteBuf compressed = ProtobufMessageTest.buffer(bufferType);
+      ByteBuf decompressed = ProtobufMessageTest.buffer(bufferType);
+      try {
+        ByteBuf plain = Unpooled.buffer();
+        compressedSize +=
+            Compression.fast(64).compress(src, plain) ? plain.readableBytes() : message.length;
+        Assertions.assertThat(compression.compress(src, compressed)).isTrue();
+        dictionaryCompressedSize += compressed.readableBytes();
+
+        Compression.decompress(compressed, decompressed, decoded, MAX_LENGTH);
+        Assertions.assertThat(decompressed).isEqualTo(Unpooled.wrappedBuffer(message));
+
+        Assertions.assertThatThrownBy(
+                () -> Compression.decompress(compressed, Unpooled.buffer(), MAX_LENGTH))
+            .isInstanceOf(SerializationException.class);
+        Compression.Dictionary other = Compression.Dictionary.of(new byte[] {1, 2, 3, 4});
+        Assertions.assertThatThrownBy(
+                () -> Compression.decompress(compressed, Unpooled.buffer(), other, MAX_LENGTH))
+            .isInstanceOf(SerializationException.class);
+      } finally {
+        src.release();
+        compressed.release();
+        decompressed.release();
+      }
+    }
+    Assertions.assertThat(dictionaryCompressedSize).isLessThan(compressedSize / 2);
+  }
+
+  @Test
+  void callsDictionaries() {
+    Compression.Dictionary dictionary =
+        Compression.Dictionary.of("com.acme.Greeter/hello".repeat(10).getBytes());
+    Rpc.ServiceDescriptor.Call call =
+        Rpc.ServiceDescriptor.Call.of("com.acme.Greeter", "hello", () -> null, in -> null);
+    Compression.Calls requester =
+        Compression.Calls.create(
+            List.of(call.withCompression(Compression.fast(0, dictionary))), MAX_LENGTH);
+    Compression.Calls responder = Compression.Calls.create(List.of(call), MAX_LENGTH);
+    Assertions.assertThat(requester.hasDictionaries()).isTrue();
+    Assertions.assertThat(responder.hasDictionaries()).isFalse();
+    Message.Factory messageFactory = Message.Factory.unpooled();
+    ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+
+    ByteBuf metadata = RpcMetadataTest.rpcMetadata("com.acme.Greeter", "hello", 0);
+    byte[] content = "com.acme.Greeter/hello".repeat(3).getBytes();
+    Message request = messageFactory.create(Unpooled.wrappedBuffer(content), metadata);
+    Compression compression = requester.find(metadata);
+    Message compressedRequest =
+        requester.compressRequest(request, compression, allocator, messageFactory);
+    Assertions.assertThat(Compression.Calls.isCompressed(compressedRequest.metadata())).isTrue();
+    Assertions.assertThatThrownBy(
+            () -> responder.decompressRequest(compressedRequest, allocator, messageFactory))
+        .isInstanceOf(SerializationException.class);
+
+    ByteBuf dictionaries = requester.encodeDictionaries(allocator);
+    try {
+      Assertions.assertThat(Compression.Calls.isDictionaries(dictionaries)).isTrue();
+      Compression.Calls received = responder.withDictionaries(dictionaries);
+      Message decompressedRequest =
+          received.decompressRequest(compressedRequest, allocator, messageFactory);
+      Assertions.assertThat(decompressedRequest.data()).isEqualTo(Unpooled.wrappedBuffer(content));
+      decompressedRequest.release();
+
+      ByteBuf truncated = dictionaries.slice(0, dictionaries.writerIndex() - 1);
+      Assertions.assertThatThrownBy(() -> responder.withDictionaries(truncated))
+          .isInstanceOf(SerializationException.class);
+      Assertions.assertThatThrownBy(() -> responder.withDictionaries(metadata))
+          .isInstanceOf(SerializationException.class);
+    } finally {
+      dictionaries.release();
+    }
+  }
+
+  @Test
+  void decodeDictionaryMalformed() {
+    ByteBuf encoded =
+        Compression.Dictionary.of("dictionary".getBytes()).encode(ByteBufAllocator.DEFAULT);
+    try {
+      encoded.setByte(encoded.writerIndex() - 1, 0);
+      Assertions.assertThatThrownBy(() -> Compression.Dictionary.decode(encoded))
+          .isInstanceOf(SerializationException.class);
+      Assertions.assertThatThrownBy(
+              () -> Compression.Dictionary.decode(encoded.slice(0, encoded.writerIndex() - 1)))
+          .isInstanceOf(SerializationException.class);
+    } finally {
+      encoded.release();
+    }
+  }
+
+  /*request headers alike message of 200 - 300 bytes*/
+  static byte[] smallMessage(Random random) {
+    return RpcCallMetadata.newBuilder()
+        .addNameValues("x-request-id")
+        .addNameValues(new UUID(random.nextLong(), random.nextLong()).toString())
+        .addNameValues("user-agent")
+        .addNameValues("rsocket-jvm/1." + random.nextInt(10) + " (linux; amd64)")
+        .addNameValues("content-type")
+        .addNameValues("application/protobuf")
+        .addNameValues("x-datacenter")
+        .addNameValues(random.nextBoolean() ? "eu-west-1" : "us-east-2")
+        .addNameValues("x-tenant")
+        .addNameValues("tenant-" + random.nextInt(1000))
+        .addNameValues("authorization")
+        .addNameValues("Bearer " + Long.toHexString(random.nextLong()))
+        .addNameValues("accept-encoding")
+        .addNameValues("application/protobuf, application/json")
+        .build()
+        .toByteArray();
+  }
+
+  static ByteBuf copy(ByteBuf src, String bufferType) {
+    ByteBuf buffer = ProtobufMessageTest.buffer(bufferType);
+    buffer.writeBytes(src, src.readerIndex(), src.readableBytes());
+    return buffer;
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.AsciiString;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HeadersMetadataTest {
+
+  @Test
+  void compressedHeaders() {
+    HeadersMetadata.Encoder encoder = HeadersMetadata.Encoder.create(4, 4096);
+    HeadersMetadata.Decoder decoder = HeadersMetadata.Decoder.create(4, 4096);
+
+    List<String> headers =
+        Arrays.asList(
+            "traceparent", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01",
+            "tenant", "acme",
+            "authorization", "bearer token");
+    int plainSize = HeadersMetadata.sizeOf(headers);
+    List<AsciiString> previous = null;
+    for (int i = 0; i < 3; i++) {
+      ByteBuf metadata = encoder.encode(ByteBufAllocator.DEFAULT, headers);
+      try {
+        int size = metadata.readableBytes();
+        if (i == 0) {
+          Assertions.assertThat(size).isLessThan(plainSize);
+        } else {
+          /*table state and 3 indexed headers*/
+          Assertions.assertThat(size).isEqualTo(2 * Integer.BYTES + 3 * Integer.BYTES);
+        }
+        List<AsciiString> decoded = decoder.decode(metadata);
+        Assertions.assertThat(metadata.isReadable()).isFalse();
+        assertHeaders(decoded, headers);
+        if (previous != null) {
+          for (int j = 0; j < decoded.size(); j++) {
+            Assertions.assertThat((Object) decoded.get(j)).isSameAs(previous.get(j));
+          }
+        }
+        previous = decoded;
+      } finally {
+        metadata.release();
+      }
+    }
+  }
+
+  @Test
+  void compressedHeadersEviction() {
+    HeadersMetadata.Encoder encoder = HeadersMetadata.Encoder.create(2, 4096);
+    HeadersMetadata.Decoder decoder = HeadersMetadata.Decoder.create(2, 4096);
+    for (int i = 0; i < 100; i++) {
+      List<String> headers =
+          Arrays.asList(
+              "name" + i % 3, "value" + i % 5, "name" + i % 7, "value", "tracestate", "s" + i);
+      ByteBuf metadata = encoder.encode(ByteBufAllocator.DEFAULT, headers);
+      try {
+        assertHeaders(decoder.decode(metadata), headers);
+      } finally {
+        metadata.release();
+      }
+    }
+  }
+
+  @Test
+  void compressedHeadersDroppedMessage() {
+    HeadersMetadata.Encoder encoder = HeadersMetadata.Encoder.create();
+    HeadersMetadata.Decoder decoder = HeadersMetadata.Decoder.create();
+    List<String> headers = Arrays.asList("authorization", "bearer alice", "tenant", "acme");
+    List<String> dropped = Arrays.asList("authorization", "bearer bob", "tenant", "acme");
+
+    ByteBuf metadata = encoder.encode(ByteBufAllocator.DEFAULT, headers);
+    try {
+      assertHeaders(decoder.decode(metadata), headers);
+    } finally {
+      metadata.release();
+    }
+    /*encoded, but never decoded by peer*/
+    encoder.encode(ByteBufAllocator.DEFAULT, dropped).release();
+
+    ByteBuf outOfSync = encoder.encode(ByteBufAllocator.DEFAULT, dropped);
+    try {
+      Assertions.assertThatThrownBy(() -> decoder.decode(outOfSync))
+          .isInstanceOf(IllegalStateException.class);
+    } finally {
+      outOfSync.release();
+    }
+    /*rejected until encoder is reset*/
+    ByteBuf stillOutOfSync = encoder.encode(ByteBufAllocator.DEFAULT, headers);
+    try {
+      Assertions.assertThatThrownBy(() -> decoder.decode(stillOutOfSync))
+          .isInstanceOf(IllegalStateException.class);
+    } finally {
+      stillOutOfSync.release();
+    }
+
+    encoder.reset();
+    for (List<String> h : Arrays.asList(dropped, headers, dropped)) {
+      ByteBuf resynced = encoder.encode(ByteBufAllocator.DEFAULT, h);
+      try {
+        assertHeaders(decoder.decode(resynced), h);
+      } finally {
+        resynced.release();
+      }
+    }
+  }
+
+  @Test
+  void compressedHeadersResetRequest() {
+    HeadersMetadata.Encoder encoder = HeadersMetadata.Encoder.create();
+    HeadersMetadata.Decoder decoder = HeadersMetadata.Decoder.create();
+    List<String> headers = Arrays.asList("authorization", "bearer alice", "tenant", "acme");
+
+    ByteBuf metadata = encoder.encode(ByteBufAllocator.DEFAULT, headers);
+    try {
+      assertHeaders(decoder.decode(metadata), headers);
+    } finally {
+      metadata.release();
+    }
+    Assertions.assertThat(decoder.isSynced()).isTrue();
+    Assertions.assertThatThrownBy(decoder::resetRequest).isInstanceOf(IllegalStateException.class);
+
+    /*dropped twice: decoder requests reset for each rejected message*/
+    List<ByteBuf> resetRequests = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      encoder.encode(ByteBufAllocator.DEFAULT, Arrays.asList("tenant", "t" + i)).release();
+      ByteBuf outOfSync = encoder.encode(ByteBufAllocator.DEFAULT, headers);
+      try {
+        Assertions.assertThatThrownBy(() -> decoder.decode(outOfSync))
+            .isInstanceOf(IllegalStateException.class);
+      } finally {
+        outOfSync.release();
+      }
+      Assertions.assertThat(decoder.isSynced()).isFalse();
+      resetRequests.add(decoder.resetRequest());
+    }
+    /*encoder is reset once*/
+    Assertions.assertThat(encoder.onResetRequest(resetRequests.get(0))).isTrue();
+    Assertions.assertThat(encoder.onResetRequest(resetRequests.get(1))).isFalse();
+
+    /*reset message is dropped as well: next message is rejected and encoder is reset again*/
+    encoder.encode(ByteBufAllocator.DEFAULT, headers).release();
+    ByteBuf outOfSync = encoder.encode(ByteBufAllocator.DEFAULT, headers);
+    try {
+      Assertions.assertThatThrownBy(() -> decoder.decode(outOfSync))
+          .isInstanceOf(IllegalStateException.class);
+    } finally {
+      outOfSync.release();
+    }
+    Assertions.assertThat(encoder.onResetRequest(decoder.resetRequest())).isTrue();
+
+    for (int i = 0; i < 3; i++) {
+      ByteBuf resynced = encoder.encode(ByteBufAllocator.DEFAULT, headers);
+      try {
+        assertHeaders(decoder.decode(resynced), headers);
+      } finally {
+        resynced.release();
+      }
+    }
+    Assertions.assertThat(decoder.isSynced()).isTrue();
+  }
+
+  @Test
+  void compressedHeadersPlainDecode() {
+    HeadersMetadata.Encoder encoder = HeadersMetadata.Encoder.create();
+    ByteBuf metadata =
+        encoder.encode(ByteBufAllocator.DEFAULT, Arrays.asList("tenant", "acme", "k", "v"));
+    try {
+      Assertions.assertThatThrownBy(() -> HeadersMetadata.decode(metadata))
+          .isInstanceOf(IllegalArgumentException.class);
+      Assertions.assertThatThrownBy(() -> HeadersMetadata.decodeAscii(metadata))
+          .isInstanceOf(IllegalArgumentException.class);
+    } finally {
+      metadata.release();
+    }
+  }
+
+  @Test
+  void plainHeaders() {
+    HeadersMetadata.Decoder decoder = HeadersMetadata.Decoder.create();
+    List<String> headers = Arrays.asList("name", "value", "k".repeat(200), "v".repeat(1000));
+    ByteBuf metadata = HeadersMetadata.encode(headers);
+    try {
+      assertHeaders(decoder.decode(metadata), headers);
+    } finally {
+      metadata.release();
+    }
+  }
+
+  @Test
+  void projectedHeaders() {
+    String longName = "x-forwarded-for-client-address";
+    String longValue = "v".repeat(1000);
+    List<String> headers =
+        Arrays.asList(
+            "name",
+            "value",
+            "nbme",
+            "value",
+            longName,
+            longValue,
+            "k".repeat(200),
+            "value",
+            longName.replace('-', '_'),
+            "value");
+    assertProjected(headers, HeadersMetadata.Projection.all(), headers);
+    assertProjected(headers, HeadersMetadata.Projection.none(), List.of());
+    assertProjected(
+        headers, HeadersMetadata.Projection.of(List.of("nbme")), List.of("nbme", "value"));
+    assertProjected(
+        headers,
+        HeadersMetadata.Projection.of(List.of("name", longName, "absent", "k".repeat(200))),
+        List.of("name", "value", longName, longValue, "k".repeat(200), "value"));
+  }
+
+  static void assertProjected(
+      List<String> headers, HeadersMetadata.Projection projection, List<String> expected) {
+    ByteBuf metadata = HeadersMetadata.encode(headers);
+    Iterator<String> decoded = HeadersMetadata.decode(metadata, projection);
+    List<String> actual = new ArrayList<>();
+    while (decoded.hasNext()) {
+      actual.add(decoded.next());
+    }
+    if (metadata.refCnt() > 0) {
+      metadata.release();
+    }
+    Assertions.assertThat(actual).isEqualTo(expected);
+  }
+
+  static void assertHeaders(List<AsciiString> actual, List<String> expected) {
+    List<String> actualStrings = new ArrayList<>(actual.size());
+    for (AsciiString header : actual) {
+      actualStrings.add(header.toString());
+    }
+    Assertions.assertThat(actualStrings).isEqualTo(expected);
+  }
+}
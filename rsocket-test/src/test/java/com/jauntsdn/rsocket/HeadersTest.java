@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.IllegalReferenceCountException;
+import java.util.ArrayList;
+import java.util.List;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class HeadersTest {
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 4, 8, 9, 32})
+  void headersLookup(int count) {
+    Headers.Builder builder = Headers.newBuilder(count);
+    for (int i = 0; i < count; i++) {
+      builder.add("name" + i % 5, "value" + i);
+    }
+    Headers headers = builder.build();
+    ByteBuf metadata = Rpc.ProtoMetadata.encodeHeaders(headers);
+    Headers lazyHeaders = Rpc.ProtoMetadata.decodeHeadersLazy(metadata.duplicate());
+
+    for (Headers h : List.of(headers, lazyHeaders)) {
+      for (int n = 0; n < 6; n++) {
+        String name = "name" + n;
+        List<String> expected = new ArrayList<>();
+        for (int i = n; i < count; i += 5) {
+          if (n < 5) {
+            expected.add("value" + i);
+          }
+        }
+        Assertions.assertThat(h.header(name))
+            .isEqualTo(expected.isEmpty() ? null : expected.get(0));
+        Assertions.assertThat(h.headers(name)).isEqualTo(expected);
+        List<String> visited = new ArrayList<>();
+        h.forEachHeader(name, visited::add);
+        Assertions.assertThat(visited).isEqualTo(expected);
+      }
+    }
+  }
+
+  @Test
+  void lazyHeadersKeyIndex() {
+    List<String> keyValues = new ArrayList<>();
+    for (int i = 0; i < 32; i++) {
+      keyValues.add("name" + i % 5);
+      keyValues.add("value" + i);
+    }
+    Headers headers = Headers.create(keyValues.toArray(new String[0]));
+    ByteBuf metadata = Rpc.ProtoMetadata.encodeHeaders(headers);
+    Headers.BufferKeyValues bufferKeyValues =
+        new Headers.BufferKeyValues(metadata, metadata.readerIndex(), metadata.readableBytes());
+
+    for (int i = 0; i < keyValues.size(); i += 2) {
+      Assertions.assertThat(bufferKeyValues.keyHash(i)).isEqualTo(keyValues.get(i).hashCode());
+    }
+    Headers.KeyIndex bufferIndex = Headers.KeyIndex.create(bufferKeyValues);
+    Headers.KeyIndex index = Headers.KeyIndex.create(keyValues);
+    Assertions.assertThat(bufferIndex.slots).isEqualTo(index.slots);
+    Assertions.assertThat(bufferIndex.next).isEqualTo(index.next);
+    Assertions.assertThat(bufferIndex.first(bufferKeyValues, "name3"))
+        .isEqualTo(index.first(keyValues, "name3"));
+    Assertions.assertThat(bufferIndex.first(bufferKeyValues, "name5")).isEqualTo(-1);
+    metadata.release();
+  }
+
+  @Test
+  void lazyHeadersReleasedMetadata() {
+    ByteBuf metadata =
+        Rpc.ProtoMetadata.encodeHeaders(Headers.create("name", "value", "other", "value")).copy();
+    Headers headers = Rpc.ProtoMetadata.decodeHeadersLazy(metadata);
+    Assertions.assertThat(headers.header("name")).isEqualTo("value");
+    metadata.release();
+    Assertions.assertThatThrownBy(() -> headers.header("other"))
+        .isInstanceOf(IllegalReferenceCountException.class);
+  }
+}
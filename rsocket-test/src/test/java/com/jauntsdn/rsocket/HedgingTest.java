@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import static com.jauntsdn.rsocket.ResponseCacheTest.idempotent;
+import static com.jauntsdn.rsocket.ResponseCacheTest.utf8;
+
+import io.netty.buffer.ByteBuf;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HedgingTest {
+
+  @Test
+  void hedgedMethods() {
+    Hedging hedging =
+        Hedging.newBuilder()
+            .method("com.jauntsdn.Service", "get")
+            .minDelay(Duration.ofMillis(1))
+            .build();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 8));
+    Hedging.Method method = hedging.method(metadata);
+    Assertions.assertThat(method).isNotNull();
+    Assertions.assertThat(method.serviceCall()).isEqualTo("com.jauntsdn.Service/get");
+    Assertions.assertThat(
+            hedging.method(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 0)))
+        .isNull();
+    Assertions.assertThat(
+            hedging.method(
+                idempotent(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "put", 0))))
+        .isNull();
+
+    /*latency is not known*/
+    Assertions.assertThat(method.delayNanos()).isEqualTo(-1);
+    hedging.serviceCallLatency("com.jauntsdn.Service/get", 200);
+    Assertions.assertThat(method.delayNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(1));
+    hedging.serviceCallLatency("com.jauntsdn.Service/get", 5_000);
+    Assertions.assertThat(method.delayNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(5));
+    hedging.serviceCallLatencies(
+        Lease.Metadata.create(2)
+            .serviceCallLatency(Lease.Metadata.serviceCallId("com.jauntsdn.Service/put"), 1_000)
+            .serviceCallLatency(Lease.Metadata.serviceCallId("com.jauntsdn.Service/get"), 7_000));
+    Assertions.assertThat(method.delayNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(7));
+
+    /*observed latency overrides reported one*/
+    for (int i = 0; i < 128; i++) {
+      method.record(TimeUnit.MILLISECONDS.toNanos(i < 120 ? 10 : 100));
+    }
+    Assertions.assertThat(TimeUnit.NANOSECONDS.toMillis(method.delayNanos())).isBetween(100L, 107L);
+    for (int i = 0; i < 4 * 128; i++) {
+      method.record(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+    Assertions.assertThat(TimeUnit.NANOSECONDS.toMillis(method.delayNanos())).isBetween(10L, 11L);
+  }
+
+  @Test
+  void budget() {
+    Hedging hedging = Hedging.newBuilder().method("Service", "get").budget(0.1).build();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("Service", "get", 0));
+    int hedges = 0;
+    for (int i = 0; i < 1000; i++) {
+      hedging.method(metadata);
+      if (hedging.tryHedge()) {
+        hedges++;
+      }
+    }
+    /*burst of initial hedges plus budget of hedgeable calls*/
+    Assertions.assertThat(hedges).isBetween(100, 100 + Hedging.MAX_BUDGET_HEDGES);
+    Assertions.assertThat(hedging.tryHedge()).isFalse();
+  }
+
+  @Test
+  void select() {
+    Hedging hedging = Hedging.newBuilder().method("Service", "get").build();
+    TestAvailability source = new TestAvailability(1.0);
+    TestAvailability unavailable = new TestAvailability(0.1);
+    TestAvailability available = new TestAvailability(0.9);
+    TestAvailability mostAvailable = new TestAvailability(0.95);
+    List<TestAvailability> targets = Arrays.asList(source, unavailable, available, mostAvailable);
+    Assertions.assertThat(hedging.select(targets, source)).isSameAs(mostAvailable);
+    Assertions.assertThat(hedging.select(Arrays.asList(source, unavailable), source)).isNull();
+  }
+
+  @Test
+  void hedgeRequest() {
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("Service", "get", 0));
+    Message request = Message.Factory.unpooled().create(utf8("request"), metadata);
+    Hedging.Request hedgeRequest = Hedging.Request.of(request, Message.Factory.unpooled());
+    request.release();
+    Message hedge = hedgeRequest.take();
+    Assertions.assertThat(hedge).isNotNull();
+    Assertions.assertThat(hedge.data()).isEqualTo(utf8("request"));
+    Assertions.assertThat(hedge.metadata()).isEqualTo(metadata);
+    Assertions.assertThat(hedgeRequest.take()).isNull();
+    hedgeRequest.release();
+    hedge.release();
+    Assertions.assertThat(metadata.refCnt()).isZero();
+  }
+
+  static final class TestAvailability implements Availability {
+    final double availability;
+
+    TestAvailability(double availability) {
+      this.availability = availability;
+    }
+
+    @Override
+    public double availability() {
+      return availability;
+    }
+
+    @Override
+    public double availability(int rank) {
+      return availability;
+    }
+  }
+}
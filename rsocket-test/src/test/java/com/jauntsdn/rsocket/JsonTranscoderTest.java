@@ -0,0 +1,703 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Label.LABEL_OPTIONAL;
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Label.LABEL_REPEATED;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Duration;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Message;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.Value;
+import com.google.protobuf.WireFormat;
+import com.google.protobuf.util.JsonFormat;
+import com.jauntsdn.rsocket.exceptions.SerializationException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class JsonTranscoderTest {
+  static final String CALL = "/test.Service/call";
+  static final String JSON =
+      "{\"int32Value\":-5,"
+          + "\"int64Value\":\"1234567890123\","
+          + "\"uint32Value\":4294967295,"
+          + "\"uint64Value\":\"18446744073709551615\","
+          + "\"sint32Value\":-7,"
+          + "\"sint64Value\":\"-8\","
+          + "\"fixed32Value\":9,"
+          + "\"fixed64Value\":\"10\","
+          + "\"sfixed32Value\":-11,"
+          + "\"sfixed64Value\":\"-12\","
+          + "\"floatValue\":1.5,"
+          + "\"doubleValue\":2.25,"
+          + "\"boolValue\":true,"
+          + "\"stringValue\":\"a\\\"b\\n\u00e9\\u0001\","
+          + "\"bytesValue\":\"AQIDBA==\","
+          + "\"kind\":\"KIND_A\","
+          + "\"nested\":{\"int32Value\":1},"
+          + "\"packedValues\":[1,2,3],"
+          + "\"names\":[\"x\",\"y\"],"
+          + "\"counts\":{\"a\":\"1\",\"b\":\"2\"},"
+          + "\"samples\":{\"7\":{}},"
+          + "\"timestamp\":\"1970-01-01T00:00:01.500Z\","
+          + "\"duration\":\"-1.500s\","
+          + "\"structValue\":{\"k\":[1.0,\"s\",null,true]},"
+          + "\"wrapped\":\"3\","
+          + "\"children\":[{\"stringValue\":\"c\"},{}]}";
+
+  static Descriptors.Descriptor sampleDescriptor;
+  static Message sample;
+
+  @BeforeAll
+  static void descriptors() throws Exception {
+    DescriptorProtos.DescriptorProto.Builder sample =
+        DescriptorProtos.DescriptorProto.newBuilder()
+            .setName("Sample")
+            .addField(field("int32_value", 1, Type.TYPE_INT32))
+            .addField(field("int64_value", 2, Type.TYPE_INT64))
+            .addField(field("uint32_value", 3, Type.TYPE_UINT32))
+            .addField(field("uint64_value", 4, Type.TYPE_UINT64))
+            .addField(field("sint32_value", 5, Type.TYPE_SINT32))
+            .addField(field("sint64_value", 6, Type.TYPE_SINT64))
+            .addField(field("fixed32_value", 7, Type.TYPE_FIXED32))
+            .addField(field("fixed64_value", 8, Type.TYPE_FIXED64))
+            .addField(field("sfixed32_value", 9, Type.TYPE_SFIXED32))
+            .addField(field("sfixed64_value", 10, Type.TYPE_SFIXED64))
+            .addField(field("float_value", 11, Type.TYPE_FLOAT))
+            .addField(field("double_value", 12, Type.TYPE_DOUBLE))
+            .addField(field("bool_value", 13, Type.TYPE_BOOL))
+            .addField(field("string_value", 14, Type.TYPE_STRING))
+            .addField(field("bytes_value", 15, Type.TYPE_BYTES))
+            .addField(field("kind", 16, Type.TYPE_ENUM).setTypeName(".test.Kind"))
+            .addField(field("nested", 17, Type.TYPE_MESSAGE).setTypeName(".test.Sample"))
+            .addField(field("packed_values", 18, Type.TYPE_INT32).setLabel(LABEL_REPEATED))
+            .addField(field("names", 19, Type.TYPE_STRING).setLabel(LABEL_REPEATED))
+            .addField(
+                field("counts", 20, Type.TYPE_MESSAGE)
+                    .setLabel(LABEL_REPEATED)
+                    .setTypeName(".test.Sample.CountsEntry"))
+            .addField(
+                field("samples", 21, Type.TYPE_MESSAGE)
+                    .setLabel(LABEL_REPEATED)
+                    .setTypeName(".test.Sample.SamplesEntry"))
+            .addField(
+                field("timestamp", 22, Type.TYPE_MESSAGE).setTypeName(".google.protobuf.Timestamp"))
+            .addField(
+                field("duration", 23, Type.TYPE_MESSAGE).setTypeName(".google.protobuf.Duration"))
+            .addField(
+                field("struct_value", 24, Type.TYPE_MESSAGE).setTypeName(".google.protobuf.Struct"))
+            .addField(
+                field("wrapped", 25, Type.TYPE_MESSAGE).setTypeName(".google.protobuf.Int64Value"))
+            .addField(
+                field("children", 26, Type.TYPE_MESSAGE)
+                    .setLabel(LABEL_REPEATED)
+                    .setTypeName(".test.Sample"))
+            .addNestedType(mapEntry("CountsEntry", field("value", 2, Type.TYPE_INT64)))
+            .addNestedType(
+                mapEntry(
+                    "SamplesEntry",
+                    field("value", 2, Type.TYPE_MESSAGE).setTypeName(".test.Sample")));
+
+    DescriptorProtos.FileDescriptorProto file =
+        DescriptorProtos.FileDescriptorProto.newBuilder()
+            .setName("test.proto")
+            .setPackage("test")
+            .setSyntax("proto3")
+            .addDependency("google/protobuf/timestamp.proto")
+            .addDependency("google/protobuf/duration.proto")
+            .addDependency("google/protobuf/struct.proto")
+            .addDependency("google/protobuf/wrappers.proto")
+            .addEnumType(
+                DescriptorProtos.EnumDescriptorProto.newBuilder()
+                    .setName("Kind")
+                    .addValue(enumValue("KIND_UNSPECIFIED", 0))
+                    .addValue(enumValue("KIND_A", 1)))
+            .addMessageType(sample)
+            .build();
+
+    Descriptors.FileDescriptor fileDescriptor =
+        Descriptors.FileDescriptor.buildFrom(
+            file,
+            new Descriptors.FileDescriptor[] {
+              Timestamp.getDescriptor().getFile(),
+              Duration.getDescriptor().getFile(),
+              Struct.getDescriptor().getFile(),
+              Int64Value.getDescriptor().getFile()
+            });
+    sampleDescriptor = fileDescriptor.findMessageTypeByName("Sample");
+    JsonTranscoderTest.sample = sample();
+  }
+
+  @Test
+  void toJson() {
+    JsonTranscoder.Call call = transcoder(false).call(CALL);
+    ByteBuf protobuf = Unpooled.wrappedBuffer(sample.toByteArray());
+    ByteBuf json = ByteBufAllocator.DEFAULT.buffer();
+    try {
+      json.writeByte('_');
+      call.responseToJson(protobuf, json);
+      Assertions.assertThat(json.readByte()).isEqualTo((byte) '_');
+      Assertions.assertThat(json.toString(StandardCharsets.UTF_8)).isEqualTo(JSON);
+      Assertions.assertThat(protobuf.readerIndex()).isEqualTo(0);
+    } finally {
+      json.release();
+    }
+  }
+
+  @Test
+  void toJsonNonCanonical() {
+    JsonTranscoder.Call call = transcoder(false).call(CALL);
+    /*fields are out of order, and singular message field is merged*/
+    ByteBuf protobuf =
+        Unpooled.wrappedBuffer(
+            message().setField(field("string_value"), "s").build().toByteArray(),
+            message()
+                .setField(field("int32_value"), 1)
+                .setField(field("nested"), message().setField(field("int32_value"), 2).build())
+                .build()
+                .toByteArray(),
+            message()
+                .setField(field("nested"), message().setField(field("bool_value"), true).build())
+                .build()
+                .toByteArray());
+    ByteBuf json = ByteBufAllocator.DEFAULT.buffer();
+    try {
+      call.requestToJson(protobuf, json);
+      Assertions.assertThat(json.toString(StandardCharsets.UTF_8))
+          .isEqualTo(
+              "{\"int32Value\":1,"
+                  + "\"stringValue\":\"s\","
+                  + "\"nested\":{\"int32Value\":2,\"boolValue\":true}}");
+    } finally {
+      json.release();
+    }
+  }
+
+  @Test
+  void toJsonPreservingProtoFieldNames() {
+    JsonTranscoder.Call call = transcoder(true).call(CALL);
+    Message message =
+        message()
+            .setField(field("int32_value"), 1)
+            .addRepeatedField(field("packed_values"), 2)
+            .build();
+    ByteBuf json = ByteBufAllocator.DEFAULT.buffer();
+    try {
+      call.responseToJson(Unpooled.wrappedBuffer(message.toByteArray()), json);
+      Assertions.assertThat(json.toString(StandardCharsets.UTF_8))
+          .isEqualTo("{\"int32_value\":1,\"packed_values\":[2]}");
+    } finally {
+      json.release();
+    }
+  }
+
+  @Test
+  void fromJson() throws Exception {
+    JsonTranscoder.Call call = transcoder(false).call(CALL);
+    for (ByteBuf protobuf :
+        new ByteBuf[] {
+          ByteBufAllocator.DEFAULT.heapBuffer(), ByteBufAllocator.DEFAULT.directBuffer()
+        }) {
+      try {
+        call.requestFromJson(Unpooled.copiedBuffer(JSON, StandardCharsets.UTF_8), protobuf);
+        Assertions.assertThat(parse(protobuf)).isEqualTo(sample);
+        /*fields are written in canonical order*/
+        Assertions.assertThat(ByteBufUtil.getBytes(protobuf)).isEqualTo(sample.toByteArray());
+      } finally {
+        protobuf.release();
+      }
+    }
+
+    ByteBuf protobuf;
+    String json =
+        " { \"int32_value\" : \"42\", \"uint64Value\": 1e3 , \"kind\": 1, "
+            + "\"string\\u0056alue\": \"\\ud83d\\ude00\", \"nested\": null, "
+            + "\"doubleValue\": \"NaN\", \"duration\": \"0.000000001s\" } ";
+    protobuf = ByteBufAllocator.DEFAULT.buffer();
+    try {
+      call.responseFromJson(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), protobuf);
+      Assertions.assertThat(parse(protobuf))
+          .isEqualTo(
+              message()
+                  .setField(field("int32_value"), 42)
+                  .setField(field("uint64_value"), 1000L)
+                  .setField(
+                      field("kind"),
+                      sampleDescriptor.getFile().findEnumTypeByName("Kind").findValueByNumber(1))
+                  .setField(field("string_value"), "\ud83d\ude00")
+                  .setField(field("double_value"), Double.NaN)
+                  .setField(field("duration"), Duration.newBuilder().setNanos(1).build())
+                  .build());
+    } finally {
+      protobuf.release();
+    }
+  }
+
+  @Test
+  void fromJsonMalformed() {
+    JsonTranscoder.Call call = transcoder(false).call(CALL);
+    String[] malformed = {
+      "",
+      "{",
+      "{\"int32Value\":1,}",
+      "{\"int32Value\":2147483648}",
+      "{\"int32Value\":1.5}",
+      "{\"unknown\":1}",
+      "{\"kind\":\"KIND_B\"}",
+      "{\"stringValue\":\"\\x\"}",
+      "{\"duration\":\"1\"}",
+      "{} {}"
+    };
+    for (String json : malformed) {
+      ByteBuf protobuf = ByteBufAllocator.DEFAULT.buffer();
+      try {
+        org.junit.jupiter.api.Assertions.assertThrows(
+            SerializationException.class,
+            () ->
+                call.requestFromJson(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), protobuf),
+            json);
+        Assertions.assertThat(protobuf.writerIndex()).isEqualTo(0);
+      } finally {
+        protobuf.release();
+      }
+    }
+  }
+
+  @Test
+  void fromJsonIgnoringUnknownFields() throws Exception {
+    JsonTranscoder.Call call =
+        JsonTranscoder.newBuilder(serviceDescriptor())
+            .ignoringUnknownFields(true)
+            .build()
+            .call(CALL);
+    ByteBuf protobuf = ByteBufAllocator.DEFAULT.buffer();
+    try {
+      call.requestFromJson(
+          Unpooled.copiedBuffer(
+              "{\"unknown\":{\"a\":[1,{},\"b\"]},\"int32Value\":3}", StandardCharsets.UTF_8),
+          protobuf);
+      Assertions.assertThat(parse(protobuf))
+          .isEqualTo(message().setField(field("int32_value"), 3).build());
+    } finally {
+      protobuf.release();
+    }
+  }
+
+  @Test
+  void toJsonMalformed() {
+    JsonTranscoder.Call call = transcoder(false).call(CALL);
+    byte[] bytes = sample.toByteArray();
+    ByteBuf json = ByteBufAllocator.DEFAULT.buffer();
+    try {
+      json.writeByte('_');
+      org.junit.jupiter.api.Assertions.assertThrows(
+          SerializationException.class,
+          () -> call.responseToJson(Unpooled.wrappedBuffer(bytes, 0, bytes.length - 1), json));
+      Assertions.assertThat(json.writerIndex()).isEqualTo(1);
+    } finally {
+      json.release();
+    }
+  }
+
+  @Test
+  void toJsonMalformedLengthAndGroups() throws Exception {
+    JsonTranscoder.Call call = transcoder(false).call(CALL);
+    int stringValue = field("string_value").getNumber();
+    /*negative length of known and unknown fields*/
+    ByteArrayOutputStream knownNegative = new ByteArrayOutputStream();
+    CodedOutputStream output = CodedOutputStream.newInstance(knownNegative);
+    output.writeTag(stringValue, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    output.writeUInt64NoTag(-1);
+    output.flush();
+
+    ByteArrayOutputStream unknownNegative = new ByteArrayOutputStream();
+    output = CodedOutputStream.newInstance(unknownNegative);
+    output.writeTag(1000, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    output.writeUInt64NoTag(-1);
+    output.writeInt32(1, 1);
+    output.flush();
+
+    /*unterminated unknown groups, nested deeper than stack allows for recursive skip*/
+    ByteArrayOutputStream unterminatedGroups = new ByteArrayOutputStream();
+    output = CodedOutputStream.newInstance(unterminatedGroups);
+    for (int i = 0; i < 1_000_000; i++) {
+      output.writeTag(1000, WireFormat.WIRETYPE_START_GROUP);
+    }
+    output.flush();
+
+    for (ByteArrayOutputStream malformed :
+        Arrays.asList(knownNegative, unknownNegative, unterminatedGroups)) {
+      byte[] bytes = malformed.toByteArray();
+      ByteBuf json = ByteBufAllocator.DEFAULT.buffer();
+      try {
+        org.junit.jupiter.api.Assertions.assertThrows(
+            SerializationException.class,
+            () -> call.responseToJson(Unpooled.wrappedBuffer(bytes), json));
+        Assertions.assertThat(json.writerIndex()).isEqualTo(0);
+      } finally {
+        json.release();
+      }
+    }
+
+    /*deeply nested unknown groups are skipped*/
+    ByteArrayOutputStream groups = new ByteArrayOutputStream();
+    output = CodedOutputStream.newInstance(groups);
+    for (int i = 0; i < 1_000_000; i++) {
+      output.writeTag(1000, WireFormat.WIRETYPE_START_GROUP);
+    }
+    for (int i = 0; i < 1_000_000; i++) {
+      output.writeTag(1000, WireFormat.WIRETYPE_END_GROUP);
+    }
+    output.writeInt32(field("int32_value").getNumber(), 1);
+    output.flush();
+    ByteBuf json = ByteBufAllocator.DEFAULT.buffer();
+    try {
+      call.responseToJson(Unpooled.wrappedBuffer(groups.toByteArray()), json);
+      Assertions.assertThat(json.toString(StandardCharsets.UTF_8))
+          .isEqualTo("{\"int32Value\":1}");
+    } finally {
+      json.release();
+    }
+  }
+
+  @Test
+  void differentialJsonFormat() throws Exception {
+    JsonTranscoder.Call call = transcoder(false).call(CALL);
+    JsonFormat.Printer printer = JsonFormat.printer();
+    JsonFormat.Parser parser = JsonFormat.parser();
+    Random random = new Random(42);
+    for (int i = 0; i < 500; i++) {
+      Message message = randomMessage(random, 0);
+
+      ByteBuf json = ByteBufAllocator.DEFAULT.buffer();
+      try {
+        call.responseToJson(Unpooled.wrappedBuffer(message.toByteArray()), json);
+        DynamicMessage.Builder parsed = message();
+        parser.merge(json.toString(StandardCharsets.UTF_8), parsed);
+        Assertions.assertThat(parsed.build()).isEqualTo(message);
+      } finally {
+        json.release();
+      }
+
+      ByteBuf protobuf = ByteBufAllocator.DEFAULT.buffer();
+      try {
+        call.requestFromJson(
+            Unpooled.copiedBuffer(printer.print(message), StandardCharsets.UTF_8), protobuf);
+        Assertions.assertThat(parse(protobuf)).isEqualTo(message);
+      } finally {
+        protobuf.release();
+      }
+    }
+  }
+
+  @Test
+  void duplicateMapKeys() throws Exception {
+    JsonTranscoder.Call call = transcoder(false).call(CALL);
+    Descriptors.Descriptor countsEntry = field("counts").getMessageType();
+    Message message =
+        message()
+            .addRepeatedField(field("counts"), mapEntry(countsEntry, "a", 1L))
+            .addRepeatedField(field("counts"), mapEntry(countsEntry, "b", 2L))
+            .addRepeatedField(field("counts"), mapEntry(countsEntry, "a", 3L))
+            .build();
+    ByteBuf json = ByteBufAllocator.DEFAULT.buffer();
+    try {
+      call.responseToJson(Unpooled.wrappedBuffer(message.toByteArray()), json);
+      /*last value wins*/
+      Assertions.assertThat(json.toString(StandardCharsets.UTF_8))
+          .isEqualTo("{\"counts\":{\"b\":\"2\",\"a\":\"3\"}}");
+    } finally {
+      json.release();
+    }
+
+    String duplicates = "{\"counts\":{\"a\":\"1\",\"b\":\"2\",\"a\":\"3\"}}";
+    DynamicMessage.Builder expected = message();
+    JsonFormat.parser().merge(duplicates, expected);
+    ByteBuf protobuf = ByteBufAllocator.DEFAULT.buffer();
+    try {
+      call.requestFromJson(Unpooled.copiedBuffer(duplicates, StandardCharsets.UTF_8), protobuf);
+      Assertions.assertThat(parse(protobuf)).isEqualTo(expected.build());
+    } finally {
+      protobuf.release();
+    }
+  }
+
+  static Message randomMessage(Random random, int depth) {
+    DynamicMessage.Builder message = message();
+    for (Descriptors.FieldDescriptor field : sampleDescriptor.getFields()) {
+      if (random.nextInt(3) == 0) {
+        continue;
+      }
+      if (field.isMapField()) {
+        Descriptors.Descriptor entry = field.getMessageType();
+        Descriptors.FieldDescriptor key = entry.findFieldByNumber(1);
+        Descriptors.FieldDescriptor value = entry.findFieldByNumber(2);
+        for (int i = random.nextInt(4); i > 0; i--) {
+          Object k =
+              key.getType() == Descriptors.FieldDescriptor.Type.STRING
+                  ? MAP_KEYS[random.nextInt(MAP_KEYS.length)]
+                  : random.nextInt(3) - 1;
+          message.addRepeatedField(field, mapEntry(entry, k, randomValue(random, value, depth)));
+        }
+      } else if (field.isRepeated()) {
+        for (int i = random.nextInt(3) + 1; i > 0; i--) {
+          message.addRepeatedField(field, randomValue(random, field, depth));
+        }
+      } else {
+        message.setField(field, randomValue(random, field, depth));
+      }
+    }
+    return message.build();
+  }
+
+  static final String[] MAP_KEYS = {"a", "b", "\u00e9", "\"q\"", "\\"};
+
+  /*values are not default, so proto3 fields without presence are not dropped on round trip*/
+  static Object randomValue(Random random, Descriptors.FieldDescriptor field, int depth) {
+    switch (field.getType()) {
+      case INT32:
+      case SINT32:
+      case SFIXED32:
+      case UINT32:
+      case FIXED32:
+        return random.nextInt() | 1;
+      case INT64:
+      case SINT64:
+      case SFIXED64:
+      case UINT64:
+      case FIXED64:
+        return random.nextLong() | 1;
+      case FLOAT:
+        return (random.nextInt(1 << 20) + 1) / 64f;
+      case DOUBLE:
+        return random.nextDouble() * 1e6 + 1;
+      case BOOL:
+        return true;
+      case STRING:
+        return randomString(random);
+      case BYTES:
+        {
+          byte[] bytes = new byte[random.nextInt(8) + 1];
+          random.nextBytes(bytes);
+          return ByteString.copyFrom(bytes);
+        }
+      case ENUM:
+        return field.getEnumType().findValueByNumber(1);
+      default:
+        Descriptors.Descriptor type = field.getMessageType();
+        if (type == Timestamp.getDescriptor()) {
+          return Timestamp.newBuilder()
+              .setSeconds(random.nextInt(Integer.MAX_VALUE))
+              .setNanos(random.nextInt(1_000_000_000))
+              .build();
+        }
+        if (type == Duration.getDescriptor()) {
+          long seconds = random.nextInt();
+          int nanos = random.nextInt(1_000_000_000);
+          return Duration.newBuilder()
+              .setSeconds(seconds)
+              .setNanos(seconds < 0 ? -nanos : nanos)
+              .build();
+        }
+        if (type == Struct.getDescriptor()) {
+          Struct.Builder struct = Struct.newBuilder();
+          for (int i = random.nextInt(3); i > 0; i--) {
+            struct.putFields(randomString(random), randomStructValue(random, depth));
+          }
+          return struct.build();
+        }
+        if (type == Int64Value.getDescriptor()) {
+          return Int64Value.of(random.nextLong());
+        }
+        return depth < 2 ? randomMessage(random, depth + 1) : message().build();
+    }
+  }
+
+  static Value randomStructValue(Random random, int depth) {
+    switch (random.nextInt(depth < 2 ? 5 : 4)) {
+      case 0:
+        return Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build();
+      case 1:
+        return Value.newBuilder().setNumberValue(random.nextDouble() * 1e3).build();
+      case 2:
+        return Value.newBuilder().setStringValue(randomString(random)).build();
+      case 3:
+        return Value.newBuilder().setBoolValue(random.nextBoolean()).build();
+      default:
+        ListValue.Builder list = ListValue.newBuilder();
+        for (int i = random.nextInt(3); i > 0; i--) {
+          list.addValues(randomStructValue(random, depth + 1));
+        }
+        return Value.newBuilder().setListValue(list).build();
+    }
+  }
+
+  static String randomString(Random random) {
+    String[] chars = {
+      "a", "Z", "0", " ", "\"", "\\", "/", "\n", "\t", "\u0001", "\u00e9", "\ud83d\ude00"
+    };
+    StringBuilder s = new StringBuilder();
+    for (int i = random.nextInt(6) + 1; i > 0; i--) {
+      s.append(chars[random.nextInt(chars.length)]);
+    }
+    return s.toString();
+  }
+
+  static JsonTranscoder transcoder(boolean preservingProtoFieldNames) {
+    return JsonTranscoder.newBuilder(serviceDescriptor())
+        .preservingProtoFieldNames(preservingProtoFieldNames)
+        .build();
+  }
+
+  static Rpc.ServiceDescriptor serviceDescriptor() {
+    return new Rpc.ServiceDescriptor(
+        Collections.singletonList(
+            Rpc.ServiceDescriptor.Call.of(
+                "test.Service",
+                "call",
+                JsonTranscoderTest::message,
+                in -> DynamicMessage.parseFrom(sampleDescriptor, in))));
+  }
+
+  static Message sample() {
+    Descriptors.Descriptor countsEntry = field("counts").getMessageType();
+    Descriptors.Descriptor samplesEntry = field("samples").getMessageType();
+    return message()
+        .setField(field("int32_value"), -5)
+        .setField(field("int64_value"), 1234567890123L)
+        .setField(field("uint32_value"), -1)
+        .setField(field("uint64_value"), -1L)
+        .setField(field("sint32_value"), -7)
+        .setField(field("sint64_value"), -8L)
+        .setField(field("fixed32_value"), 9)
+        .setField(field("fixed64_value"), 10L)
+        .setField(field("sfixed32_value"), -11)
+        .setField(field("sfixed64_value"), -12L)
+        .setField(field("float_value"), 1.5f)
+        .setField(field("double_value"), 2.25)
+        .setField(field("bool_value"), true)
+        .setField(field("string_value"), "a\"b\n\u00e9\u0001")
+        .setField(field("bytes_value"), ByteString.copyFrom(new byte[] {1, 2, 3, 4}))
+        .setField(field("kind"), field("kind").getEnumType().findValueByName("KIND_A"))
+        .setField(field("nested"), message().setField(field("int32_value"), 1).build())
+        .addRepeatedField(field("packed_values"), 1)
+        .addRepeatedField(field("packed_values"), 2)
+        .addRepeatedField(field("packed_values"), 3)
+        .addRepeatedField(field("names"), "x")
+        .addRepeatedField(field("names"), "y")
+        .addRepeatedField(field("counts"), mapEntry(countsEntry, "a", 1L))
+        .addRepeatedField(field("counts"), mapEntry(countsEntry, "b", 2L))
+        .addRepeatedField(field("samples"), mapEntry(samplesEntry, 7, message().build()))
+        .setField(
+            field("timestamp"), Timestamp.newBuilder().setSeconds(1).setNanos(500_000_000).build())
+        .setField(
+            field("duration"), Duration.newBuilder().setSeconds(-1).setNanos(-500_000_000).build())
+        .setField(
+            field("struct_value"),
+            Struct.newBuilder()
+                .putFields(
+                    "k",
+                    Value.newBuilder()
+                        .setListValue(
+                            ListValue.newBuilder()
+                                .addValues(Value.newBuilder().setNumberValue(1))
+                                .addValues(Value.newBuilder().setStringValue("s"))
+                                .addValues(Value.newBuilder().setNullValue(NullValue.NULL_VALUE))
+                                .addValues(Value.newBuilder().setBoolValue(true)))
+                        .build())
+                .build())
+        .setField(field("wrapped"), Int64Value.of(3))
+        .addRepeatedField(field("children"), message().setField(field("string_value"), "c").build())
+        .addRepeatedField(field("children"), message().build())
+        .build();
+  }
+
+  static Message parse(ByteBuf protobuf) throws Exception {
+    return DynamicMessage.parseFrom(sampleDescriptor, ByteBufUtil.getBytes(protobuf));
+  }
+
+  static DynamicMessage.Builder message() {
+    return DynamicMessage.newBuilder(sampleDescriptor);
+  }
+
+  static Descriptors.FieldDescriptor field(String name) {
+    return sampleDescriptor.findFieldByName(name);
+  }
+
+  static Message mapEntry(Descriptors.Descriptor entry, Object key, Object value) {
+    return DynamicMessage.newBuilder(entry)
+        .setField(entry.findFieldByNumber(1), key)
+        .setField(entry.findFieldByNumber(2), value)
+        .build();
+  }
+
+  static DescriptorProtos.FieldDescriptorProto.Builder field(String name, int number, Type type) {
+    return DescriptorProtos.FieldDescriptorProto.newBuilder()
+        .setName(name)
+        .setNumber(number)
+        .setType(type)
+        .setLabel(LABEL_OPTIONAL)
+        .setJsonName(jsonName(name));
+  }
+
+  static DescriptorProtos.DescriptorProto.Builder mapEntry(
+      String name, DescriptorProtos.FieldDescriptorProto.Builder value) {
+    return DescriptorProtos.DescriptorProto.newBuilder()
+        .setName(name)
+        .addField(field("key", 1, name.startsWith("Counts") ? Type.TYPE_STRING : Type.TYPE_INT32))
+        .addField(value)
+        .setOptions(DescriptorProtos.MessageOptions.newBuilder().setMapEntry(true));
+  }
+
+  static DescriptorProtos.EnumValueDescriptorProto.Builder enumValue(String name, int number) {
+    return DescriptorProtos.EnumValueDescriptorProto.newBuilder().setName(name).setNumber(number);
+  }
+
+  static String jsonName(String name) {
+    StringBuilder jsonName = new StringBuilder(name.length());
+    boolean upper = false;
+    for (char c : name.toCharArray()) {
+      if (c == '_') {
+        upper = true;
+      } else {
+        jsonName.append(upper ? Character.toUpperCase(c) : c);
+        upper = false;
+      }
+    }
+    return jsonName.toString();
+  }
+}
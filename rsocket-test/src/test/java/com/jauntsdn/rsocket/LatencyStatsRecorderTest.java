@@ -0,0 +1,194 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.Unpooled;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyStatsRecorderTest {
+
+  @Test
+  void requestNames() {
+    Rpc.CallIds callIds = Rpc.CallIds.newBuilder().add("Service", "get").build();
+    LatencyStatsRecorder recorder =
+        LatencyStatsRecorder.newBuilder()
+            .method("com.jauntsdn.Service", "get")
+            .method("", "defaultGet")
+            .method("Service", "get")
+            .callIds(callIds)
+            .build();
+    Interaction.Type type = Interaction.Type.REQUEST_RESPONSE;
+    Assertions.assertThat(
+            recorder.onRequestStarted(
+                type, RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 8)))
+        .isEqualTo("com.jauntsdn.Service/get");
+    Assertions.assertThat(
+            recorder.onRequestStarted(type, RpcMetadataTest.rpcMetadata("", "defaultGet", 0)))
+        .isEqualTo("/defaultGet");
+    Assertions.assertThat(
+            recorder.onRequestStarted(
+                type,
+                Rpc.RpcMetadata.encodeCallId(
+                    Unpooled.buffer(), callIds.id("Service", "get"), false, false, 0)))
+        .isEqualTo("Service/get");
+    Assertions.assertThat(
+            recorder.onRequestStarted(
+                type, RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "put", 0)))
+        .isSameAs(LatencyStatsRecorder.UNKNOWN_CALL);
+    Assertions.assertThat(recorder.onRequestStarted(type, Unpooled.wrappedBuffer(new byte[8])))
+        .isSameAs(LatencyStatsRecorder.UNKNOWN_CALL);
+    Assertions.assertThat(recorder.serviceCalls())
+        .containsExactly("com.jauntsdn.Service/get", "/defaultGet", "Service/get");
+  }
+
+  @Test
+  void mergeRecordingThreads() throws Exception {
+    LatencyStatsRecorder recorder =
+        LatencyStatsRecorder.newBuilder().method("Service", "get").method("Service", "put").build();
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Future<?>[] futures = new Future<?>[threads];
+      for (int t = 0; t < threads; t++) {
+        futures[t] =
+            executor.submit(
+                () -> {
+                  for (int i = 1; i <= 1000; i++) {
+                    recorder.onResponseStarted(
+                        Interaction.Type.REQUEST_RESPONSE,
+                        "Service/get",
+                        Interaction.StreamSignal.Next.INSTANCE,
+                        i);
+                  }
+                  /*rejected and cancelled requests are not recorded*/
+                  recorder.onResponseStarted(
+                      Interaction.Type.REQUEST_RESPONSE,
+                      "Service/get",
+                      Interaction.StreamSignal.Complete.INSTANCE,
+                      0);
+                  recorder.onResponseStarted(
+                      Interaction.Type.REQUEST_RESPONSE,
+                      "Service/get",
+                      Interaction.StreamSignal.Cancel.INSTANCE,
+                      1);
+                  recorder.onResponseStarted(
+                      Interaction.Type.REQUEST_RESPONSE,
+                      LatencyStatsRecorder.UNKNOWN_CALL,
+                      Interaction.StreamSignal.Next.INSTANCE,
+                      1);
+                });
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    LatencyStatsRecorder.Snapshot snapshot = recorder.snapshot();
+    Assertions.assertThat(snapshot.count("Service/get")).isEqualTo(4000);
+    Assertions.assertThat(snapshot.count("Service/put")).isZero();
+    Assertions.assertThat(snapshot.p95Micros("Service/get")).isBetween(950, 1010);
+    Assertions.assertThat(snapshot.latencyMicros("Service/get", 0.5)).isBetween(500, 530);
+    Assertions.assertThat(snapshot.p95Micros("Service/put")).isZero();
+
+    Lease.Metadata metadata =
+        snapshot.serviceCallLatencies(
+            Lease.Metadata.create(), Arrays.asList("Service/get", "Service/put"));
+    Assertions.assertThat(metadata.serviceCallCount()).isEqualTo(1);
+    Assertions.assertThat(Lease.Metadata.decodeLatency(metadata.serviceCallLatencies()[0]))
+        .isEqualTo(snapshot.p95Micros("Service/get"));
+
+    /*snapshot covers interval since previous one*/
+    recorder.onResponseStarted(
+        Interaction.Type.REQUEST_RESPONSE,
+        "Service/get",
+        Interaction.StreamSignal.Next.INSTANCE,
+        50_000);
+    LatencyStatsRecorder.Snapshot next = recorder.snapshot();
+    Assertions.assertThat(next.count("Service/get")).isEqualTo(1);
+    Assertions.assertThat(next.p95Micros("Service/get")).isBetween(50_000, 53_125);
+  }
+
+  @Test
+  void topServiceCalls() {
+    LatencyStatsRecorder recorder =
+        LatencyStatsRecorder.newBuilder()
+            .method("Service", "frequent")
+            .method("Service", "slow")
+            .method("Service", "rare")
+            .method("Service", "idle")
+            .build();
+    record(recorder, "Service/frequent", 1000, 100);
+    record(recorder, "Service/slow", 10, 20_000);
+    record(recorder, "Service/rare", 1, 100);
+    LatencyStatsRecorder.Snapshot snapshot = recorder.snapshot();
+
+    Assertions.assertThat(snapshot.aggregateMicros("Service/slow"))
+        .isGreaterThan(snapshot.aggregateMicros("Service/frequent"));
+    Assertions.assertThat(snapshot.aggregateMicros("Service/idle")).isZero();
+    Assertions.assertThat(snapshot.topServiceCalls(10))
+        .containsExactly("Service/slow", "Service/frequent", "Service/rare");
+    Assertions.assertThat(snapshot.topServiceCalls(1)).containsExactly("Service/slow");
+
+    /*rare call is below coverage of aggregate latency*/
+    Lease.Metadata metadata = snapshot.serviceCallLatencies(Lease.Metadata.create(8), 0.99);
+    Assertions.assertThat(metadata.serviceCalls()).isEqualTo(2);
+    Assertions.assertThat(metadata.serviceCallId(0))
+        .isEqualTo(Lease.Metadata.serviceCallId("Service/slow"));
+    Assertions.assertThat(metadata.latencyMicros(0)).isEqualTo(snapshot.p95Micros("Service/slow"));
+    Assertions.assertThat(
+            metadata.serviceCallLatencyMicros(Lease.Metadata.serviceCallId("Service/frequent")))
+        .isEqualTo(snapshot.p95Micros("Service/frequent"));
+
+    Assertions.assertThat(snapshot.serviceCallLatencies(Lease.Metadata.create(1), 1).serviceCalls())
+        .isEqualTo(1);
+    Assertions.assertThat(snapshot.serviceCallLatencies(Lease.Metadata.create(8), 1).serviceCalls())
+        .isEqualTo(3);
+  }
+
+  @Test
+  void latencyBuckets() {
+    long previousUpper = -1;
+    for (int bucket = 0; bucket < LatencyStatsRecorder.BUCKETS; bucket++) {
+      long upper = LatencyStatsRecorder.bucketUpperBound(bucket);
+      Assertions.assertThat(upper).isGreaterThan(previousUpper);
+      Assertions.assertThat(LatencyStatsRecorder.bucket(previousUpper + 1)).isEqualTo(bucket);
+      Assertions.assertThat(LatencyStatsRecorder.bucket(upper)).isEqualTo(bucket);
+      /*relative error bound of log-linear histogram*/
+      Assertions.assertThat(upper - previousUpper - 1).isLessThanOrEqualTo(upper / 16);
+      previousUpper = upper;
+    }
+    Assertions.assertThat(previousUpper).isEqualTo(LatencyStatsRecorder.MAX_VALUE);
+    Assertions.assertThat(LatencyStatsRecorder.bucket(Long.MAX_VALUE))
+        .isEqualTo(LatencyStatsRecorder.BUCKETS - 1);
+  }
+
+  static void record(LatencyStatsRecorder recorder, String serviceCall, int count, long micros) {
+    for (int i = 0; i < count; i++) {
+      recorder.onResponseStarted(
+          Interaction.Type.REQUEST_RESPONSE,
+          serviceCall,
+          Interaction.StreamSignal.Next.INSTANCE,
+          micros);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.jauntsdn.rsocket.exceptions.ApplicationErrorException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.HashSet;
+import java.util.Set;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LeaseMetadataTest {
+
+  @Test
+  void encodeDecode() {
+    Lease.Metadata metadata = Lease.Metadata.create(Lease.Metadata.MAX_SERVICE_CALLS);
+    metadata.allowedFnfRequests(300);
+    for (int i = 0; i < Lease.Metadata.MAX_SERVICE_CALLS; i++) {
+      metadata.serviceCallLatency("com.jauntsdn.Service/method" + i, 1 + i * 1000);
+    }
+    Assertions.assertThatThrownBy(() -> metadata.serviceCallLatency("Service/other", 1))
+        .isInstanceOf(IllegalStateException.class);
+    /*legacy service call latencies*/
+    Assertions.assertThat(metadata.serviceCallCount())
+        .isEqualTo(Lease.Metadata.serviceCallMaxCount());
+
+    ByteBuf encoded = metadata.encode(Unpooled.buffer());
+    /*varint latencies: no more than 12 bytes per service call*/
+    Assertions.assertThat(encoded.readableBytes())
+        .isLessThanOrEqualTo(2 + 1 + 12 * Lease.Metadata.MAX_SERVICE_CALLS);
+    Lease.Metadata decoded = Lease.Metadata.decode(encoded);
+    Assertions.assertThat(encoded.isReadable()).isFalse();
+    Assertions.assertThat(decoded.allowedFnfRequests()).isEqualTo(300);
+    Assertions.assertThat(decoded.serviceCalls()).isEqualTo(Lease.Metadata.MAX_SERVICE_CALLS);
+    for (int i = 0; i < Lease.Metadata.MAX_SERVICE_CALLS; i++) {
+      Assertions.assertThat(decoded.serviceCallId(i))
+          .isEqualTo(Lease.Metadata.serviceCallId("com.jauntsdn.Service/method" + i));
+      Assertions.assertThat(decoded.latencyMicros(i)).isEqualTo(1 + i * 1000);
+    }
+    Assertions.assertThat(
+            decoded.serviceCallLatencyMicros(
+                Lease.Metadata.serviceCallId("com.jauntsdn.Service/method7")))
+        .isEqualTo(7001);
+    Assertions.assertThat(decoded.serviceCallLatencyMicros(Lease.Metadata.serviceCallId("x/y")))
+        .isZero();
+
+    Lease.Metadata empty = Lease.Metadata.decode(Lease.Metadata.create().encode(Unpooled.buffer()));
+    Assertions.assertThat(empty.serviceCalls()).isZero();
+    Assertions.assertThat(empty.allowedFnfRequests()).isZero();
+  }
+
+  @Test
+  void leaseFrameLatencies() {
+    long getId = Lease.Metadata.serviceCallId("com.jauntsdn.Service/get");
+    long putId = Lease.Metadata.serviceCallId("com.jauntsdn.Service/put");
+    Lease.Metadata metadata =
+        Lease.Metadata.create(8)
+            .serviceCallLatency(getId, 1_000)
+            .serviceCallLatency(putId, 2_000)
+            .serviceCallLatency(Lease.Metadata.serviceCallId("com.jauntsdn.Service/delete"), 3_000);
+    /*latencies added by ID are conveyed by lease frame*/
+    Assertions.assertThat(metadata.serviceCallCount())
+        .isEqualTo(Lease.Metadata.serviceCallMaxCount());
+    Assertions.assertThat(metadata.serviceCallLatencies())
+        .containsExactly(
+            Lease.Metadata.encodeServiceCall("com.jauntsdn.Service/get", 1_000),
+            Lease.Metadata.encodeServiceCall("com.jauntsdn.Service/put", 2_000));
+
+    Lease.Metadata received = decodeLeaseFrame(encodeLeaseFrame(metadata));
+    Assertions.assertThat(received.serviceCallCount())
+        .isEqualTo(Lease.Metadata.serviceCallMaxCount());
+    Assertions.assertThat(received.serviceCalls()).isEqualTo(2);
+    Assertions.assertThat(received.serviceCallLatencyMicros(getId)).isEqualTo(1_000);
+    Assertions.assertThat(received.serviceCallLatencyMicros(putId)).isEqualTo(2_000);
+    Assertions.assertThat(
+            received.serviceCallLatencyMicros(
+                Lease.Metadata.serviceCallId("com.jauntsdn.Service/delete")))
+        .isZero();
+  }
+
+  /*service call latencies section of lease frame*/
+  static ByteBuf encodeLeaseFrame(Lease.Metadata metadata) {
+    int count = metadata.serviceCallCount();
+    ByteBuf frame = Unpooled.buffer();
+    frame.writeByte(count);
+    for (int i = 0; i < count; i++) {
+      frame.writeLong(metadata.serviceCallLatencies()[i]);
+    }
+    return frame;
+  }
+
+  static Lease.Metadata decodeLeaseFrame(ByteBuf frame) {
+    Lease.Metadata metadata = Lease.Metadata.create();
+    int count = frame.readUnsignedByte();
+    for (int i = 0; i < count; i++) {
+      metadata.serviceCallLatency(frame.readLong());
+    }
+    return metadata;
+  }
+
+  @Test
+  void decodeMalformed() {
+    ByteBuf encoded =
+        Lease.Metadata.create()
+            .serviceCallLatency("Service/get", 1_000_000)
+            .encode(Unpooled.buffer());
+    for (int length = 0; length < encoded.readableBytes(); length++) {
+      ByteBuf truncated = encoded.slice(0, length);
+      Assertions.assertThatThrownBy(() -> Lease.Metadata.decode(truncated))
+          .isInstanceOf(ApplicationErrorException.class);
+    }
+    /*allowed fire-and-forget requests varint of Integer.MIN_VALUE*/
+    ByteBuf negativeFnf =
+        Unpooled.buffer()
+            .writeBytes(new byte[] {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08})
+            .writeByte(0);
+    Assertions.assertThatThrownBy(() -> Lease.Metadata.decode(negativeFnf))
+        .isInstanceOf(ApplicationErrorException.class);
+  }
+
+  @Test
+  void serviceCallIds() {
+    Set<Long> ids = new HashSet<>();
+    for (int i = 0; i < 100_000; i++) {
+      ids.add(Lease.Metadata.serviceCallId("com.jauntsdn.Service/method" + i));
+    }
+    Assertions.assertThat(ids).hasSize(100_000);
+    Assertions.assertThat(Lease.Metadata.serviceCallId("Service/get"))
+        .isEqualTo(Lease.Metadata.serviceCallId("Service/get"))
+        .isNotEqualTo(Lease.Metadata.serviceCallId("Service/gex"));
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LoadBalancerTest {
+
+  @Test
+  void selectByCost() {
+    LoadBalancer<TestTarget> loadBalancer = LoadBalancer.newBuilder().build();
+    Assertions.assertThat(loadBalancer.select(LoadBalancer.UNKNOWN_METHOD)).isNull();
+    TestTarget idle = new TestTarget(1.0);
+    TestTarget busy = new TestTarget(1.0);
+    TestTarget unavailable = new TestTarget(0);
+    loadBalancer.update(Arrays.asList(idle, busy, unavailable));
+    LoadBalancer.Member<TestTarget> busyMember = loadBalancer.member(busy);
+    for (int i = 0; i < 10; i++) {
+      busyMember.start();
+    }
+    for (int i = 0; i < 1000; i++) {
+      Assertions.assertThat(loadBalancer.select(LoadBalancer.UNKNOWN_METHOD).target())
+          .isNotSameAs(unavailable);
+    }
+    /*idle member wins each pair it is part of*/
+    Map<TestTarget, Integer> selected = selections(loadBalancer, LoadBalancer.UNKNOWN_METHOD);
+    Assertions.assertThat(selected.get(idle)).isGreaterThan(selected.getOrDefault(busy, 0) * 3 / 2);
+
+    /*lower availability raises cost*/
+    for (int i = 0; i < 10; i++) {
+      busyMember.stop();
+    }
+    busy.availability = 0.1;
+    selected = selections(loadBalancer, LoadBalancer.UNKNOWN_METHOD);
+    Assertions.assertThat(selected.get(idle)).isGreaterThan(selected.getOrDefault(busy, 0) * 3 / 2);
+
+    idle.availability = 0;
+    busy.availability = 0;
+    Assertions.assertThat(loadBalancer.select(LoadBalancer.UNKNOWN_METHOD)).isNull();
+    Assertions.assertThat(loadBalancer.availability(0)).isZero();
+  }
+
+  @Test
+  void serviceCallLatencies() {
+    LoadBalancer<TestTarget> loadBalancer =
+        LoadBalancer.newBuilder().method("Service", "get").method("", "defaultGet").build();
+    int get = loadBalancer.method(RpcMetadataTest.rpcMetadata("Service", "get", 8));
+    int defaultGet = loadBalancer.method(RpcMetadataTest.rpcMetadata("", "defaultGet", 0));
+    Assertions.assertThat(get).isNotEqualTo(LoadBalancer.UNKNOWN_METHOD);
+    Assertions.assertThat(defaultGet).isNotEqualTo(LoadBalancer.UNKNOWN_METHOD).isNotEqualTo(get);
+    Assertions.assertThat(loadBalancer.method(RpcMetadataTest.rpcMetadata("Service", "put", 0)))
+        .isEqualTo(LoadBalancer.UNKNOWN_METHOD);
+    Assertions.assertThat(loadBalancer.method(null)).isEqualTo(LoadBalancer.UNKNOWN_METHOD);
+
+    TestTarget fast = new TestTarget(1.0);
+    TestTarget slow = new TestTarget(1.0);
+    loadBalancer.add(fast);
+    loadBalancer.add(slow);
+    Assertions.assertThat(
+            loadBalancer.serviceCallLatencies(
+                slow, Lease.Metadata.create().serviceCallLatency("Service/get", 10_000)))
+        .isTrue();
+    loadBalancer.serviceCallLatencies(
+        fast, Lease.Metadata.create().serviceCallLatency("Service/get", 100));
+    Assertions.assertThat(
+            loadBalancer.serviceCallLatencies(
+                new TestTarget(1.0), Lease.Metadata.create().serviceCallLatency("Service/get", 1)))
+        .isFalse();
+
+    /*reported latency applies to calls of its method only*/
+    Assertions.assertThat(selections(loadBalancer, get)).containsOnlyKeys(fast);
+    LoadBalancer.Member<TestTarget> slowMember = loadBalancer.member(slow);
+    slowMember.record(slowMember.start() - TimeUnit.MILLISECONDS.toNanos(5));
+    slowMember.stop();
+    Assertions.assertThat(slowMember.latencyMicros()).isPositive();
+    Assertions.assertThat(selections(loadBalancer, defaultGet)).containsOnlyKeys(fast);
+  }
+
+  @Test
+  void unknownLatencyAndFailures() {
+    LoadBalancer<TestTarget> loadBalancer =
+        LoadBalancer.newBuilder()
+            .defaultLatency(Duration.ofMillis(10))
+            .failureLatency(Duration.ofSeconds(1))
+            .build();
+    TestTarget observed = new TestTarget(1.0);
+    TestTarget unknown = new TestTarget(1.0);
+    loadBalancer.update(Arrays.asList(observed, unknown));
+    LoadBalancer.Member<TestTarget> observedMember = loadBalancer.member(observed);
+    observedMember.record(observedMember.start() - TimeUnit.MILLISECONDS.toNanos(1));
+    observedMember.stop();
+
+    /*member without responses is costed with default latency*/
+    Assertions.assertThat(selections(loadBalancer, LoadBalancer.UNKNOWN_METHOD))
+        .containsOnlyKeys(observed);
+
+    /*fast failures are penalized*/
+    for (int i = 0; i < 4; i++) {
+      observedMember.recordFailure(observedMember.start());
+      observedMember.stop();
+    }
+    Assertions.assertThat(observedMember.latencyMicros())
+        .isGreaterThan(TimeUnit.MILLISECONDS.toMicros(10));
+    Assertions.assertThat(selections(loadBalancer, LoadBalancer.UNKNOWN_METHOD))
+        .containsOnlyKeys(unknown);
+
+    Assertions.assertThatThrownBy(() -> LoadBalancer.newBuilder().defaultLatency(Duration.ZERO))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void updateMembers() throws Exception {
+    LoadBalancer<TestTarget> loadBalancer = LoadBalancer.newBuilder().build();
+    TestTarget retained = new TestTarget(1.0);
+    Assertions.assertThat(loadBalancer.add(retained)).isTrue();
+    Assertions.assertThat(loadBalancer.add(retained)).isFalse();
+    LoadBalancer.Member<TestTarget> member = loadBalancer.member(retained);
+    member.start();
+
+    int threads = 4;
+    TestTarget[][] added = new TestTarget[threads][100];
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Future<?>[] futures = new Future<?>[threads];
+      for (int t = 0; t < threads; t++) {
+        TestTarget[] targets = added[t];
+        futures[t] =
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < targets.length; i++) {
+                    targets[i] = new TestTarget(1.0);
+                    loadBalancer.add(targets[i]);
+                    loadBalancer.select(LoadBalancer.UNKNOWN_METHOD);
+                  }
+                  for (int i = 0; i < targets.length; i += 2) {
+                    loadBalancer.remove(targets[i]);
+                  }
+                });
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    Assertions.assertThat(loadBalancer.targets()).hasSize(1 + threads * 50).contains(retained);
+
+    loadBalancer.update(Arrays.asList(retained, retained, added[0][1]));
+    Assertions.assertThat(loadBalancer.targets()).containsExactly(retained, added[0][1]);
+    /*stats of retained member are kept*/
+    Assertions.assertThat(loadBalancer.member(retained)).isSameAs(member);
+    Assertions.assertThat(member.outstanding()).isEqualTo(1);
+    Assertions.assertThat(loadBalancer.remove(added[0][0])).isFalse();
+
+    Assertions.assertThat(loadBalancer.close()).containsExactly(retained, added[0][1]);
+    Assertions.assertThat(loadBalancer.isClosed()).isTrue();
+    Assertions.assertThat(loadBalancer.onClose().toCompletableFuture()).isCompleted();
+    Assertions.assertThat(loadBalancer.close()).isEmpty();
+    Assertions.assertThat(loadBalancer.add(new TestTarget(1.0))).isFalse();
+    Assertions.assertThat(loadBalancer.update(Arrays.asList(retained))).isFalse();
+    Assertions.assertThat(loadBalancer.select(LoadBalancer.UNKNOWN_METHOD)).isNull();
+  }
+
+  static Map<TestTarget, Integer> selections(LoadBalancer<TestTarget> loadBalancer, int method) {
+    Map<TestTarget, Integer> selected = new HashMap<>();
+    for (int i = 0; i < 3000; i++) {
+      selected.merge(loadBalancer.select(method).target(), 1, Integer::sum);
+    }
+    return selected;
+  }
+
+  static final class TestTarget implements Availability {
+    volatile double availability;
+
+    TestTarget(double availability) {
+      this.availability = availability;
+    }
+
+    @Override
+    public double availability() {
+      return availability;
+    }
+
+    @Override
+    public double availability(int rank) {
+      return availability;
+    }
+  }
+}
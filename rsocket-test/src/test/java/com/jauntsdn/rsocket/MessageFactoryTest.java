@@ -0,0 +1,68 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MessageFactoryTest {
+
+  @Test
+  void pooledMessage() {
+    Message.Factory factory = Message.Factory.pooled();
+    ByteBuf data = Unpooled.buffer().writeInt(1);
+    ByteBuf metadata = Unpooled.buffer().writeInt(2);
+
+    Message message = factory.create(data, metadata);
+    Assertions.assertThat(message.hasData()).isTrue();
+    Assertions.assertThat(message.data()).isSameAs(data);
+    Assertions.assertThat(message.hasMetadata()).isTrue();
+    Assertions.assertThat(message.metadata()).isSameAs(metadata);
+
+    message.retain();
+    Assertions.assertThat(message.release()).isFalse();
+    Assertions.assertThat(data.refCnt()).isEqualTo(1);
+    Assertions.assertThat(message.release()).isTrue();
+    Assertions.assertThat(data.refCnt()).isEqualTo(0);
+    Assertions.assertThat(metadata.refCnt()).isEqualTo(0);
+
+    Message next = factory.createMetadata(Unpooled.buffer().writeInt(3));
+    try {
+      Assertions.assertThat(next).isSameAs(message);
+      Assertions.assertThat(next.refCnt()).isEqualTo(1);
+      Assertions.assertThat(next.hasData()).isFalse();
+      Assertions.assertThat(next.metadata().getInt(0)).isEqualTo(3);
+    } finally {
+      next.release();
+    }
+  }
+
+  @Test
+  void unpooledMessage() {
+    Message.Factory factory = Message.Factory.unpooled();
+    Message message = factory.empty();
+    Assertions.assertThat(message.hasData()).isFalse();
+    Assertions.assertThat(message.hasMetadata()).isFalse();
+    Assertions.assertThat(message.release()).isTrue();
+
+    Message next = factory.empty();
+    Assertions.assertThat(next).isNotSameAs(message);
+    next.release();
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class MessageMetadataTest {
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void template(boolean defaultService) {
+    MessageMetadata messageMetadata =
+        MessageMetadata.heapAllocator()
+            .defaultService(defaultService)
+            .metadataSize(4)
+            .metadata(metadata -> metadata.writeInt(42));
+    MessageMetadata.Template template = messageMetadata.template();
+
+    ByteBuf expected = messageMetadata.build();
+    ByteBuf actual = template.build();
+    ByteBuf actualWriter = template.build(metadata -> metadata.writeInt(42));
+    try {
+      Assertions.assertThat(actual).isEqualTo(expected);
+      Assertions.assertThat(actualWriter).isEqualTo(expected);
+      int header = MessageMetadata.header(actual);
+      Assertions.assertThat(header).isNotEqualTo(-1);
+      Assertions.assertThat(MessageMetadata.defaultService(header)).isEqualTo(defaultService);
+    } finally {
+      expected.release();
+      actual.release();
+      actualWriter.release();
+    }
+  }
+}
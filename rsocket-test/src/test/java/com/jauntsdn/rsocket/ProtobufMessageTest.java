@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.jauntsdn.rsocket.exceptions.SerializationException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.IllegalReferenceCountException;
+import io.rsocket.rpc.RpcCallMetadata;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class ProtobufMessageTest {
+
+  @ParameterizedTest
+  @ValueSource(strings = {"heap", "direct", "composite"})
+  void encodeMessage(String bufferType) {
+    RpcCallMetadata message =
+        RpcCallMetadata.newBuilder()
+            .addNameValues("name")
+            .addNameValues("v".repeat(5000))
+            .addNameValues("")
+            .build();
+    ByteBuf buffer = buffer(bufferType);
+    try {
+      buffer.writeByte(42);
+      Rpc.ProtoMessage.encode(message, buffer);
+
+      Assertions.assertThat(buffer.readByte()).isEqualTo((byte) 42);
+      Assertions.assertThat(buffer.readableBytes()).isEqualTo(message.getSerializedSize());
+      Assertions.assertThat(buffer).isEqualTo(Unpooled.wrappedBuffer(message.toByteArray()));
+    } finally {
+      buffer.release();
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"heap", "direct", "composite"})
+  void decodeMessage(String bufferType) {
+    byte[] bytes = new byte[5000];
+    BytesValue expected = BytesValue.of(ByteString.copyFrom(bytes));
+    ByteBuf buffer = Rpc.ProtoMessage.encode(expected, buffer(bufferType));
+    Assertions.assertThat(Rpc.ProtoMessage.decode(buffer, BytesValue.parser())).isEqualTo(expected);
+    Assertions.assertThat(buffer.refCnt()).isEqualTo(1);
+
+    Rpc.ProtoMessage.Aliased<BytesValue> aliased =
+        Rpc.ProtoMessage.decodeAliased(buffer, BytesValue.parser());
+    Assertions.assertThat(aliased.message()).isEqualTo(expected);
+    /*bytes field references buffer memory*/
+    buffer.setByte(buffer.writerIndex() - 1, 42);
+    Assertions.assertThat(aliased.message().getValue().byteAt(bytes.length - 1))
+        .isEqualTo((byte) 42);
+
+    Assertions.assertThat(aliased.release()).isTrue();
+    Assertions.assertThat(buffer.refCnt()).isEqualTo(0);
+    org.junit.jupiter.api.Assertions.assertThrows(
+        IllegalReferenceCountException.class, aliased::message);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"heap", "direct", "composite"})
+  void projectMessage(String bufferType) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+    output.writeInt64(1, 7);
+    output.writeString(2, "tenant");
+    output.writeDouble(3, 4.2);
+    output.writeFloat(4, 2.4f);
+    output.writeBytes(5, ByteString.copyFromUtf8("skipped"));
+    output.writeTag(6, WireFormat.WIRETYPE_START_GROUP);
+    output.writeInt64(1, 13);
+    output.writeTag(6, WireFormat.WIRETYPE_END_GROUP);
+    output.writeSInt64(7, -3);
+    output.writeInt64(1, 42);
+    output.flush();
+
+    ByteBuf buffer = buffer(bufferType);
+    try {
+      buffer.writeBytes(bytes.toByteArray());
+      int readerIndex = buffer.readerIndex();
+      int writerIndex = buffer.writerIndex();
+
+      Rpc.ServiceDescriptor.Call call =
+          Rpc.ServiceDescriptor.Call.of("service", "method", () -> null, codedInputStream -> null)
+              .withProjection(Rpc.ProtoMessage.Projection.of(7, 2, 1, 3, 4, 8));
+      Rpc.ProtoMessage.Projection.Fields fields = call.project(buffer);
+
+      Assertions.assertThat(buffer.readerIndex()).isEqualTo(readerIndex);
+      Assertions.assertThat(buffer.writerIndex()).isEqualTo(writerIndex);
+      Assertions.assertThat(fields.longValue(1)).isEqualTo(42);
+      Assertions.assertThat(fields.string(2)).isEqualTo("tenant");
+      Assertions.assertThat(fields.bytes(2).toString(StandardCharsets.UTF_8)).isEqualTo("tenant");
+      Assertions.assertThat(fields.doubleValue(3)).isEqualTo(4.2);
+      Assertions.assertThat(fields.floatValue(4)).isEqualTo(2.4f);
+      Assertions.assertThat(CodedInputStream.decodeZigZag64(fields.longValue(7))).isEqualTo(-3);
+      Assertions.assertThat(fields.has(8)).isFalse();
+      Assertions.assertThat(fields.longValue(8)).isEqualTo(0);
+      Assertions.assertThat(fields.bytes(8).readableBytes()).isEqualTo(0);
+      org.junit.jupiter.api.Assertions.assertThrows(
+          IllegalArgumentException.class, () -> fields.longValue(5));
+      org.junit.jupiter.api.Assertions.assertThrows(
+          IllegalStateException.class, () -> fields.longValue(2));
+
+      buffer.writerIndex(writerIndex - 1);
+      org.junit.jupiter.api.Assertions.assertThrows(
+          SerializationException.class, () -> call.project(buffer));
+    } finally {
+      buffer.release();
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"heap", "direct", "composite"})
+  void projectNegativeLength(String bufferType) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+    output.writeTag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    /*10-byte varint of -1*/
+    output.writeUInt64NoTag(-1);
+    output.writeInt64(1, 42);
+    output.flush();
+
+    ByteBuf buffer = buffer(bufferType);
+    try {
+      buffer.writeBytes(bytes.toByteArray());
+      Rpc.ServiceDescriptor.Call call =
+          Rpc.ServiceDescriptor.Call.of("service", "method", () -> null, codedInputStream -> null)
+              .withProjection(Rpc.ProtoMessage.Projection.of(1, 2));
+      org.junit.jupiter.api.Assertions.assertThrows(
+          SerializationException.class, () -> call.project(buffer));
+    } finally {
+      buffer.release();
+    }
+  }
+
+  static ByteBuf buffer(String bufferType) {
+    switch (bufferType) {
+      case "heap":
+        return ByteBufAllocator.DEFAULT.heapBuffer(16);
+      case "direct":
+        return ByteBufAllocator.DEFAULT.directBuffer(16);
+      case "composite":
+        CompositeByteBuf composite = ByteBufAllocator.DEFAULT.compositeBuffer();
+        composite.addComponent(true, ByteBufAllocator.DEFAULT.directBuffer(1));
+        composite.addComponent(ByteBufAllocator.DEFAULT.directBuffer(8192));
+        return composite;
+      default:
+        throw new IllegalArgumentException(bufferType);
+    }
+  }
+}
@@ -76,6 +76,31 @@ public class ProtobufMetadataTest {
     }
   }
 
+  @Test
+  void encodeHeadersIntoBuffer() {
+    Headers headers = Headers.create("k", "v", "a".repeat(300), "b".repeat(300));
+    ByteBuf expectedBuf = encodeProtobufJava(headers);
+    ByteBuf lazyBuf = encodeProtobufJava(headers);
+    ByteBuf actualBuf = ByteBufAllocator.DEFAULT.directBuffer();
+    ByteBuf actualLazyBuf = ByteBufAllocator.DEFAULT.directBuffer();
+    try {
+      actualBuf.writeByte(42);
+      Rpc.ProtoMetadata.encodeHeaders(headers, actualBuf);
+      Assertions.assertThat(Rpc.ProtoMetadata.getCache(headers)).isNull();
+      Assertions.assertThat(actualBuf.readByte()).isEqualTo((byte) 42);
+      Assertions.assertThat(actualBuf).isEqualTo(expectedBuf);
+
+      Headers lazyHeaders = Rpc.ProtoMetadata.decodeHeadersLazy(lazyBuf);
+      Rpc.ProtoMetadata.encodeHeaders(lazyHeaders, actualLazyBuf);
+      Assertions.assertThat(actualLazyBuf).isEqualTo(expectedBuf);
+    } finally {
+      expectedBuf.release();
+      lazyBuf.release();
+      actualBuf.release();
+      actualLazyBuf.release();
+    }
+  }
+
   @Test
   void decodeHeaders() {
     for (int l = 1; l < 8192; l++) {
@@ -118,6 +143,50 @@ public class ProtobufMetadataTest {
     Assertions.assertThat(actual).isSameAs(Headers.empty());
   }
 
+  @Test
+  void decodeHeadersLazy() {
+    for (int l = 1; l < 8192; l += 127) {
+      String key1 = "k".repeat(l);
+      String value1 = "v".repeat(l);
+      String key2 = "a".repeat(l);
+      String value2 = "b".repeat(l);
+      Headers expected = Headers.create(key1, value1, key2, value2, key1, value2);
+      ByteBuf metadata = encodeProtobufJava(expected);
+      int serializedSize = metadata.readableBytes();
+      try {
+        Headers actual = Rpc.ProtoMetadata.decodeHeadersLazy(metadata);
+        Assertions.assertThat(metadata.readableBytes()).isEqualTo(serializedSize);
+        Assertions.assertThat(actual.header(key2)).isEqualTo(value2);
+        Assertions.assertThat(actual.header(key1)).isEqualTo(value1);
+        Assertions.assertThat(actual.header(value1)).isNull();
+        Assertions.assertThat(actual.headers(key1)).containsExactly(value1, value2);
+        Assertions.assertThat(actual.serializedSize()).isEqualTo(serializedSize);
+        Assertions.assertThat(actual.headers()).isEqualTo(expected.headers());
+        Assertions.assertThat(actual.toBuilder().build().headers()).isEqualTo(expected.headers());
+      } finally {
+        metadata.release();
+      }
+    }
+  }
+
+  @Test
+  void decodeHeadersLazyMalformed() {
+    ByteBuf metadata = encodeProtobufJava(Arrays.asList("key", "value", "key"));
+    try {
+      Headers headers = Rpc.ProtoMetadata.decodeHeadersLazy(metadata);
+      org.junit.jupiter.api.Assertions.assertThrows(
+          ApplicationErrorException.class, () -> headers.header("key"));
+    } finally {
+      metadata.release();
+    }
+  }
+
+  @Test
+  void decodeEmptyHeadersLazy() {
+    Headers actual = Rpc.ProtoMetadata.decodeHeadersLazy(Unpooled.EMPTY_BUFFER);
+    Assertions.assertThat(actual).isSameAs(Headers.empty());
+  }
+
   public static ByteBuf encodeProtobufHeadersLen(int len) {
     ByteBuf buffer = ByteBufAllocator.DEFAULT.buffer(3);
     Rpc.ProtoMetadata.encodeLen(buffer, len);
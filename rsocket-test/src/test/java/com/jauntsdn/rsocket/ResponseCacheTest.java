@@ -0,0 +1,229 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ResponseCacheTest {
+
+  @Test
+  void cacheIdempotentCalls() {
+    ResponseCache cache =
+        ResponseCache.newBuilder()
+            .method("com.jauntsdn.Service", "get", Duration.ofSeconds(10))
+            .method("", "defaultGet", Duration.ofSeconds(10))
+            .build();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 8));
+    ByteBuf request = utf8("request");
+
+    Assertions.assertThat(cache.get(metadata, request)).isNull();
+    ResponseCache.Key key = cache.key(metadata, request);
+    Assertions.assertThat(key).isNotNull();
+    cache.put(key, utf8("response"));
+    Assertions.assertThat(cache.size()).isEqualTo(1);
+
+    ByteBuf response = cache.get(metadata, utf8("request"));
+    try {
+      Assertions.assertThat(response).isEqualTo(utf8("response"));
+      Assertions.assertThat(response.isDirect()).isTrue();
+    } finally {
+      response.release();
+    }
+    Assertions.assertThat(cache.get(metadata, utf8("other request"))).isNull();
+
+    ByteBuf nonIdempotent = RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 0);
+    Assertions.assertThat(cache.get(nonIdempotent, request)).isNull();
+    Assertions.assertThat(cache.key(nonIdempotent, request)).isNull();
+
+    ByteBuf otherMethod = idempotent(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "put", 0));
+    Assertions.assertThat(cache.key(otherMethod, request)).isNull();
+
+    ByteBuf defaultService = idempotent(RpcMetadataTest.rpcMetadata("", "defaultGet", 0));
+    cache.put(cache.key(defaultService, request), utf8("default response"));
+    ByteBuf defaultResponse = cache.get(defaultService, request);
+    try {
+      Assertions.assertThat(defaultResponse).isEqualTo(utf8("default response"));
+    } finally {
+      defaultResponse.release();
+    }
+
+    cache.clear();
+    Assertions.assertThat(cache.size()).isZero();
+    Assertions.assertThat(cache.bytes()).isZero();
+    Assertions.assertThat(cache.get(metadata, request)).isNull();
+  }
+
+  @Test
+  void cacheWithSingleKey() {
+    ResponseCache cache =
+        ResponseCache.newBuilder().method("Service", "get", Duration.ofMinutes(1)).build();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("Service", "get", 8));
+    ByteBuf request = utf8("request");
+
+    ResponseCache.Key key = cache.key(metadata, request);
+    Assertions.assertThat(key).isNotNull();
+    Assertions.assertThat(cache.get(key)).isNull();
+    /*key of missed request is copied, so it outlives request message*/
+    request.setByte(0, 'R');
+    metadata.setByte(metadata.writerIndex() - 1, 1);
+    cache.put(key, utf8("response"));
+
+    ByteBuf otherMetadata = idempotent(RpcMetadataTest.rpcMetadata("Service", "get", 8));
+    ByteBuf response = cache.get(cache.key(otherMetadata, utf8("request")));
+    try {
+      Assertions.assertThat(response).isEqualTo(utf8("response"));
+    } finally {
+      response.release();
+    }
+    Assertions.assertThat(cache.get(metadata, request)).isNull();
+    cache.clear();
+  }
+
+  @Test
+  void expireEntries() {
+    AtomicLong nanos = new AtomicLong();
+    ResponseCache cache =
+        ResponseCache.newBuilder()
+            .method("Service", "get", Duration.ofSeconds(1))
+            .nanoClock(nanos::get)
+            .build();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("Service", "get", 0));
+    ByteBuf request = utf8("request");
+    cache.put(cache.key(metadata, request), utf8("response"));
+
+    nanos.set(Duration.ofMillis(999).toNanos());
+    ByteBuf response = cache.get(metadata, request);
+    Assertions.assertThat(response).isNotNull();
+    /*retained by cache entry and served response*/
+    Assertions.assertThat(response.unwrap().refCnt()).isEqualTo(2);
+
+    nanos.set(Duration.ofSeconds(1).toNanos());
+    Assertions.assertThat(cache.get(metadata, request)).isNull();
+    Assertions.assertThat(cache.size()).isZero();
+    /*served response outlives evicted entry*/
+    Assertions.assertThat(response.unwrap().refCnt()).isEqualTo(1);
+    Assertions.assertThat(response).isEqualTo(utf8("response"));
+    response.release();
+    Assertions.assertThat(response.unwrap().refCnt()).isZero();
+  }
+
+  @Test
+  void evictLeastRecentlyUsed() {
+    /*request, headers of request metadata, response*/
+    int entryBytes = "request0".length() + Long.BYTES + 1000 + ResponseCache.ENTRY_OVERHEAD;
+    ResponseCache cache =
+        ResponseCache.newBuilder()
+            .method("Service", "get", Duration.ofMinutes(1))
+            .maxBytes(entryBytes * 3)
+            .build();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("Service", "get", 0));
+    for (int i = 0; i < 3; i++) {
+      cache.put(cache.key(metadata, utf8("request" + i)), Unpooled.wrappedBuffer(new byte[1000]));
+    }
+    Assertions.assertThat(cache.bytes()).isEqualTo(entryBytes * 3);
+    cache.get(metadata, utf8("request0")).release();
+
+    cache.put(cache.key(metadata, utf8("request3")), Unpooled.wrappedBuffer(new byte[1000]));
+    Assertions.assertThat(cache.size()).isEqualTo(3);
+    Assertions.assertThat(cache.bytes()).isEqualTo(entryBytes * 3);
+    Assertions.assertThat(cache.get(metadata, utf8("request1"))).isNull();
+    for (String request : new String[] {"request0", "request2", "request3"}) {
+      cache.get(metadata, utf8(request)).release();
+    }
+
+    /*entry larger than cache is not cached*/
+    cache.put(cache.key(metadata, utf8("large")), Unpooled.wrappedBuffer(new byte[entryBytes * 3]));
+    Assertions.assertThat(cache.get(metadata, utf8("large"))).isNull();
+    Assertions.assertThat(cache.size()).isEqualTo(3);
+    cache.clear();
+  }
+
+  @Test
+  void cacheCallIdCalls() {
+    Rpc.CallIds callIds = Rpc.CallIds.newBuilder().add("Service", "get").build();
+    ResponseCache cache =
+        ResponseCache.newBuilder()
+            .method("Service", "get", Duration.ofMinutes(1))
+            .callIds(callIds)
+            .build();
+    ByteBuf metadata =
+        Rpc.RpcMetadata.encodeCallId(
+            Unpooled.buffer(), callIds.id("Service", "get"), true, false, 0);
+    ByteBuf request = utf8("request");
+    cache.put(cache.key(metadata, request), utf8("response"));
+    ByteBuf response = cache.get(metadata, request);
+    try {
+      Assertions.assertThat(response).isEqualTo(utf8("response"));
+    } finally {
+      response.release();
+    }
+    ByteBuf unknownCallId = Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), 42, true, false, 0);
+    Assertions.assertThat(cache.key(unknownCallId, request)).isNull();
+    cache.clear();
+  }
+
+  @Test
+  void cacheCallerIdentity() {
+    ResponseCache cache =
+        ResponseCache.newBuilder().method("Service", "get", Duration.ofMinutes(1)).build();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("Service", "get", 0));
+    ByteBuf otherHeaders = idempotent(RpcMetadataTest.rpcMetadata("Service", "get", 0));
+    otherHeaders.setByte(otherHeaders.writerIndex() - 1, 1);
+    ByteBuf request = utf8("request");
+    cache.put(cache.key(metadata, request), utf8("response"));
+    /*response is not served to call with other headers*/
+    Assertions.assertThat(cache.get(otherHeaders, request)).isNull();
+    cache.get(metadata, request).release();
+    cache.clear();
+
+    ResponseCache sameCaller =
+        ResponseCache.newBuilder()
+            .method("Service", "get", Duration.ofMinutes(1))
+            .callerIdentity(m -> "caller")
+            .build();
+    sameCaller.put(sameCaller.key(metadata, request), utf8("response"));
+    ByteBuf response = sameCaller.get(otherHeaders, request);
+    try {
+      Assertions.assertThat(response).isEqualTo(utf8("response"));
+    } finally {
+      response.release();
+    }
+    sameCaller.clear();
+
+    ResponseCache noCaller =
+        ResponseCache.newBuilder()
+            .method("Service", "get", Duration.ofMinutes(1))
+            .callerIdentity(m -> null)
+            .build();
+    Assertions.assertThat(noCaller.key(metadata, request)).isNull();
+    Assertions.assertThat(noCaller.get(metadata, request)).isNull();
+  }
+
+  static ByteBuf idempotent(ByteBuf metadata) {
+    return metadata.setByte(1, metadata.getByte(1) | Rpc.RpcMetadata.FLAG_IDEMPOTENT_CALL);
+  }
+
+  static ByteBuf utf8(String s) {
+    return Unpooled.wrappedBuffer(s.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class RpcMetadataTest {
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 16})
+  void serviceIndex(int traceLength) {
+    Map<String, Integer> services = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      services.put("com.jauntsdn.rsocket.test.Service" + i, i);
+      services.put("s" + i, -i);
+    }
+    Rpc.RpcMetadata.ServiceIndex<Integer> index = Rpc.RpcMetadata.ServiceIndex.create(services);
+    Assertions.assertThat(index.size()).isEqualTo(services.size());
+
+    for (Map.Entry<String, Integer> service : services.entrySet()) {
+      ByteBuf metadata = rpcMetadata(service.getKey(), "method", traceLength);
+      try {
+        long header = Rpc.RpcMetadata.header(metadata);
+        int flags = Rpc.RpcMetadata.flags(header);
+        Assertions.assertThat(Rpc.RpcMetadata.isDefaultService(header, flags)).isFalse();
+        Assertions.assertThat(index.find(metadata, header, flags)).isEqualTo(service.getValue());
+      } finally {
+        metadata.release();
+      }
+    }
+    for (String absent : new String[] {"com.jauntsdn.rsocket.test.Service100", "s100", "s"}) {
+      ByteBuf metadata = rpcMetadata(absent, "method", traceLength);
+      try {
+        long header = Rpc.RpcMetadata.header(metadata);
+        int flags = Rpc.RpcMetadata.flags(header);
+        Assertions.assertThat(index.find(metadata, header, flags)).isNull();
+      } finally {
+        metadata.release();
+      }
+    }
+  }
+
+  @Test
+  void serviceIndexNonAsciiServices() {
+    String nonAscii = "com.jauntsdn.\u0421\u0435\u0440\u0432\u0438\u0441";
+    Map<String, Integer> services = new HashMap<>();
+    services.put("com.jauntsdn.Service", 1);
+    services.put(nonAscii, 2);
+    Rpc.RpcMetadata.ServiceIndex<Integer> index = Rpc.RpcMetadata.ServiceIndex.create(services);
+    Assertions.assertThat(index.size()).isEqualTo(2);
+    Assertions.assertThat(index.find(nonAscii)).isEqualTo(2);
+
+    ByteBuf metadata = rpcMetadata("com.jauntsdn.Service", "method", 0);
+    try {
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
+      Assertions.assertThat(index.find(metadata, header, flags)).isEqualTo(1);
+    } finally {
+      metadata.release();
+    }
+    Assertions.assertThat(
+            Rpc.RpcMetadata.ServiceIndex.create(Map.of("com.jauntsdn.Service", 1)).find(nonAscii))
+        .isNull();
+  }
+
+  @Test
+  void serviceIndexDefaultService() {
+    ByteBuf metadata = rpcMetadata("", "method", 0);
+    try {
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
+      Assertions.assertThat(Rpc.RpcMetadata.isDefaultService(header, flags)).isTrue();
+      Assertions.assertThat(Rpc.RpcMetadata.service(metadata, header, flags)).isEmpty();
+    } finally {
+      metadata.release();
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 16})
+  void serviceMethodIndex(int traceLength) {
+    String service = "com.jauntsdn.rsocket.test.Service";
+    List<String> services = new ArrayList<>();
+    List<String> methods = new ArrayList<>();
+    for (int i = 0; i < 64; i++) {
+      String method = "method" + i;
+      services.add("");
+      methods.add(method);
+      services.add(service);
+      methods.add(method);
+    }
+    services.add("Foo");
+    methods.add("Get");
+    Rpc.RpcMetadata.ServiceMethodIndex index =
+        Rpc.RpcMetadata.ServiceMethodIndex.create(services, methods);
+
+    for (int i = 0; i < 64; i++) {
+      String method = "method" + i;
+      assertServiceMethod(rpcMetadata("", method, traceLength), index, method);
+      assertServiceMethod(
+          rpcMetadata(service, method, traceLength), index, service + "/" + method);
+    }
+    assertServiceMethod(rpcMetadata("", "method64", traceLength), index, null);
+    assertServiceMethod(rpcMetadata(service, "method64", traceLength), index, null);
+    /*same concatenation of different service and method*/
+    assertServiceMethod(
+        rpcMetadata("com.jauntsdn.rsocket.test.Servic", "emethod0", traceLength), index, null);
+    assertServiceMethod(rpcMetadata("Foo", "Get", traceLength), index, "Foo/Get");
+    assertServiceMethod(rpcMetadata("", "FooGet", traceLength), index, null);
+    assertServiceMethod(rpcMetadata("Fo", "oGet", traceLength), index, null);
+  }
+
+  @Test
+  void callIds() {
+    Rpc.CallIds callIds =
+        Rpc.CallIds.newBuilder()
+            .add("com.acme.Greeter", "hello")
+            .add("com.acme.Greeter", "bye")
+            .add(300, "", "ping")
+            .build();
+    ByteBuf encoded = callIds.encode(ByteBufAllocator.DEFAULT);
+    Rpc.CallIds decoded;
+    try {
+      decoded = Rpc.CallIds.decode(encoded);
+    } finally {
+      encoded.release();
+    }
+    Assertions.assertThat(decoded.maxId()).isEqualTo(300);
+    Assertions.assertThat(decoded.id("com.acme.Greeter", "bye")).isEqualTo(1);
+    Assertions.assertThat(decoded.id("", "ping")).isEqualTo(300);
+    Assertions.assertThat(decoded.id("com.acme.Greeter", "absent")).isEqualTo(-1);
+    Assertions.assertThat(decoded.service(2)).isNull();
+
+    Rpc.CallIds separators = Rpc.CallIds.newBuilder().add("a/b", "c").add("a", "b/c").build();
+    Assertions.assertThat(separators.id("a/b", "c")).isEqualTo(0);
+    Assertions.assertThat(separators.id("a", "b/c")).isEqualTo(1);
+
+    Rpc.CallIds merged =
+        decoded.merge(Rpc.CallIds.newBuilder().add(2, "com.acme.Echo", "echo").build());
+    Assertions.assertThat(merged.service(2)).isEqualTo("com.acme.Echo");
+    Assertions.assertThat(merged.method(0)).isEqualTo("hello");
+
+    Object greeter = new Object();
+    Object defaultService = new Object();
+    Map<String, Object> services = new HashMap<>();
+    services.put("com.acme.Greeter", greeter);
+    Rpc.RpcMetadata.ServiceIndex<Object> serviceIndex =
+        Rpc.RpcMetadata.ServiceIndex.create(services).withCallIds(merged, defaultService);
+    Rpc.RpcMetadata.ServiceMethodIndex methodIndex =
+        Rpc.RpcMetadata.ServiceMethodIndex.create(
+                List.of("com.acme.Greeter", "", "com.acme.Greete"),
+                List.of("bye", "ping", "rbye"))
+            .withCallIds(merged);
+
+    assertCallId(serviceIndex, methodIndex, 1, greeter, "com.acme.Greeter/bye");
+    assertCallId(serviceIndex, methodIndex, 300, defaultService, "ping");
+    assertCallId(serviceIndex, methodIndex, 2, null, null);
+    assertCallId(serviceIndex, methodIndex, 1000, null, null);
+  }
+
+  @Test
+  void expandCallId() {
+    Rpc.CallIds callIds =
+        Rpc.CallIds.newBuilder()
+            .add(7, "com.acme.Greeter", "bye")
+            .add(8, "", "ping")
+            .build();
+    ByteBuf metadata =
+        Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), 7, true, false, 3)
+            .writeBytes(new byte[] {1, 2, 3})
+            .writeLong(42);
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    ByteBuf expanded =
+        Rpc.RpcMetadata.expandCallId(metadata, header, flags, callIds, ByteBufAllocator.DEFAULT);
+    try {
+      long expandedHeader = Rpc.RpcMetadata.header(expanded);
+      int expandedFlags = Rpc.RpcMetadata.flags(expandedHeader);
+      Assertions.assertThat(Rpc.RpcMetadata.isCallId(expandedHeader)).isFalse();
+      Assertions.assertThat(Rpc.RpcMetadata.flagIdempotentCall(expandedFlags)).isTrue();
+      Assertions.assertThat(Rpc.RpcMetadata.service(expanded, expandedHeader, expandedFlags))
+          .isEqualTo("com.acme.Greeter");
+      Assertions.assertThat(Rpc.RpcMetadata.method(expanded, expandedHeader, expandedFlags))
+          .isEqualTo("bye");
+      int metadataOffset = Rpc.RpcMetadata.metadataOffset(expandedHeader, expandedFlags);
+      Assertions.assertThat(expanded.getLong(metadataOffset)).isEqualTo(42);
+      Assertions.assertThat(expanded.getByte(metadataOffset - 1)).isEqualTo((byte) 3);
+    } finally {
+      expanded.release();
+    }
+
+    ByteBuf defaultService =
+        Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), 8, false, false, 0).writeZero(8);
+    long defaultHeader = Rpc.RpcMetadata.header(defaultService);
+    int defaultFlags = Rpc.RpcMetadata.flags(defaultHeader);
+    ByteBuf expandedDefault =
+        Rpc.RpcMetadata.expandCallId(
+            defaultService, defaultHeader, defaultFlags, callIds, ByteBufAllocator.DEFAULT);
+    try {
+      long expandedHeader = Rpc.RpcMetadata.header(expandedDefault);
+      int expandedFlags = Rpc.RpcMetadata.flags(expandedHeader);
+      Assertions.assertThat(Rpc.RpcMetadata.isDefaultService(expandedHeader, expandedFlags))
+          .isTrue();
+      Assertions.assertThat(Rpc.RpcMetadata.method(expandedDefault, expandedHeader, expandedFlags))
+          .isEqualTo("ping");
+    } finally {
+      expandedDefault.release();
+    }
+
+    ByteBuf unassigned =
+        Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), 9, false, false, 0).writeZero(8);
+    long unassignedHeader = Rpc.RpcMetadata.header(unassigned);
+    Assertions.assertThatThrownBy(
+            () ->
+                Rpc.RpcMetadata.expandCallId(
+                    unassigned,
+                    unassignedHeader,
+                    Rpc.RpcMetadata.flags(unassignedHeader),
+                    callIds,
+                    ByteBufAllocator.DEFAULT))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void callIdDispatch() {
+    Rpc.CallIds callIds =
+        Rpc.CallIds.newBuilder()
+            .add(7, "com.acme.Greeter", "bye")
+            .add(8, "", "ping")
+            .build();
+    Object greeter = new Object();
+    Rpc.RpcMetadata.ServiceIndex<Object> serviceIndex =
+        Rpc.RpcMetadata.ServiceIndex.create(Map.of("com.acme.Greeter", greeter))
+            .withCallIds(callIds, null);
+    List<String> serviceMethods = List.of("com.acme.Greeterhello", "com.acme.Greeterbye", "ping");
+
+    ByteBuf metadata =
+        Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), 7, false, false, 0).writeZero(8);
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    /*routed by handler, dispatched to method by service*/
+    Assertions.assertThat(serviceIndex.find(metadata, header, flags)).isSameAs(greeter);
+    Assertions.assertThat(Rpc.RpcMetadata.service(metadata, header, flags, callIds))
+        .isEqualTo("com.acme.Greeter");
+    Assertions.assertThat(Rpc.RpcMetadata.method(metadata, header, flags, callIds))
+        .isEqualTo("bye");
+    Assertions.assertThat(
+            Rpc.RpcMetadata.serviceMethod(flags, header, metadata, serviceMethods, callIds))
+        .isSameAs(serviceMethods.get(1));
+    /*call ID metadata is not read as service and method names*/
+    Assertions.assertThatThrownBy(() -> Rpc.RpcMetadata.service(metadata, header, flags))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("call ID");
+    Assertions.assertThatThrownBy(() -> Rpc.RpcMetadata.method(metadata, header, flags))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("call ID");
+    Assertions.assertThatThrownBy(
+            () -> Rpc.RpcMetadata.serviceMethod(flags, header, metadata, serviceMethods))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("call ID");
+
+    ByteBuf defaultService =
+        Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), 8, false, false, 0).writeZero(8);
+    long defaultHeader = Rpc.RpcMetadata.header(defaultService);
+    int defaultFlags = Rpc.RpcMetadata.flags(defaultHeader);
+    Assertions.assertThat(
+            Rpc.RpcMetadata.service(defaultService, defaultHeader, defaultFlags, callIds))
+        .isEmpty();
+    Assertions.assertThat(
+            Rpc.RpcMetadata.serviceMethod(
+                defaultFlags, defaultHeader, defaultService, serviceMethods, callIds))
+        .isSameAs(serviceMethods.get(2));
+
+    ByteBuf unassigned =
+        Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), 9, false, false, 0).writeZero(8);
+    long unassignedHeader = Rpc.RpcMetadata.header(unassigned);
+    int unassignedFlags = Rpc.RpcMetadata.flags(unassignedHeader);
+    Assertions.assertThat(
+            Rpc.RpcMetadata.serviceMethod(
+                unassignedFlags, unassignedHeader, unassigned, serviceMethods, callIds))
+        .isNull();
+    Assertions.assertThatThrownBy(
+            () -> Rpc.RpcMetadata.method(unassigned, unassignedHeader, unassignedFlags, callIds))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  static void assertCallId(
+      Rpc.RpcMetadata.ServiceIndex<Object> serviceIndex,
+      Rpc.RpcMetadata.ServiceMethodIndex methodIndex,
+      int callId,
+      Object expectedService,
+      String expectedMethod) {
+    ByteBuf metadata =
+        Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), callId, false, false, 0).writeByte(42);
+    long header = Rpc.RpcMetadata.header(metadata);
+    int flags = Rpc.RpcMetadata.flags(header);
+    Assertions.assertThat(Rpc.RpcMetadata.isCallId(header)).isTrue();
+    Assertions.assertThat(Rpc.RpcMetadata.isDefaultService(header, flags)).isFalse();
+    Assertions.assertThat(Rpc.RpcMetadata.callId(header)).isEqualTo(callId);
+    Assertions.assertThat(metadata.getByte(Rpc.RpcMetadata.callIdTraceOffset(flags)))
+        .isEqualTo((byte) 42);
+    Assertions.assertThat(serviceIndex.find(metadata, header, flags)).isSameAs(expectedService);
+    Assertions.assertThat(methodIndex.find(flags, header, metadata)).isEqualTo(expectedMethod);
+  }
+
+  static void assertServiceMethod(
+      ByteBuf metadata, Rpc.RpcMetadata.ServiceMethodIndex index, String expected) {
+    try {
+      long header = Rpc.RpcMetadata.header(metadata);
+      int flags = Rpc.RpcMetadata.flags(header);
+      String actual = Rpc.RpcMetadata.serviceMethod(flags, header, metadata, index);
+      Assertions.assertThat(actual).isEqualTo(expected);
+    } finally {
+      metadata.release();
+    }
+  }
+
+  static ByteBuf rpcMetadata(String service, String method, int traceLength) {
+    boolean defaultService = service.isEmpty();
+    boolean hasTrace = traceLength > 0;
+    int flags = Rpc.RpcMetadata.FLAG_COMPACT;
+    if (defaultService) {
+      flags |= Rpc.RpcMetadata.FLAG_DEFAULT_SERVICE;
+    }
+    if (hasTrace) {
+      flags |= Rpc.RpcMetadata.FLAG_TRACE;
+    }
+    ByteBuf metadata = Unpooled.buffer();
+    metadata.writeByte(Rpc.RpcMetadata.VERSION);
+    metadata.writeByte(flags);
+    if (!defaultService) {
+      metadata.writeByte(service.length());
+    }
+    metadata.writeByte(method.length());
+    if (hasTrace) {
+      metadata.writeShort(traceLength);
+    }
+    metadata.writeCharSequence(service, StandardCharsets.US_ASCII);
+    metadata.writeCharSequence(method, StandardCharsets.US_ASCII);
+    metadata.writeZero(traceLength);
+    metadata.writeZero(Long.BYTES);
+    return metadata;
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2024 - present Maksym Ostroverkhov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jauntsdn.rsocket;
+
+import static com.jauntsdn.rsocket.ResponseCacheTest.idempotent;
+import static com.jauntsdn.rsocket.ResponseCacheTest.utf8;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest {
+
+  @Test
+  void keyIdempotentCalls() {
+    SingleFlight singleFlight = new SingleFlight();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 8));
+    ByteBuf otherTrace = idempotent(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 0));
+    SingleFlight.Key key = singleFlight.key(metadata, utf8("request"));
+    Assertions.assertThat(key).isNotNull();
+    Assertions.assertThat(singleFlight.key(otherTrace, utf8("request"))).isEqualTo(key);
+    Assertions.assertThat(singleFlight.key(metadata, utf8("other request"))).isNotEqualTo(key);
+
+    ByteBuf otherMethod = idempotent(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "put", 0));
+    Assertions.assertThat(singleFlight.key(otherMethod, utf8("request"))).isNotEqualTo(key);
+
+    ByteBuf nonIdempotent = RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 0);
+    Assertions.assertThat(singleFlight.key(nonIdempotent, utf8("request"))).isNull();
+  }
+
+  @Test
+  void keyCallerIdentity() {
+    SingleFlight singleFlight = new SingleFlight();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 0));
+    ByteBuf otherHeaders =
+        idempotent(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 0));
+    otherHeaders.setByte(otherHeaders.writerIndex() - 1, 1);
+    Assertions.assertThat(singleFlight.key(otherHeaders, utf8("request")))
+        .isNotEqualTo(singleFlight.key(metadata, utf8("request")));
+
+    SingleFlight sameCaller = new SingleFlight(m -> "caller");
+    Assertions.assertThat(sameCaller.key(otherHeaders, utf8("request")))
+        .isEqualTo(sameCaller.key(metadata, utf8("request")));
+    Assertions.assertThat(new SingleFlight(m -> null).key(metadata, utf8("request"))).isNull();
+  }
+
+  @Test
+  void keyCallIds() {
+    SingleFlight singleFlight = new SingleFlight();
+    Rpc.CallIds connection =
+        Rpc.CallIds.newBuilder()
+            .add(42, "com.jauntsdn.Service", "get")
+            .add(43, "com.jauntsdn.Service", "put")
+            .build();
+    Rpc.CallIds otherConnection =
+        Rpc.CallIds.newBuilder()
+            .add(42, "com.jauntsdn.Service", "put")
+            .add(7, "com.jauntsdn.Service", "get")
+            .build();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("com.jauntsdn.Service", "get", 0));
+    SingleFlight.Key key = singleFlight.key(metadata, utf8("request"), connection);
+
+    SingleFlight.Key callIdKey = singleFlight.key(callIdMetadata(42), utf8("request"), connection);
+    Assertions.assertThat(callIdKey).isNotNull().isEqualTo(key);
+    Assertions.assertThat(singleFlight.key(callIdMetadata(43), utf8("request"), connection))
+        .isNotEqualTo(key);
+    /*same call ID of other connection is other method*/
+    Assertions.assertThat(singleFlight.key(callIdMetadata(42), utf8("request"), otherConnection))
+        .isNotEqualTo(key);
+    Assertions.assertThat(singleFlight.key(callIdMetadata(7), utf8("request"), otherConnection))
+        .isEqualTo(key);
+    /*not resolved call IDs are not coalesced*/
+    Assertions.assertThat(singleFlight.key(callIdMetadata(44), utf8("request"), connection))
+        .isNull();
+    Assertions.assertThat(singleFlight.key(callIdMetadata(42), utf8("request"))).isNull();
+  }
+
+  static ByteBuf callIdMetadata(int callId) {
+    ByteBuf metadata = Rpc.RpcMetadata.encodeCallId(Unpooled.buffer(), callId, true, false, 0);
+    /*same headers as RpcMetadataTest.rpcMetadata*/
+    return metadata.writeZero(Long.BYTES);
+  }
+
+  @Test
+  void shareResponse() {
+    SingleFlight singleFlight = new SingleFlight();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("Service", "get", 0));
+    List<Message> responses = new ArrayList<>();
+    TestListener leader = new TestListener(responses);
+    TestListener follower = new TestListener(responses);
+    TestListener leaving = new TestListener(responses);
+
+    SingleFlight.Flight flight = singleFlight.join(singleFlight.key(metadata, utf8("r")), leader);
+    Assertions.assertThat(flight.isLeader(leader)).isTrue();
+    Assertions.assertThat(singleFlight.join(singleFlight.key(metadata, utf8("r")), follower))
+        .isSameAs(flight);
+    Assertions.assertThat(singleFlight.join(singleFlight.key(metadata, utf8("r")), leaving))
+        .isSameAs(flight);
+    Assertions.assertThat(flight.isLeader(follower)).isFalse();
+    SingleFlight.Flight other = singleFlight.join(singleFlight.key(metadata, utf8("o")), follower);
+    Assertions.assertThat(other).isNotSameAs(flight);
+    Assertions.assertThat(singleFlight.size()).isEqualTo(2);
+
+    flight.leave(leaving);
+    Message response = Message.Factory.unpooled().create(utf8("response"));
+    flight.complete(response, Message.Factory.unpooled());
+    Assertions.assertThat(response.refCnt()).isZero();
+    /*each listener receives own message, with own data indexes*/
+    Assertions.assertThat(responses).hasSize(2);
+    Message first = responses.get(0);
+    Message second = responses.get(1);
+    Assertions.assertThat(first).isNotSameAs(second);
+    first.data().skipBytes(first.data().readableBytes());
+    Assertions.assertThat(second.data().toString(StandardCharsets.UTF_8)).isEqualTo("response");
+    first.release();
+    Assertions.assertThat(second.data().refCnt()).isEqualTo(1);
+    second.release();
+    Assertions.assertThat(leaving.responses).isZero();
+    Assertions.assertThat(singleFlight.size()).isEqualTo(1);
+
+    /*completed flight is not joined*/
+    SingleFlight.Flight next = singleFlight.join(singleFlight.key(metadata, utf8("r")), leaving);
+    Assertions.assertThat(next).isNotSameAs(flight);
+    Assertions.assertThat(next.isLeader(leaving)).isTrue();
+
+    RuntimeException error = new RuntimeException("error");
+    other.completeError(error);
+    Assertions.assertThat(follower.error).isSameAs(error);
+  }
+
+  @Test
+  void cancelAbandoned() {
+    SingleFlight singleFlight = new SingleFlight();
+    ByteBuf metadata = idempotent(RpcMetadataTest.rpcMetadata("Service", "get", 0));
+    List<Message> responses = new ArrayList<>();
+    TestListener leader = new TestListener(responses);
+    TestListener follower = new TestListener(responses);
+    AtomicInteger cancels = new AtomicInteger();
+
+    SingleFlight.Flight flight = singleFlight.join(singleFlight.key(metadata, utf8("r")), leader);
+    singleFlight.join(singleFlight.key(metadata, utf8("r")), follower);
+    flight.onCancel(cancels::incrementAndGet);
+    flight.leave(leader);
+    Assertions.assertThat(cancels.get()).isZero();
+    flight.leave(follower);
+    Assertions.assertThat(cancels.get()).isEqualTo(1);
+    Assertions.assertThat(singleFlight.size()).isZero();
+
+    /*late response of abandoned call is released*/
+    Message response = Message.Factory.unpooled().create(utf8("response"));
+    flight.complete(response, Message.Factory.unpooled());
+    Assertions.assertThat(response.refCnt()).isZero();
+    Assertions.assertThat(responses).isEmpty();
+
+    flight.onCancel(cancels::incrementAndGet);
+    Assertions.assertThat(cancels.get()).isEqualTo(2);
+  }
+
+  static final class TestListener implements SingleFlight.Listener {
+    final List<Message> received;
+    int responses;
+    Throwable error;
+
+    TestListener(List<Message> received) {
+      this.received = received;
+    }
+
+    @Override
+    public void onResponse(Message response) {
+      responses++;
+      received.add(response);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      error = t;
+    }
+  }
+}